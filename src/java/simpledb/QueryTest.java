@@ -44,7 +44,7 @@ public class QueryTest {
         try {
 			iterator.open();
 		} catch (DbException | TransactionAbortedException e1) {
-			// TODO Զɵ catch 
+			// TODO 自动生成的 catch 块
 			e1.printStackTrace();
 		}
 
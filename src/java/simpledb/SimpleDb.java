@@ -2,6 +2,7 @@ package simpledb;
 import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.common.Utility;
+import simpledb.index.BTreeFile;
 import simpledb.storage.*;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
@@ -15,7 +16,7 @@ public class SimpleDb {
         switch (args[0]) {
             case "convert":
                 try {
-                    if (args.length < 3 || args.length > 5) {
+                    if (args.length < 3 || args.length > 6) {
                         System.err.println("Unexpected number of arguments to convert ");
                         return;
                     }
@@ -24,6 +25,7 @@ public class SimpleDb {
                     int numOfAttributes = Integer.parseInt(args[2]);
                     Type[] ts = new Type[numOfAttributes];
                     char fieldSeparator = ',';
+                    HeapFile.Format format = HeapFile.Format.FIXED;
 
                     if (args.length == 3)
                         for (int i = 0; i < numOfAttributes; i++)
@@ -46,12 +48,20 @@ public class SimpleDb {
                                 return;
                             }
                         }
-                        if (args.length == 5)
+                        if (args.length >= 5)
                             fieldSeparator = args[4].charAt(0);
+                        if (args.length == 6)
+                            format = HeapFile.Format.valueOf(args[5].toUpperCase());
                     }
 
-                    HeapFileEncoder.convert(sourceTxtFile, targetDatFile,
-                            BufferPool.getPageSize(), numOfAttributes, ts, fieldSeparator);
+                    if (format == HeapFile.Format.SLOTTED) {
+                        HeapFileEncoder.convert(sourceTxtFile, targetDatFile,
+                                BufferPool.getPageSize(), numOfAttributes, ts, fieldSeparator, format);
+                    } else {
+                        BulkLoader.Result result = new BulkLoader(new TupleDesc(ts), fieldSeparator,
+                                format, BufferPool.getPageSize()).load(sourceTxtFile, targetDatFile);
+                        System.out.println(result);
+                    }
 
                 } catch (IOException e) {
                     throw new RuntimeException(e);
@@ -75,6 +85,36 @@ public class SimpleDb {
                     it.close();
                 }
                 break;
+            case "verify": {
+                // verify <file> [btree] [compressed]: check every page of a
+                // table file against its checksums
+                File dataFile = new File(args[1]);
+                boolean btree = false;
+                boolean compressed = false;
+                for (int i = 2; i < args.length; i++) {
+                    if (args[i].equalsIgnoreCase("btree"))
+                        btree = true;
+                    else if (args[i].equalsIgnoreCase("compressed"))
+                        compressed = true;
+                    else {
+                        System.err.println("Unknown option " + args[i]);
+                        System.exit(1);
+                    }
+                }
+                // the pages are not decoded, so any TupleDesc will do
+                TupleDesc td = Utility.getTupleDesc(1);
+                try {
+                    PageChecksums.Report report = btree
+                            ? new BTreeFile(dataFile, 0, td, compressed).verifyChecksums()
+                            : new HeapFile(dataFile, td, HeapFile.Format.FIXED, false, compressed).verifyChecksums();
+                    System.out.println(dataFile + ": " + report);
+                    if (!report.corrupt.isEmpty())
+                        System.exit(2);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                break;
+            }
             case "parser":
                 // Strip the first argument and call the parser
                 String[] newargs = new String[args.length - 1];
@@ -25,7 +25,7 @@ import java.util.concurrent.ConcurrentHashMap;
 public class Catalog {
 	
 	/**
-	 * Ļݽṹ
+	 * 定义表的基本数据结构
 	 */
 	class Table {
 		private DbFile file;
@@ -53,7 +53,8 @@ public class Catalog {
 
     /**
      * Add a new table to the catalog.
-     * This table's contents are stored in the specified DbFile.
+     * This table's contents are stored in the specified DbFile. A table of
+     * the same id is replaced, and its file closed.
      * @param file the contents of the table to add;  file.getId() is the identfier of
      *    this file/tupledesc param for the calls getTupleDesc and getFile
      * @param name the name of the table -- may be an empty string.  May not be null.  If a name
@@ -62,8 +63,11 @@ public class Catalog {
      */
     public void addTable(DbFile file, String name, String pkeyField) {
     	Table table = new Table(file, name, pkeyField);
-        tableIdMap.put(file.getId(), table);
+        Table replaced = tableIdMap.put(file.getId(), table);
         tableNameMap.put(name, table);
+        if (replaced != null && replaced.file != file) {
+        	close(replaced.file);
+        }
     }
 
     public void addTable(DbFile file, String name) {
@@ -141,14 +145,32 @@ public class Catalog {
 		}
     }
     
-    /** Delete all tables from the catalog */
+    /** Delete all tables from the catalog, closing their files */
     public void clear() {
+        List<Table> tables = new ArrayList<Table>(tableIdMap.values());
         tableIdMap.clear();
         tableNameMap.clear();
+        for (Table table : tables) {
+        	close(table.file);
+        }
+    }
+
+    private static void close(DbFile file) {
+    	try {
+    		file.close();
+    	} catch (IOException e) {
+    		e.printStackTrace();
+    	}
     }
     
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * <p>
+     * Each line describes a table as <code>name (field type [pk], ...) [format]</code>,
+     * where the optional format is <code>fixed</code> (the default),
+     * <code>slotted</code> or <code>pax</code>, see {@link HeapFile.Format},
+     * and may be followed by <code>compressed</code> for a table stored in a
+     * {@link simpledb.storage.CompressedPageStore}.
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -189,7 +211,22 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                HeapFile.Format format = HeapFile.Format.FIXED;
+                boolean compressed = false;
+                for (String option : line.substring(line.indexOf(")") + 1).trim().split("\\s+")) {
+                    if (option.equalsIgnoreCase("slotted"))
+                        format = HeapFile.Format.SLOTTED;
+                    else if (option.equalsIgnoreCase("pax"))
+                        format = HeapFile.Format.PAX;
+                    else if (option.equalsIgnoreCase("compressed"))
+                        compressed = true;
+                    else if (!option.isEmpty() && !option.equalsIgnoreCase("fixed")) {
+                        System.out.println("Unknown table format " + option);
+                        System.exit(0);
+                    }
+                }
+                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t, format,
+                        Boolean.getBoolean(HeapFile.MEMORY_MAPPED_PROPERTY), compressed);
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
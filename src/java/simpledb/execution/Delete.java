@@ -85,7 +85,7 @@ public class Delete extends Operator {
     			Database.getBufferPool().deleteTuple(tid, tuple);
     			deleteCount += 1;
     		} catch (DbException | IOException e) {
-    			// TODO ɾʧܵorֱӱ
+    			// TODO 忽略删除失败的or直接报错？
     			continue;
     		}
     	}
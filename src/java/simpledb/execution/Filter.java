@@ -27,11 +27,11 @@ public class Filter extends Operator {
      */
     
     /**
-     * predicate: 
-     * child: ĵڻȡtuple
-     * td: 
-     * childTupsList: ˺tupleList
-     * iterator: tupleList
+     * predicate: 过滤条件
+     * child: 传入的迭代器，用于获取tuple
+     * td: 表描述
+     * childTupsList: 过滤后的tupleList
+     * iterator: tupleList迭代器
      */
     private Predicate predicate;
     private OpIterator child;
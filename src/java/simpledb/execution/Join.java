@@ -29,11 +29,11 @@ public class Join extends Operator {
      *            Iterator for the right(inner) relation to join
      */
     /**
-     * predicate: 
-     * child1: ĵڻȡtuple
-     * child2: ĵڻȡtuple
-     * td: 
-     * tuple1: ڻtuple1
+     * predicate: 过滤条件
+     * child1: 传入的迭代器，用于获取tuple
+     * child2: 传入的迭代器，用于获取tuple
+     * td: 表属性描述
+     * tuple1: 用于缓存tuple1
      */
     private JoinPredicate predicate;
     private OpIterator child1;
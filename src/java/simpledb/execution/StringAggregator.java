@@ -46,7 +46,7 @@ public class StringAggregator implements Aggregator {
         this.op = what;
         this.aggregateMap = new ConcurrentHashMap<Field, Integer>();
         if (!this.op.equals(Op.COUNT)) {
-        	throw new IllegalArgumentException("ۺϲ֧");
+        	throw new IllegalArgumentException("聚合操作不支持");
         }
     }
 
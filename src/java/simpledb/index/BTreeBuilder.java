@@ -0,0 +1,622 @@
+package simpledb.index;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFile;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Builds a new B+ tree from the bottom up, instead of inserting its tuples
+ * one at a time and splitting pages as they fill.
+ * <p>
+ * Tuples are added in any order and sorted on the key in runs of up to
+ * {@link #RUN_SIZE_PROPERTY} bytes; when the runs held in memory grow past
+ * that size they are merged into a temporary file. {@link #finish} merges
+ * the runs and, knowing the number of tuples, lays out the whole tree
+ * before writing it: how many pages each level takes, and so the number of
+ * every page, its parent and its siblings. The leaves are then filled in
+ * key order and written in page order in large writes, and the internal
+ * pages, a small fraction of the tree which is kept in memory until the
+ * leaves are done, are written after them, level by level up to the root.
+ * Every page is written once, and the file is written from start to end.
+ * <p>
+ * The pages of a level are filled to the fill factor, by default
+ * {@link #FILL_FACTOR_PROPERTY} or full, which leaves room for later
+ * inserts. The tuples of a level are spread evenly over its pages, so that
+ * every page but the root is at least half full, as the B+ tree expects.
+ * <p>
+ * In an index keyed on a string, the keys copied up from the leaves are
+ * shortened as {@link BTreeFile} shortens them when it splits a leaf, and
+ * the internal pages store them truncated (see
+ * {@link BTreeInternalPage#truncatesKeys}). The tree is laid out before the
+ * keys are known, though, so its internal pages hold as many entries as
+ * they would with keys of the longest kind.
+ * <p>
+ * {@link #build} builds an index on a table in use: it scans the table
+ * through the BufferPool in a transaction, whose locks keep the table from
+ * changing during the scan.
+ */
+public class BTreeBuilder {
+
+    /** Name of the system property that sets the default fill factor, between 0.5 and 1. */
+    public static final String FILL_FACTOR_PROPERTY = "simpledb.index.BTreeBuilder.fillFactor";
+
+    /** Name of the system property that sets the size of the sorted runs, in bytes. */
+    public static final String RUN_SIZE_PROPERTY = "simpledb.index.BTreeBuilder.runSize";
+
+    private static final int DEFAULT_RUN_SIZE = 64 << 20;
+
+    /** number of leaf pages written at a time */
+    private static final int WRITE_PAGES = 256;
+
+    private final BTreeFile bf;
+    private final TupleDesc td;
+    private final double fillFactor;
+    private final int runSize;
+
+    private final int recordSize;
+    private final Type keyType;
+    private final int keyOffset;
+    private final int pageSize;
+
+    /** records added one at a time, not sorted yet */
+    private byte[] pending;
+    private int pendingCount;
+    /** the sorted runs, in memory or in temporary files */
+    private final List<Run> runs = new ArrayList<>();
+    private long memoryBytes;
+    private long count;
+
+    /**
+     * Create a builder for a B+ tree with the default fill factor.
+     *
+     * @param bf a new, empty BTreeFile, already added to the catalog
+     */
+    public BTreeBuilder(BTreeFile bf) {
+        this(bf, Double.parseDouble(System.getProperty(FILL_FACTOR_PROPERTY, "1")));
+    }
+
+    /**
+     * @param bf a new, empty BTreeFile, already added to the catalog
+     * @param fillFactor the share of each page to fill, between 0.5 and 1
+     */
+    public BTreeBuilder(BTreeFile bf, double fillFactor) {
+        if (!(fillFactor >= 0.5 && fillFactor <= 1)) {
+            throw new IllegalArgumentException("the fill factor must be between 0.5 and 1: " + fillFactor);
+        }
+        this.bf = bf;
+        this.td = bf.getTupleDesc();
+        this.fillFactor = fillFactor;
+        this.runSize = Math.max(1, Integer.getInteger(RUN_SIZE_PROPERTY, DEFAULT_RUN_SIZE));
+        this.recordSize = td.getSize();
+        this.keyType = td.getFieldType(bf.keyField());
+        this.keyOffset = td.getFieldOffset(bf.keyField());
+        this.pageSize = BufferPool.getPageSize();
+    }
+
+    /**
+     * Build the B+ tree on the tuples of a table.
+     *
+     * @param tid the transaction the table is read in
+     * @param source the table, with the TupleDesc of the B+ tree
+     * @return the number of tuples in the B+ tree
+     */
+    public long build(TransactionId tid, DbFile source)
+            throws DbException, TransactionAbortedException, IOException {
+        DbFileIterator it = source.iterator(tid);
+        it.open();
+        try {
+            while (it.hasNext()) {
+                add(it.next());
+            }
+        } finally {
+            it.close();
+        }
+        return finish();
+    }
+
+    /** Add a tuple to the B+ tree. */
+    public void add(Tuple t) throws IOException {
+        int maxRecords = Math.max(1, runSize / recordSize);
+        if (pending == null) {
+            pending = new byte[Math.min(maxRecords, Math.max(1, (1 << 20) / recordSize)) * recordSize];
+        } else if ((pendingCount + 1) * recordSize > pending.length) {
+            if (pendingCount == maxRecords) {
+                addRun(sort(pending, pendingCount), pendingCount);
+                pendingCount = 0;
+            } else {
+                pending = Arrays.copyOf(pending, Math.min(maxRecords, 2 * pendingCount) * recordSize);
+            }
+        }
+        ByteBuffer buf = ByteBuffer.wrap(pending, pendingCount * recordSize, recordSize);
+        for (int i = 0; i < td.numFields(); i++) {
+            t.getField(i).serialize(buf);
+        }
+        pendingCount++;
+    }
+
+    /**
+     * Add tuples already sorted on the key, as an array of records in the
+     * on-disk format of the TupleDesc of the B+ tree, as {@link #sort}
+     * returns them. The array is kept until the tuples are written.
+     */
+    public void addRun(byte[] records, int numRecords) throws IOException {
+        runs.add(new Run(records, numRecords));
+        count += numRecords;
+        memoryBytes += (long) numRecords * recordSize;
+        if (memoryBytes > runSize) {
+            spill();
+        }
+    }
+
+    /**
+     * Sort records on the key. Safe to call from several threads.
+     *
+     * @param records records in the on-disk format of the TupleDesc of the
+     *        B+ tree
+     * @param numRecords the number of records at the start of the array
+     * @return a new array of the records in key order
+     */
+    public byte[] sort(byte[] records, int numRecords) {
+        int[] order = new int[numRecords];
+        if (keyType == Type.INT_TYPE) {
+            // sort the keys and the indexes together, as longs
+            long[] keys = new long[numRecords];
+            for (int i = 0; i < numRecords; i++) {
+                keys[i] = ((long) getInt(records, i * recordSize + keyOffset) << 32) | i;
+            }
+            Arrays.sort(keys);
+            for (int i = 0; i < numRecords; i++) {
+                order[i] = (int) keys[i];
+            }
+        } else {
+            Integer[] boxed = new Integer[numRecords];
+            for (int i = 0; i < numRecords; i++) {
+                boxed[i] = i;
+            }
+            Arrays.sort(boxed, (a, b) -> compare(records, a * recordSize, records, b * recordSize));
+            for (int i = 0; i < numRecords; i++) {
+                order[i] = boxed[i];
+            }
+        }
+        byte[] sorted = new byte[numRecords * recordSize];
+        for (int i = 0; i < numRecords; i++) {
+            System.arraycopy(records, order[i] * recordSize, sorted, i * recordSize, recordSize);
+        }
+        return sorted;
+    }
+
+    /**
+     * Write out the B+ tree holding all the tuples added, and remove the
+     * temporary files of the runs.
+     *
+     * @return the number of tuples in the B+ tree
+     */
+    public long finish() throws IOException {
+        if (pendingCount > 0) {
+            addRun(sort(pending, pendingCount), pendingCount);
+        }
+        pending = null;
+        pendingCount = 0;
+        try {
+            write(new Merge(runs));
+        } finally {
+            for (Run run : runs) {
+                run.delete();
+            }
+            runs.clear();
+            memoryBytes = 0;
+        }
+        return count;
+    }
+
+    private static int getInt(byte[] b, int offset) {
+        return (b[offset] << 24) | ((b[offset + 1] & 0xff) << 16)
+                | ((b[offset + 2] & 0xff) << 8) | (b[offset + 3] & 0xff);
+    }
+
+    private static void putInt(byte[] b, int offset, int v) {
+        b[offset] = (byte) (v >>> 24);
+        b[offset + 1] = (byte) (v >>> 16);
+        b[offset + 2] = (byte) (v >>> 8);
+        b[offset + 3] = (byte) v;
+    }
+
+    /**
+     * Compare the keys of two records, in the order of the key fields: by
+     * value for ints, and by character then length for strings.
+     */
+    private int compare(byte[] a, int aRecord, byte[] b, int bRecord) {
+        int ak = aRecord + keyOffset;
+        int bk = bRecord + keyOffset;
+        if (keyType == Type.INT_TYPE) {
+            return Integer.compare(getInt(a, ak), getInt(b, bk));
+        }
+        return Arrays.compareUnsigned(a, ak + 4, ak + 4 + getInt(a, ak), b, bk + 4, bk + 4 + getInt(b, bk));
+    }
+
+    /** Merge the runs held in memory into a run in a temporary file. */
+    private void spill() throws IOException {
+        List<Run> inMemory = new ArrayList<>();
+        for (Run run : runs) {
+            if (run.file == null) {
+                inMemory.add(run);
+            }
+        }
+        File file = File.createTempFile("btree", ".run");
+        file.deleteOnExit();
+        long numRecords = 0;
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16)) {
+            Merge merge = new Merge(inMemory);
+            while (merge.next()) {
+                out.write(merge.current.buf, merge.current.offset, recordSize);
+                numRecords++;
+            }
+        }
+        runs.removeAll(inMemory);
+        runs.add(new Run(file, numRecords));
+        memoryBytes = 0;
+    }
+
+    /** Records sorted on the key, in an array or a temporary file. */
+    private static class Run {
+        final byte[] records;
+        final File file;
+        final long numRecords;
+
+        Run(byte[] records, int numRecords) {
+            this.records = records;
+            this.file = null;
+            this.numRecords = numRecords;
+        }
+
+        Run(File file, long numRecords) {
+            this.records = null;
+            this.file = file;
+            this.numRecords = numRecords;
+        }
+
+        void delete() {
+            if (file != null) {
+                file.delete();
+            }
+        }
+    }
+
+    /** The next record of a run. */
+    private class Cursor {
+        private final Run run;
+        private final InputStream in;
+        private long next;
+        /** buf, offset: the current record */
+        byte[] buf;
+        int offset;
+
+        Cursor(Run run) throws IOException {
+            this.run = run;
+            if (run.file != null) {
+                in = new BufferedInputStream(new FileInputStream(run.file), 1 << 16);
+                buf = new byte[recordSize];
+            } else {
+                in = null;
+                buf = run.records;
+            }
+        }
+
+        /** @return false if there are no more records */
+        boolean advance() throws IOException {
+            if (next == run.numRecords) {
+                if (in != null) {
+                    in.close();
+                }
+                return false;
+            }
+            if (in != null) {
+                if (in.readNBytes(buf, 0, recordSize) != recordSize) {
+                    throw new IOException("run " + run.file + " is truncated");
+                }
+            } else {
+                offset = (int) next * recordSize;
+            }
+            next++;
+            return true;
+        }
+    }
+
+    /** Merges runs into one sequence of records in key order. */
+    private class Merge {
+        private final PriorityQueue<Cursor> queue;
+        final long numRecords;
+        /** the current record, after next returned true */
+        Cursor current;
+
+        Merge(List<Run> runs) throws IOException {
+            queue = new PriorityQueue<>(Math.max(1, runs.size()),
+                    (a, b) -> compare(a.buf, a.offset, b.buf, b.offset));
+            long n = 0;
+            for (Run run : runs) {
+                Cursor c = new Cursor(run);
+                if (c.advance()) {
+                    queue.add(c);
+                }
+                n += run.numRecords;
+            }
+            numRecords = n;
+        }
+
+        /** @return false if there are no more records */
+        boolean next() throws IOException {
+            if (current != null && current.advance()) {
+                queue.add(current);
+            }
+            current = queue.poll();
+            return current != null;
+        }
+    }
+
+    /**
+     * @return the number of pages to spread items over, at most capacity
+     *         per page and about the fill factor of it
+     */
+    private int numPages(long items, int capacity) {
+        if (items <= capacity) {
+            return 1;
+        }
+        long target = (long) Math.ceil(capacity * fillFactor);
+        long pages = Math.max((items + capacity - 1) / capacity, items / target);
+        if (pages > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("too many tuples for a B+ tree: " + items);
+        }
+        return (int) pages;
+    }
+
+    /**
+     * A level of internal pages, filled with a child at a time as the level
+     * below is written, and kept in memory.
+     */
+    private class Level {
+        private final Level parent;
+        private final int firstPage;
+        private final int firstChild;
+        private final int childCategory;
+        private final int numPages;
+        /** base, extra: each page has base children, and the first extra pages one more */
+        private final long base;
+        private final long extra;
+
+        private final int maxEntries;
+        private final int headerSize;
+        private final int keySize;
+        private final boolean truncated;
+
+        private final List<byte[]> pages = new ArrayList<>();
+        private byte[] page;
+        private int children;
+        /** with truncated keys, the end of the entries on the page being filled */
+        private int used;
+        private long wanted;
+        private int nextChild;
+
+        Level(Level parent, int firstPage, int firstChild, int childCategory, int numPages, long numChildren) {
+            this.parent = parent;
+            this.firstPage = firstPage;
+            this.firstChild = firstChild;
+            this.childCategory = childCategory;
+            this.numPages = numPages;
+            this.base = numChildren / numPages;
+            this.extra = numChildren % numPages;
+            this.keySize = keyType.getLen();
+            this.maxEntries = internalCapacity() - 1;
+            this.headerSize = (maxEntries + 1 + 7) / 8;
+            this.truncated = BTreeInternalPage.truncatesKeys(keyType);
+        }
+
+        /**
+         * Add the next child of the level.
+         *
+         * @param key an array holding the smallest key under the child
+         * @param from the offset of the key in the array
+         * @return the number of the page the child is added to
+         */
+        int addChild(byte[] key, int from) throws IOException {
+            if (page == null || children == wanted) {
+                finishPage();
+                int index = pages.size();
+                page = new byte[pageSize];
+                children = 0;
+                wanted = base + (index < extra ? 1 : 0);
+                // the smallest key under the page is that of its first child
+                putInt(page, 0, parent == null ? 0 : parent.addChild(key, from));
+                page[BTreePage.INDEX_SIZE] = (byte) childCategory;
+                used = BTreeInternalPage.TRUNCATED_HEADER_SIZE;
+            }
+            if (truncated) {
+                if (children == 0) {
+                    putInt(page, BTreeInternalPage.TRUNCATED_HEADER_SIZE - BTreePage.INDEX_SIZE, firstChild + nextChild);
+                } else {
+                    // the length of the key, its characters and the child
+                    int len = getInt(key, from);
+                    page[used] = (byte) len;
+                    System.arraycopy(key, from + 4, page, used + 1, len);
+                    putInt(page, used + 1 + len, firstChild + nextChild);
+                    used += 1 + len + BTreePage.INDEX_SIZE;
+                }
+                children++;
+                nextChild++;
+                return firstPage + pages.size();
+            }
+            int keys = BTreePage.INDEX_SIZE + 1 + headerSize;
+            if (children > 0) {
+                System.arraycopy(key, from, page, keys + (children - 1) * keySize, keySize);
+            }
+            int pointers = keys + maxEntries * keySize;
+            putInt(page, pointers + children * BTreePage.INDEX_SIZE, firstChild + nextChild);
+            children++;
+            nextChild++;
+            return firstPage + pages.size();
+        }
+
+        /** Set the header of the page being filled and keep it. */
+        void finishPage() {
+            if (page == null) {
+                return;
+            }
+            int header = BTreePage.INDEX_SIZE + 1;
+            if (truncated) {
+                // the number of entries
+                page[header] = (byte) ((children - 1) >>> 8);
+                page[header + 1] = (byte) (children - 1);
+            } else {
+                Arrays.fill(page, header, header + children / 8, (byte) 0xff);
+                if (children % 8 > 0) {
+                    page[header + children / 8] = (byte) ((1 << (children % 8)) - 1);
+                }
+            }
+            pages.add(page);
+            page = null;
+        }
+
+        void write() throws IOException {
+            finishPage();
+            if (pages.size() != numPages) {
+                throw new IllegalStateException("expected " + numPages + " pages, built " + pages.size());
+            }
+            byte[] buf = new byte[Math.min(numPages, WRITE_PAGES) * pageSize];
+            for (int i = 0; i < numPages; i += WRITE_PAGES) {
+                int n = Math.min(WRITE_PAGES, numPages - i);
+                for (int j = 0; j < n; j++) {
+                    System.arraycopy(pages.get(i + j), 0, buf, j * pageSize, pageSize);
+                }
+                bf.writePageData(firstPage + i, buf, n, false);
+            }
+        }
+    }
+
+    private int leafCapacity() {
+        // left sibling pointer, right sibling pointer, parent pointer
+        return (pageSize * 8 - 3 * BTreePage.INDEX_SIZE * 8) / (recordSize * 8 + 1);
+    }
+
+    /** @return the number of children an internal page holds */
+    private int internalCapacity() {
+        return BTreeInternalPage.getMaxEntries(keyType, pageSize) + 1;
+    }
+
+    /**
+     * @return the shortest prefix of the string key at from that is no less
+     *         than the string key last, in the format of a string field
+     */
+    private byte[] separatorKey(byte[] last, byte[] key, int from) {
+        int len = getInt(key, from);
+        int lastLen = getInt(last, 0);
+        int common = 0;
+        while (common < len && common < lastLen && key[from + 4 + common] == last[4 + common]) {
+            common++;
+        }
+        int n = Math.min(len, common + 1);
+        byte[] separator = new byte[4 + n];
+        putInt(separator, 0, n);
+        System.arraycopy(key, from + 4, separator, 4, n);
+        return separator;
+    }
+
+    /** Lay out the tree, then write the leaves, the internal pages and the root pointer. */
+    private void write(Merge merge) throws IOException {
+        long n = merge.numRecords;
+        int leafCapacity = leafCapacity();
+        int numLeaves = numPages(n, leafCapacity);
+
+        // the internal levels from the bottom up; the pages of each level
+        // follow those of the level below in the file
+        List<Level> levels = new ArrayList<>();
+        List<Integer> sizes = new ArrayList<>();
+        sizes.add(numLeaves);
+        while (sizes.get(sizes.size() - 1) > 1) {
+            sizes.add(numPages(sizes.get(sizes.size() - 1), internalCapacity()));
+        }
+        for (int l = 1; l < sizes.size(); l++) {
+            levels.add(null);
+        }
+        int[] firstPages = new int[sizes.size()];
+        firstPages[0] = 1;
+        for (int l = 1; l < sizes.size(); l++) {
+            firstPages[l] = firstPages[l - 1] + sizes.get(l - 1);
+        }
+        Level above = null;
+        for (int l = sizes.size() - 1; l >= 1; l--) {
+            above = new Level(above, firstPages[l], firstPages[l - 1],
+                    l == 1 ? BTreePageId.LEAF : BTreePageId.INTERNAL, sizes.get(l), sizes.get(l - 1));
+            levels.set(l - 1, above);
+        }
+        Level parents = levels.isEmpty() ? null : levels.get(0);
+
+        int headerSize = (leafCapacity + 7) / 8;
+        int records = 3 * BTreePage.INDEX_SIZE + headerSize;
+        long base = n / numLeaves;
+        long extra = n % numLeaves;
+        byte[] buf = new byte[Math.min(numLeaves, WRITE_PAGES) * pageSize];
+        int buffered = 0;
+        boolean truncated = BTreeInternalPage.truncatesKeys(keyType);
+        // the last key of the previous leaf
+        byte[] last = new byte[keyType.getLen()];
+        for (int leaf = 0; leaf < numLeaves; leaf++) {
+            int wanted = (int) (base + (leaf < extra ? 1 : 0));
+            int page = buffered * pageSize;
+            int pageNo = 1 + leaf;
+            putInt(buf, page + BTreePage.INDEX_SIZE, leaf > 0 ? pageNo - 1 : 0);
+            putInt(buf, page + 2 * BTreePage.INDEX_SIZE, leaf < numLeaves - 1 ? pageNo + 1 : 0);
+            for (int i = 0; i < wanted; i++) {
+                merge.next();
+                int key = merge.current.offset + keyOffset;
+                if (i == 0 && parents != null) {
+                    int parentPage = truncated && leaf > 0
+                            ? parents.addChild(separatorKey(last, merge.current.buf, key), 0)
+                            : parents.addChild(merge.current.buf, key);
+                    putInt(buf, page, parentPage);
+                }
+                if (truncated && i == wanted - 1) {
+                    System.arraycopy(merge.current.buf, key, last, 0, last.length);
+                }
+                System.arraycopy(merge.current.buf, merge.current.offset, buf,
+                        page + records + i * recordSize, recordSize);
+            }
+            Arrays.fill(buf, page + 3 * BTreePage.INDEX_SIZE, page + 3 * BTreePage.INDEX_SIZE + wanted / 8, (byte) 0xff);
+            if (wanted % 8 > 0) {
+                buf[page + 3 * BTreePage.INDEX_SIZE + wanted / 8] = (byte) ((1 << (wanted % 8)) - 1);
+            }
+            buffered++;
+            if (buffered * pageSize == buf.length || leaf == numLeaves - 1) {
+                bf.writePageData(pageNo - buffered + 1, buf, buffered, true);
+                Arrays.fill(buf, (byte) 0);
+                buffered = 0;
+            }
+        }
+        for (Level level : levels) {
+            level.write();
+        }
+
+        int root = firstPages[sizes.size() - 1];
+        int rootCategory = sizes.size() > 1 ? BTreePageId.INTERNAL : BTreePageId.LEAF;
+        bf.writePage(new BTreeRootPtrPage(BTreeRootPtrPage.getId(bf.getId()),
+                BTreeFileEncoder.convertToRootPtrPage(root, rootCategory, 0)));
+    }
+}
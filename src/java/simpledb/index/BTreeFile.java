@@ -1,6 +1,7 @@
 package simpledb.index;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.security.spec.DSAGenParameterSpec;
 import java.util.*;
 
@@ -9,6 +10,7 @@ import javax.print.attribute.standard.PageRanges;
 
 import simpledb.common.Database;
 import simpledb.common.Permissions;
+import simpledb.common.Type;
 import simpledb.execution.IndexPredicate;
 import simpledb.execution.Predicate.Op;
 import simpledb.common.DbException;
@@ -23,6 +25,13 @@ import simpledb.transaction.TransactionId;
  * a set of internal pages, and a set of leaf pages, which contain a collection of tuples
  * in sorted order. BTreeFile works closely with BTreeLeafPage, BTreeInternalPage,
  * and BTreeRootPtrPage. The format of these pages is described in their constructors.
+ * <p>
+ * A B+ tree can be stored compressed, see {@link CompressedPageStore}: its
+ * leaf pages are then deflated on disk, and the other pages, which are few
+ * and read often, are stored as they are.
+ * <p>
+ * While {@link PageChecksums} are turned on, every page written is
+ * checksummed, and every page read is verified against its checksum.
  * 
  * @see BTreeLeafPage#BTreeLeafPage
  * @see BTreeInternalPage#BTreeInternalPage
@@ -32,10 +41,19 @@ import simpledb.transaction.TransactionId;
  */
 public class BTreeFile implements DbFile {
 
+	/**
+	 * System property: how full {@link #insertTuples(TransactionId, List)} leaves a
+	 * leaf page on the right edge of the tree when it splits it, between 0.5 and 1.
+	 */
+	public static final String APPEND_FILL_FACTOR_PROPERTY = "simpledb.index.BTreeFile.appendFillFactor";
+
 	private final File f;
 	private final TupleDesc td;
 	private final int tableid ;
 	private final int keyField;
+	private final DbFileChannel channel;
+	private final CompressedPageStore store;
+	private final PageChecksums checksums;
 
 	/**
 	 * Constructs a B+ tree file backed by the specified file.
@@ -46,10 +64,26 @@ public class BTreeFile implements DbFile {
 	 * @param td - the tuple descriptor of tuples in the file
 	 */
 	public BTreeFile(File f, int key, TupleDesc td) {
+		this(f, key, td, false);
+	}
+
+	/**
+	 * Constructs a B+ tree file backed by the specified file.
+	 * 
+	 * @param f - the file that stores the on-disk backing store for this B+ tree
+	 *            file.
+	 * @param key - the field which index is keyed on
+	 * @param td - the tuple descriptor of tuples in the file
+	 * @param compressed - true if the file is a {@link CompressedPageStore}
+	 */
+	public BTreeFile(File f, int key, TupleDesc td, boolean compressed) {
 		this.f = f;
 		this.tableid = f.getAbsoluteFile().hashCode();
 		this.keyField = key;
 		this.td = td;
+		this.channel = new DbFileChannel(f);
+		this.store = compressed ? new CompressedPageStore(f) : null;
+		this.checksums = PageChecksums.forFile(f);
 	}
 
 	/**
@@ -91,49 +125,30 @@ public class BTreeFile implements DbFile {
 	public Page readPage(PageId pid) {
 		BTreePageId id = (BTreePageId) pid;
 
-        try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(f))) {
-            if (id.pgcateg() == BTreePageId.ROOT_PTR) {
-                byte[] pageBuf = new byte[BTreeRootPtrPage.getPageSize()];
-                int retval = bis.read(pageBuf, 0, BTreeRootPtrPage.getPageSize());
-                if (retval == -1) {
-                    throw new IllegalArgumentException("Read past end of table");
-                }
-                if (retval < BTreeRootPtrPage.getPageSize()) {
-                    throw new IllegalArgumentException("Unable to read "
-                            + BTreeRootPtrPage.getPageSize() + " bytes from BTreeFile");
-                }
-                Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
-                return new BTreeRootPtrPage(id, pageBuf);
-            } else {
-                byte[] pageBuf = new byte[BufferPool.getPageSize()];
-                if (bis.skip(BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize()) !=
-                        BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize()) {
-                    throw new IllegalArgumentException(
-                            "Unable to seek to correct place in BTreeFile");
-                }
-                int retval = bis.read(pageBuf, 0, BufferPool.getPageSize());
-                if (retval == -1) {
-                    throw new IllegalArgumentException("Read past end of table");
-                }
-                if (retval < BufferPool.getPageSize()) {
-                    throw new IllegalArgumentException("Unable to read "
-                            + BufferPool.getPageSize() + " bytes from BTreeFile");
-                }
-                Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
-                if (id.pgcateg() == BTreePageId.INTERNAL) {
-                    return new BTreeInternalPage(id, pageBuf, keyField);
-                } else if (id.pgcateg() == BTreePageId.LEAF) {
-                    return new BTreeLeafPage(id, pageBuf, keyField);
-                } else { // id.pgcateg() == BTreePageId.HEADER
-                    return new BTreeHeaderPage(id, pageBuf);
-                }
-            }
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-        // Close the file on success or error
-        // Ignore failures closing the file
-    }
+		try {
+			if (id.pgcateg() == BTreePageId.ROOT_PTR) {
+				byte[] pageBuf = new byte[BTreeRootPtrPage.getPageSize()];
+				readPageData(0, pageBuf);
+				Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
+				return new BTreeRootPtrPage(id, pageBuf);
+			} else {
+				byte[] pageBuf = new byte[BufferPool.getPageSize()];
+				readPageData(id.getPageNumber(), pageBuf);
+				Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
+				if (id.pgcateg() == BTreePageId.INTERNAL) {
+					return new BTreeInternalPage(id, pageBuf, keyField);
+				} else if (id.pgcateg() == BTreePageId.LEAF) {
+					return new BTreeLeafPage(id, pageBuf, keyField);
+				} else { // id.pgcateg() == BTreePageId.HEADER
+					return new BTreeHeaderPage(id, pageBuf);
+				}
+			}
+		} catch (EOFException e) {
+			throw new IllegalArgumentException("Read past end of table", e);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
 
 	/**
 	 * Write a page to disk.  This should not be called directly but should 
@@ -145,16 +160,149 @@ public class BTreeFile implements DbFile {
 		BTreePageId id = (BTreePageId) page.getId();
 		
 		byte[] data = page.getPageData();
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
-		if(id.pgcateg() == BTreePageId.ROOT_PTR) {
-			rf.write(data);
-			rf.close();
+		writePageData(id.getPageNumber(), data, id.pgcateg() == BTreePageId.LEAF);
+	}
+
+	/**
+	 * Returns true if the pages of this BTreeFile are stored compressed.
+	 */
+	public boolean isCompressed() {
+		return store != null;
+	}
+
+	/**
+	 * Returns the size of this BTreeFile on disk, compared to its size
+	 * uncompressed, and the pages read and written since it was opened.
+	 *
+	 * @throws UnsupportedOperationException if the file is not compressed
+	 */
+	public CompressedPageStore.Stats getCompressionStats() throws IOException {
+		if (store == null) {
+			throw new UnsupportedOperationException(f + " is not compressed");
 		}
-		else {
-			rf.seek(BTreeRootPtrPage.getPageSize() + (long) (page.getId().getPageNumber() - 1) * BufferPool.getPageSize());
-			rf.write(data);
-			rf.close();
+		return store.getStats(BufferPool.getPageSize());
+	}
+
+	/**
+	 * Read the data of a page, page 0 being the root pointer page.
+	 */
+	private void readPageData(int pageNumber, byte[] pageBuf) throws IOException {
+		readRawPageData(pageNumber, pageBuf);
+		if (checksums != null) {
+			checksums.verify(pageNumber, ByteBuffer.wrap(pageBuf));
+		}
+	}
+
+	private void readRawPageData(int pageNumber, byte[] pageBuf) throws IOException {
+		if (store != null) {
+			store.read(pageNumber, pageBuf);
+		} else {
+			channel.read(pageBuf, pageNumber == 0 ? 0 : pageOffset(pageNumber));
+		}
+	}
+
+	/**
+	 * Check every page of this BTreeFile against its checksum, as read
+	 * from disk, whether or not checksums are turned on for it.
+	 */
+	public PageChecksums.Report verifyChecksums() throws IOException {
+		PageChecksums.Report report = new PageChecksums.Report();
+		if ((store != null ? store.numPages() : channel.size()) == 0) {
+			return report;
+		}
+		PageChecksums checks = checksums != null ? checksums : new PageChecksums(f);
+		try {
+			// the root pointer page, then the others
+			int numPages = numPages();
+			for (int i = 0; i <= numPages; i++) {
+				byte[] pageBuf = new byte[i == 0 ? BTreeRootPtrPage.getPageSize() : BufferPool.getPageSize()];
+				readRawPageData(i, pageBuf);
+				report.add(i, checks.check(i, ByteBuffer.wrap(pageBuf)));
+			}
+		} finally {
+			if (checks != checksums) {
+				checks.close();
+			}
 		}
+		return report;
+	}
+
+	/**
+	 * Close the data file and the file of its checksums.
+	 */
+	@Override
+	public void close() throws IOException {
+		channel.close();
+		if (store != null) {
+			store.close();
+		}
+		if (checksums != null) {
+			checksums.close();
+		}
+	}
+
+	/**
+	 * Write the data of a page, page 0 being the root pointer page. Only
+	 * leaf pages are compressed in a compressed file.
+	 */
+	private void writePageData(int pageNumber, byte[] data, boolean leaf) throws IOException {
+		if (checksums != null) {
+			checksums.record(pageNumber, data, 0, data.length);
+		}
+		if (store != null) {
+			store.write(pageNumber, data, leaf);
+		} else {
+			channel.write(data, pageNumber == 0 ? 0 : pageOffset(pageNumber));
+		}
+	}
+
+	/**
+	 * Write numPages consecutive pages from an array, the first being page
+	 * firstPageNumber, with a single write unless the file is compressed.
+	 * Used by {@link BTreeBuilder} to write out a new tree in page order.
+	 */
+	void writePageData(int firstPageNumber, byte[] data, int numPages, boolean leaf) throws IOException {
+		int pageSize = BufferPool.getPageSize();
+		if (checksums != null) {
+			for (int i = 0; i < numPages; i++) {
+				checksums.record(firstPageNumber + i, data, i * pageSize, pageSize);
+			}
+		}
+		if (store != null) {
+			for (int i = 0; i < numPages; i++) {
+				store.write(firstPageNumber + i, Arrays.copyOfRange(data, i * pageSize, (i + 1) * pageSize), leaf);
+			}
+		} else {
+			channel.write(data, 0, numPages * pageSize, pageOffset(firstPageNumber));
+		}
+	}
+
+	/**
+	 * Add a page at the end of the file. In a compressed file the new page
+	 * is compressed whatever it will hold, as an empty page takes next to
+	 * no room that way.
+	 * @return the number of the new page
+	 */
+	private int appendPageData(byte[] data) throws IOException {
+		int pageNumber;
+		if (store != null) {
+			pageNumber = store.append(data, true);
+		} else {
+			long offset = channel.append(data);
+			pageNumber = offset == 0 ? 0 : (int) ((offset - BTreeRootPtrPage.getPageSize()) / BufferPool.getPageSize()) + 1;
+		}
+		if (checksums != null) {
+			checksums.record(pageNumber, data, 0, data.length);
+		}
+		return pageNumber;
+	}
+
+	/**
+	 * Returns the offset of the specified page in the file; page 0 is the
+	 * root pointer page, which is smaller than the others.
+	 */
+	private static long pageOffset(int pageNumber) {
+		return BTreeRootPtrPage.getPageSize() + (long) (pageNumber - 1) * BufferPool.getPageSize();
 	}
 	
 	/**
@@ -162,7 +310,14 @@ public class BTreeFile implements DbFile {
 	 */
 	public int numPages() {
 		// we only ever write full pages
-		return (int) ((f.length() - BTreeRootPtrPage.getPageSize())/ BufferPool.getPageSize());
+		try {
+			if (store != null) {
+				return Math.max(0, store.numPages() - 1);
+			}
+			return (int) ((channel.size() - BTreeRootPtrPage.getPageSize())/ BufferPool.getPageSize());
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
 	}
 
 	/**
@@ -172,6 +327,25 @@ public class BTreeFile implements DbFile {
 		return keyField;
 	}
 
+	/**
+	 * Returns the depth of this B+ tree: the number of pages a search reads from the
+	 * root down to a leaf, not counting the root pointer page. A tree that is a single
+	 * leaf has depth 1.
+	 * 
+	 * @param tid - the transaction id
+	 */
+	public int getDepth(TransactionId tid) throws DbException, IOException, TransactionAbortedException {
+		Map<PageId, Page> dirtypages = new HashMap<>();
+		BTreePageId pid = getRootPtrPage(tid, dirtypages).getRootId();
+		int depth = 1;
+		while (pid != null && pid.pgcateg() == BTreePageId.INTERNAL) {
+			BTreeInternalPage page = (BTreeInternalPage) getPage(tid, dirtypages, pid, Permissions.READ_ONLY);
+			pid = page.iterator().next().getLeftChild();
+			depth++;
+		}
+		return depth;
+	}
+
 	/**
 	 * Recursive function which finds and locks the leaf page in the B+ tree corresponding to
 	 * the left-most page possibly containing the key field f. It locks all internal
@@ -267,11 +441,11 @@ public class BTreeFile implements DbFile {
 		
 		// System.out.printf("%s: I am leaf page %d, I am splited\n",Thread.currentThread().getName(), page.getId().getPageNumber());
 		
-		// Ȼһµleaf page(Ϊұߵpage)
+		// 首先获得一个新的leaf page(作为右边的page)
 		BTreeLeafPage toReturnPage = null;
 		BTreeLeafPage newLeafPage = (BTreeLeafPage) getEmptyPage(tid, dirtypages, BTreePageId.LEAF);
 		
-		// tupleƶµleaf page
+		// 将半数的tuple移动到新的leaf page中
 		Iterator<Tuple> reIterator = page.reverseIterator();
 		while (page.getNumTuples() > page.getNumEmptySlots() && reIterator.hasNext()) {
 			Tuple tuple = reIterator.next();
@@ -279,7 +453,7 @@ public class BTreeFile implements DbFile {
 			newLeafPage.insertTuple(tuple);
 		}
 		
-		// ָ
+		// 更新左右指针
 		if (page.getRightSiblingId() != null) {
 			BTreeLeafPage rightPage = (BTreeLeafPage) getPage(tid, dirtypages, page.getRightSiblingId(), Permissions.READ_WRITE);
 			rightPage.setLeftSiblingId(newLeafPage.getId());
@@ -288,18 +462,19 @@ public class BTreeFile implements DbFile {
 		newLeafPage.setLeftSiblingId(page.getId());
 		page.setRightSiblingId(newLeafPage.getId());
 		
-		// ¸ָ,ҽұpageĵһtuple뵽ڵ
-		Tuple tuple = reIterator.next();
-		BTreeInternalPage parentPage = getParentWithEmptySlots(tid, dirtypages, page.getParentId(), tuple.getField(keyField));
-		BTreeEntry newEntry = new BTreeEntry(tuple.getField(keyField), page.getId(), newLeafPage.getId());
+		// 更新父亲指针,并且将右边page的第一个tuple插入到父节点中
+		Field leftLast = reIterator.next().getField(keyField);
+		Field separator = separatorKey(leftLast, leftLast, newLeafPage.iterator().next().getField(keyField));
+		BTreeInternalPage parentPage = getParentWithEmptySlots(tid, dirtypages, page.getParentId(), separator);
+		BTreeEntry newEntry = new BTreeEntry(separator, page.getId(), newLeafPage.getId());
 		parentPage.insertEntry(newEntry);
 		updateParentPointers(tid, dirtypages, parentPage);
 		
-		// ޸/½ҳdirtypages
+		// 将修改/新建的页放入dirtypages中
 		dirtypages.put(page.getId(), page);
 		dirtypages.put(newLeafPage.getId(), newLeafPage);
 		
-		toReturnPage = field.compare(Op.GREATER_THAN, page.reverseIterator().next().getField(keyField)) ? newLeafPage : page;
+		toReturnPage = isRightOfSeparator(field, leftLast, separator) ? newLeafPage : page;
         return toReturnPage;
 	}
 	
@@ -340,20 +515,22 @@ public class BTreeFile implements DbFile {
 		
 		// System.out.printf("%s: I am leaf page %d, I am splited\n",Thread.currentThread().getName(), page.getId().getPageNumber());
 		
-		// Ȼһµinter page(Ϊұߵpage)
+		// 首先获得一个新的inter page(作为右边的page)
 		BTreeInternalPage toReturnPage = null;
 		BTreeInternalPage newInternalPage = (BTreeInternalPage) getEmptyPage(tid, dirtypages, BTreePageId.INTERNAL);
 		
-		// entryƶµinter page
+		// 将半数的entry移动到新的inter page中
 		Iterator<BTreeEntry> reIterator = page.reverseIterator();
-		while (page.getNumEntries() > page.getNumEmptySlots() && reIterator.hasNext()) {
+		// with truncated keys, split by bytes, and keep an entry on the new page besides the one pushed up
+		while ((page.getEntryBytes() > newInternalPage.getEntryBytes() || newInternalPage.getNumEntries() < 2)
+				&& reIterator.hasNext()) {
 			BTreeEntry entry = reIterator.next();
 			page.deleteKeyAndRightChild(entry);
 			newInternalPage.insertEntry(entry);
 		}
 		
-		// ¸ָ,ҽұpageĵһentry pushڵ
-		// עҪƳright pageĵһָleft pageһָ(ͼ, ƳĸҪfindLeafPage)
+		// 更新父亲指针,并且将右边page的第一个entry push到父节点中
+		// 注意这里要移除right page的第一个及左指针或者left page最后一个及右指针(画图考虑, 至于移除哪个要考虑findLeafPage)
 		// BTreeEntry entry = reIterator.next();
 		// page.deleteKeyAndRightChild(entry);
 		BTreeEntry entry = newInternalPage.iterator().next();
@@ -364,11 +541,12 @@ public class BTreeFile implements DbFile {
 		updateParentPointers(tid, dirtypages, parentPage); 
 		updateParentPointers(tid, dirtypages, newInternalPage);
 		
-		// ޸/½ҳdirtypages
+		// 将修改/新建的页放入dirtypages中
 		dirtypages.put(page.getId(), page);
 		dirtypages.put(newInternalPage.getId(), newInternalPage);
 		
-		toReturnPage = field.compare(Op.GREATER_THAN, page.reverseIterator().next().getKey()) ? newInternalPage : page;
+		// the last child of the page sits left of the key pushed up, so compare with that key
+		toReturnPage = field.compare(Op.GREATER_THAN, entry.getKey()) ? newInternalPage : page;
         return toReturnPage;
 	}
 	
@@ -541,6 +719,266 @@ public class BTreeFile implements DbFile {
 
         return new ArrayList<>(dirtypages.values());
 	}
+
+	/**
+	 * Insert a batch of tuples into this BTreeFile. The tuples are inserted in key
+	 * order, and while successive keys fall into the same leaf page the leaf is
+	 * reused rather than found again from the root; when a key leaves the leaf, the
+	 * search restarts from the lowest internal page on the path from the root
+	 * that still covers it. A full leaf on the right edge of the tree that is
+	 * appended to is split so that the left page keeps most of its tuples (see
+	 * {@link #splitLeafPageAtRightEdge}), so that ascending keys leave the
+	 * tree nearly full rather than half full.
+	 * <p>
+	 * All pages dirtied by the batch must fit in the BufferPool.
+	 * 
+	 * @param tid - the transaction id
+	 * @param tuples - the tuples to insert, in any order
+	 * @return a list of all pages that were dirtied by this operation
+	 * @see #insertTuple(TransactionId, Tuple)
+	 */
+	public List<Page> insertTuples(TransactionId tid, List<Tuple> tuples)
+			throws DbException, IOException, TransactionAbortedException {
+		Map<PageId, Page> dirtypages = new HashMap<>();
+		if (tuples.isEmpty()) {
+			return new ArrayList<>();
+		}
+		List<Tuple> sorted = new ArrayList<>(tuples);
+		sorted.sort(new BTreeFileEncoder.TupleComparator(keyField));
+
+		BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages);
+		if(rootPtr.getRootId() == null) {
+			rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid), Permissions.READ_WRITE);
+			rootPtr.setRootId(new BTreePageId(tableid, numPages(), BTreePageId.LEAF));
+		}
+
+		InsertCursor cursor = new InsertCursor();
+		for (Tuple t : sorted) {
+			Field key = t.getField(keyField);
+			seekLeafPage(tid, dirtypages, cursor, key);
+			BTreeLeafPage page = cursor.leaf;
+			if (page.getNumEmptySlots() == 0) {
+				if (page.getRightSiblingId() == null
+						&& key.compare(Op.GREATER_THAN_OR_EQ, page.reverseIterator().next().getField(keyField))) {
+					cursor.leaf = splitLeafPageAtRightEdge(tid, dirtypages, page, key);
+				} else {
+					cursor.leaf = splitLeafPage(tid, dirtypages, page, key);
+				}
+				if (cursor.leaf == page) {
+					// the page now ends at the key copied up between it and its new right sibling
+					cursor.leafBound = findLeftChildKey(tid, dirtypages, page);
+				}
+				// the split may have changed any internal page on the path
+				cursor.path.clear();
+				cursor.bounds.clear();
+			}
+			cursor.leaf.insertTuple(t);
+		}
+
+		return new ArrayList<>(dirtypages.values());
+	}
+
+	/**
+	 * Find the key of the entry in the parent of a page whose left child is that page.
+	 * 
+	 * @param tid - the transaction id
+	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+	 * @param page - a page with a right sibling under the same parent
+	 * @return the largest key the page can take
+	 */
+	private Field findLeftChildKey(TransactionId tid, Map<PageId, Page> dirtypages, BTreePage page)
+			throws DbException, TransactionAbortedException {
+		BTreeInternalPage parent = (BTreeInternalPage) getPage(tid, dirtypages, page.getParentId(), Permissions.READ_ONLY);
+		Iterator<BTreeEntry> it = parent.iterator();
+		while (it.hasNext()) {
+			BTreeEntry e = it.next();
+			if (e.getLeftChild().equals(page.getId())) {
+				return e.getKey();
+			}
+		}
+		throw new DbException("page " + page.getId().getPageNumber() + " is not a left child of its parent");
+	}
+
+	/**
+	 * The position of a batch insert in the tree: the internal pages on the path
+	 * from the root to the current leaf page, and the largest key that each of
+	 * them, and the leaf, can take. A null bound means the page is on the right
+	 * edge of the tree.
+	 */
+	private static class InsertCursor {
+		final List<BTreePageId> path = new ArrayList<>();
+		final List<Field> bounds = new ArrayList<>();
+		BTreeLeafPage leaf;
+		Field leafBound;
+
+		static boolean covers(Field bound, Field key) {
+			return bound == null || key.compare(Op.LESS_THAN_OR_EQ, bound);
+		}
+	}
+
+	/**
+	 * Move the cursor of a batch insert to the left-most leaf page possibly containing
+	 * the key field f, which is no smaller than the key last inserted. Keeps the
+	 * current leaf if it covers f, and otherwise searches down from the lowest page
+	 * on the path that covers f, locking the pages as
+	 * {@link #findLeafPage(TransactionId, Map, BTreePageId, Permissions, Field)} does.
+	 * 
+	 * @param tid - the transaction id
+	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+	 * @param cursor - the position of the batch insert
+	 * @param f - the field to search for
+	 */
+	private void seekLeafPage(TransactionId tid, Map<PageId, Page> dirtypages, InsertCursor cursor, Field f)
+			throws DbException, IOException, TransactionAbortedException {
+		if (cursor.leaf != null && InsertCursor.covers(cursor.leafBound, f)) {
+			return;
+		}
+		int depth = cursor.path.size();
+		while (depth > 0 && !InsertCursor.covers(cursor.bounds.get(depth - 1), f)) {
+			depth--;
+		}
+		BTreePageId pid;
+		Field bound;
+		if (depth == 0) {
+			pid = getRootPtrPage(tid, dirtypages).getRootId();
+			bound = null;
+		} else {
+			pid = cursor.path.get(depth - 1);
+			bound = cursor.bounds.get(depth - 1);
+			depth--;
+		}
+		cursor.path.subList(depth, cursor.path.size()).clear();
+		cursor.bounds.subList(depth, cursor.bounds.size()).clear();
+
+		while (true) {
+			Page bTreePage = getPage(tid, dirtypages, pid, Permissions.READ_ONLY);
+			if (bTreePage instanceof BTreeLeafPage) {
+				cursor.leaf = (BTreeLeafPage) getPage(tid, dirtypages, pid, Permissions.READ_WRITE);
+				cursor.leafBound = bound;
+				return;
+			}
+			cursor.path.add(pid);
+			cursor.bounds.add(bound);
+			Iterator<BTreeEntry> it = ((BTreeInternalPage) bTreePage).iterator();
+			BTreeEntry e = null;
+			pid = null;
+			while (it.hasNext()) {
+				e = it.next();
+				if (e.getKey().compare(Op.GREATER_THAN_OR_EQ, f)) {
+					pid = e.getLeftChild();
+					bound = e.getKey();
+					break;
+				}
+			}
+			if (pid == null) {
+				pid = e.getRightChild();
+			}
+		}
+	}
+
+	/**
+	 * Split a full leaf page on the right edge of the tree to make room for a tuple
+	 * with key field "field", no smaller than any key on the page. Unlike
+	 * {@link #splitLeafPage(TransactionId, Map, BTreeLeafPage, Field)}, which leaves both
+	 * pages half full, this moves only enough tuples to the new right page for the old
+	 * page to be left {@link #APPEND_FILL_FACTOR_PROPERTY} full, since the keys that follow
+	 * are expected to go to the new page. Only the parent pointers of the two pages
+	 * are updated.
+	 * 
+	 * @param tid - the transaction id
+	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+	 * @param page - the leaf page to split
+	 * @param field - the key field of the tuple to be inserted after the split is complete
+	 * @return the leaf page into which the new tuple should be inserted
+	 */
+	private BTreeLeafPage splitLeafPageAtRightEdge(TransactionId tid, Map<PageId, Page> dirtypages,
+			BTreeLeafPage page, Field field) throws DbException, IOException, TransactionAbortedException {
+		double fillFactor = Double.parseDouble(System.getProperty(APPEND_FILL_FACTOR_PROPERTY, "0.9"));
+		int maxTuples = page.getNumTuples() + page.getNumEmptySlots();
+		int keep = Math.min(maxTuples - 1, Math.max((maxTuples + 1) / 2, (int) Math.ceil(maxTuples * fillFactor)));
+
+		BTreeLeafPage newLeafPage = (BTreeLeafPage) getEmptyPage(tid, dirtypages, BTreePageId.LEAF);
+		Iterator<Tuple> reIterator = page.reverseIterator();
+		Tuple tuple = null;
+		while (page.getNumTuples() > keep) {
+			tuple = reIterator.next();
+			page.deleteTuple(tuple);
+			newLeafPage.insertTuple(tuple);
+		}
+		newLeafPage.setLeftSiblingId(page.getId());
+		page.setRightSiblingId(newLeafPage.getId());
+
+		// the last tuple moved is the first on the new page, and its key is copied up
+		Field leftLast = page.reverseIterator().next().getField(keyField);
+		Field separator = separatorKey(tuple.getField(keyField), leftLast, tuple.getField(keyField));
+		BTreeInternalPage parentPage = getParentWithEmptySlots(tid, dirtypages, page.getParentId(), separator);
+		parentPage.insertEntry(new BTreeEntry(separator, page.getId(), newLeafPage.getId()));
+		updateParentPointer(tid, dirtypages, parentPage.getId(), page.getId());
+		updateParentPointer(tid, dirtypages, parentPage.getId(), newLeafPage.getId());
+
+		dirtypages.put(page.getId(), page);
+		dirtypages.put(newLeafPage.getId(), newLeafPage);
+
+		return isRightOfSeparator(field, leftLast, separator) ? newLeafPage : page;
+	}
+
+	/**
+	 * Choose the key to copy up into the parent between two leaf pages. If the internal
+	 * pages truncate their keys (see {@link BTreeInternalPage#truncatesKeys}), this is
+	 * the shortest prefix of the first key of the right page that is no less than the
+	 * last key of the left page: a search for any key in between may end on either page.
+	 * Otherwise it is the given key.
+	 * 
+	 * @param key - the key to copy up if keys are not truncated
+	 * @param leftLast - the last key of the left page
+	 * @param rightFirst - the first key of the right page
+	 * @return the key of the entry between the two pages
+	 */
+	private Field separatorKey(Field key, Field leftLast, Field rightFirst) {
+		if (!BTreeInternalPage.truncatesKeys(td.getFieldType(keyField))) {
+			return key;
+		}
+		String left = ((StringField) leftLast).getValue();
+		String right = ((StringField) rightFirst).getValue();
+		int common = 0;
+		while (common < left.length() && common < right.length() && left.charAt(common) == right.charAt(common)) {
+			common++;
+		}
+		return new StringField(right.substring(0, Math.min(right.length(), common + 1)), Type.STRING_LEN);
+	}
+
+	/**
+	 * Whether a tuple with key field "field" goes to the right of two leaf pages just
+	 * split, keeping it off the right page if it is less than the key copied up.
+	 */
+	private static boolean isRightOfSeparator(Field field, Field leftLast, Field separator) {
+		return field.compare(Op.GREATER_THAN, leftLast) && field.compare(Op.GREATER_THAN_OR_EQ, separator);
+	}
+
+	/**
+	 * Handle an internal page after a key on it was replaced with one of another length,
+	 * which changes the room its entries take if it truncates keys: split the page if
+	 * its keys have grown past the room for entries on it, or, unless it is the root,
+	 * redistribute or merge it if they have shrunk below minimum occupancy.
+	 * 
+	 * @param tid - the transaction id
+	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+	 * @param page - the internal page, or null
+	 * @see BTreeInternalPage#hasKeyRoom()
+	 * @see #handleMinOccupancyPage(TransactionId, Map, BTreePage)
+	 */
+	private void handleResizedKey(TransactionId tid, Map<PageId, Page> dirtypages, BTreeInternalPage page)
+			throws DbException, IOException, TransactionAbortedException {
+		if (page == null) {
+			return;
+		}
+		if (!page.hasKeyRoom()) {
+			splitInternalPage(tid, dirtypages, page, page.iterator().next().getKey());
+		}
+		else if (page.isLessThanHalfFull() && page.getParentId().pgcateg() != BTreePageId.ROOT_PTR) {
+			handleMinOccupancyPage(tid, dirtypages, page);
+		}
+	}
 	
 	/**
 	 * Handle the case when a B+ tree page becomes less than half full due to deletions.
@@ -626,6 +1064,7 @@ public class BTreeFile implements DbFile {
 			}
 			else {
 				stealFromLeafPage(page, leftSibling, parent, leftEntry, false);				
+				handleResizedKey(tid, dirtypages, parent);
 			}
 		}
 		else if(rightSiblingId != null) {	
@@ -637,6 +1076,7 @@ public class BTreeFile implements DbFile {
 			}
 			else {
 				stealFromLeafPage(page, rightSibling, parent, rightEntry, true);				
+				handleResizedKey(tid, dirtypages, parent);
 			}
 		}
 	}
@@ -644,7 +1084,7 @@ public class BTreeFile implements DbFile {
 	/**
 	 * Steal tuples from a sibling and copy them to the given page so that both pages are at least
 	 * half full.  Update the parent's entry so that the key matches the key field of the first
-	 * tuple in the right-hand page.
+	 * tuple in the right-hand page, truncated if the internal pages truncate keys.
 	 * 
 	 * @param page - the leaf page which is less than half full
 	 * @param sibling - the sibling which has tuples to spare
@@ -667,11 +1107,9 @@ public class BTreeFile implements DbFile {
 			stealTuple = isRightSibling ? sibling.iterator().next() : sibling.reverseIterator().next();
 			sibling.deleteTuple(stealTuple);
 			page.insertTuple(stealTuple);
-			if (isRightSibling) {
-				entry.setKey(sibling.iterator().next().getField(keyField));
-			} else {
-				entry.setKey(page.iterator().next().getField(keyField));
-			}
+			BTreeLeafPage left = isRightSibling ? page : sibling;
+			Field rightFirst = (isRightSibling ? sibling : page).iterator().next().getField(keyField);
+			entry.setKey(separatorKey(rightFirst, left.reverseIterator().next().getField(keyField), rightFirst));
 			parent.updateEntry(entry);
 		}
 	}
@@ -703,27 +1141,28 @@ public class BTreeFile implements DbFile {
 		if(leftEntry != null) leftSiblingId = leftEntry.getLeftChild();
 		if(rightEntry != null) rightSiblingId = rightEntry.getRightChild();
 		
-		int maxEmptySlots = page.getMaxEntries() - page.getMaxEntries()/2; // ceiling
 		if(leftSiblingId != null) {
 			BTreeInternalPage leftSibling = (BTreeInternalPage) getPage(tid, dirtypages, leftSiblingId, Permissions.READ_WRITE);
 			// if the left sibling is at minimum occupancy, merge with it. Otherwise
 			// steal some entries from it
-			if(leftSibling.getNumEmptySlots() >= maxEmptySlots) {
+			if(page.canMergeWith(leftSibling)) {
 				mergeInternalPages(tid, dirtypages, leftSibling, page, parent, leftEntry);
 			}
 			else {
 				stealFromLeftInternalPage(tid, dirtypages, page, leftSibling, parent, leftEntry);
+				handleResizedKey(tid, dirtypages, parent);
 			}
 		}
 		else if(rightSiblingId != null) {
 			BTreeInternalPage rightSibling = (BTreeInternalPage) getPage(tid, dirtypages, rightSiblingId, Permissions.READ_WRITE);
 			// if the right sibling is at minimum occupancy, merge with it. Otherwise
 			// steal some entries from it
-			if(rightSibling.getNumEmptySlots() >= maxEmptySlots) {
+			if(page.canMergeWith(rightSibling)) {
 				mergeInternalPages(tid, dirtypages, page, rightSibling, parent, rightEntry);
 			}
 			else {
 				stealFromRightInternalPage(tid, dirtypages, page, rightSibling, parent, rightEntry);
+				handleResizedKey(tid, dirtypages, parent);
 			}
 		}
 	}
@@ -753,11 +1192,10 @@ public class BTreeFile implements DbFile {
 		// that the entries are evenly distributed. Be sure to update
 		// the corresponding parent entry. Be sure to update the parent
 		// pointers of all children in the entries that were moved.
-		int stealNum = (leftSibling.getNumEntries() - page.getNumEntries()) / 2;
-		for (int i = 0; i < stealNum; i += 1) {
+		// with truncated keys the entries take different room, so even out the bytes
+		while (leftSibling.getEntryBytes() > page.getEntryBytes() + page.getMaxEntrySize()) {
 			BTreeEntry toStealEntry = leftSibling.reverseIterator().next();
-			BTreeEntry pageLeftEntry = page.iterator().next();
-			BTreeEntry toInsertEntry = new BTreeEntry(parentEntry.getKey(), toStealEntry.getRightChild(), pageLeftEntry.getLeftChild());
+			BTreeEntry toInsertEntry = new BTreeEntry(parentEntry.getKey(), toStealEntry.getRightChild(), page.getFirstChildId());
 			
 			parentEntry.setKey(toStealEntry.getKey());
 			parent.updateEntry(parentEntry);
@@ -794,11 +1232,9 @@ public class BTreeFile implements DbFile {
 		// that the entries are evenly distributed. Be sure to update
 		// the corresponding parent entry. Be sure to update the parent
 		// pointers of all children in the entries that were moved.
-		int stealNum = (rightSibling.getNumEntries() - page.getNumEntries()) / 2;
-		for (int i = 0; i < stealNum; i += 1) {
+		while (rightSibling.getEntryBytes() > page.getEntryBytes() + page.getMaxEntrySize()) {
 			BTreeEntry toStealEntry = rightSibling.iterator().next();
-			BTreeEntry pageRightEntry = page.reverseIterator().next();
-			BTreeEntry toInsertEntry = new BTreeEntry(parentEntry.getKey(), pageRightEntry.getRightChild(), toStealEntry.getLeftChild());
+			BTreeEntry toInsertEntry = new BTreeEntry(parentEntry.getKey(), page.getLastChildId(), toStealEntry.getLeftChild());
 			
 			parentEntry.setKey(toStealEntry.getKey());
 			parent.updateEntry(parentEntry);
@@ -839,7 +1275,7 @@ public class BTreeFile implements DbFile {
 		// Delete the entry in the parent corresponding to the two pages that are merging -
 		// deleteParentEntry() will be useful here
 		
-		// right pagetuplesȫƶleft page
+		// 将right page的tuples全部移动到left page中
 		Iterator<Tuple> rightIterator = rightPage.iterator();
 		while (rightIterator.hasNext()) {
 			Tuple tuple = rightIterator.next();
@@ -847,7 +1283,7 @@ public class BTreeFile implements DbFile {
 			leftPage.insertTuple(tuple);
 		}
 		
-		// ֵ
+		// 更新左右兄弟
 		BTreePageId rightSbilingId = rightPage.getRightSiblingId();
 		if (rightSbilingId != null) {
 			BTreeLeafPage rightSiblingPage = (BTreeLeafPage) getPage(tid, dirtypages, rightSbilingId, Permissions.READ_WRITE);
@@ -857,7 +1293,7 @@ public class BTreeFile implements DbFile {
 			leftPage.setRightSiblingId(null);
 		}
 		
-		// ɾparent pageentryright pageΪ
+		// 删除parent page的entry并置right page为空
 		setEmptyPage(tid, dirtypages, rightPage.getId().getPageNumber());
 		deleteParentEntry(tid, dirtypages, leftPage, parent, parentEntry);
 	}
@@ -894,13 +1330,13 @@ public class BTreeFile implements DbFile {
 		// Delete the entry in the parent corresponding to the two pages that are merging -
 		// deleteParentEntry() will be useful here
 		
-		// parentEntry뵽left page
+		// 将parentEntry插入到left page中
 		BTreeEntry pullDownEntry = new BTreeEntry(parentEntry.getKey(), 
-				leftPage.reverseIterator().next().getRightChild(), 
-				rightPage.iterator().next().getLeftChild());
+				leftPage.getLastChildId(), 
+				rightPage.getFirstChildId());
 		leftPage.insertEntry(pullDownEntry);
 		
-		// right pageentryƶleft page
+		// 将right page的entry移动到left page中
 		Iterator<BTreeEntry> rightIterator = rightPage.iterator();
 		while (rightIterator.hasNext()) {
 			BTreeEntry entry = rightIterator.next();
@@ -908,10 +1344,10 @@ public class BTreeFile implements DbFile {
 			leftPage.insertEntry(entry);
 		}
 		
-		// и׽ڵ
+		// 更新所有父亲节点
 		updateParentPointers(tid, dirtypages, leftPage);
 		
-		// ɾparent pageentryright pageΪ
+		// 删除parent page的entry并置right page为空
 		setEmptyPage(tid, dirtypages, rightPage.getId().getPageNumber());
 		deleteParentEntry(tid, dirtypages, leftPage, parent, parentEntry);
 	}
@@ -942,14 +1378,13 @@ public class BTreeFile implements DbFile {
 		// the parent is below minimum occupancy, get some tuples from its siblings
 		// or merge with one of the siblings
 		parent.deleteKeyAndRightChild(parentEntry);
-		int maxEmptySlots = parent.getMaxEntries() - parent.getMaxEntries()/2; // ceiling
-		if(parent.getNumEmptySlots() == parent.getMaxEntries()) {
+		if(parent.getNumEntries() == 0) {
 			// This was the last entry in the parent.
 			// In this case, the parent (root node) should be deleted, and the merged 
 			// page will become the new root
 			BTreePageId rootPtrId = parent.getParentId();
 			if(rootPtrId.pgcateg() != BTreePageId.ROOT_PTR) {
-				// TODO ΪɶɾһǸڵأ
+				// TODO 为啥不可以删除一个非根节点呢？
 				throw new DbException("attempting to delete a non-root node");
 			}
 			BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, rootPtrId, Permissions.READ_WRITE);
@@ -959,7 +1394,7 @@ public class BTreeFile implements DbFile {
 			// release the parent page for reuse
 			setEmptyPage(tid, dirtypages, parent.getId().getPageNumber());
 		}
-		else if(parent.getNumEmptySlots() > maxEmptySlots) { 
+		else if(parent.isLessThanHalfFull()) { 
 			handleMinOccupancyPage(tid, dirtypages, parent);
 		}
 	}
@@ -1007,15 +1442,10 @@ public class BTreeFile implements DbFile {
 	 */
 	BTreeRootPtrPage getRootPtrPage(TransactionId tid, Map<PageId, Page> dirtypages) throws DbException, IOException, TransactionAbortedException {
 		synchronized(this) {
-			if(f.length() == 0) {
+			if((store != null ? store.numPages() : channel.size()) == 0) {
 				// create the root pointer page and the root page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
-				byte[] emptyRootPtrData = BTreeRootPtrPage.createEmptyPageData();
-				byte[] emptyLeafData = BTreeLeafPage.createEmptyPageData();
-				bw.write(emptyRootPtrData);
-				bw.write(emptyLeafData);
-				bw.close();
+				appendPageData(BTreeRootPtrPage.createEmptyPageData());
+				appendPageData(BTreeLeafPage.createEmptyPageData());
 			}
 		}
 
@@ -1071,12 +1501,7 @@ public class BTreeFile implements DbFile {
 		if(headerId == null) {		
 			synchronized(this) {
 				// create the new page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
-				byte[] emptyData = BTreeInternalPage.createEmptyPageData();
-				bw.write(emptyData);
-				bw.close();
-				emptyPageNo = numPages();
+				emptyPageNo = appendPageData(BTreeInternalPage.createEmptyPageData());
 			}
 		}
 
@@ -1106,10 +1531,7 @@ public class BTreeFile implements DbFile {
 		BTreePageId newPageId = new BTreePageId(tableid, emptyPageNo, pgcateg);
 		
 		// write empty page to disk
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
-		rf.seek(BTreeRootPtrPage.getPageSize() + (long) (emptyPageNo - 1) * BufferPool.getPageSize());
-		rf.write(BTreePage.createEmptyPageData());
-		rf.close();
+		writePageData(emptyPageNo, BTreePage.createEmptyPageData(), pgcateg == BTreePageId.LEAF);
 		
 		// make sure the page is not in the buffer pool	or in the local cache		
 		Database.getBufferPool().discardPage(newPageId);
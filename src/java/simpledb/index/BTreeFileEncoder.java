@@ -219,6 +219,32 @@ public class BTreeFileEncoder {
 
 		// add the tuples to B+ tree file
 		BTreeFile bf = BTreeUtility.openBTreeFile(numFields, bFile, keyField);
+		build(tuples.iterator(), bf, npagebytes, typeAr, keyField);
+
+		Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+		return bf;
+	}
+
+	/**
+	 * Write out the pages of a B+ tree holding tuples already sorted on the
+	 * key field, bottom up: full leaf pages in key order, and the internal
+	 * pages above them as they fill up. The pages are written with
+	 * writePage, bypassing the BufferPool, so the file should be empty and
+	 * none of its pages cached.
+	 * 
+	 * @param tuples - the tuples to add, in key order
+	 * @param bf - the empty BTreeFile to write, already added to the catalog
+	 * @param npagebytes - number of bytes per page
+	 * @param typeAr - array containing the types of the tuples
+	 * @param keyField - the field of the tuples the B+ tree is keyed on
+	 * @throws IOException
+	 * @throws DbException
+	 * @throws TransactionAbortedException
+	 */
+	public static void build(Iterator<Tuple> tuples, BTreeFile bf, int npagebytes,
+			Type[] typeAr, int keyField)
+					throws IOException, DbException, TransactionAbortedException {
+		int numFields = typeAr.length;
 		Type keyType = typeAr[keyField];
 		int tableid = bf.getId();
 
@@ -234,6 +260,9 @@ public class BTreeFileEncoder {
 		// pointerbytes: one extra child pointer, parent pointer, child page category
 		int internalpointerbytes = 2 * BTreeLeafPage.INDEX_SIZE + 1; 
 		int nentries = (npagebytes * 8 - internalpointerbytes * 8 - 1) /  (nentrybytes * 8 + 1);  //floor comes for free
+		if (BTreeInternalPage.truncatesKeys(keyType)) {
+			nentries = BTreeInternalPage.getMaxEntries(keyType, npagebytes);
+		}
 
 		List<List<BTreeEntry>> entries = new ArrayList<>();
 
@@ -249,7 +278,8 @@ public class BTreeFileEncoder {
 		List<Tuple> page1 = new ArrayList<>();
 		List<Tuple> page2 = new ArrayList<>();
 		BTreePageId leftSiblingId = null;
-		for(Tuple tup : tuples) {
+		while(tuples.hasNext()) {
+			Tuple tup = tuples.next();
 			if(page1.size() < nrecords) {
 				page1.add(tup);
 			}
@@ -331,9 +361,6 @@ public class BTreeFileEncoder {
 		// set all the parent and sibling pointers
 		setParents(bf, new BTreePageId(tableid, root, rootCategory), BTreeRootPtrPage.getId(tableid));
 		setRightSiblingPtrs(bf, lastPid, null);
-
-		Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
-		return bf;
 	}
 
 	/**
@@ -347,12 +374,14 @@ public class BTreeFileEncoder {
 	 */
 	private static void setRightSiblingPtrs(BTreeFile bf, BTreePageId pid, BTreePageId rightSiblingId) 
 			throws IOException, DbException {
-		BTreeLeafPage page = (BTreeLeafPage) bf.readPage(pid);
-		page.setRightSiblingId(rightSiblingId);
-		BTreePageId leftSiblingId = page.getLeftSiblingId();
-		bf.writePage(page);
-		if(leftSiblingId != null) {
-			setRightSiblingPtrs(bf, leftSiblingId, page.getId());
+		// iterate rather than recurse, so that a file of many leaves
+		// does not overflow the stack
+		while(pid != null) {
+			BTreeLeafPage page = (BTreeLeafPage) bf.readPage(pid);
+			page.setRightSiblingId(rightSiblingId);
+			bf.writePage(page);
+			rightSiblingId = pid;
+			pid = page.getLeftSiblingId();
 		}
 	}
 
@@ -621,6 +650,9 @@ public class BTreeFileEncoder {
 	public static byte[] convertToInternalPage(List<BTreeEntry> entries, int npagebytes,
 			Type keyType, int childPageCategory)
 					throws IOException {
+		if (BTreeInternalPage.truncatesKeys(keyType)) {
+			return convertToTruncatedInternalPage(entries, npagebytes, keyType, childPageCategory);
+		}
 		int nentrybytes = keyType.getLen() + BTreeInternalPage.INDEX_SIZE;
 		// pointerbytes: one extra child pointer, parent pointer, child page category
 		int pointerbytes = 2 * BTreeLeafPage.INDEX_SIZE + 1; 
@@ -694,6 +726,44 @@ public class BTreeFileEncoder {
 
 	}
 
+	/**
+	 * Convert a set of entries to a byte array in the format of a BTreeInternalPage
+	 * with truncated keys
+	 * 
+	 * @param entries - the set of entries
+	 * @param npagebytes - number of bytes per page
+	 * @param keyType - the type of the key field
+	 * @param childPageCategory - the category of the child pages (either internal or leaf)
+	 * @return a byte array which can be passed to the BTreeInternalPage constructor
+	 * @see BTreeInternalPage#truncatesKeys(Type)
+	 * @throws IOException
+	 */
+	private static byte[] convertToTruncatedInternalPage(List<BTreeEntry> entries, int npagebytes,
+			Type keyType, int childPageCategory)
+					throws IOException {
+		int entrycount = Math.min(entries.size(), BTreeInternalPage.getMaxEntries(keyType, npagebytes));
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(npagebytes);
+		DataOutputStream dos = new DataOutputStream(baos);
+
+		entries.sort(new EntryComparator());
+		dos.writeInt(0); // parent pointer
+		dos.writeByte((byte) childPageCategory);
+		dos.writeShort(entrycount);
+		dos.writeInt(entries.get(0).getLeftChild().getPageNumber());
+		for(int e = 0; e < entrycount; e++) {
+			String key = ((StringField) entries.get(e).getKey()).getValue();
+			dos.writeByte(key.length());
+			dos.writeBytes(key);
+			dos.writeInt(entries.get(e).getRightChild().getPageNumber());
+		}
+
+		// pad the rest of the page with zeroes
+		dos.write(new byte[npagebytes - dos.size()]);
+
+		return baos.toByteArray();
+	}
+
 	/**
 	 * Create a byte array in the format of a BTreeRootPtrPage
 	 * 
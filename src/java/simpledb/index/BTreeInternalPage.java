@@ -13,20 +13,35 @@ import simpledb.storage.BufferPool;
 import simpledb.storage.Field;
 import simpledb.storage.IntField;
 import simpledb.storage.RecordId;
+import simpledb.storage.StringField;
 
 /**
  * Each instance of BTreeInternalPage stores data for one page of a BTreeFile and 
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * In an index keyed on a string, keys are stored truncated: each at its own
+ * length rather than at the full length of the type, and the keys copied up
+ * from the leaves are shortened to the prefix that tells the two leaves
+ * apart (see {@link #truncatesKeys}). Such a page holds entries up to a
+ * number of bytes rather than a number of entries, which leaves room for one
+ * more key of the longest kind, so that replacing a key in place always fits.
  *
  * @see BTreeFile
  * @see BufferPool
  *
  */
 public class BTreeInternalPage extends BTreePage {
+	/**
+	 * Size of the fixed part of a page with truncated keys: the parent pointer, the
+	 * child page category, the number of entries and the first child pointer.
+	 */
+	static final int TRUNCATED_HEADER_SIZE = 2 * INDEX_SIZE + 1 + 2;
+
 	private final byte[] header;
 	private final Field[] keys;
 	private final int[] children;
 	private final int numSlots;
+	private final boolean truncated;
 	
 	private int childCategory; // either leaf or internal
 
@@ -44,9 +59,19 @@ public class BTreeInternalPage extends BTreePage {
         assert null == upperBound || null == prev || (prev.compare(Op.LESS_THAN_OR_EQ, upperBound));
         
         // System.out.printf("NumEntries:%d MaxEntries:%d\n", getNumEntries(), getMaxEntries());
-        assert !checkOccupancy || depth <= 0 || (getNumEntries() >= getMaxEntries() / 2);
+        assert !checkOccupancy || depth <= 0 || !isLessThanHalfFull();
 	}
 	
+	/**
+	 * Create a BTreeInternalPage of the B+ tree file its id belongs to, keyed on the
+	 * key field of that file. Recovery makes pages from their data this way.
+	 *
+	 * @see simpledb.storage.Page
+	 */
+	public BTreeInternalPage(BTreePageId id, byte[] data) throws IOException {
+		this(id, data, ((BTreeFile) Database.getCatalog().getDatabaseFile(id.getTableId())).keyField());
+	}
+
 	/**
 	 * Create a BTreeInternalPage from a set of bytes of data read from disk.
 	 * The format of a BTreeInternalPage is a set of header bytes indicating
@@ -63,6 +88,12 @@ public class BTreeInternalPage extends BTreePage {
 	 * <p>
 	 *      ceiling((no. entry slots + 1) / 8)
 	 * <p>
+	 * A page with truncated keys instead holds the parent pointer, the child page
+	 * category, the number of entries as an unsigned short and the first child
+	 * pointer, or 0 if there is none, followed by each entry in key order: the
+	 * length of the key in a byte, its characters, one byte each, and its right
+	 * child pointer. The header bits are kept in memory only.
+	 * <p>
 	 * @see Database#getCatalog
 	 * @see Catalog#getTupleDesc
 	 * @see BufferPool#getPageSize()
@@ -73,7 +104,10 @@ public class BTreeInternalPage extends BTreePage {
 	 */
 	public BTreeInternalPage(BTreePageId id, byte[] data, int key) throws IOException {
 		super(id, key);
-		this.numSlots = getMaxEntries() + 1; 
+		this.truncated = truncatesKeys(td.getFieldType(keyField));
+		// a truncated key takes at least its length byte and child pointer
+		this.numSlots = truncated ? (BufferPool.getPageSize() - TRUNCATED_HEADER_SIZE) / (1 + INDEX_SIZE) + 1
+				: getMaxEntries() + 1;
 		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
 		// Read the parent pointer
@@ -87,6 +121,16 @@ public class BTreeInternalPage extends BTreePage {
 		// read the child page category
 		childCategory = dis.readByte();
 
+		if (truncated) {
+			header = new byte[getHeaderSize()];
+			keys = new Field[numSlots];
+			children = new int[numSlots];
+			readTruncatedEntries(dis);
+			dis.close();
+			setBeforeImage();
+			return;
+		}
+
 		// allocate and read the header slots of this page
 		header = new byte[getHeaderSize()];
 		for (int i=0; i<header.length; i++)
@@ -121,12 +165,119 @@ public class BTreeInternalPage extends BTreePage {
 	 * Retrieve the maximum number of entries this page can hold. (The number of keys)
  	 */
 	public int getMaxEntries() {        
-		int keySize = td.getFieldType(keyField).getLen();
+		return getMaxEntries(td.getFieldType(keyField), BufferPool.getPageSize());
+	}
+
+	/**
+	 * Retrieve the maximum number of entries a page of an index keyed on the given
+	 * type holds. With truncated keys, this is the number of entries with keys of the
+	 * longest kind; a page holds more shorter keys.
+	 * @param keyType - the type of the key field
+	 * @param pageSize - the size of a page in bytes
+	 */
+	public static int getMaxEntries(Type keyType, int pageSize) {
+		if (truncatesKeys(keyType)) {
+			return (pageSize - TRUNCATED_HEADER_SIZE - getMaxEntrySize(keyType)) / getMaxEntrySize(keyType);
+		}
+		int keySize = keyType.getLen();
 		int bitsPerEntryIncludingHeader = keySize * 8 + INDEX_SIZE * 8 + 1;
 		// extraBits are: one parent pointer, 1 byte for child page category, 
 		// one extra child pointer (node with m entries has m+1 pointers to children), 1 bit for extra header
 		int extraBits = 2 * INDEX_SIZE * 8 + 8 + 1;
-        return (BufferPool.getPageSize()*8 - extraBits) / bitsPerEntryIncludingHeader;
+        return (pageSize*8 - extraBits) / bitsPerEntryIncludingHeader;
+	}
+
+	/**
+	 * Whether the internal pages of an index keyed on the given type store their keys
+	 * truncated. Only strings are: their keys are mostly padding at the full length of
+	 * the type.
+	 * @param keyType - the type of the key field
+	 */
+	public static boolean truncatesKeys(Type keyType) {
+		return keyType == Type.STRING_TYPE;
+	}
+
+	/**
+	 * @param keyType - the type of the key field
+	 * @return the number of bytes the largest entry (key + child pointer) takes on a page
+	 */
+	static int getMaxEntrySize(Type keyType) {
+		if (truncatesKeys(keyType)) {
+			return 1 + Type.STRING_LEN + INDEX_SIZE;
+		}
+		return keyType.getLen() + INDEX_SIZE;
+	}
+
+	/**
+	 * @return the number of bytes the largest entry (key + child pointer) takes on this page
+	 */
+	public int getMaxEntrySize() {
+		return getMaxEntrySize(td.getFieldType(keyField));
+	}
+
+	/**
+	 * @return the number of bytes the entry with the given key takes on this page
+	 */
+	private int getEntrySize(Field key) {
+		if (truncated) {
+			return 1 + ((StringField) key).getValue().length() + INDEX_SIZE;
+		}
+		return getMaxEntrySize();
+	}
+
+	/**
+	 * Returns the number of bytes the entries (keys + child pointers) on this page take.
+	 * The extra child pointer is not counted.
+	 */
+	public int getEntryBytes() {
+		if (!truncated) {
+			return getNumEntries() * getMaxEntrySize();
+		}
+		int bytes = 0;
+		for (int i=1; i<numSlots; i++)
+			if (isSlotUsed(i))
+				bytes += getEntrySize(keys[i]);
+		return bytes;
+	}
+
+	/**
+	 * @return the number of bytes of entries a page with truncated keys accepts new
+	 *         entries up to; the page has room for one more entry beyond it
+	 */
+	private int getEntryCapacity() {
+		return BufferPool.getPageSize() - TRUNCATED_HEADER_SIZE - getMaxEntrySize();
+	}
+
+	/**
+	 * Returns true if this page is below minimum occupancy: less than half full, with
+	 * truncated keys by the bytes its entries take.
+	 */
+	public boolean isLessThanHalfFull() {
+		if (!truncated) {
+			return getNumEmptySlots() > getMaxEntries() - getMaxEntries() / 2;
+		}
+		// allow for the keys moving through the parent when entries are redistributed
+		return 2 * getEntryBytes() < getEntryCapacity() - 4 * getMaxEntrySize();
+	}
+
+	/**
+	 * Returns true if this page and its sibling, at minimum occupancy, fit on one page
+	 * with the key between them pulled down from their parent.
+	 * @param sibling - a sibling of this page with the same parent
+	 */
+	public boolean canMergeWith(BTreeInternalPage sibling) {
+		if (!truncated) {
+			return sibling.getNumEmptySlots() >= getMaxEntries() - getMaxEntries() / 2;
+		}
+		return getEntryBytes() + sibling.getEntryBytes() + getMaxEntrySize() <= getEntryCapacity();
+	}
+
+	/**
+	 * Returns false if the keys on this page have grown past the bytes it accepts entries
+	 * up to, after a key was replaced with a longer one, and the page must be split.
+	 */
+	public boolean hasKeyRoom() {
+		return !truncated || getEntryBytes() <= getEntryCapacity();
 	}
 
 	/**
@@ -134,7 +285,7 @@ public class BTreeInternalPage extends BTreePage {
 	 * @return the number of bytes in the header
 	 */
 	private int getHeaderSize() {        
-		int slotsPerPage = getMaxEntries() + 1;
+		int slotsPerPage = numSlots;
 		int hb = (slotsPerPage / 8);
 		if (hb * 8 < slotsPerPage) hb++;
 
@@ -166,6 +317,25 @@ public class BTreeInternalPage extends BTreePage {
 		}
 	}
 
+	/**
+	 * Read the entries of a page with truncated keys into the first slots.
+	 */
+	private void readTruncatedEntries(DataInputStream dis) throws IOException {
+		int count = dis.readUnsignedShort();
+		int firstChild = dis.readInt();
+		if (firstChild != 0) {
+			children[0] = firstChild;
+			markSlotUsed(0, true);
+		}
+		for (int i=1; i<=count; i++) {
+			byte[] bs = new byte[dis.readUnsignedByte()];
+			dis.readFully(bs);
+			keys[i] = new StringField(new String(bs), Type.STRING_LEN);
+			children[i] = dis.readInt();
+			markSlotUsed(i, true);
+		}
+	}
+
 	/**
 	 * Read keys from the source file.
 	 */
@@ -237,6 +407,9 @@ public class BTreeInternalPage extends BTreePage {
 	 * @return A byte array correspond to the bytes of this page.
 	 */
 	public byte[] getPageData() {
+		if (truncated) {
+			return getTruncatedPageData();
+		}
 		int len = BufferPool.getPageSize();
 		ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
 		DataOutputStream dos = new DataOutputStream(baos);
@@ -338,6 +511,38 @@ public class BTreeInternalPage extends BTreePage {
 		return baos.toByteArray();
 	}
 
+	/**
+	 * Generates the bytes of a page with truncated keys.
+	 * @see #getPageData()
+	 */
+	private byte[] getTruncatedPageData() {
+		int len = BufferPool.getPageSize();
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
+		DataOutputStream dos = new DataOutputStream(baos);
+		try {
+			dos.writeInt(parent);
+			dos.writeByte((byte) childCategory);
+			dos.writeShort(getNumEntries());
+			dos.writeInt(isSlotUsed(0) ? children[0] : 0);
+			for (int i=1; i<numSlots; i++) {
+				if (!isSlotUsed(i))
+					continue;
+				String key = ((StringField) keys[i]).getValue();
+				dos.writeByte(key.length());
+				dos.writeBytes(key);
+				dos.writeInt(children[i]);
+			}
+			if (dos.size() > len)
+				throw new IllegalStateException("the entries of page " + pid.getPageNumber() + " take more than a page");
+			dos.write(new byte[len - dos.size()]);
+			dos.flush();
+		} catch (IOException e) {
+			// this really shouldn't happen
+			e.printStackTrace();
+		}
+		return baos.toByteArray();
+	}
+
 	/**
 	 * Delete the specified entry (key + 1 child pointer) from the page. The recordId
 	 * is used to find the specified entry, so it must not be null. After deletion, the 
@@ -414,6 +619,9 @@ public class BTreeInternalPage extends BTreePage {
 			throw new DbException("tried to update entry on invalid page or table");
 		if (!isSlotUsed(rid.getTupleNumber()))
 			throw new DbException("tried to update null entry.");
+		if (truncated && getEntryBytes() - getEntrySize(keys[rid.getTupleNumber()]) + getEntrySize(e.getKey())
+				> BufferPool.getPageSize() - TRUNCATED_HEADER_SIZE)
+			throw new DbException("tried to update entry with a key too long for the page.");
 		
 		for(int i = rid.getTupleNumber() + 1; i < numSlots; i++) {
 			if(isSlotUsed(i)) {
@@ -461,8 +669,11 @@ public class BTreeInternalPage extends BTreePage {
 		else if(e.getLeftChild().pgcateg() != childCategory || e.getRightChild().pgcateg() != childCategory)
 			throw new DbException("child page category mismatch in insertEntry");
 
+		if (truncated && getEntryBytes() + getEntrySize(e.getKey()) > BufferPool.getPageSize() - TRUNCATED_HEADER_SIZE)
+			throw new DbException("called insertEntry on page with no room for the key.");
+
 		// if this is the first entry, add it and return
-		if(getNumEmptySlots() == getMaxEntries()) {
+		if(getNumEntries() == 0) {
 			children[0] = e.getLeftChild().getPageNumber();
 			children[1] = e.getRightChild().getPageNumber();
 			keys[1] = e.getKey();
@@ -567,11 +778,16 @@ public class BTreeInternalPage extends BTreePage {
 	 * Returns the number of entries (keys) currently stored on this page
 	 */
 	public int getNumEntries() {
-		return numSlots - getNumEmptySlots() - 1;
+		int cnt = 0;
+		for(int i=1; i<numSlots; i++)
+			if(isSlotUsed(i))
+				cnt++;
+		return cnt;
 	}
 	
 	/**
-	 * Returns the number of empty slots on this page.
+	 * Returns the number of empty slots on this page. With truncated keys, this is the
+	 * number of entries with keys of the longest kind the page still accepts.
 	 */
 	public int getNumEmptySlots() {
 		int cnt = 0;
@@ -580,9 +796,38 @@ public class BTreeInternalPage extends BTreePage {
 		for(int i=1; i<numSlots; i++)
 			if(!isSlotUsed(i))
 				cnt++;
+		if (truncated) {
+			cnt = Math.max(0, Math.min(cnt, (getEntryCapacity() - getEntryBytes()) / getMaxEntrySize()));
+		}
 		return cnt;
 	}
 
+	/**
+	 * Returns the id of the first child of this page, or null if the page is empty.
+	 * Unlike the entries, this works on a page left with a single child.
+	 */
+	BTreePageId getFirstChildId() {
+		return getChildId(0);
+	}
+
+	/**
+	 * Returns the id of the last child of this page, or null if the page is empty.
+	 * Unlike the entries, this works on a page left with a single child.
+	 */
+	BTreePageId getLastChildId() {
+		for (int i=numSlots-1; i>=0; i--)
+			if (isSlotUsed(i))
+				return getChildId(i);
+		return null;
+	}
+
+	/**
+	 * Returns the number of entry slots on this page, including the unused key slot 0.
+	 */
+	int getNumSlots() {
+		return numSlots;
+	}
+
 	/**
 	 * Returns true if associated slot on this page is filled.
 	 */
@@ -746,7 +991,7 @@ class BTreeInternalPageReverseIterator implements Iterator<BTreeEntry> {
 
 	public BTreeInternalPageReverseIterator(BTreeInternalPage p) {
 		this.p = p;
-		this.curEntry = p.getMaxEntries();
+		this.curEntry = p.getNumSlots() - 1;
 		while(!p.isSlotUsed(curEntry) && curEntry > 0) {
 			--curEntry;
 		}
@@ -766,8 +1011,16 @@ class BTreeInternalPageReverseIterator implements Iterator<BTreeEntry> {
 			while (true) {
 				int entry = curEntry--;
 				Field key = p.getKey(entry);
-				BTreePageId childId = p.getChildId(entry - 1);
-				if(key != null && childId != null) {
+				if(key == null) {
+					continue;
+				}
+				// the left child is in the nearest used slot before the key,
+				// which need not be the one right before it
+				while(curEntry > 0 && !p.isSlotUsed(curEntry)) {
+					--curEntry;
+				}
+				BTreePageId childId = p.getChildId(curEntry);
+				if(childId != null) {
 					nextToReturn = new BTreeEntry(key, childId, nextChildId);
 					nextToReturn.setRecordId(new RecordId(p.pid, entry));
 					nextChildId = childId;
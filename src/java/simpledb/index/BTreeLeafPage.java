@@ -44,6 +44,16 @@ public class BTreeLeafPage extends BTreePage {
         assert !checkoccupancy || depth <= 0 || (getNumTuples() >= getMaxTuples() / 2);
 	}
 
+	/**
+	 * Create a BTreeLeafPage of the B+ tree file its id belongs to, keyed on the
+	 * key field of that file. Recovery makes pages from their data this way.
+	 *
+	 * @see Page
+	 */
+	public BTreeLeafPage(BTreePageId id, byte[] data) throws IOException {
+		this(id, data, ((BTreeFile) Database.getCatalog().getDatabaseFile(id.getTableId())).keyField());
+	}
+
 	/**
 	 * Create a BTreeLeafPage from a set of bytes of data read from disk.
 	 * The format of a BTreeLeafPage is a set of header bytes indicating
@@ -68,6 +68,15 @@ public class BTreePageId implements PageId {
 		return pgcateg;
 	}
 
+	/**
+	 * @return the category of this page
+	 * @see #pgcateg()
+	 */
+	@Override
+	public int getPageCategory() {
+		return pgcateg;
+	}
+
 	/**
 	 * @return a hash code for this page, represented by the combination of
 	 *   the table number, page number, and pgcateg (needed if a PageId is used as a
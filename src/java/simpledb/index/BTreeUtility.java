@@ -449,6 +449,7 @@ public class BTreeUtility {
 		FileOutputStream fos = new FileOutputStream(f);
 		fos.write(new byte[0]);
 		fos.close();
+		PageChecksums.delete(f);
 
         return openBTreeFile(cols, f, keyField);
 	}
@@ -114,6 +114,6 @@ public class IntHistogram {
      * @return A string describing this histogram, for debugging purposes
      */
     public String toString() {
-        return "ֱͼ: " + ntups + "ԪأֵΪ: " + max + "СֵΪ: " + min + "ָΪ" + buckets.length + "ݣΪ" + width;
+        return "这个直方图有: " + ntups + "个元素，最大值为: " + max + "，最小值为: " + min + "，被分割为了" + buckets.length + "份，宽度为" + width;
     }
 }
@@ -130,7 +130,7 @@ public class JoinOptimizer {
             // HINT: You may need to use the variable "j" if you implemented
             // a join algorithm that's more complicated than a basic
             // nested-loops join.
-        	// ʽ: joincost(t1 join t2) = scancost(t1) + ntups(t1) x scancost(t2) //IO cost
+        	// 用这个公式即可: joincost(t1 join t2) = scancost(t1) + ntups(t1) x scancost(t2) //IO cost
             // + ntups(t1) x ntups(t2)  //CPU cost
             return cost1 + card1 * cost2 + card1 * card2;
         }
@@ -177,7 +177,7 @@ public class JoinOptimizer {
                                                    boolean t2pkey, Map<String, TableStats> stats,
                                                    Map<String, Integer> tableAliasToId) {
         int card = 1;
-        // ο2.2.4 Join Cardinality
+        // 参考2.2.4 Join Cardinality
         if (joinOp.equals(Predicate.Op.EQUALS)) {
         	if (t1pkey) {
         		card = card2;
@@ -117,7 +117,7 @@ public class TableStats {
     	this.intFieldHistogramMap = new HashMap<Integer, IntHistogram>(scan.getTupleDesc().numFields());
     	this.strFieldHistogramMap = new HashMap<Integer, StringHistogram>(scan.getTupleDesc().numFields());
     	try {
-    		// ȡtabletupleÿֶεСֵ(stringֶ)
+    		// 获取table中tuple的数量和每个字段的最大最小值(忽略string字段)
 			scan.open();
 			while (scan.hasNext()) {
 	    		Tuple tuple = scan.next();
@@ -136,7 +136,7 @@ public class TableStats {
 	    			}
 	    		}
 	    	}
-			// ʼintFieldHistogramMapstrFieldHistogramMap
+			// 初始化intFieldHistogramMap和strFieldHistogramMap
 			for (int fieldIndex = 0; fieldIndex < scan.getTupleDesc().numFields(); fieldIndex += 1) {
 				if (scan.getTupleDesc().getFieldType(fieldIndex).equals(Type.INT_TYPE)) {
 					IntHistogram histogram = new IntHistogram(NUM_HIST_BINS, fieldMinVal[fieldIndex], fieldMaxVal[fieldIndex]);
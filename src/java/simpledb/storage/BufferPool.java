@@ -4,18 +4,24 @@ import simpledb.common.Database;
 import simpledb.common.Permissions;
 import simpledb.common.DbException;
 import simpledb.common.DeadlockException;
+import simpledb.index.BTreeFile;
 import simpledb.transaction.DeadlockManager;
 import simpledb.transaction.LockManager;
-import simpledb.transaction.RWLock;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+import java.util.stream.IntStream;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -25,6 +31,37 @@ import java.util.concurrent.CopyOnWriteArraySet;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * Pages live in a fixed array of numPages frames. A {@link PageTable}
+ * maps the exact identity of every resident page to its frame, and a
+ * pluggable {@link ReplacementPolicy} decides which frame is given up when
+ * the pool is full; hit, miss and eviction counters are kept so that
+ * policies can be compared under a given workload.
+ * <p>
+ * The frames can be split into several {@link BufferPoolShard shards}, each
+ * with its own page table, replacement policy and latch; a page always lives
+ * in the shard its PageId hashes to, so concurrent getPage calls on
+ * different pages do not contend; the {@link LockManager} stripes its lock
+ * table by the same hash. The shards share the capacity of the pool instead
+ * of splitting it, so a shard holding only dirty pages takes room freed by
+ * another shard evicting a clean page. The pool is not sharded unless asked
+ * to with the {@link #SHARDS_PROPERTY} system property or the constructor.
+ * <p>
+ * By default the pool is NO STEAL / FORCE: dirty pages are never evicted
+ * and a commit writes every page the transaction dirtied. Setting the
+ * {@link #STEAL_NO_FORCE_PROPERTY} system property to true selects STEAL /
+ * NO FORCE instead: a commit only logs the after-images of its pages, which
+ * stay dirty in the pool, and when a shard is full of dirty pages one of
+ * them is written back once its log record is durable. The log then holds
+ * the only copy of committed changes until they are written back, and
+ * {@link LogFile#recover()} redoes committed and undoes uncommitted work.
+ * In this mode a background {@link PageCleaner} can keep a share of the
+ * frames clean, see {@link #PAGE_CLEANER_PROPERTY}.
+ * <p>
+ * Sequential scans ask for the pages ahead of them with {@link #prefetch};
+ * those pages are read in the background, without taking locks, and put
+ * into free frames or frames of clean pages so that they are already
+ * resident when the scan gets to them, see {@link #READ_AHEAD_PROPERTY}.
  * 
  * @Threadsafe, all fields are final
  */
@@ -38,20 +75,112 @@ public class BufferPool {
     other classes. BufferPool should use the numPages argument to the
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
+
+    /** Name of the system property that sets the default number of shards. */
+    public static final String SHARDS_PROPERTY = "simpledb.storage.BufferPool.shards";
+
+    /** Name of the system property that selects STEAL / NO FORCE. */
+    public static final String STEAL_NO_FORCE_PROPERTY = "simpledb.storage.BufferPool.stealNoForce";
+
+    /**
+     * Name of the system property that starts a {@link PageCleaner} with
+     * every STEAL / NO FORCE pool.
+     */
+    public static final String PAGE_CLEANER_PROPERTY = "simpledb.storage.BufferPool.pageCleaner";
+
+    /**
+     * Name of the system property that sets the number of pages a
+     * sequential scan reads ahead, 0 to disable read-ahead.
+     */
+    public static final String READ_AHEAD_PROPERTY = "simpledb.storage.BufferPool.readAhead";
+
+    /** Default number of pages a sequential scan reads ahead. */
+    public static final int DEFAULT_READ_AHEAD = 16;
+
+    /** Number of threads reading pages ahead of scans. */
+    private static final int PREFETCH_THREADS = 2;
     
     private int numPages;
-    private ConcurrentHashMap<Integer, Page> pagesMap;
     private LockManager lockManager;
+    private final BufferPoolShard[] shards;
+    private final boolean stealNoForce;
+    private volatile PageCleaner pageCleaner;
+    private final int readAhead;
+    private final ThreadPoolExecutor prefetcher;
+
+    /**
+     * lockedPages: pages each running transaction holds a lock on
+     * dirtiedPages: pages each running transaction may have dirtied, i.e.
+     *   fetched READ_WRITE or changed through insertTuple/deleteTuple
+     * Both are kept so that committing, aborting and releasing the locks
+     * of a transaction cost time in the number of pages it touched, not in
+     * the size of the pool or the lock table.
+     */
+    private final ConcurrentHashMap<TransactionId, Set<PageId>> lockedPages;
+    private final ConcurrentHashMap<TransactionId, Set<PageId>> dirtiedPages;
 
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Creates a BufferPool that caches up to numPages pages, split into the
+     * number of shards set by the {@link #SHARDS_PROPERTY} system property
+     * (1 if it is not set), each using the replacement policy selected by
+     * the {@link ReplacementPolicy#POLICY_PROPERTY} system property.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+        this(numPages, Integer.getInteger(SHARDS_PROPERTY, 1));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages, split into
+     * numShards shards.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param numShards number of shards; capped at numPages
+     */
+    public BufferPool(int numPages, int numShards) {
+        this(numPages, numShards, ReplacementPolicy::createDefault);
+    }
+
+    /**
+     * Creates an unsharded BufferPool that caches up to numPages pages.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param replacementPolicy the policy choosing which page to evict
+     */
+    public BufferPool(int numPages, ReplacementPolicy replacementPolicy) {
+        this(numPages, 1, numFrames -> replacementPolicy);
+    }
+
+    private BufferPool(int numPages, int numShards, IntFunction<ReplacementPolicy> policyFactory) {
+        if (numShards < 1) {
+            throw new IllegalArgumentException("a BufferPool needs at least one shard");
+        }
         this.numPages = numPages;
-        pagesMap = new ConcurrentHashMap<Integer, Page>(numPages);
-        lockManager = new LockManager();
+        numShards = Math.max(1, Math.min(numShards, numPages));
+        shards = new BufferPoolShard[numShards];
+        // any one shard may end up holding every page of the pool
+        AtomicInteger poolRoom = new AtomicInteger(numPages);
+        for (int i = 0; i < numShards; i++) {
+            shards[i] = new BufferPoolShard(numPages, policyFactory.apply(numPages), poolRoom);
+        }
+        lockManager = new LockManager(numShards);
+        stealNoForce = Boolean.getBoolean(STEAL_NO_FORCE_PROPERTY);
+        lockedPages = new ConcurrentHashMap<TransactionId, Set<PageId>>();
+        dirtiedPages = new ConcurrentHashMap<TransactionId, Set<PageId>>();
+        // a scan may not read ahead more than a quarter of the pool, or it
+        // would evict the pages it read ahead before getting to them
+        readAhead = Math.min(Integer.getInteger(READ_AHEAD_PROPERTY, DEFAULT_READ_AHEAD), numPages / 4);
+        prefetcher = new ThreadPoolExecutor(PREFETCH_THREADS, PREFETCH_THREADS, 1, TimeUnit.SECONDS,
+        		new LinkedBlockingQueue<Runnable>(), task -> {
+        			Thread thread = new Thread(task, "ReadAhead");
+        			thread.setDaemon(true);
+        			return thread;
+        		});
+        prefetcher.allowCoreThreadTimeOut(true);
+        if (stealNoForce && Boolean.getBoolean(PAGE_CLEANER_PROPERTY)) {
+        	startPageCleaner(PageCleaner.createDefault(this));
+        }
     }
     
     public static int getPageSize() {
@@ -86,22 +215,256 @@ public class BufferPool {
     public Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
     	lockManager.lock(tid, pid, perm);
-    	Integer pageHashCode = pid.hashCode();
-    	if (!pagesMap.containsKey(pageHashCode)) {
-        	// ʵһDbfile: CatalogõͨȫDtabaseõCatalogʵ
-    		DbFile dbFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
-    		Page page = dbFile.readPage(pid);
-    		if (pagesMap.size() >= numPages) {
-    			evictPage();
+    	pagesOf(lockedPages, tid).add(pid);
+    	if (perm == Permissions.READ_WRITE) {
+    		pagesOf(dirtiedPages, tid).add(pid);
+    	}
+    	BufferPoolShard shard = shardOf(pid);
+    	Page page = shard.access(pid);
+    	if (page != null) {
+    		return page;
+    	}
+    	// the page may be on its way in from a read-ahead
+    	shard.awaitPrefetch(pid);
+    	page = shard.access(pid);
+    	if (page != null) {
+    		return page;
+    	}
+    	// 实例化一个Dbfile: 从Catalog得到（通过全局Dtabase得到Catalog实例对象）
+    	DbFile dbFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
+    	// another transaction may read the page at the same time; the shard
+    	// keeps whichever copy is admitted first
+    	page = dbFile.readPage(pid);
+    	while (true) {
+    		try {
+    			return shard.admitRead(page);
+    		} catch (DbException e) {
+    			makeRoom(shard, e);
     		}
-    		pagesMap.put(pid.hashCode(), page);
-        }
-        return pagesMap.get(pid.hashCode());
+    	}
+    }
+
+    /**
+     * Make room for a page of a shard that has no clean page to evict while
+     * the pool is full: another shard evicts one of its clean pages, or else
+     * a dirty page is written back so that it can be evicted (STEAL).
+     *
+     * @param full the exception the shard raised for want of a clean page,
+     *             rethrown when no room can be made
+     */
+    private void makeRoom(BufferPoolShard shard, DbException full) throws DbException {
+    	for (BufferPoolShard other: shards) {
+    		if (other != shard && other.giveUpCleanPage()) {
+    			return;
+    		}
+    	}
+    	stealFrom(shard, full);
+    }
+
+    /**
+     * Write back a dirty page, preferably of the specified shard, so that it
+     * can be evicted (STEAL). This runs under the pool monitor because it
+     * writes to the log, see the locking note of {@link LogFile}.
+     *
+     * @param full the exception the shard raised for want of a clean page,
+     *             rethrown when the pool runs NO STEAL
+     */
+    private void stealFrom(BufferPoolShard shard, DbException full) throws DbException {
+    	if (!stealNoForce) {
+    		throw full;
+    	}
+    	synchronized (this) {
+    		Page victim = shard.dirtyVictim();
+    		for (int i = 0; victim == null && i < shards.length; i++) {
+    			victim = shards[i].dirtyVictim();
+    		}
+    		if (victim == null) {
+    			throw full;
+    		}
+    		try {
+    			TransactionId tid = victim.isDirty();
+    			if (tid != null) {
+    				// write-ahead: writeBack makes the update record durable first
+    				Database.getLogFile().logWrite(tid, victim.getBeforeImage(), victim);
+    				writeBack(victim);
+    			}
+    		} catch (IOException e) {
+    			throw new DbException("Failed to write back a dirty page: " + e.getMessage());
+    		}
+    	}
+    }
+
+    /**
+     * Read the specified pages into the pool in the background, so that a
+     * scan finds them resident. Pages that are resident, already being read
+     * or write locked are skipped, and a page only replaces a clean one; a
+     * read is dropped if another copy of the page enters or leaves the pool
+     * before it completes, as its data may then be stale.
+     *
+     * @param pids pages of one file, in the order they should be read
+     */
+    public void prefetch(List<PageId> pids) {
+    	if (pids.isEmpty()) {
+    		return;
+    	}
+    	List<PageId> reserved = new ArrayList<PageId>(pids.size());
+    	for (PageId pid: pids) {
+    		// a write locked page may be rewritten on disk by a rollback
+    		if (lockManager.pageToPermMap.get(pid) != Permissions.READ_WRITE
+    				&& shardOf(pid).reservePrefetch(pid)) {
+    			reserved.add(pid);
+    		}
+    	}
+    	if (reserved.isEmpty()) {
+    		return;
+    	}
+    	DbFile file = Database.getCatalog().getDatabaseFile(reserved.get(0).getTableId());
+    	prefetcher.execute(() -> {
+    		try {
+    			for (PageId pid: reserved) {
+    				shardOf(pid).admitPrefetched(file.readPage(pid));
+    			}
+    		} finally {
+    			// after an error the scan reads the pages itself and reports it
+    			for (PageId pid: reserved) {
+    				shardOf(pid).cancelPrefetch(pid);
+    			}
+    		}
+    	});
+    }
+
+    /** @return the number of pages a sequential scan of this pool reads ahead */
+    public int getReadAheadWindow() {
+    	return readAhead;
+    }
+
+    /** @return the set of pages the transaction has in the given map, created on first use */
+    private static Set<PageId> pagesOf(ConcurrentHashMap<TransactionId, Set<PageId>> map, TransactionId tid) {
+    	return map.computeIfAbsent(tid, t -> ConcurrentHashMap.newKeySet());
+    }
+
+    /** @return the shard the specified page lives in */
+    private BufferPoolShard shardOf(PageId pid) {
+    	if (shards.length == 1) {
+    		return shards[0];
+    	}
+    	return shards[PageTable.stripe(pid, shards.length)];
     }
     
     public LockManager getLockManager() {
     	return lockManager;
     }
+
+    /** @return true if the pool runs STEAL / NO FORCE, false for NO STEAL / FORCE */
+    public boolean isStealNoForce() {
+    	return stealNoForce;
+    }
+
+    /**
+     * Start a background cleaner for this pool.
+     * @throws IllegalStateException if the pool runs NO STEAL, where no
+     *         dirty page may be written early, or already has a cleaner
+     */
+    public synchronized void startPageCleaner(PageCleaner cleaner) {
+    	if (!stealNoForce) {
+    		throw new IllegalStateException("a NO STEAL buffer pool cannot be cleaned in the background");
+    	}
+    	if (pageCleaner != null) {
+    		throw new IllegalStateException("the buffer pool already has a page cleaner");
+    	}
+    	pageCleaner = cleaner;
+    	cleaner.start();
+    }
+
+    /** Stop the background cleaner of this pool, if it has one. */
+    public void stopPageCleaner() {
+    	PageCleaner cleaner;
+    	synchronized (this) {
+    		cleaner = pageCleaner;
+    		pageCleaner = null;
+    	}
+    	// not under the pool monitor: the cleaner may need it to finish its round
+    	if (cleaner != null) {
+    		cleaner.shutdown();
+    	}
+    }
+
+    /** @return the background cleaner of this pool, or null */
+    public PageCleaner getPageCleaner() {
+    	return pageCleaner;
+    }
+
+    /** @return the number of shards the frames are split into */
+    public int getNumShards() {
+    	return shards.length;
+    }
+
+    /**
+     * @return the replacement policy of the first shard; every shard runs its
+     *         own instance of the same kind of policy
+     */
+    public ReplacementPolicy getReplacementPolicy() {
+    	return shards[0].getReplacementPolicy();
+    }
+
+    /** @return the number of getPage calls served from the pool */
+    public long getHitCount() {
+    	long hits = 0;
+    	for (BufferPoolShard shard: shards) {
+    		hits += shard.getHitCount();
+    	}
+    	return hits;
+    }
+
+    /** @return the number of getPage calls that had to read the page from disk */
+    public long getMissCount() {
+    	long misses = 0;
+    	for (BufferPoolShard shard: shards) {
+    		misses += shard.getMissCount();
+    	}
+    	return misses;
+    }
+
+    /** @return the number of pages evicted to make room for other pages */
+    public long getEvictionCount() {
+    	long evictions = 0;
+    	for (BufferPoolShard shard: shards) {
+    		evictions += shard.getEvictionCount();
+    	}
+    	return evictions;
+    }
+
+    /** @return the number of pages read ahead of a scan and admitted to the pool */
+    public long getPrefetchCount() {
+    	long prefetches = 0;
+    	for (BufferPoolShard shard: shards) {
+    		prefetches += shard.getPrefetchCount();
+    	}
+    	return prefetches;
+    }
+
+    /** @return the number of resident dirty pages */
+    public int getDirtyPageCount() {
+    	List<Page> dirty = new ArrayList<Page>();
+    	for (BufferPoolShard shard: shards) {
+    		shard.dirtyPages(dirty);
+    	}
+    	return dirty.size();
+    }
+
+    /** @return the fraction of getPage calls served from the pool, 0 if there were none */
+    public double getHitRate() {
+    	long hits = getHitCount();
+    	long total = hits + getMissCount();
+    	return total == 0 ? 0.0 : (double) hits / total;
+    }
+
+    /** Reset the hit, miss, eviction and prefetch counters */
+    public void resetStats() {
+    	for (BufferPoolShard shard: shards) {
+    		shard.resetStats();
+    	}
+    }
     
     /**
      * Releases the lock on a page.
@@ -114,6 +477,10 @@ public class BufferPool {
      */
     public void unsafeReleasePage(TransactionId tid, PageId pid) {
         lockManager.unlock(tid, pid);
+        Set<PageId> pids = lockedPages.get(tid);
+        if (pids != null) {
+        	pids.remove(pid);
+        }
     }
 
     /**
@@ -137,28 +504,41 @@ public class BufferPool {
      * @param tid the ID of the transaction requesting the unlock
      * @param commit a flag indicating whether we should commit or abort
      */
-    public synchronized void transactionComplete(TransactionId tid, boolean commit) {
+    public void transactionComplete(TransactionId tid, boolean commit) {
 //    	if (commit) {
 //    		System.out.printf("I am %s, I have commit\n", tid.getId());
 //    	} else {
 //    		System.out.printf("I am %s, I have rollback\n", tid.getId());
 //    	}
     	
-        // ȶ޸ĵҳвȻͷŶӦ
-    	try {
-    		if (commit) {
-    			flushPages(tid);
-    		} else {
-    			restorePages(tid);
-    		}
-    	} catch (IOException e) {
-			e.printStackTrace();
-		}
+        // 先对修改得页进行操作，然后释放对应得锁
+    	// only the write-back runs under the pool monitor, which orders it
+    	// against log checkpoints and rollbacks (see LogFile); releasing the
+    	// locks afterwards needs no pool-wide exclusion
+    	synchronized (this) {
+	    	try {
+	    		if (commit && stealNoForce) {
+	    			logPages(tid);
+	    		} else if (commit) {
+	    			flushPages(tid);
+	    		} else {
+	    			restorePages(tid);
+	    		}
+	    		if (commit) {
+	    			// committed in the log before anyone else can see its pages
+	    			Database.getLogFile().appendCommit(tid);
+	    		}
+	    	} catch (IOException e) {
+				e.printStackTrace();
+			}
+    	}
     	// lockManager.releaseTransWaitLock(tid);
-    	Iterator<Map.Entry<Integer, Page>> pageIterator = pagesMap.entrySet().iterator();
-    	while (pageIterator.hasNext()) {
-    		Page page = pageIterator.next().getValue();
-    		unsafeReleasePage(tid, page.getId());
+    	dirtiedPages.remove(tid);
+    	Set<PageId> pids = lockedPages.remove(tid);
+    	if (pids != null) {
+    		for (PageId pid: pids) {
+    			lockManager.unlock(tid, pid);
+    		}
     	}
     }
 
@@ -181,9 +561,40 @@ public class BufferPool {
         throws DbException, IOException, TransactionAbortedException {
         DbFile file = Database.getCatalog().getDatabaseFile(tableId);
         List<Page> pageList = file.insertTuple(tid, tup);
+        Set<PageId> dirtied = pagesOf(dirtiedPages, tid);
         for (Page page: pageList) {
         	page.markDirty(true, tid);
-        	pagesMap.put(page.getId().hashCode(), page);
+        	dirtied.add(page.getId());
+        	cachePage(page);
+        }
+    }
+
+    /**
+     * Add a batch of tuples to the specified table on behalf of transaction
+     * tid, as {@link #insertTuple} does for each of them. A B+ tree inserts
+     * the batch in key order in one pass, see
+     * {@link BTreeFile#insertTuples(TransactionId, List)}; other files take
+     * the tuples one at a time.
+     *
+     * @param tid the transaction adding the tuples
+     * @param tableId the table to add the tuples to
+     * @param tuples the tuples to add
+     */
+    public void insertTuples(TransactionId tid, int tableId, List<Tuple> tuples)
+        throws DbException, IOException, TransactionAbortedException {
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        if (!(file instanceof BTreeFile)) {
+            for (Tuple tup: tuples) {
+                insertTuple(tid, tableId, tup);
+            }
+            return;
+        }
+        List<Page> pageList = ((BTreeFile) file).insertTuples(tid, tuples);
+        Set<PageId> dirtied = pagesOf(dirtiedPages, tid);
+        for (Page page: pageList) {
+        	page.markDirty(true, tid);
+        	dirtied.add(page.getId());
+        	cachePage(page);
         }
     }
 
@@ -204,24 +615,80 @@ public class BufferPool {
         throws DbException, IOException, TransactionAbortedException {
     	 DbFile file = Database.getCatalog().getDatabaseFile(tup.getRecordId().getPageId().getTableId());
          List<Page> pageList = file.deleteTuple(tid, tup);
+         Set<PageId> dirtied = pagesOf(dirtiedPages, tid);
          for (Page page: pageList) {
         	 page.markDirty(true, tid);
-         	 pagesMap.put(page.getId().hashCode(), page);
+        	 dirtied.add(page.getId());
+        	 cachePage(page);
          }
     }
 
+    /**
+     * Put a page dirtied by insertTuple/deleteTuple into the pool, replacing
+     * any cached version of it.
+     */
+    private void cachePage(Page page) throws DbException {
+    	BufferPoolShard shard = shardOf(page.getId());
+    	while (true) {
+    		try {
+    			shard.cache(page);
+    			return;
+    		} catch (DbException e) {
+    			makeRoom(shard, e);
+    		}
+    	}
+    }
+
     /**
      * Flush all dirty pages to disk.
      * NB: Be careful using this routine -- it writes dirty data to disk so will
      *     break simpledb if running in NO STEAL mode.
+     * <p>
+     * The update records of all dirty pages are logged and forced once, by
+     * the calling thread (which may already hold the log, e.g. during a
+     * checkpoint); the pages themselves are then written back by all shards
+     * in parallel. All write-backs run under the pool monitor, so two
+     * versions of a page cannot reach the disk out of order.
      */
-    public void flushAllPages() throws IOException {
-        for (Map.Entry<Integer, Page> entry: pagesMap.entrySet()) {
-        	Page page = entry.getValue();
-        	if (page.isDirty() != null) {
-        		flushPage(page.getId());
-        	}
-        }
+    public synchronized void flushAllPages() throws IOException {
+    	List<List<Page>> dirtyPages = new ArrayList<List<Page>>(shards.length);
+    	boolean anyDirty = false;
+    	for (BufferPoolShard shard: shards) {
+    		List<Page> pages = new ArrayList<Page>();
+    		shard.dirtyPages(pages);
+    		dirtyPages.add(pages);
+    		anyDirty |= !pages.isEmpty();
+    	}
+    	if (!anyDirty) {
+    		return;
+    	}
+    	long lsn = 0;
+    	for (List<Page> pages: dirtyPages) {
+    		for (Page page: pages) {
+    			TransactionId tid = page.isDirty();
+    			if (tid != null) {
+    				lsn = Math.max(lsn, Database.getLogFile().logWrite(tid, page.getBeforeImage(), page));
+    			} else {
+    				lsn = Math.max(lsn, page.getLsn());
+    			}
+    		}
+    	}
+    	// here rather than in the shards, which cannot take the log if the
+    	// calling thread holds it
+    	Database.getLogFile().flushToLsn(lsn);
+    	try {
+    		IntStream.range(0, shards.length).parallel().forEach(i -> {
+    			try {
+    				for (Page page: dirtyPages.get(i)) {
+    					writeBack(page);
+    				}
+    			} catch (IOException e) {
+    				throw new UncheckedIOException(e);
+    			}
+    		});
+    	} catch (UncheckedIOException e) {
+    		throw e.getCause();
+    	}
     }
 
     /** Remove the specific page id from the buffer pool.
@@ -233,93 +700,188 @@ public class BufferPool {
         are removed from the cache so they can be reused safely
     */
     public void discardPage(PageId pid) {
-        pagesMap.remove(pid.hashCode());
+        shardOf(pid).discard(pid);
     }
 
     /**
-     * Flushes a certain page to disk
-     * @param pid an ID indicating the page to flush
+     * Write a dirty page to its file and mark it clean. The update record
+     * of the page must already be in the log, which is made durable up to
+     * the LSN of the page first (write-ahead). The before-image is left
+     * alone: it must stay the last committed version of the page until the
+     * transaction that dirtied it commits.
      */
-    private void flushPage(PageId pid) throws IOException {
-        Page page = pagesMap.get(pid.hashCode());
-        TransactionId tid = page.isDirty(); // ȡҳΪnull˵ҳ
-        if (tid != null) {
-        	// ־¼ڻع Database.getLogFile().logWrite
-        	Database.getLogFile().logWrite(tid, page.getBeforeImage(), page);
-            Database.getLogFile().force();
-        	DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
-        	file.writePage(page);
-        	page.markDirty(false, null);
-        	// use current page contents as the before-image
-        	// for the next transaction that modifies this page.
-        	page.setBeforeImage();
-        }
+    private void writeBack(Page page) throws IOException {
+    	Database.getLogFile().flushToLsn(page.getLsn());
+    	DbFile file = Database.getCatalog().getDatabaseFile(page.getId().getTableId());
+    	file.writePage(page);
+    	Database.getLogFile().pageWritten(page.getId());
+    	page.markDirty(false, null);
+    }
+
+    /**
+     * Write back dirty pages until the given fraction of frames is clean,
+     * in file and page number order. Used by the {@link PageCleaner}.
+     * <p>
+     * Only pages no transaction holds a lock on are written. Such a page
+     * cannot change while it is unlocked, and its before-image holds the
+     * same data, so that copy is logged and written while the page stays
+     * available; the page is marked clean only if it is still unlocked and
+     * was not dirtied again in the meantime.
+     *
+     * @param targetClean the fraction of frames that should be clean
+     * @param maxPages the maximum number of pages to write
+     * @return the number of pages written
+     */
+    int cleanPages(double targetClean, int maxPages) throws IOException {
+    	List<Page> dirty = new ArrayList<Page>();
+    	for (BufferPoolShard shard: shards) {
+    		shard.dirtyPages(dirty);
+    	}
+    	int toWrite = Math.min(maxPages, dirty.size() - (int) (numPages * (1 - targetClean)));
+    	if (toWrite <= 0) {
+    		return 0;
+    	}
+    	dirty.sort(Comparator.comparingInt((Page page) -> page.getId().getTableId())
+    			.thenComparingInt(page -> page.getId().getPageNumber()));
+
+    	synchronized (this) {
+    		List<Page> pages = new ArrayList<Page>(toWrite);
+    		List<Page> images = new ArrayList<Page>(toWrite);
+    		List<TransactionId> dirtiers = new ArrayList<TransactionId>(toWrite);
+    		for (Page page: dirty) {
+    			if (pages.size() == toWrite) {
+    				break;
+    			}
+    			synchronized (lockManager.latch(page.getId())) {
+    				TransactionId tid = page.isDirty();
+    				if (tid != null && !lockManager.pageToPermMap.containsKey(page.getId())) {
+    					// the image carries the LSN of the page, so that the log is
+    					// flushed past its records even if logging it adds none
+    					Page image = page.getBeforeImage();
+    					image.setLsn(page.getLsn());
+    					pages.add(page);
+    					images.add(image);
+    					dirtiers.add(tid);
+    				}
+    			}
+    		}
+    		if (pages.isEmpty()) {
+    			return 0;
+    		}
+    		long lsn = 0;
+    		for (int i = 0; i < pages.size(); i++) {
+    			lsn = Math.max(lsn, Database.getLogFile().logWrite(dirtiers.get(i), images.get(i), images.get(i)));
+    		}
+    		Database.getLogFile().flushToLsn(lsn);
+    		for (int i = 0; i < pages.size(); i++) {
+    			Page image = images.get(i);
+    			Database.getCatalog().getDatabaseFile(image.getId().getTableId()).writePage(image);
+    			Database.getLogFile().pageWritten(image.getId());
+    			Page page = pages.get(i);
+    			synchronized (lockManager.latch(page.getId())) {
+    				if (dirtiers.get(i).equals(page.isDirty())
+    						&& !lockManager.pageToPermMap.containsKey(page.getId())) {
+    					page.markDirty(false, null);
+    				}
+    			}
+    		}
+    		return pages.size();
+    	}
+    }
+
+    /**
+     * NO FORCE commit: log the after-image of every page the transaction
+     * dirtied and leave the pages dirty in the pool. The commit record that
+     * follows forces these records to disk along with it.
+     */
+    private void logPages(TransactionId tid) throws IOException {
+    	Set<PageId> pids = dirtiedPages.get(tid);
+    	if (pids == null) {
+    		return;
+    	}
+    	for (PageId pid: pids) {
+    		Page page = shardOf(pid).lookup(pid);
+    		if (page == null) {
+    			continue;
+    		}
+    		if (tid.equals(page.isDirty())) {
+    			Database.getLogFile().logWrite(tid, page.getBeforeImage(), page);
+    		}
+    		page.setBeforeImage();
+    	}
     }
     
     private void restorePage(PageId pid) throws IOException {
-    	Page page = pagesMap.get(pid.hashCode());
+    	BufferPoolShard shard = shardOf(pid);
+    	Page page = shard.lookup(pid);
+    	if (page == null) {
+    		return;
+    	}
     	TransactionId tid = page.isDirty();
-    	if (tid != null) {
+    	if (tid != null && stealNoForce) {
+    		// the file may not hold the last committed version yet, so go back
+    		// to the before-image and keep the page dirty. Pages written back
+    		// while the transaction ran were restored by LogFile.rollback.
+    		// The image keeps the LSN of the page, so that it is not written
+    		// before the records of the version it holds are durable.
+    		Page image = page.getBeforeImage();
+    		image.setLsn(page.getLsn());
+    		image.markDirty(true, tid);
+    		shard.replace(image);
+    	} else if (tid != null) {
     		page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
-    		pagesMap.put(page.getId().hashCode(), page);
+    		shard.replace(page);
     		page.markDirty(false, null);
     	}
     }
 
     /** Write all pages of the specified transaction to disk.
+     * <p>
+     * The update records of all the pages are logged first and the log is
+     * forced once for all of them, rather than once per page, before the
+     * pages are written back.
      */
     public synchronized void flushPages(TransactionId tid) throws IOException {
-    	if (lockManager.tIdToLocksMap.isEmpty()) {
+    	Set<PageId> pids = dirtiedPages.get(tid);
+    	if (pids == null) {
     		return;
     	}
-        for (RWLock rwLock: lockManager.tIdToLocksMap.getOrDefault(tid, new CopyOnWriteArraySet<RWLock>())) {
-        	for (PageId pageId: lockManager.pageToLockMap.keySet()) {
-        		if (rwLock.equals(lockManager.pageToLockMap.get(pageId)) 
-        				&& pagesMap.containsKey(pageId.hashCode())) {
-        			flushPage(pageId);
-        			break;
-        		}
-        	}
-        }
+    	List<Page> pages = new ArrayList<Page>(pids.size());
+    	List<Page> dirty = new ArrayList<Page>(pids.size());
+    	long lsn = 0;
+    	for (PageId pid: pids) {
+    		Page page = shardOf(pid).lookup(pid);
+    		if (page == null) {
+    			continue;
+    		}
+    		pages.add(page);
+    		TransactionId dirtier = page.isDirty();
+    		if (dirtier != null) {
+    			lsn = Math.max(lsn, Database.getLogFile().logWrite(dirtier, page.getBeforeImage(), page));
+    			dirty.add(page);
+    		}
+    	}
+    	if (!dirty.isEmpty()) {
+    		Database.getLogFile().flushToLsn(lsn);
+    		for (Page page: dirty) {
+    			writeBack(page);
+    		}
+    	}
+    	for (Page page: pages) {
+    		// use current page contents as the before-image
+    		// for the next transaction that modifies this page.
+    		page.setBeforeImage();
+    	}
     }
     
     public synchronized void restorePages(TransactionId tid) throws IOException {
-    	if (lockManager.tIdToLocksMap.isEmpty()) {
+    	Set<PageId> pids = dirtiedPages.get(tid);
+    	if (pids == null) {
     		return;
     	}
-    	for (RWLock rwLock: lockManager.tIdToLocksMap.getOrDefault(tid, new CopyOnWriteArraySet<RWLock>())) {
-        	for (PageId pageId: lockManager.pageToLockMap.keySet()) {
-        		if (rwLock.equals(lockManager.pageToLockMap.get(pageId)) 
-        				&& pagesMap.containsKey(pageId.hashCode())) {
-        			restorePage(pageId);	
-        			break;
-        		}
-        	}
-        } 
-    }
-
-    /**
-     * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
-     */
-    private void evictPage() throws DbException {
-        Iterator<Map.Entry<Integer, Page>> pageIterator = pagesMap.entrySet().iterator();
-        // ҳ޸ֻύŻд  no steal 
-        while (pageIterator.hasNext()) {
-        	Map.Entry<Integer, Page> item = pageIterator.next();
-        	Page page = item.getValue();
-        	if (page.isDirty() == null) {
-        		try {
-					flushPage(page.getId());
-					discardPage(page.getId());
-					return;
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
-        	}
-        }
-        // ûһҳ׳쳣
-        throw new DbException("No non-dirty pages can be used for expulsion!");
+    	for (PageId pid: pids) {
+    		restorePage(pid);
+    	}
     }
 
 }
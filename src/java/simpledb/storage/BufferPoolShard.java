@@ -0,0 +1,334 @@
+package simpledb.storage;
+
+import simpledb.common.DbException;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One partition of the {@link BufferPool}.
+ * <p>
+ * A shard owns a fixed number of frames together with the {@link PageTable}
+ * and {@link ReplacementPolicy} that manage them, and guards all of it with
+ * its own monitor. Pages are assigned to shards by hashing their PageId, so
+ * threads working on different pages rarely meet on the same monitor. The
+ * monitor is never held across disk I/O.
+ * <p>
+ * The shards share the capacity of the pool rather than split it: every
+ * shard has frames for as many pages as the pool holds, and a page takes
+ * one unit of the room left in the pool when it is admitted. A shard with
+ * no room and no clean page of its own to evict is given room by another
+ * shard evicting one of its clean pages, see {@link #giveUpCleanPage}.
+ */
+class BufferPoolShard {
+
+    /**
+     * frames: the cached pages, null for a free frame
+     * pageTable: resident page -> index of its frame
+     * freeFrames: stack of the numFreeFrames unused frame indexes
+     * poolRoom: number of pages the pool as a whole may still admit, shared
+     *   by all shards
+     */
+    private final Page[] frames;
+    private final PageTable pageTable;
+    private final int[] freeFrames;
+    private int numFreeFrames;
+    private final AtomicInteger poolRoom;
+    private final ReplacementPolicy replacementPolicy;
+    /**
+     * Pages being read ahead; a page leaves the set as soon as any other
+     * copy of it is admitted or discarded, which voids the read
+     */
+    private final Set<PageId> prefetching;
+
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+    private long prefetchCount;
+
+    /**
+     * @param numFrames the number of pages this shard can hold, at most the
+     *                  number the pool holds
+     * @param replacementPolicy the policy choosing which page to evict, sized
+     *                          for numFrames frames
+     * @param poolRoom the room left in the pool, shared by its shards
+     */
+    BufferPoolShard(int numFrames, ReplacementPolicy replacementPolicy, AtomicInteger poolRoom) {
+        this.frames = new Page[numFrames];
+        this.pageTable = new PageTable(numFrames);
+        this.freeFrames = new int[numFrames];
+        for (int i = 0; i < numFrames; i++) {
+            freeFrames[i] = numFrames - 1 - i;
+        }
+        this.numFreeFrames = numFrames;
+        this.poolRoom = poolRoom;
+        this.replacementPolicy = replacementPolicy;
+        this.prefetching = new HashSet<PageId>();
+    }
+
+    ReplacementPolicy getReplacementPolicy() {
+        return replacementPolicy;
+    }
+
+    /**
+     * Serve a getPage request from the shard.
+     * @return the cached page, or null if it has to be read from disk
+     */
+    synchronized Page access(PageId pid) {
+        int frame = pageTable.get(pid);
+        if (frame < 0) {
+            return null;
+        }
+        hitCount++;
+        replacementPolicy.recordAccess(frame);
+        return frames[frame];
+    }
+
+    /**
+     * Find the page with the specified id if it is resident, without
+     * counting it as a reference.
+     * @return the cached page, or null
+     */
+    synchronized Page lookup(PageId pid) {
+        int frame = pageTable.get(pid);
+        return frame >= 0 ? frames[frame] : null;
+    }
+
+    /**
+     * Admit a page that getPage just read from disk.
+     * @return the page to hand out: the one passed in, or the copy another
+     *         thread admitted while this one was reading
+     */
+    synchronized Page admitRead(Page page) throws DbException {
+        int frame = pageTable.get(page.getId());
+        if (frame >= 0) {
+            missCount++;
+            replacementPolicy.recordAccess(frame);
+            return frames[frame];
+        }
+        // count the miss only once the page is in, as the caller retries
+        // when the shard has no page it may evict
+        admit(page);
+        missCount++;
+        return page;
+    }
+
+    /**
+     * Put a page dirtied by insertTuple/deleteTuple into the shard, replacing
+     * any cached version of it.
+     */
+    synchronized void cache(Page page) throws DbException {
+        int frame = pageTable.get(page.getId());
+        if (frame >= 0) {
+            frames[frame] = page;
+            replacementPolicy.recordAccess(frame);
+        } else {
+            admit(page);
+        }
+    }
+
+    /**
+     * Replace the cached version of a page, if it is still resident.
+     */
+    synchronized void replace(Page page) {
+        int frame = pageTable.get(page.getId());
+        if (frame >= 0) {
+            frames[frame] = page;
+        }
+    }
+
+    /**
+     * Claim a page for read-ahead.
+     * @return false if the page is resident or already being read ahead
+     */
+    synchronized boolean reservePrefetch(PageId pid) {
+        if (pageTable.get(pid) >= 0) {
+            return false;
+        }
+        return prefetching.add(pid);
+    }
+
+    /** Give up a claim made with {@link #reservePrefetch}. */
+    synchronized void cancelPrefetch(PageId pid) {
+        if (prefetching.remove(pid)) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Wait until a page that is being read ahead is admitted or dropped, so
+     * that a getPage miss does not read it a second time. Returns at once if
+     * the page is not being read ahead.
+     */
+    synchronized void awaitPrefetch(PageId pid) {
+        boolean interrupted = false;
+        while (prefetching.contains(pid)) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Admit a page read ahead of the scan that asked for it, unless the read
+     * was voided in the meantime. Only a free frame or a clean page is
+     * given up for it, and the admission is not counted as a miss.
+     * @return true if the page was admitted
+     */
+    synchronized boolean admitPrefetched(Page page) {
+        if (!prefetching.remove(page.getId())) {
+            return false;
+        }
+        notifyAll();
+        try {
+            admit(page);
+        } catch (DbException e) {
+            // no clean page to give up: the read-ahead is simply dropped
+            return false;
+        }
+        prefetchCount++;
+        return true;
+    }
+
+    /** Remove the specified page from the shard, if it is resident. */
+    synchronized void discard(PageId pid) {
+        if (!prefetching.isEmpty()) {
+            prefetching.remove(pid);
+        }
+        int frame = releaseFrame(pid);
+        if (frame >= 0) {
+            replacementPolicy.recordDiscard(frame);
+            poolRoom.incrementAndGet();
+        }
+    }
+
+    /**
+     * Evict a clean page and hand its room to the pool, for a shard that
+     * has no clean page of its own to evict.
+     * @return false if this shard has no clean page
+     */
+    synchronized boolean giveUpCleanPage() {
+        if (numFreeFrames == frames.length) {
+            return false;
+        }
+        try {
+            evict();
+        } catch (DbException e) {
+            return false;
+        }
+        poolRoom.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Nominate a page to write back so that it can be evicted, dirty or not.
+     * Used when the shard is full of dirty pages and the pool runs STEAL.
+     * @return the nominated page, or null if the shard holds no page
+     */
+    synchronized Page dirtyVictim() {
+        int victim = replacementPolicy.chooseVictim(frame -> true);
+        return victim >= 0 ? frames[victim] : null;
+    }
+
+    /** Append all resident dirty pages to the list. */
+    synchronized void dirtyPages(List<Page> pages) {
+        for (Page page : frames) {
+            if (page != null && page.isDirty() != null) {
+                pages.add(page);
+            }
+        }
+    }
+
+    synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    synchronized long getMissCount() {
+        return missCount;
+    }
+
+    synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    synchronized long getPrefetchCount() {
+        return prefetchCount;
+    }
+
+    synchronized void resetStats() {
+        hitCount = 0;
+        missCount = 0;
+        evictionCount = 0;
+        prefetchCount = 0;
+    }
+
+    /**
+     * Put a page that is not resident yet into a free frame, evicting a page
+     * of this shard if the pool is full; the page then takes the room of the
+     * evicted one.
+     */
+    private void admit(Page page) throws DbException {
+        if (!takeRoom()) {
+            evict();
+        }
+        if (!prefetching.isEmpty()) {
+            // a copy read ahead earlier may be older than this one
+            prefetching.remove(page.getId());
+        }
+        int frame = freeFrames[--numFreeFrames];
+        frames[frame] = page;
+        pageTable.put(page.getId(), frame);
+        replacementPolicy.recordAdmit(frame, page.getId());
+    }
+
+    /** @return true if a unit of the room left in the pool was taken */
+    private boolean takeRoom() {
+        while (true) {
+            int room = poolRoom.get();
+            if (room == 0) {
+                return false;
+            }
+            if (poolRoom.compareAndSet(room, room - 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Give up the frame holding the specified page.
+     * @return the freed frame, or -1 if the page was not resident
+     */
+    private int releaseFrame(PageId pid) {
+        int frame = pageTable.remove(pid);
+        if (frame >= 0) {
+            frames[frame] = null;
+            freeFrames[numFreeFrames++] = frame;
+        }
+        return frame;
+    }
+
+    /**
+     * Discards a clean page to make room in the shard. The room stays with
+     * the caller, which takes it for another page or gives it back to the
+     * pool. Dirty pages are never
+     * evicted here; under NO STEAL a transaction's changes only reach the
+     * disk when it commits, and under STEAL the BufferPool first writes a
+     * dirty page back through the log (see {@link #dirtyVictim()}).
+     */
+    private void evict() throws DbException {
+        int victim = replacementPolicy.chooseVictim(frame -> frames[frame].isDirty() == null);
+        if (victim < 0) {
+            throw new DbException("No non-dirty pages can be used for expulsion!");
+        }
+        releaseFrame(frames[victim].getId());
+        replacementPolicy.recordEvict(victim);
+        evictionCount++;
+    }
+}
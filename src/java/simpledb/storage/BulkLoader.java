@@ -0,0 +1,434 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import simpledb.common.Type;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeBuilder;
+
+/**
+ * Loads a delimited text file into a heap file, using all cores.
+ * <p>
+ * The input is read in large chunks cut at line boundaries. Worker threads
+ * parse the chunks into records in the on-disk format of the table, and the
+ * calling thread packs the records of the chunks, in input order, straight
+ * into page-sized regions of a large buffer that it writes to the output
+ * file sequentially. The pages are the same as those written by
+ * {@link HeapFileEncoder} one character at a time: full pages of records in
+ * input order, then a last page with the rest, or a single empty page if
+ * the input holds no records.
+ * <p>
+ * Lines are split on the field separator and each field is trimmed; fields
+ * past the last column are ignored. A line with too few fields or a
+ * malformed int is reported and skipped, and empty lines are skipped. The
+ * input is read as bytes, one character per byte, so strings are stored as
+ * they appear in the file.
+ * <p>
+ * Loading into a {@link BTreeFile} as well builds a B+ tree on the same
+ * rows in the same pass: each worker also sorts the records of its chunk
+ * on the key, and the sorted chunks are handed to a {@link BTreeBuilder}
+ * as runs, which it writes out once the input is read.
+ * <p>
+ * The number of worker threads is set by the system property
+ * {@link #THREADS_PROPERTY}, by default the number of processors, and the
+ * size of the chunks by {@link #CHUNK_SIZE_PROPERTY}.
+ */
+public class BulkLoader {
+
+    /** Name of the system property that sets the number of worker threads. */
+    public static final String THREADS_PROPERTY = "simpledb.storage.BulkLoader.threads";
+
+    /** Name of the system property that sets the size of a chunk of input, in bytes. */
+    public static final String CHUNK_SIZE_PROPERTY = "simpledb.storage.BulkLoader.chunkSize";
+
+    private static final int DEFAULT_CHUNK_SIZE = 8 << 20;
+
+    /** size of the writes to the output file, in bytes */
+    private static final int WRITE_SIZE = 1 << 20;
+
+    private final TupleDesc td;
+    private final byte separator;
+    private final HeapFile.Format format;
+    private final int npagebytes;
+    private final int threads;
+    private final int chunkSize;
+
+    private final int recordSize;
+    private final int nrecords;
+    private final int nheaderbytes;
+
+    /** What a load did. */
+    public static class Result {
+        /** number of tuples loaded */
+        public long rows;
+        /** number of lines skipped because they were malformed */
+        public long badLines;
+        /** number of pages written to the heap file */
+        public int pages;
+        /** time the load took, in nanoseconds */
+        public long nanos;
+
+        public double rowsPerSecond() {
+            return rows / (nanos / 1e9);
+        }
+
+        public String toString() {
+            return String.format("%d rows, %d pages in %.2f s (%.0f rows/s), %d bad lines",
+                    rows, pages, nanos / 1e9, rowsPerSecond(), badLines);
+        }
+    }
+
+    /**
+     * Create a loader for heap files of the fixed-slot format with pages of
+     * {@link BufferPool#getPageSize()} bytes.
+     *
+     * @param td the TupleDesc of the table
+     * @param fieldSeparator the character separating the fields of a line
+     */
+    public BulkLoader(TupleDesc td, char fieldSeparator) {
+        this(td, fieldSeparator, HeapFile.Format.FIXED, BufferPool.getPageSize());
+    }
+
+    /**
+     * @param td the TupleDesc of the table
+     * @param fieldSeparator the character separating the fields of a line
+     * @param format the format of the pages, FIXED or PAX
+     * @param npagebytes the number of bytes per page
+     */
+    public BulkLoader(TupleDesc td, char fieldSeparator, HeapFile.Format format, int npagebytes) {
+        if (format == HeapFile.Format.SLOTTED) {
+            throw new IllegalArgumentException("slotted pages are written by HeapFileEncoder");
+        }
+        if (fieldSeparator > 0x7f) {
+            throw new IllegalArgumentException("the field separator must be an ASCII character");
+        }
+        this.td = td;
+        this.separator = (byte) fieldSeparator;
+        this.format = format;
+        this.npagebytes = npagebytes;
+        this.threads = Math.max(1, Integer.getInteger(THREADS_PROPERTY,
+                Runtime.getRuntime().availableProcessors()));
+        this.chunkSize = Math.max(1, Integer.getInteger(CHUNK_SIZE_PROPERTY, DEFAULT_CHUNK_SIZE));
+
+        this.recordSize = td.getSize();
+        this.nrecords = (npagebytes * 8) / (recordSize * 8 + 1); //floor comes for free
+        this.nheaderbytes = (nrecords + 7) / 8;
+    }
+
+    /**
+     * Load a text file into a heap file.
+     *
+     * @param inFile the input file, one tuple per line
+     * @param outFile the data file of the heap file; it is replaced
+     */
+    public Result load(File inFile, File outFile) throws IOException {
+        return load(inFile, outFile, null);
+    }
+
+    /**
+     * Load a text file into a heap file, and build a B+ tree on its tuples
+     * in the same pass.
+     *
+     * @param inFile the input file, one tuple per line
+     * @param outFile the data file of the heap file; it is replaced
+     * @param index an empty BTreeFile with the TupleDesc of the table,
+     *        already added to the catalog, or null
+     */
+    public Result load(File inFile, File outFile, BTreeFile index) throws IOException {
+        Type[] types = typesOf(td);
+        if (index != null && (!Arrays.equals(types, typesOf(index.getTupleDesc())) || index.numPages() > 0)) {
+            throw new IllegalArgumentException("the index must be empty and have the types of the table");
+        }
+        BTreeBuilder builder = index == null ? null : new BTreeBuilder(index);
+        long start = System.nanoTime();
+        Result result = new Result();
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "BulkLoader");
+            t.setDaemon(true);
+            return t;
+        });
+        Deque<Future<Chunk>> parsing = new ArrayDeque<>();
+        HeapFile.deleteSideFiles(outFile);
+        try (InputStream in = new FileInputStream(inFile);
+             PageWriter out = new PageWriter(new FileOutputStream(outFile).getChannel())) {
+            byte[] buf = new byte[chunkSize];
+            int filled = 0;
+            boolean eof = false;
+            while (!eof) {
+                filled += in.readNBytes(buf, filled, buf.length - filled);
+                eof = filled < buf.length;
+                int end = eof ? filled : lastLineEnd(buf, filled);
+                if (end == 0 && !eof) {
+                    // a line longer than a chunk
+                    buf = Arrays.copyOf(buf, buf.length * 2);
+                    continue;
+                }
+                byte[] next = new byte[Math.max(chunkSize, 2 * (filled - end))];
+                System.arraycopy(buf, end, next, 0, filled - end);
+                byte[] text = buf;
+                parsing.add(pool.submit(() -> parse(text, end, builder)));
+                buf = next;
+                filled -= end;
+
+                // bound the number of chunks held in memory
+                while (parsing.size() > 2 * threads || eof && !parsing.isEmpty()) {
+                    Chunk chunk = parsing.remove().get();
+                    out.add(chunk.records, chunk.count);
+                    result.rows += chunk.count;
+                    result.badLines += chunk.badLines;
+                    if (builder != null) {
+                        builder.addRun(chunk.sorted, chunk.count);
+                    }
+                }
+            }
+            result.pages = out.finish();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while loading " + inFile, e);
+        } catch (ExecutionException e) {
+            throw new IOException("could not load " + inFile, e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+
+        if (builder != null) {
+            builder.finish();
+        }
+        result.nanos = System.nanoTime() - start;
+        return result;
+    }
+
+    private static Type[] typesOf(TupleDesc td) {
+        Type[] types = new Type[td.numFields()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = td.getFieldType(i);
+        }
+        return types;
+    }
+
+    /** @return the offset just past the last newline in the first n bytes, or 0 */
+    private static int lastLineEnd(byte[] buf, int n) {
+        for (int i = n - 1; i >= 0; i--) {
+            if (buf[i] == '\n') {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    /** The records parsed from a chunk of input, in input order. */
+    private class Chunk {
+        byte[] records;
+        int count;
+        long badLines;
+        /** with an index, the records in key order */
+        byte[] sorted;
+    }
+
+    /**
+     * Parse the lines in the first n bytes of a chunk of input into records,
+     * and sort them for the index if there is one.
+     */
+    private Chunk parse(byte[] text, int n, BTreeBuilder builder) {
+        Chunk chunk = new Chunk();
+        chunk.records = new byte[Math.max(recordSize, n / 4 / recordSize * recordSize)];
+        int pos = 0;
+        while (pos < n) {
+            int end = pos;
+            while (end < n && text[end] != '\n') {
+                end++;
+            }
+            int last = end;
+            // ignore Windows/Notepad special line endings
+            while (last > pos && text[last - 1] == '\r') {
+                last--;
+            }
+            if (last > pos) {
+                int offset = chunk.count * recordSize;
+                if (offset + recordSize > chunk.records.length) {
+                    chunk.records = Arrays.copyOf(chunk.records, chunk.records.length * 2);
+                }
+                if (parseLine(text, pos, last, chunk.records, offset)) {
+                    chunk.count++;
+                } else {
+                    Arrays.fill(chunk.records, offset, offset + recordSize, (byte) 0);
+                    chunk.badLines++;
+                    System.out.println("BAD LINE : " + new String(text, pos, last - pos, StandardCharsets.ISO_8859_1));
+                }
+            }
+            pos = end + 1;
+        }
+        if (builder != null) {
+            chunk.sorted = builder.sort(chunk.records, chunk.count);
+        }
+        return chunk;
+    }
+
+    /**
+     * Write the record of the line between start and end into out at offset.
+     *
+     * @return false if the line is malformed
+     */
+    private boolean parseLine(byte[] text, int start, int end, byte[] out, int offset) {
+        int pos = start;
+        for (int f = 0; f < td.numFields(); f++) {
+            if (pos > end) {
+                return false;
+            }
+            int fieldEnd = pos;
+            while (fieldEnd < end && text[fieldEnd] != separator) {
+                fieldEnd++;
+            }
+            // trim as String.trim does
+            int s = pos;
+            int e = fieldEnd;
+            while (s < e && (text[s] & 0xff) <= ' ') {
+                s++;
+            }
+            while (e > s && (text[e - 1] & 0xff) <= ' ') {
+                e--;
+            }
+            if (td.getFieldType(f) == Type.INT_TYPE) {
+                long value = 0;
+                boolean negative = false;
+                int i = s;
+                if (i < e && (text[i] == '-' || text[i] == '+')) {
+                    negative = text[i] == '-';
+                    i++;
+                }
+                if (i == e || e - i > 10) {
+                    return false;
+                }
+                for (; i < e; i++) {
+                    int digit = text[i] - '0';
+                    if (digit < 0 || digit > 9) {
+                        return false;
+                    }
+                    value = value * 10 + digit;
+                }
+                value = negative ? -value : value;
+                if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+                    return false;
+                }
+                putInt(out, offset, (int) value);
+                offset += Type.INT_TYPE.getLen();
+            } else {
+                int len = Math.min(e - s, Type.STRING_LEN);
+                putInt(out, offset, len);
+                System.arraycopy(text, s, out, offset + 4, len);
+                // the rest of the field is already zero
+                offset += Type.STRING_TYPE.getLen();
+            }
+            pos = fieldEnd + 1;
+        }
+        return true;
+    }
+
+    private static void putInt(byte[] b, int offset, int v) {
+        b[offset] = (byte) (v >>> 24);
+        b[offset + 1] = (byte) (v >>> 16);
+        b[offset + 2] = (byte) (v >>> 8);
+        b[offset + 3] = (byte) v;
+    }
+
+    private static int getInt(byte[] b, int offset) {
+        return (b[offset] << 24) | ((b[offset + 1] & 0xff) << 16)
+                | ((b[offset + 2] & 0xff) << 8) | (b[offset + 3] & 0xff);
+    }
+
+    /**
+     * Packs records into pages in a large buffer, and writes the buffer to
+     * the output file whenever it is full.
+     */
+    private class PageWriter implements AutoCloseable {
+        private final FileChannel channel;
+        private final byte[] buffer;
+        /** offset of the page being filled in the buffer */
+        private int pageStart;
+        /** number of records on the page being filled */
+        private int recordCount;
+        private int pages;
+
+        PageWriter(FileChannel channel) {
+            this.channel = channel;
+            this.buffer = new byte[Math.max(1, WRITE_SIZE / npagebytes) * npagebytes];
+        }
+
+        /** Add the first count records of an array, in order. */
+        void add(byte[] records, int count) throws IOException {
+            int from = 0;
+            while (from < count) {
+                int n = Math.min(count - from, nrecords - recordCount);
+                System.arraycopy(records, from * recordSize, buffer,
+                        pageStart + nheaderbytes + recordCount * recordSize, n * recordSize);
+                recordCount += n;
+                from += n;
+                if (recordCount == nrecords) {
+                    finishPage();
+                }
+            }
+        }
+
+        /** Write the header of the page being filled and move to the next. */
+        private void finishPage() throws IOException {
+            Arrays.fill(buffer, pageStart, pageStart + recordCount / 8, (byte) 0xff);
+            if (recordCount % 8 > 0) {
+                buffer[pageStart + recordCount / 8] = (byte) ((1 << (recordCount % 8)) - 1);
+            }
+            if (format == HeapFile.Format.PAX) {
+                byte[] rows = Arrays.copyOfRange(buffer, pageStart, pageStart + npagebytes);
+                System.arraycopy(PaxHeapPage.fromRows(rows, td), 0, buffer, pageStart, npagebytes);
+            }
+            pageStart += npagebytes;
+            recordCount = 0;
+            pages++;
+            if (pageStart == buffer.length) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            ByteBuffer buf = ByteBuffer.wrap(buffer, 0, pageStart);
+            while (buf.hasRemaining()) {
+                channel.write(buf);
+            }
+            Arrays.fill(buffer, 0, pageStart, (byte) 0);
+            pageStart = 0;
+        }
+
+        /**
+         * Write out the last page, if it has records or the file would be
+         * empty otherwise.
+         *
+         * @return the number of pages written
+         */
+        int finish() throws IOException {
+            if (recordCount > 0 || pages == 0) {
+                finishPage();
+            }
+            flush();
+            return pages;
+        }
+
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
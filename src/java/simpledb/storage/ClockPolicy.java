@@ -0,0 +1,70 @@
+package simpledb.storage;
+
+import java.util.function.IntPredicate;
+
+/**
+ * CLOCK (second chance) replacement.
+ * <p>
+ * The frames of the BufferPool form a circle and every frame has a
+ * reference bit. A hit sets the bit; the clock hand sweeps the frames,
+ * clearing set bits and stopping at the first evictable page whose bit is
+ * already clear. This approximates LRU at the cost of one bit per frame.
+ */
+public class ClockPolicy implements ReplacementPolicy {
+
+    private final boolean[] resident;
+    private final boolean[] referenced;
+    private int hand;
+
+    /**
+     * @param numFrames the number of frames of the BufferPool
+     */
+    public ClockPolicy(int numFrames) {
+        resident = new boolean[numFrames];
+        referenced = new boolean[numFrames];
+        hand = 0;
+    }
+
+    public synchronized void recordAdmit(int frame, PageId pid) {
+        resident[frame] = true;
+        // a new page starts with its bit clear, so a page that is read once
+        // and never touched again is the first one the hand gives up
+        referenced[frame] = false;
+    }
+
+    public synchronized void recordAccess(int frame) {
+        referenced[frame] = true;
+    }
+
+    public synchronized void recordEvict(int frame) {
+        release(frame);
+    }
+
+    public synchronized void recordDiscard(int frame) {
+        release(frame);
+    }
+
+    public synchronized int chooseVictim(IntPredicate evictable) {
+        // two full turns: the first may only clear reference bits
+        for (int step = 0; step < 2 * resident.length; step++) {
+            int frame = hand;
+            hand = (hand + 1) % resident.length;
+            if (!resident[frame]) {
+                continue;
+            }
+            if (referenced[frame]) {
+                referenced[frame] = false;
+                continue;
+            }
+            if (evictable.test(frame)) {
+                return frame;
+            }
+        }
+        return -1;
+    }
+
+    private void release(int frame) {
+        resident[frame] = false;
+        referenced[frame] = false;
+    }
+}
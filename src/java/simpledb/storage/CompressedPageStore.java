@@ -0,0 +1,358 @@
+package simpledb.storage;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Stores the pages of a {@link DbFile} deflated, for cold tables that are
+ * worth trading some CPU for less disk space and I/O. Pages are compressed
+ * on their way to disk and inflated when read, so the BufferPool only ever
+ * sees them uncompressed.
+ * <p>
+ * Compressed pages differ in size, so they cannot be found by multiplying
+ * their number by the page size. The store keeps them in two files:
+ * <ul>
+ * <li>the data file, holding one extent per page: a 4-byte length, then the
+ * deflated page, or the page as it is if it does not compress; a negative
+ * length <code>-n</code> marks a page of n bytes stored as it is.</li>
+ * <li>the page table, next to the data file with the suffix
+ * {@link #TABLE_SUFFIX}, holding for each page the offset of its extent
+ * (8 bytes, -1 for a page never written, which reads as zeroes) and the
+ * capacity of the extent (4 bytes).</li>
+ * </ul>
+ * A page is rewritten in its extent when it still fits there; otherwise it
+ * is written to a new, slightly larger extent at the end of the data file
+ * and its table entry updated afterwards, so that a crash in between
+ * leaves the entry pointing at the old image. The extent a page moves out
+ * of is not reused.
+ * <p>
+ * The deflate level is read from the system property
+ * {@link #LEVEL_PROPERTY}; it defaults to {@link Deflater#BEST_SPEED}.
+ * The store counts the pages it reads and writes and the time it spends on
+ * them, see {@link #getStats}.
+ */
+public class CompressedPageStore implements Closeable {
+
+    /** Suffix of the file next to the data file that holds the page table. */
+    public static final String TABLE_SUFFIX = ".pages";
+
+    /** Name of the system property that sets the deflate level, from 1 to 9. */
+    public static final String LEVEL_PROPERTY = "simpledb.storage.CompressedPageStore.level";
+
+    private static final int ENTRY_SIZE = 12;
+    private static final int HEADER_SIZE = 4;
+    /** extents are a multiple of this many bytes */
+    private static final int ALIGNMENT = 64;
+
+    private static final ThreadLocal<Deflater> deflaters = ThreadLocal.withInitial(
+            () -> new Deflater(Integer.getInteger(LEVEL_PROPERTY, Deflater.BEST_SPEED)));
+    private static final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(Inflater::new);
+    /** an extent-sized buffer per thread that images are built and read in */
+    private static final ThreadLocal<byte[]> scratch = ThreadLocal.withInitial(() -> new byte[0]);
+
+    private final File file;
+    private final DbFileChannel data;
+    private final DbFileChannel table;
+    /**
+     * offsets, capacities: the page table, null until loaded
+     * numPages: number of pages in the table
+     * end: end of the last extent of the data file
+     */
+    private long[] offsets;
+    private int[] capacities;
+    private int numPages;
+    private long end;
+
+    private final LongAdder pagesRead = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder readNanos = new LongAdder();
+    private final LongAdder pagesWritten = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final LongAdder writeNanos = new LongAdder();
+
+    /**
+     * @param file the data file; it and its page table are created when the
+     *        first page is written
+     */
+    public CompressedPageStore(File file) {
+        this.file = file;
+        this.data = new DbFileChannel(file);
+        this.table = new DbFileChannel(new File(file.getPath() + TABLE_SUFFIX));
+    }
+
+    /** @return the data file of this store */
+    public File getFile() {
+        return file;
+    }
+
+    /** @return the number of pages in the store */
+    public synchronized int numPages() throws IOException {
+        load();
+        return numPages;
+    }
+
+    private void load() throws IOException {
+        if (offsets != null) {
+            return;
+        }
+        // opening a channel creates its file, which waits for the first write
+        int entries = file.exists() ? (int) (table.size() / ENTRY_SIZE) : 0;
+        byte[] bytes = new byte[entries * ENTRY_SIZE];
+        table.read(bytes, 0);
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        offsets = new long[Math.max(16, entries)];
+        capacities = new int[offsets.length];
+        for (int i = 0; i < entries; i++) {
+            offsets[i] = buf.getLong();
+            capacities[i] = buf.getInt();
+        }
+        numPages = entries;
+        end = file.exists() ? data.size() : 0;
+    }
+
+    /**
+     * Read a page into the specified array, which must be as long as the
+     * page was when it was written.
+     *
+     * @throws EOFException if the store has no such page
+     * @throws IOException if the page cannot be read or inflated
+     */
+    public void read(int pageNo, byte[] page) throws IOException {
+        long start = System.nanoTime();
+        long offset;
+        int capacity;
+        synchronized (this) {
+            load();
+            if (pageNo < 0 || pageNo >= numPages) {
+                throw new EOFException("Read past end of " + file + ": page " + pageNo);
+            }
+            offset = offsets[pageNo];
+            capacity = capacities[pageNo];
+        }
+        if (offset < 0) {
+            Arrays.fill(page, (byte) 0);
+        } else {
+            byte[] buf = scratch(capacity);
+            data.read(buf, 0, capacity, offset);
+            int length = ByteBuffer.wrap(buf).getInt(0);
+            if (length < 0) {
+                if (-length != page.length || HEADER_SIZE + page.length > capacity) {
+                    throw new IOException("page " + pageNo + " of " + file + " has " + (-length)
+                            + " bytes, not " + page.length);
+                }
+                System.arraycopy(buf, HEADER_SIZE, page, 0, page.length);
+            } else {
+                inflate(pageNo, buf, length, capacity, page);
+            }
+            bytesRead.add(capacity);
+        }
+        pagesRead.increment();
+        readNanos.add(System.nanoTime() - start);
+    }
+
+    private void inflate(int pageNo, byte[] buf, int length, int capacity, byte[] page) throws IOException {
+        if (length > capacity - HEADER_SIZE) {
+            throw new IOException("page " + pageNo + " of " + file + " is corrupt");
+        }
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        inflater.setInput(buf, HEADER_SIZE, length);
+        try {
+            int n = inflater.inflate(page);
+            if (n != page.length || !inflater.finished()) {
+                throw new IOException("page " + pageNo + " of " + file + " inflates to "
+                        + (inflater.finished() ? n : "more than " + n) + " bytes, not " + page.length);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("page " + pageNo + " of " + file + " is corrupt", e);
+        }
+    }
+
+    /**
+     * Write a page, replacing the one of that number if any. Writing past
+     * the last page adds the pages in between as pages never written.
+     *
+     * @param compress false to store the page as it is, for pages that are
+     *        not worth compressing
+     */
+    public void write(int pageNo, byte[] page, boolean compress) throws IOException {
+        long start = System.nanoTime();
+        byte[] buf = scratch(HEADER_SIZE + page.length);
+        int length = compress ? deflate(page, buf) : -1;
+        if (length < 0) {
+            System.arraycopy(page, 0, buf, HEADER_SIZE, page.length);
+            length = page.length;
+            ByteBuffer.wrap(buf).putInt(0, -length);
+        } else {
+            ByteBuffer.wrap(buf).putInt(0, length);
+        }
+        int image = HEADER_SIZE + length;
+
+        synchronized (this) {
+            load();
+            if (pageNo >= numPages) {
+                grow(pageNo + 1);
+            }
+            if (capacities[pageNo] >= image) {
+                data.write(buf, 0, image, offsets[pageNo]);
+            } else {
+                // move to a new extent with some room to grow, though never
+                // more than the page stored as it is takes, written in full
+                // so that reading the whole extent never runs off the file
+                int capacity = align(Math.min(image + image / 8, HEADER_SIZE + page.length));
+                byte[] extent = Arrays.copyOf(buf, capacity);
+                Arrays.fill(extent, image, capacity, (byte) 0);
+                long offset = end;
+                data.write(extent, offset);
+                end += capacity;
+                setEntry(pageNo, offset, capacity);
+            }
+        }
+        pagesWritten.increment();
+        bytesWritten.add(image);
+        writeNanos.add(System.nanoTime() - start);
+    }
+
+    private static int align(int length) {
+        return (length + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+
+    /**
+     * Add a page at the end of the store.
+     *
+     * @return the number of the new page
+     * @see #write
+     */
+    public synchronized int append(byte[] page, boolean compress) throws IOException {
+        load();
+        int pageNo = numPages;
+        write(pageNo, page, compress);
+        return pageNo;
+    }
+
+    /**
+     * Deflate a page into buf after the header.
+     * @return the deflated length, or -1 if the page does not compress
+     */
+    private static int deflate(byte[] page, byte[] buf) {
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        deflater.setInput(page);
+        deflater.finish();
+        // anything as long as the page itself is not worth inflating
+        int n = deflater.deflate(buf, HEADER_SIZE, page.length - 1);
+        return deflater.finished() ? n : -1;
+    }
+
+    /** Add pages never written up to the specified number of pages. */
+    private void grow(int pages) throws IOException {
+        if (pages > offsets.length) {
+            int length = Math.max(pages, offsets.length * 2);
+            offsets = Arrays.copyOf(offsets, length);
+            capacities = Arrays.copyOf(capacities, length);
+        }
+        for (int i = numPages; i < pages; i++) {
+            setEntry(i, -1, 0);
+        }
+        numPages = pages;
+    }
+
+    private void setEntry(int pageNo, long offset, int capacity) throws IOException {
+        byte[] entry = new byte[ENTRY_SIZE];
+        ByteBuffer.wrap(entry).putLong(offset).putInt(capacity);
+        table.write(entry, (long) pageNo * ENTRY_SIZE);
+        offsets[pageNo] = offset;
+        capacities[pageNo] = capacity;
+    }
+
+    private static byte[] scratch(int length) {
+        byte[] buf = scratch.get();
+        if (buf.length < length) {
+            buf = new byte[length];
+            scratch.set(buf);
+        }
+        return buf;
+    }
+
+    /**
+     * Close the files of the store. They are opened again if the store is
+     * used later.
+     */
+    public void close() throws IOException {
+        data.close();
+        table.close();
+    }
+
+    /**
+     * @return the counters of this store, and how much room its pages take
+     *         on disk, for the specified size of an uncompressed page
+     */
+    public Stats getStats(int pageSize) throws IOException {
+        int pages = numPages();
+        long stored = (file.exists() ? data.size() + table.size() : 0);
+        return new Stats(pages, (long) pages * pageSize, stored,
+                pagesRead.sum(), bytesRead.sum(), readNanos.sum(),
+                pagesWritten.sum(), bytesWritten.sum(), writeNanos.sum());
+    }
+
+    /**
+     * The size of a store and the pages read and written through it since
+     * it was opened. Times include the inflating and deflating.
+     */
+    public static class Stats {
+        public final int numPages;
+        /** bytes the pages would take uncompressed */
+        public final long pageBytes;
+        /** bytes the data file and the page table take */
+        public final long storedBytes;
+        public final long pagesRead;
+        public final long bytesRead;
+        public final long readNanos;
+        public final long pagesWritten;
+        public final long bytesWritten;
+        public final long writeNanos;
+
+        Stats(int numPages, long pageBytes, long storedBytes, long pagesRead, long bytesRead,
+              long readNanos, long pagesWritten, long bytesWritten, long writeNanos) {
+            this.numPages = numPages;
+            this.pageBytes = pageBytes;
+            this.storedBytes = storedBytes;
+            this.pagesRead = pagesRead;
+            this.bytesRead = bytesRead;
+            this.readNanos = readNanos;
+            this.pagesWritten = pagesWritten;
+            this.bytesWritten = bytesWritten;
+            this.writeNanos = writeNanos;
+        }
+
+        /** @return how many times less room the pages take on disk */
+        public double compressionRatio() {
+            return storedBytes == 0 ? 1 : (double) pageBytes / storedBytes;
+        }
+
+        /** @return pages read per second spent reading */
+        public double readPagesPerSecond() {
+            return readNanos == 0 ? 0 : pagesRead * 1e9 / readNanos;
+        }
+
+        /** @return pages written per second spent writing */
+        public double writePagesPerSecond() {
+            return writeNanos == 0 ? 0 : pagesWritten * 1e9 / writeNanos;
+        }
+
+        public String toString() {
+            return String.format("%d pages, %d bytes on disk (ratio %.2f), "
+                            + "%d pages read (%.0f/s), %d pages written (%.0f/s)",
+                    numPages, storedBytes, compressionRatio(),
+                    pagesRead, readPagesPerSecond(), pagesWritten, writePagesPerSecond());
+        }
+    }
+}
@@ -93,4 +93,12 @@ public interface DbFile {
      * @return TupleDesc of this DbFile.
      */
     TupleDesc getTupleDesc();
+
+    /**
+     * Release the files this DbFile holds open. The Catalog calls this when
+     * the table is replaced or dropped; a file that is used again afterwards
+     * reopens them.
+     */
+    default void close() throws IOException {
+    }
 }
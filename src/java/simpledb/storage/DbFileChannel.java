@@ -0,0 +1,216 @@
+package simpledb.storage;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The long-lived channel a {@link DbFile} reads and writes its pages
+ * through.
+ * <p>
+ * All I/O is positional, so concurrent readers and writers of different
+ * pages neither seek nor wait for each other, and no file is opened per
+ * page. The size of the file is read once and then kept up to date by the
+ * writes and appends made through the channel; the file must not be
+ * extended by other means while the channel is in use.
+ * <p>
+ * A FileChannel is closed for every thread when a thread blocked in it is
+ * interrupted. The channel is then reopened, and the I/O of the interrupted
+ * thread is completed before the interrupt is passed on, so that a page is
+ * never half written.
+ * <p>
+ * For read-mostly files the channel can also hand out read-only views of
+ * a memory mapping of the file, see {@link #mapped}. The mapping is made
+ * lazily and is redone only once the file has grown by a good share, so
+ * the pages appended since are read with positional I/O in the meantime.
+ * Writes go through the channel and show in the mapping, which relies on
+ * the operating system keeping both coherent, as one with a unified page
+ * cache does.
+ */
+public class DbFileChannel implements Closeable {
+
+    /** A positional read or write that can be repeated from the start. */
+    private interface ChannelOp {
+        void apply(FileChannel channel) throws IOException;
+    }
+
+    /** Least number of bytes the file must grow by before it is mapped again. */
+    private static final long MIN_REMAP_GROWTH = 1 << 20;
+
+    private final File file;
+    private volatile FileChannel channel;
+    /** read-only mapping of a prefix of the file, null until first needed */
+    private volatile MappedByteBuffer mapping;
+    /** size of the file in bytes, -1 until the channel is first opened */
+    private final AtomicLong size;
+
+    /**
+     * @param file the file to access; it is created when first written
+     */
+    public DbFileChannel(File file) {
+        this.file = file;
+        this.size = new AtomicLong(-1);
+    }
+
+    /**
+     * Read data.length bytes from the specified position of the file.
+     * @throws EOFException if the file ends before that many bytes are read
+     */
+    public void read(byte[] data, long position) throws IOException {
+        read(data, 0, data.length, position);
+    }
+
+    /**
+     * Read length bytes from the specified position of the file into data,
+     * from the specified offset of it on.
+     * @throws EOFException if the file ends before that many bytes are read
+     */
+    public void read(byte[] data, int offset, int length, long position) throws IOException {
+        run(channel -> {
+            ByteBuffer buffer = ByteBuffer.wrap(data, offset, length).slice();
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new EOFException("Read past end of " + file);
+                }
+            }
+        });
+    }
+
+    /**
+     * Write all of data at the specified position of the file, extending it
+     * if needed.
+     */
+    public void write(byte[] data, long position) throws IOException {
+        write(data, 0, data.length, position);
+    }
+
+    /**
+     * Write length bytes of data from the specified offset of it on at the
+     * specified position of the file, extending it if needed.
+     */
+    public void write(byte[] data, int offset, int length, long position) throws IOException {
+        run(channel -> {
+            ByteBuffer buffer = ByteBuffer.wrap(data, offset, length).slice();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, position + buffer.position());
+            }
+        });
+        size.accumulateAndGet(position + length, Math::max);
+    }
+
+    /**
+     * Write data at the end of the file.
+     * @return the position data was written at
+     */
+    public synchronized long append(byte[] data) throws IOException {
+        long position = size();
+        write(data, position);
+        return position;
+    }
+
+    /**
+     * Return a read-only view of length bytes at the specified position of
+     * the file, backed by a memory mapping rather than a copy.
+     *
+     * @return the view, or null if the bytes are not mapped yet, in which
+     *         case they must be read with {@link #read}
+     */
+    public ByteBuffer mapped(long position, int length) throws IOException {
+        long end = position + length;
+        MappedByteBuffer region = mapping;
+        if (region == null || end > region.capacity()) {
+            region = remap();
+            if (end > region.capacity()) {
+                return null;
+            }
+        }
+        return region.slice((int) position, length);
+    }
+
+    /** @return the size of the file in bytes */
+    public long size() throws IOException {
+        long bytes = size.get();
+        if (bytes < 0) {
+            channel();
+            bytes = size.get();
+        }
+        return bytes;
+    }
+
+    /**
+     * @return whether the file exists. Unlike the other methods this does
+     *         not open the channel, which would create the file, so a file
+     *         that is only written on demand can be checked for first.
+     */
+    public boolean exists() {
+        FileChannel current = channel;
+        return (current != null && current.isOpen()) || file.exists();
+    }
+
+    /**
+     * Close the channel and drop the mapping, which is unmapped once the
+     * views handed out are no longer used. The channel is opened again if
+     * the file is accessed later.
+     */
+    public synchronized void close() throws IOException {
+        mapping = null;
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    private FileChannel channel() throws IOException {
+        FileChannel current = channel;
+        if (current != null && current.isOpen()) {
+            return current;
+        }
+        synchronized (this) {
+            if (channel == null || !channel.isOpen()) {
+                channel = new RandomAccessFile(file, "rw").getChannel();
+                size.compareAndSet(-1, channel.size());
+            }
+            return channel;
+        }
+    }
+
+    /**
+     * Map the file again if it has grown enough since it was last mapped.
+     * Files beyond 2 GB are only mapped up to that size.
+     * @return the current mapping
+     */
+    private synchronized MappedByteBuffer remap() throws IOException {
+        long mappable = Math.min(size(), Integer.MAX_VALUE);
+        if (mapping == null
+                || mappable - mapping.capacity() >= Math.max(MIN_REMAP_GROWTH, mapping.capacity() / 8)) {
+            mapping = channel().map(FileChannel.MapMode.READ_ONLY, 0, mappable);
+        }
+        return mapping;
+    }
+
+    private void run(ChannelOp op) throws IOException {
+        try {
+            op.apply(channel());
+        } catch (ClosedByInterruptException e) {
+            // this thread was interrupted: finish the I/O on a fresh channel
+            // and leave the interrupt for the caller to see
+            Thread.interrupted();
+            try {
+                op.apply(channel());
+            } finally {
+                Thread.currentThread().interrupt();
+            }
+        } catch (ClosedChannelException e) {
+            // another thread was interrupted or closed the channel
+            op.apply(channel());
+        }
+    }
+}
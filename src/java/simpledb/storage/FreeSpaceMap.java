@@ -0,0 +1,187 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Records how full each page of a {@link HeapFile} is, so that an insert can
+ * go straight to a page with room instead of fetching every page in turn.
+ * <p>
+ * The fill level of a page is kept as a category from 0 (full) to
+ * {@link #MAX_CATEGORY} (empty), one byte per page. The map lives in memory
+ * and is saved to a small file next to the heap file, one byte per page at
+ * the offset of the page number; the byte of a page is saved when the page
+ * itself is written, or when an insert finds the page full. The file holds
+ * how full rather than how empty a page is, so that the gaps left by pages
+ * saved out of order read as empty pages.
+ * <p>
+ * The map is only a hint. It is neither logged nor forced, so after a crash
+ * or an abort it may claim room on a full page, which the insert then finds
+ * out and corrects, or miss room on a page, which is found again the next
+ * time that page is read or written. Pages the saved map does not cover
+ * yet, such as those of a file created before the map existed, start as
+ * empty and are corrected the first time an insert tries them.
+ * <p>
+ * As most tables only have room near their end, the map remembers the
+ * lowest page that may have any room and searches from there, so an insert
+ * into a growing table does not look at the full pages before it.
+ */
+public class FreeSpaceMap {
+
+    /** Category of a page with no room left. */
+    public static final int FULL = 0;
+    /** Category of an empty page. */
+    public static final int MAX_CATEGORY = 255;
+
+    private final DbFileChannel channel;
+    /**
+     * categories: fill level of each of the first numPages pages, null until loaded
+     * saved: the categories as last saved to the file
+     * savedPages: number of pages the saved map covered when it was loaded
+     * firstFree: no page below this one has room
+     */
+    private byte[] categories;
+    private byte[] saved;
+    private int numPages;
+    private int savedPages;
+    private int firstFree;
+
+    /**
+     * @param file the file the map is saved in; it is created on first save
+     */
+    public FreeSpaceMap(File file) {
+        this.channel = new DbFileChannel(file);
+    }
+
+    /**
+     * @return the category of a page with the specified number of free
+     *         units (slots or bytes) out of capacity; only a page with no
+     *         free unit at all is {@link #FULL}
+     */
+    public static int category(int free, int capacity) {
+        if (free <= 0) {
+            return FULL;
+        }
+        return Math.max(1, (int) ((long) free * MAX_CATEGORY / capacity));
+    }
+
+    /**
+     * Make the map cover the first numPages pages of the file. Pages it did
+     * not cover before are loaded from the saved map, or taken to be empty.
+     */
+    public synchronized void grow(int numPages) throws IOException {
+        if (categories == null) {
+            load();
+        }
+        if (numPages <= this.numPages) {
+            return;
+        }
+        if (numPages > categories.length) {
+            int length = Math.max(numPages, categories.length * 2);
+            categories = Arrays.copyOf(categories, length);
+            saved = Arrays.copyOf(saved, length);
+        }
+        for (int i = this.numPages; i < numPages; i++) {
+            if (i >= savedPages) {
+                categories[i] = (byte) MAX_CATEGORY;
+                saved[i] = (byte) MAX_CATEGORY;
+            }
+        }
+        firstFree = Math.min(firstFree, firstWithRoom(this.numPages, numPages));
+        this.numPages = numPages;
+    }
+
+    private void load() throws IOException {
+        savedPages = channel.exists() ? (int) Math.min(channel.size(), Integer.MAX_VALUE) : 0;
+        byte[] onDisk = new byte[savedPages];
+        channel.read(onDisk, 0);
+        categories = new byte[Math.max(16, savedPages)];
+        for (int i = 0; i < savedPages; i++) {
+            categories[i] = (byte) (MAX_CATEGORY - (onDisk[i] & 0xff));
+        }
+        saved = categories.clone();
+        numPages = 0;
+        firstFree = Integer.MAX_VALUE;
+    }
+
+    private int firstWithRoom(int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (categories[i] != FULL) {
+                return i;
+            }
+        }
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * Find a page that may have at least the specified category of room.
+     *
+     * @param minCategory the least category a page must have, at least 1
+     * @param from the first page to consider
+     * @return the lowest such page from the specified one on, or -1
+     */
+    public synchronized int findPage(int minCategory, int from) {
+        if (categories == null) {
+            return -1;
+        }
+        for (int i = Math.max(from, firstFree); i < numPages; i++) {
+            int category = categories[i] & 0xff;
+            if (category >= minCategory) {
+                return i;
+            }
+            if (category == FULL && i == firstFree) {
+                firstFree++;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Record the fill level of a page in memory. Pages the map does not
+     * cover are ignored.
+     */
+    public synchronized void update(int pageNo, int category) {
+        if (categories == null || pageNo >= numPages) {
+            return;
+        }
+        categories[pageNo] = (byte) category;
+        if (category != FULL && pageNo < firstFree) {
+            firstFree = pageNo;
+        }
+    }
+
+    /**
+     * Record the fill level of a page and save it, if it changed since it
+     * was last saved.
+     */
+    public synchronized void save(int pageNo, int category) throws IOException {
+        update(pageNo, category);
+        if (categories == null || pageNo >= numPages || saved[pageNo] == (byte) category) {
+            return;
+        }
+        channel.write(new byte[] { (byte) (MAX_CATEGORY - category) }, pageNo);
+        saved[pageNo] = (byte) category;
+    }
+
+    /** @return the recorded category of a page, or -1 if the map does not cover it */
+    public synchronized int getCategory(int pageNo) {
+        if (categories == null || pageNo >= numPages) {
+            return -1;
+        }
+        return categories[pageNo] & 0xff;
+    }
+
+    /**
+     * Close the saved map. The map in memory is kept, and the file is
+     * opened again by the next save.
+     */
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /** @return true once the map has been loaded by {@link #grow} */
+    public synchronized boolean isLoaded() {
+        return categories != null;
+    }
+}
@@ -9,6 +9,7 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.random.RandomGeneratorFactory;
 
@@ -18,12 +19,51 @@ import java.util.random.RandomGeneratorFactory;
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
  * constructor.
+ * <p>
+ * A read-mostly table can be opened memory-mapped: its pages are then
+ * decoded straight from a mapping of the file instead of being read into
+ * an array first, except for the pages appended since the file was last
+ * mapped, see {@link DbFileChannel#mapped}.
+ * <p>
+ * The pages of a table are in one of several formats, chosen when the table is
+ * opened, see {@link Format}.
+ * <p>
+ * A cold table can also be stored compressed, see {@link CompressedPageStore}:
+ * the file then holds its pages deflated, and is never memory-mapped.
+ * <p>
+ * While {@link PageChecksums} are turned on, every page written is
+ * checksummed, and every page read is verified against its checksum.
  * 
  * @see HeapPage#HeapPage
  * @author Sam Madden
  */
 public class HeapFile implements DbFile {
 
+    /** The formats a HeapFile can store its pages in. */
+    public enum Format {
+        /** Fixed-size slots and a bitmap of the used ones, see {@link HeapPage}. */
+        FIXED,
+        /** A slot directory and variable-length records, see {@link SlottedHeapPage}. */
+        SLOTTED,
+        /** Fixed-size slots stored column by column, see {@link PaxHeapPage}. */
+        PAX
+    }
+
+    /**
+     * Name of the system property that opens heap files memory-mapped
+     * unless the constructor says otherwise.
+     */
+    public static final String MEMORY_MAPPED_PROPERTY = "simpledb.storage.HeapFile.memoryMapped";
+
+    /** Suffix of the file next to a heap file that holds its free-space map. */
+    public static final String FREE_SPACE_MAP_SUFFIX = ".fsm";
+
+    /**
+     * A page-sized buffer per thread that pages are serialized into on
+     * their way to disk, so that flushing does not allocate.
+     */
+    private static final ThreadLocal<ByteBuffer> writeBuffer = new ThreadLocal<>();
+
     /**
      * Constructs a heap file backed by the specified file.
      * 
@@ -33,10 +73,95 @@ public class HeapFile implements DbFile {
      */
 	private File heapFile;
 	private TupleDesc tupleDesc;
+	private DbFileChannel channel;
+	private boolean memoryMapped;
+	private FreeSpaceMap freeSpaceMap;
+	private Format format;
+	private CompressedPageStore store;
+	private PageChecksums checksums;
 	
     public HeapFile(File file, TupleDesc td) {
+        this(file, td, Format.FIXED);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file.
+     * 
+     * @param file
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param format
+     *            the format of the pages of the file
+     */
+    public HeapFile(File file, TupleDesc td, Format format) {
+        this(file, td, format, Boolean.getBoolean(MEMORY_MAPPED_PROPERTY));
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file.
+     * 
+     * @param file
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param memoryMapped
+     *            true to read the pages through a memory mapping of the file
+     */
+    public HeapFile(File file, TupleDesc td, boolean memoryMapped) {
+        this(file, td, Format.FIXED, memoryMapped);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file.
+     * 
+     * @param file
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param format
+     *            the format of the pages of the file
+     * @param memoryMapped
+     *            true to read the pages through a memory mapping of the file
+     */
+    public HeapFile(File file, TupleDesc td, Format format, boolean memoryMapped) {
+        this(file, td, format, memoryMapped, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file.
+     * 
+     * @param file
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param format
+     *            the format of the pages of the file
+     * @param memoryMapped
+     *            true to read the pages through a memory mapping of the
+     *            file; ignored if the file is compressed
+     * @param compressed
+     *            true if the file is a {@link CompressedPageStore}
+     */
+    public HeapFile(File file, TupleDesc td, Format format, boolean memoryMapped, boolean compressed) {
         heapFile = file;
+        this.format = format;
         tupleDesc = td;
+        channel = new DbFileChannel(file);
+        this.memoryMapped = memoryMapped && !compressed;
+        if (compressed) {
+            store = new CompressedPageStore(file);
+        }
+        checksums = PageChecksums.forFile(file);
+        freeSpaceMap = new FreeSpaceMap(new File(file.getPath() + FREE_SPACE_MAP_SUFFIX));
+    }
+
+    /**
+     * Delete the files kept next to a heap file: its free-space map, its
+     * {@link PageChecksums} and its compressed page table. Whatever writes
+     * a heap file anew calls this first, as they describe the pages of the
+     * file it replaces.
+     */
+    public static void deleteSideFiles(File file) {
+        new File(file.getPath() + FREE_SPACE_MAP_SUFFIX).delete();
+        new File(file.getPath() + CompressedPageStore.TABLE_SUFFIX).delete();
+        PageChecksums.delete(file);
     }
 
     /**
@@ -48,6 +173,41 @@ public class HeapFile implements DbFile {
     	return heapFile;
     }
 
+    /**
+     * Returns true if the pages of this HeapFile are read through a memory
+     * mapping of the file.
+     */
+    public boolean isMemoryMapped() {
+    	return memoryMapped;
+    }
+
+    /**
+     * Returns true if the pages of this HeapFile are stored compressed.
+     */
+    public boolean isCompressed() {
+    	return store != null;
+    }
+
+    /**
+     * Returns the size of this HeapFile on disk, compared to its size
+     * uncompressed, and the pages read and written since it was opened.
+     *
+     * @throws UnsupportedOperationException if the file is not compressed
+     */
+    public CompressedPageStore.Stats getCompressionStats() throws IOException {
+    	if (store == null) {
+    		throw new UnsupportedOperationException(heapFile + " is not compressed");
+    	}
+    	return store.getStats(BufferPool.getPageSize());
+    }
+
+    /**
+     * Returns the format of the pages of this HeapFile.
+     */
+    public Format getFormat() {
+    	return format;
+    }
+
     /**
      * Returns an ID uniquely identifying this HeapFile. Implementation note:
      * you will need to generate this tableid somewhere to ensure that each
@@ -72,70 +232,188 @@ public class HeapFile implements DbFile {
 
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
-        try (RandomAccessFile rf = new RandomAccessFile(heapFile, "r")) {
-			int pageNumber = pid.getPageNumber();
-			int pageSize = BufferPool.getPageSize();
-			HeapPageId hpid = new HeapPageId(pid.getTableId(), pid.getPageNumber());
-			byte[] data = new byte[pageSize];
-			rf.seek(pageNumber * pageSize);
-			rf.read(data, 0, pageSize);
-			return new HeapPage(hpid, data);
+    	int pageSize = BufferPool.getPageSize();
+    	HeapPageId hpid = new HeapPageId(pid.getTableId(), pid.getPageNumber());
+    	long offset = (long) pid.getPageNumber() * pageSize;
+        try {
+        	if (memoryMapped) {
+        		ByteBuffer mapped = channel.mapped(offset, pageSize);
+        		if (mapped != null) {
+        			if (checksums != null) {
+        				checksums.verify(pid.getPageNumber(), mapped);
+        			}
+        			switch (format) {
+        			case SLOTTED: return seen(new SlottedHeapPage(hpid, mapped));
+        			case PAX: return seen(new PaxHeapPage(hpid, mapped));
+        			default: return seen(new HeapPage(hpid, mapped));
+        			}
+        		}
+        	}
+        	byte[] data = new byte[pageSize];
+        	readPageData(pid.getPageNumber(), data);
+        	if (checksums != null) {
+        		checksums.verify(pid.getPageNumber(), ByteBuffer.wrap(data));
+        	}
+        	switch (format) {
+        	case SLOTTED: return seen(new SlottedHeapPage(hpid, data));
+        	case PAX: return seen(new PaxHeapPage(hpid, data));
+        	default: return seen(new HeapPage(hpid, data));
+        	}
 		} catch (IOException e) {
 			throw new IllegalArgumentException(e);
 		}
     }
 
+    /** Read the bytes of a page from disk, as they are. */
+    private void readPageData(int pageNo, byte[] data) throws IOException {
+    	if (store != null) {
+    		store.read(pageNo, data);
+    	} else {
+    		channel.read(data, (long) pageNo * data.length);
+    	}
+    }
+
+    /**
+     * Check every page of this HeapFile against its checksum, as read from
+     * disk, whether or not checksums are turned on for it.
+     */
+    public PageChecksums.Report verifyChecksums() throws IOException {
+    	PageChecksums checks = checksums != null ? checksums : new PageChecksums(heapFile);
+    	PageChecksums.Report report = new PageChecksums.Report();
+    	byte[] data = new byte[BufferPool.getPageSize()];
+    	int numPages = numPages();
+    	try {
+    		for (int i = 0; i < numPages; i++) {
+    			readPageData(i, data);
+    			report.add(i, checks.check(i, ByteBuffer.wrap(data)));
+    		}
+    	} finally {
+    		if (checks != checksums) {
+    			checks.close();
+    		}
+    	}
+    	return report;
+    }
+
+    /**
+     * Correct the free-space map from a page read from disk, which may have
+     * more room than the map says after an abort.
+     */
+    private HeapFilePage seen(HeapFilePage page) {
+    	if (freeSpaceMap.isLoaded()) {
+    		noteFreeSpace(page);
+    	}
+    	return page;
+    }
+
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
-        try (RandomAccessFile rf = new RandomAccessFile(heapFile, "rw")) {
-        	int pageNumber = page.getId().getPageNumber();
-        	int pageSize = BufferPool.getPageSize();
-        	byte[] data = page.getPageData();
-        	rf.seek(pageNumber * pageSize);
-        	rf.write(data, 0, pageSize);
-        } catch (IOException e) {
-        	throw new IllegalArgumentException(e);
-		}
+    	HeapFilePage heapPage = (HeapFilePage) page;
+    	ByteBuffer buf = writeBuffer.get();
+    	if (buf == null || buf.capacity() != BufferPool.getPageSize()) {
+    		buf = ByteBuffer.allocate(BufferPool.getPageSize());
+    		writeBuffer.set(buf);
+    	}
+    	buf.clear();
+    	heapPage.writePageData(buf);
+    	if (checksums != null) {
+    		checksums.record(page.getId().getPageNumber(), buf.array(), 0, buf.capacity());
+    	}
+    	if (store != null) {
+    		store.write(page.getId().getPageNumber(), buf.array(), true);
+    	} else {
+    		channel.write(buf.array(), (long) page.getId().getPageNumber() * BufferPool.getPageSize());
+    	}
+    	if (freeSpaceMap.isLoaded()) {
+    		freeSpaceMap.save(page.getId().getPageNumber(), heapPage.getFreeSpaceCategory());
+    	}
     }
 
     /**
      * Returns the number of pages in this HeapFile.
      */
     public int numPages() {
-        return (int)(heapFile.length() / BufferPool.getPageSize());
+    	try {
+    		if (store != null) {
+    			return store.numPages();
+    		}
+    		return (int) (channel.size() / BufferPool.getPageSize());
+    	} catch (IOException e) {
+    		throw new UncheckedIOException(e);
+    	}
+    }
+
+    /**
+     * Add an empty page at the end of this HeapFile.
+     *
+     * @return the page number of the new page
+     */
+    public int appendEmptyPage() throws IOException {
+    	byte[] data = HeapPage.createEmptyPageData();
+    	int pageNo;
+    	if (store != null) {
+    		pageNo = store.append(data, true);
+    	} else {
+    		pageNo = (int) (channel.append(data) / BufferPool.getPageSize());
+    	}
+    	if (checksums != null) {
+    		checksums.record(pageNo, data, 0, data.length);
+    	}
+    	return pageNo;
     }
 
     // see DbFile.java for javadocs
     public List<Page> insertTuple(TransactionId tid, Tuple tup)
             throws DbException, IOException, TransactionAbortedException {
     	ArrayList<Page> pageList = new ArrayList<Page>();
-    	// ѰǷĳҳпյslotԲ
-    	for (int pageIndex = 0; pageIndex < numPages(); pageIndex += 1) {
-    		// öԻȡҳ
+    	int minCategory = 1;
+    	if (format == Format.SLOTTED) {
+    		// pages with less room than the record cannot take it
+    		if (!tup.getTupleDesc().equals(tupleDesc)) {
+    			throw new DbException("tuple " + tup + " does not match the TupleDesc of the table");
+    		}
+    		int capacity = SlottedHeapPage.getCapacity(BufferPool.getPageSize());
+    		int size = SlottedHeapPage.recordSize(tup);
+    		if (size + SlottedHeapPage.SLOT_SIZE > capacity) {
+    			throw new DbException("tuple " + tup + " does not fit on a page");
+    		}
+    		minCategory = FreeSpaceMap.category(size, capacity);
+    	}
+    	// 寻找是否某个页具有空的slot可以插入: only the pages the free-space map
+    	// says may have room are tried
+    	freeSpaceMap.grow(numPages());
+    	for (int pageIndex = freeSpaceMap.findPage(minCategory, 0); pageIndex >= 0;
+    			pageIndex = freeSpaceMap.findPage(minCategory, pageIndex + 1)) {
+    		// 先用读锁尝试获取该页
     		HeapPageId heapPageId = new HeapPageId(getId(), pageIndex);
-    		HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, heapPageId, Permissions.READ_ONLY);
-    		if (page.getNumEmptySlots() != 0) {
-    			// пlostдģʽ¶ȡҳ޸
+    		HeapFilePage page = (HeapFilePage) Database.getBufferPool().getPage(tid, heapPageId, Permissions.READ_ONLY);
+    		if (page.hasRoomFor(tup)) {
+    			// 如果有空lost，则用写模式重新读取该页，并进行修改
     			// Database.getBufferPool().unsafeReleasePage(tid, heapPageId);
-    			page = (HeapPage) Database.getBufferPool().getPage(tid, heapPageId, Permissions.READ_WRITE);
-    			page.insertTuple(tup);
-    			pageList.add(page);
-    			return pageList;
-    		}
-    		else {
-    			// ò˸ҳʱͷŶ
-    			if (Database.getBufferPool().getLockManager().pageToPermMap.get(heapPageId).equals(Permissions.READ_ONLY)) {
-    				Database.getBufferPool().unsafeReleasePage(tid, heapPageId);
+    			page = (HeapFilePage) Database.getBufferPool().getPage(tid, heapPageId, Permissions.READ_WRITE);
+    			// another insert may have taken the room while this one
+    			// waited for the write lock
+    			if (page.hasRoomFor(tup)) {
+    				page.insertTuple(tup);
+    				noteFreeSpace(page);
+    				pageList.add(page);
+    				return pageList;
     			}
     		}
+    		// the map was wrong about this page
+    		freeSpaceMap.save(pageIndex, page.getFreeSpaceCategory());
+    		// 如果用不了该页，则及时释放读锁
+    		if (Database.getBufferPool().getLockManager().pageToPermMap.get(heapPageId).equals(Permissions.READ_ONLY)) {
+    			Database.getBufferPool().unsafeReleasePage(tid, heapPageId);
+    		}
     	}
-    	// ½һҳһ浽BufferPool(עһҳHeapFileһҳ)
-    	BufferedOutputStream bos = new BufferedOutputStream(new FileOutputStream(heapFile, true));
-    	bos.write(HeapPage.createEmptyPageData());
-    	bos.close();
-    	HeapPage page = (HeapPage) Database.getBufferPool().getPage(
-    			tid, new HeapPageId(getId(), numPages() - 1), Permissions.READ_WRITE);
+    	// 否则新建一个页并且缓存到BufferPool中(注意这一页是HeapFile最后一页)
+    	int pageNumber = appendEmptyPage();
+    	HeapFilePage page = (HeapFilePage) Database.getBufferPool().getPage(
+    			tid, new HeapPageId(getId(), pageNumber), Permissions.READ_WRITE);
     	page.insertTuple(tup);
+    	freeSpaceMap.grow(pageNumber + 1);
+    	noteFreeSpace(page);
     	pageList.add(page);
     	return pageList;
     }
@@ -144,12 +422,40 @@ public class HeapFile implements DbFile {
     public ArrayList<Page> deleteTuple(TransactionId tid, Tuple tup) throws DbException,
             TransactionAbortedException {
     	ArrayList<Page> pageList = new ArrayList<Page>();
-    	HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, tup.getRecordId().getPageId(), Permissions.READ_WRITE);
+    	HeapFilePage page = (HeapFilePage) Database.getBufferPool().getPage(tid, tup.getRecordId().getPageId(), Permissions.READ_WRITE);
         page.deleteTuple(tup);
+        noteFreeSpace(page);
         pageList.add(page);
         return pageList;
     }
 
+    /**
+     * Returns the free-space map of this HeapFile.
+     */
+    public FreeSpaceMap getFreeSpaceMap() {
+    	return freeSpaceMap;
+    }
+
+    /**
+     * Close the data file and the files kept next to it.
+     */
+    @Override
+    public void close() throws IOException {
+    	channel.close();
+    	freeSpaceMap.close();
+    	if (store != null) {
+    		store.close();
+    	}
+    	if (checksums != null) {
+    		checksums.close();
+    	}
+    }
+
+    /** Record the room left on a page in the free-space map, in memory only. */
+    private void noteFreeSpace(HeapFilePage page) {
+    	freeSpaceMap.update(page.getId().getPageNumber(), page.getFreeSpaceCategory());
+    }
+
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
         return new HeapFileIterator(this, tid);
@@ -157,15 +463,17 @@ public class HeapFile implements DbFile {
     
     public class HeapFileIterator implements DbFileIterator {
     	/**
-    	 * tid: id
-    	 * pageNumber: ǰȡҳ
-    	 * tpIterator: ǰҳԪ
-    	 * headFile: ҳļ
+    	 * tid: 事务id
+    	 * pageNumber: 当前读取的页号
+    	 * tpIterator: 迭代当前页面的元组
+    	 * headFile: 页文件
+    	 * readAhead: reads the pages ahead of the scan in the background
     	 */
     	private TransactionId tid;
     	private int pageNumber;
     	private Iterator<Tuple> tpIterator;
     	private HeapFile heapFile;
+    	private ReadAhead readAhead;
     	
     	public HeapFileIterator(HeapFile heapfile, TransactionId tid) {
     		this.heapFile = heapfile;
@@ -173,7 +481,7 @@ public class HeapFile implements DbFile {
     	}
     	
     	/**
-    	 * ȡһtuple
+    	 * 获取一个tuple迭代器
     	 * @throws DbException 
     	 * @throws TransactionAbortedException 
     	 */
@@ -181,8 +489,9 @@ public class HeapFile implements DbFile {
     		if (pageNumber < 0 || pageNumber >= heapFile.numPages()) {
     			throw new DbException(String.format("The pageNumber is %d not exist", pageNumber));
     		}
+    		readAhead.access(pageNumber, heapFile.numPages());
     		HeapPageId pageId = new HeapPageId(heapFile.getId(), pageNumber);
-			HeapPage page = (HeapPage)Database.getBufferPool().getPage(tid, pageId, Permissions.READ_ONLY);
+			HeapFilePage page = (HeapFilePage)Database.getBufferPool().getPage(tid, pageId, Permissions.READ_ONLY);
 			return page.iterator();
     	}
     	
@@ -192,6 +501,9 @@ public class HeapFile implements DbFile {
          */
 		@Override
 		public void open() throws DbException, TransactionAbortedException {
+			BufferPool bufferPool = Database.getBufferPool();
+			readAhead = new ReadAhead(bufferPool.getReadAheadWindow(),
+					pgNo -> new HeapPageId(heapFile.getId(), pgNo), bufferPool::prefetch);
 			pageNumber = 0;
 			tpIterator = getTupleIterator();
 		}
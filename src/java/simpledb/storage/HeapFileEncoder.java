@@ -1,11 +1,13 @@
 package simpledb.storage;
 
+import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.common.Utility;
 
 import java.io.*;
 import java.util.Arrays;
 import java.util.List;
+import java.util.regex.Pattern;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
@@ -33,6 +35,17 @@ public class HeapFileEncoder {
    * @throws IOException if the temporary/output file can't be opened
    */
   public static void convert(List<List<Integer>> tuples, File outFile, int npagebytes, int numFields) throws IOException {
+      convert(tuples, outFile, npagebytes, numFields, HeapFile.Format.FIXED);
+  }
+
+  /** Convert the specified tuple list (with only integer fields) into a binary
+   * page file with pages of the specified format.
+   *
+   * @see #convert(List, File, int, int)
+   * @param format the format of the pages
+   */
+  public static void convert(List<List<Integer>> tuples, File outFile, int npagebytes, int numFields,
+                             HeapFile.Format format) throws IOException {
       File tempInput = File.createTempFile("tempTable", ".txt");
       tempInput.deleteOnExit();
       BufferedWriter bw = new BufferedWriter(new FileWriter(tempInput));
@@ -52,7 +65,9 @@ public class HeapFileEncoder {
           bw.write('\n');
       }
       bw.close();
-      convert(tempInput, outFile, npagebytes, numFields);
+      Type[] ts = new Type[numFields];
+      Arrays.fill(ts, Type.INT_TYPE);
+      convert(tempInput, outFile, npagebytes, numFields, ts, ',', format);
   }
 
       public static void convert(File inFile, File outFile, int npagebytes,
@@ -68,6 +83,46 @@ public class HeapFileEncoder {
       convert(inFile,outFile,npagebytes,numFields,typeAr,',');
   }
 
+  /** Convert the specified input text file into a binary page file with
+   * pages of the specified format. <br>
+   *
+   * @see #convert(File, File, int, int, Type[], char)
+   * @param format the format of the pages
+   */
+  public static void convert(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator, HeapFile.Format format)
+      throws IOException {
+      if (format == HeapFile.Format.SLOTTED) {
+          convertSlotted(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator);
+      } else {
+          new BulkLoader(new TupleDesc(Arrays.copyOf(typeAr, numFields)), fieldSeparator, format, npagebytes)
+                  .load(inFile, outFile);
+      }
+  }
+
+  /**
+   * Copy a heap file into a new {@link CompressedPageStore}, compressing
+   * each of its pages, so that it can be opened as a compressed HeapFile.
+   *
+   * @param inFile a heap file, as written by convert
+   * @param outFile the data file of the store; it and its page table are
+   *        replaced
+   * @param npagebytes the size of the pages of the heap file
+   */
+  public static void compress(File inFile, File outFile, int npagebytes) throws IOException {
+      outFile.delete();
+      HeapFile.deleteSideFiles(outFile);
+      CompressedPageStore store = new CompressedPageStore(outFile);
+      try (InputStream is = new BufferedInputStream(new FileInputStream(inFile))) {
+          byte[] page = new byte[npagebytes];
+          while (is.readNBytes(page, 0, npagebytes) == npagebytes) {
+              store.append(page, true);
+          }
+      } finally {
+          store.close();
+      }
+  }
+
    /** Convert the specified input text file into a binary
     * page file. <br>
     * Assume format of the input file is (note that only integer fields are
@@ -78,7 +133,8 @@ public class HeapFileEncoder {
     * where each row represents a tuple.<br>
     * <p>
     * The format of the output file will be as specified in HeapPage and
-    * HeapFile.
+    * HeapFile. The file is written by a {@link BulkLoader}, which skips
+    * malformed lines.
     *
     * @see HeapPage
     * @see HeapFile
@@ -92,136 +148,72 @@ public class HeapFileEncoder {
   public static void convert(File inFile, File outFile, int npagebytes,
                  int numFields, Type[] typeAr, char fieldSeparator)
       throws IOException {
+      convert(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator, HeapFile.Format.FIXED);
+  }
 
-      int nrecbytes = 0;
-      for (int i = 0; i < numFields ; i++) {
-          nrecbytes += typeAr[i].getLen();
-      }
-      int nrecords = (npagebytes * 8) /  (nrecbytes * 8 + 1);  //floor comes for free
-      
-    //  per record, we need one bit; there are nrecords per page, so we need
-    // nrecords bits, i.e., ((nrecords/32)+1) integers.
-    int nheaderbytes = (nrecords / 8);
-    if (nheaderbytes * 8 < nrecords)
-        nheaderbytes++;  //ceiling
-    int nheaderbits = nheaderbytes * 8;
-
-    BufferedReader br = new BufferedReader(new FileReader(inFile));
-    FileOutputStream os = new FileOutputStream(outFile);
-
-    // our numbers probably won't be much larger than 1024 digits
-    char[] buf = new char[1024];
-
-    int curpos = 0;
-    int recordcount = 0;
-    int npages = 0;
-    int fieldNo = 0;
-
-    ByteArrayOutputStream headerBAOS = new ByteArrayOutputStream(nheaderbytes);
-    DataOutputStream headerStream = new DataOutputStream(headerBAOS);
-    ByteArrayOutputStream pageBAOS = new ByteArrayOutputStream(npagebytes);
-    DataOutputStream pageStream = new DataOutputStream(pageBAOS);
+  /**
+   * Write the tuples of a text file to pages of the slotted format, see
+   * {@link SlottedHeapPage}. Each page takes as many records as fit on it.
+   * Lines with a malformed field are reported and skipped.
+   */
+  private static void convertSlotted(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator)
+      throws IOException {
+      TupleDesc td = new TupleDesc(Arrays.copyOf(typeAr, numFields));
+      HeapPageId pid = new HeapPageId(0, 0);
+      String separator = Pattern.quote(String.valueOf(fieldSeparator));
 
-    boolean done = false;
-    boolean first = true;
-    while (!done) {
-        int c = br.read();
-        
-        // Ignore Windows/Notepad special line endings
-        if (c == '\r')
-            continue;
+      HeapFile.deleteSideFiles(outFile);
+      try (BufferedReader br = new BufferedReader(new FileReader(inFile));
+           FileOutputStream os = new FileOutputStream(outFile)) {
+          SlottedHeapPage page = new SlottedHeapPage(pid, td, new byte[npagebytes]);
+          int npages = 0;
+          int recordcount = 0;
+          String line;
+          while ((line = br.readLine()) != null) {
+              if (line.isEmpty())
+                  continue;
+              Tuple t = parseTuple(line.split(separator, -1), td);
+              if (t == null) {
+                  System.out.println ("BAD LINE : " + line);
+                  continue;
+              }
+              if (recordcount > 0 && !page.hasRoomFor(t)) {
+                  os.write(page.getPageData());
+                  npages++;
+                  page = new SlottedHeapPage(pid, td, new byte[npagebytes]);
+                  recordcount = 0;
+              }
+              try {
+                  page.insertTuple(t);
+              } catch (DbException e) {
+                  throw new IOException("tuple does not fit on a page: " + line, e);
+              }
+              recordcount++;
+          }
+          // if this file is empty, do write an empty page
+          if (recordcount > 0 || npages == 0)
+              os.write(page.getPageData());
+      }
+  }
 
-        if (c == '\n') {
-            if (first)
-                continue;
-            recordcount++;
-            first = true;
-        } else
-            first = false;
-        if (c == fieldSeparator || c == '\n' || c == '\r') {
-            String s = new String(buf, 0, curpos);
-            if (typeAr[fieldNo] == Type.INT_TYPE) {
-                try {
-                    pageStream.writeInt(Integer.parseInt(s.trim()));
-                } catch (NumberFormatException e) {
-                    System.out.println ("BAD LINE : " + s);
-                }
-            }
-            else if (typeAr[fieldNo] == Type.STRING_TYPE) {
-                s = s.trim();
-                int overflow = Type.STRING_LEN - s.length();
-                if (overflow < 0) {
-                    s  = s.substring(0,Type.STRING_LEN);
-                }
-                pageStream.writeInt(s.length());
-                pageStream.writeBytes(s);
-                while (overflow-- > 0)
-                    pageStream.write((byte)0);
-            }
-            curpos = 0;
-            if (c == '\n')
-                fieldNo = 0;
-            else
-                fieldNo++;
-            
-        } else if (c == -1) {
-            done = true;
-            
-        } else {
-            buf[curpos++] = (char)c;
-            continue;
-        }
-        
-        // if we wrote a full page of records, or if we're done altogether,
-        // write out the header of the page.
-        //
-        // in the header, write a 1 for bits that correspond to records we've
-        // written and 0 for empty slots.
-        //
-        // when we're done, also flush the page to disk, but only if it has
-        // records on it.  however, if this file is empty, do flush an empty
-        // page to disk.
-        if (recordcount >= nrecords
-            || done && recordcount > 0
-            || done && npages == 0) {
-            int i = 0;
-            byte headerbyte = 0;
-            
-            for (i=0; i<nheaderbits; i++) {
-                if (i < recordcount)
-                    headerbyte |= (1 << (i % 8));
-                
-                if (((i+1) % 8) == 0) {
-                    headerStream.writeByte(headerbyte);
-                    headerbyte = 0;
-                }
-            }
-            
-            if (i % 8 > 0)
-                headerStream.writeByte(headerbyte);
-            
-            // pad the rest of the page with zeroes
-            
-            for (i=0; i<(npagebytes - (recordcount * nrecbytes + nheaderbytes)); i++)
-                pageStream.writeByte(0);
-            
-            // write header and body to file
-            headerStream.flush();
-            headerBAOS.writeTo(os);
-            pageStream.flush();
-            pageBAOS.writeTo(os);
-            
-            // reset header and body for next page
-            headerBAOS = new ByteArrayOutputStream(nheaderbytes);
-            headerStream = new DataOutputStream(headerBAOS);
-            pageBAOS = new ByteArrayOutputStream(npagebytes);
-            pageStream = new DataOutputStream(pageBAOS);
-            
-            recordcount = 0;
-            npages++;
-        }
-    }
-    br.close();
-    os.close();
+  /** @return the tuple of the fields of a line, or null if one is malformed */
+  private static Tuple parseTuple(String[] fields, TupleDesc td) {
+      if (fields.length < td.numFields())
+          return null;
+      Tuple t = new Tuple(td);
+      for (int i = 0; i < td.numFields(); i++) {
+          String s = fields[i].trim();
+          if (td.getFieldType(i) == Type.INT_TYPE) {
+              try {
+                  t.setField(i, new IntField(Integer.parseInt(s)));
+              } catch (NumberFormatException e) {
+                  return null;
+              }
+          } else {
+              t.setField(i, new StringField(s, Type.STRING_LEN));
+          }
+      }
+      return t;
   }
 }
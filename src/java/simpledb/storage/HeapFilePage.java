@@ -0,0 +1,61 @@
+package simpledb.storage;
+
+import simpledb.common.DbException;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+/**
+ * A page of a {@link HeapFile}, in one of the formats of
+ * {@link HeapFile.Format}: {@link HeapPage}, with fixed-size slots,
+ * {@link PaxHeapPage}, with fixed-size slots stored column by column, or
+ * {@link SlottedHeapPage}, with variable-length records. HeapFile only
+ * deals with its pages through this interface.
+ */
+public interface HeapFilePage extends Page {
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    HeapPageId getId();
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on
+     *         this iterator throws an UnsupportedOperationException)
+     */
+    Iterator<Tuple> iterator();
+
+    /**
+     * Adds the specified tuple to the page; the tuple should be updated to
+     * reflect that it is now stored on this page.
+     *
+     * @throws DbException if the tuple does not fit on the page or its
+     *         TupleDesc does not match
+     */
+    void insertTuple(Tuple t) throws DbException;
+
+    /**
+     * Delete the specified tuple from the page.
+     *
+     * @throws DbException if this tuple is not on this page, or its slot is
+     *         already empty.
+     */
+    void deleteTuple(Tuple t) throws DbException;
+
+    /**
+     * @return true if the specified tuple fits on this page
+     */
+    boolean hasRoomFor(Tuple t);
+
+    /**
+     * @return the {@link FreeSpaceMap} category of the room left on this page
+     */
+    int getFreeSpaceCategory();
+
+    /**
+     * Write the bytes {@link #getPageData} returns at the position of a
+     * buffer, advancing it by a page, so that a caller can serialize pages
+     * into a buffer of its own.
+     */
+    void writePageData(ByteBuffer buf);
+}
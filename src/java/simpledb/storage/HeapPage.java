@@ -11,6 +11,8 @@ import java.util.*;
 import javax.swing.ToolTipManager;
 
 import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
@@ -20,7 +22,7 @@ import java.io.*;
  * @see BufferPool
  *
  */
-public class HeapPage implements Page {
+public class HeapPage implements HeapFilePage {
 
     final HeapPageId pageId;
     final TupleDesc tupleDesc;
@@ -28,15 +30,27 @@ public class HeapPage implements Page {
     final Tuple[] tuples;
     final int numSlots;
 
+    /**
+     * data: the page as it was read; tuples are decoded from it on demand
+     * view: data wrapped once for the tuples that are views of it
+     * tuples: the tuples inserted since the page was read, by slot; a used
+     *         slot without one still holds the tuple in data
+     * changed: whether a tuple was inserted or deleted since the page was read
+     */
+    final byte[] data;
+    final ByteBuffer view;
+    private boolean changed;
+
     byte[] oldData;
     private final Byte oldDataLock= (byte) 0;
     
     /**
-     * dirtyId: ݵ
-     * isDirty: Ƿҳ
+     * dirtyId: 标记脏数据的事务
+     * isDirty: 是否是脏页
      */
     private TransactionId dirtyTid;
     private boolean isDirty; 
+    private volatile long lsn;
 
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
@@ -50,6 +64,10 @@ public class HeapPage implements Page {
      * <p>
      *      ceiling(no. tuple slots / 8)
      * <p>
+     * Only the header is decoded here. The page keeps the array, which must
+     * not be changed afterwards, and decodes the tuples in it when they are
+     * asked for, field by field.
+     *
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
      * @see BufferPool#getPageSize()
@@ -58,26 +76,37 @@ public class HeapPage implements Page {
         this.pageId = id;
         this.tupleDesc = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        if (data.length < getHeaderSize() + numSlots * tupleDesc.getSize()) {
+            throw new EOFException("page " + id + " is too short");
+        }
+        this.data = data;
+        this.view = ByteBuffer.wrap(data).asReadOnlyBuffer();
 
         // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
+        header = Arrays.copyOf(data, getHeaderSize());
         tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
-        }
-        dis.close();
 
         setBeforeImage();
     }
 
+    /**
+     * Create a HeapPage from the bytes between the position and the limit
+     * of a buffer, such as a slice of a memory-mapped file. The bytes are
+     * copied, as the tuples of the page must not change under their readers
+     * when the file is written; the buffer itself is left untouched.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
+        this(id, copy(data));
+    }
+
+    private static byte[] copy(ByteBuffer data) {
+        byte[] bytes = new byte[data.remaining()];
+        data.duplicate().get(bytes);
+        return bytes;
+    }
+
     /** Retrieve the number of tuples on this page.
         @return the number of tuples on this page
     */
@@ -106,7 +135,7 @@ public class HeapPage implements Page {
             {
                 oldDataRef = oldData;
             }
-            return new HeapPage(pageId,oldDataRef);
+            return pageOf(oldDataRef);
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -115,10 +144,24 @@ public class HeapPage implements Page {
         return null;
     }
     
+    /**
+     * @return a page of the same id and layout as this one, read from the
+     *         specified data
+     */
+    HeapPage pageOf(byte[] pageData) throws IOException {
+        return new HeapPage(pageId, pageData);
+    }
+
+    /**
+     * A page that has not changed since it was read shares the array it was
+     * read from as its before-image, as neither ever changes; otherwise the
+     * before-image is a fresh copy of the page data.
+     */
     public void setBeforeImage() {
+        byte[] image = changed ? getPageData() : data;
         synchronized(oldDataLock)
         {
-        	oldData = getPageData().clone();
+        	oldData = image;
         }
     }
 
@@ -130,37 +173,30 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * @return the offset of a slot in the page data
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<tupleDesc.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
-        }
+    private int slotOffset(int slotId) {
+        return header.length + slotId * tupleDesc.getSize();
+    }
 
-        // read fields in the tuple
-        Tuple t = new Tuple(tupleDesc);
-        RecordId rid = new RecordId(pageId, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j=0; j<tupleDesc.numFields(); j++) {
-                Field f = tupleDesc.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
-        }
+    /**
+     * @return the offset in the page data of a field of the tuple in a slot
+     */
+    int fieldOffset(int slotId, int field) {
+        return slotOffset(slotId) + tupleDesc.getFieldOffset(field);
+    }
 
-        return t;
+    /**
+     * @return the tuple in a used slot: the one inserted there, or a view
+     *         of the one read with the page that decodes its fields on
+     *         demand
+     */
+    private Tuple getTuple(int slotId) {
+        Tuple t = tuples[slotId];
+        if (t != null) {
+            return t;
+        }
+        return new Tuple(tupleDesc, this, slotId, new RecordId(pageId, slotId));
     }
 
     /**
@@ -175,64 +211,90 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (byte b : header) {
-            try {
-                dos.writeByte(b);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
+        ByteBuffer buf = ByteBuffer.allocate(BufferPool.getPageSize());
+        writePageData(buf);
+        return buf.array();
+    }
 
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
+    /**
+     * A page that has not changed since it was read is written as a single
+     * copy of the data it was read from; otherwise only the tuples inserted
+     * since are encoded, and everything else is copied or cleared in bulk.
+     */
+    public void writePageData(ByteBuffer buf) {
+        int start = buf.position();
+        int end = start + BufferPool.getPageSize();
+        if (!changed) {
+            int len = Math.min(data.length, end - start);
+            buf.put(data, 0, len);
+        } else {
+            buf.put(header);
+            writeTuples(buf);
+        }
+        // padding
+        clear(buf, end - buf.position());
+    }
 
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j=0; j<tupleDesc.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
+    /**
+     * Write the slots of the page after its header, in row order.
+     */
+    void writeTuples(ByteBuffer buf) {
+        writeFields(buf, 0, tupleDesc.numFields() - 1);
+    }
 
+    /**
+     * Write a range of fields of every slot, in slot order: runs of slots
+     * unchanged since the page was read are copied, and runs of empty slots
+     * cleared, in bulk; only the fields of inserted tuples are encoded. The
+     * fields of the range must be next to each other in a slot, and those
+     * of consecutive slots next to each other in the page.
+     */
+    void writeFields(ByteBuffer buf, int firstField, int lastField) {
+        int width = fieldOffset(0, lastField) + tupleDesc.getFieldType(lastField).getLen()
+                - fieldOffset(0, firstField);
+        int run = 0;
+        boolean runUsed = false;
+        for (int i = 0; i < numSlots; i++) {
+            boolean used = isSlotUsed(i);
+            if (used && tuples[i] != null) {
+                writeRun(buf, i - run, run, runUsed, firstField, width);
+                run = 0;
+                for (int j = firstField; j <= lastField; j++) {
+                    tuples[i].getField(j).serialize(buf);
                 }
                 continue;
             }
-
-            // non-empty slot
-            for (int j=0; j<tupleDesc.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+            if (run > 0 && used != runUsed) {
+                writeRun(buf, i - run, run, runUsed, firstField, width);
+                run = 0;
             }
+            runUsed = used;
+            run++;
         }
+        writeRun(buf, numSlots - run, run, runUsed, firstField, width);
+    }
 
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + tupleDesc.getSize() * tuples.length); //- numSlots * tupleDesc.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
+    /**
+     * Write the fields of count slots from the first one: the bytes read
+     * with the page for used slots, and zeroes for empty ones.
+     */
+    private void writeRun(ByteBuffer buf, int first, int count, boolean used, int field, int width) {
+        int length = count * width;
+        if (used) {
+            buf.put(data, fieldOffset(first, field), length);
+        } else {
+            clear(buf, length);
         }
+    }
 
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+    private static final byte[] ZEROES = new byte[1024];
 
-        return baos.toByteArray();
+    static void clear(ByteBuffer buf, int length) {
+        while (length > 0) {
+            int n = Math.min(length, ZEROES.length);
+            buf.put(ZEROES, 0, n);
+            length -= n;
+        }
     }
 
     /**
@@ -258,14 +320,15 @@ public class HeapPage implements Page {
      */
     public void deleteTuple(Tuple tup) throws DbException {
     	if (!tup.getRecordId().getPageId().equals(this.pageId)) {
-    		throw new DbException("Ԫ" + tup.toString() + "ҳ:" + this.pageId.toString());
+    		throw new DbException("该元组" + tup.toString() + "不存在与该页面中:" + this.pageId.toString());
     	}
         int tIndex = tup.getRecordId().getTupleNumber();
         if (!isSlotUsed(tIndex)) {
-        	throw new DbException("Ԫ" + tup.toString() + "Ѿɾ");
+        	throw new DbException("该元组" + tup.toString() + "已经被删除了");
         }
         markSlotUsed(tIndex, false);
         tuples[tIndex] = null;
+        changed = true;
     }
 
     /**
@@ -277,16 +340,17 @@ public class HeapPage implements Page {
      */
     public void insertTuple(Tuple tup) throws DbException {
         if (!tup.getTupleDesc().equals(this.tupleDesc)) {
-        	throw new DbException("ԪԲƥ䣬޷");
+        	throw new DbException("元组属性不匹配，无法插入");
         }
         if (getNumEmptySlots() == 0) {
-        	throw new DbException("pageûжռ䣬޷");
+        	throw new DbException("该page没有额外空间，无法插入");
         }
         for (int slot = 0; slot < numSlots; slot += 1) {
         	if (!isSlotUsed(slot)) {
         		tup.setRecordId(new RecordId(pageId, slot));
         		markSlotUsed(slot, true);
         		tuples[slot] = tup;
+        		changed = true;
         		break;
         	}
         }
@@ -308,6 +372,14 @@ public class HeapPage implements Page {
         return isDirty ? dirtyTid : null; 
     }
 
+    public long getLsn() {
+        return lsn;
+    }
+
+    public void setLsn(long lsn) {
+        this.lsn = lsn;
+    }
+
     /**
      * Returns the number of empty slots on this page.
      */
@@ -321,6 +393,14 @@ public class HeapPage implements Page {
         return emptySlots;
     }
 
+    public boolean hasRoomFor(Tuple t) {
+        return getNumEmptySlots() > 0;
+    }
+
+    public int getFreeSpaceCategory() {
+        return FreeSpaceMap.category(getNumEmptySlots(), numSlots);
+    }
+
     /**
      * Returns true if associated slot on this page is filled.
      */
@@ -343,16 +423,39 @@ public class HeapPage implements Page {
     /**
      * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
      * (note that this iterator shouldn't return tuples in empty slots!)
+     * <p>
+     * The iterator returns the tuples in the slots that were used when it
+     * was created and still are, building each one only when it gets to it.
      */
     public Iterator<Tuple> iterator() {
-    	ArrayList<Tuple> tupleList = new ArrayList<Tuple>();
-    	for (int tIndex = 0; tIndex < tuples.length; tIndex ++) {
-    		if (isSlotUsed(tIndex)) {
-    			tupleList.add(tuples[tIndex]);
-    		}
-    	}
-    	return tupleList.iterator();
+        final byte[] used = header.clone();
+        return new Iterator<Tuple>() {
+            private int next = advance(0);
+
+            private int advance(int from) {
+                for (int tIndex = from; tIndex < numSlots; tIndex ++) {
+                    if (((used[tIndex / 8] >> (tIndex % 8)) & 1) != 0 && isSlotUsed(tIndex)) {
+                        return tIndex;
+                    }
+                }
+                return numSlots;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next < numSlots;
+            }
+
+            @Override
+            public Tuple next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Tuple t = getTuple(next);
+                next = advance(next + 1);
+                return t;
+            }
+        };
     }
 
 }
-
@@ -0,0 +1,148 @@
+package simpledb.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LogBuffer is the tail of a {@link LogFile} in memory: a ring of bytes
+ * that log records are copied into before they are written to the file.
+ * <p>
+ * A position in the log as a whole is its LSN (log sequence number), which
+ * only ever grows; byte lsn of the log lives at lsn modulo the capacity of
+ * the ring until it is written out. Appending a record takes three steps:
+ * <ul>
+ * <li>{@link #reserve} hands out the next LSNs with a compare-and-set, so
+ * that threads appending at the same time do not exclude each other;
+ * <li>{@link #copy} copies the record into the ring, which appenders do in
+ * parallel;
+ * <li>{@link #publish} waits for the records before it to be published and
+ * then publishes this one, so that every byte below {@link #getPublished}
+ * is complete.
+ * </ul>
+ * The bytes below {@link #getWritten} are in the file. A reservation that
+ * does not fit in the ring writes out what is published to make room.
+ */
+class LogBuffer {
+
+    /** Spins to wait for a record to be published before yielding */
+    private static final int SPINS = 100;
+
+    private final byte[] ring;
+    private final AtomicLong reserved;
+    private volatile long published;
+    private volatile long written; // advanced by writeOut, under the monitor of the log
+
+    /**
+     * @param capacity the number of bytes the ring holds
+     * @param start the LSN of the first record
+     */
+    LogBuffer(int capacity, long start) {
+        ring = new byte[capacity];
+        reserved = new AtomicLong(start);
+        reset(start);
+    }
+
+    /**
+     * Start over at the given LSN, with nothing in the ring. Only called
+     * while no record is being appended.
+     */
+    void reset(long start) {
+        reserved.set(start);
+        published = start;
+        written = start;
+    }
+
+    int capacity() {
+        return ring.length;
+    }
+
+    /** @return the LSN of the next record to be reserved */
+    long getReserved() {
+        return reserved.get();
+    }
+
+    /** @return the LSN below which all records are complete in the ring */
+    long getPublished() {
+        return published;
+    }
+
+    /** @return the LSN below which the log is in the file */
+    long getWritten() {
+        return written;
+    }
+
+    /**
+     * Reserve room for a record, writing published records out to the log
+     * while the ring is full.
+     *
+     * @return the LSN of the record
+     */
+    long reserve(int len, LogFile log) throws IOException {
+        if (len > ring.length) {
+            throw new IOException("a log record of " + len + " bytes does not fit in the log buffer");
+        }
+        while (true) {
+            long lsn = reserved.get();
+            if (lsn + len - written > ring.length) {
+                log.writeOut();
+                if (lsn + len - written > ring.length) {
+                    // the records that would make room are still being copied
+                    Thread.yield();
+                }
+                continue;
+            }
+            if (reserved.compareAndSet(lsn, lsn + len)) {
+                return lsn;
+            }
+        }
+    }
+
+    /** Copy a record to the room reserved for it. */
+    void copy(long lsn, byte[] record, int len) {
+        int at = (int) (lsn % ring.length);
+        int first = Math.min(len, ring.length - at);
+        System.arraycopy(record, 0, ring, at, first);
+        System.arraycopy(record, first, ring, 0, len - first);
+    }
+
+    /** Publish a copied record once the records before it are published. */
+    void publish(long lsn, int len) {
+        awaitPublished(lsn);
+        published = lsn + len;
+    }
+
+    /** Wait until every record below lsn is published. */
+    void awaitPublished(long lsn) {
+        for (int spins = 0; published < lsn; spins++) {
+            if (spins < SPINS) {
+                Thread.onSpinWait();
+            } else {
+                Thread.yield();
+            }
+        }
+    }
+
+    /**
+     * Write the published records that are not in the file yet. The caller
+     * holds the monitor of the log.
+     *
+     * @param channel the channel of the log file
+     * @param offset the offset in the file of the first byte not written yet
+     */
+    void writeOut(FileChannel channel, long offset) throws IOException {
+        long from = written;
+        long to = published;
+        while (from < to) {
+            int at = (int) (from % ring.length);
+            int len = (int) Math.min(to - from, ring.length - at);
+            ByteBuffer buf = ByteBuffer.wrap(ring, at, len);
+            while (buf.hasRemaining()) {
+                offset += channel.write(buf, offset);
+            }
+            from += len;
+        }
+        written = to;
+    }
+}
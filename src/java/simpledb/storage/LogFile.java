@@ -1,4 +1,3 @@
-
 package simpledb.storage;
 
 import simpledb.common.Database;
@@ -6,8 +5,13 @@ import simpledb.transaction.TransactionId;
 import simpledb.common.Debug;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
 import java.util.*;
-import java.lang.reflect.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /*
 LogFile implements the recovery subsystem of SimpleDb.  This class is
@@ -36,6 +40,11 @@ must not be declared synchronized and must begin with a block like:
        }
     }
 </pre>
+
+Appending a record does not take the monitor of the log: records are
+serialized by the appending thread and copied into a {@link LogBuffer},
+and only writing the buffer to the file, and reading or rewriting the
+file, happen under the monitor.
 */
 
 /**
@@ -43,8 +52,15 @@ must not be declared synchronized and must begin with a block like:
 
 <ul>
 
-<li> The first long integer of the file represents the offset of the
-last written checkpoint, or -1 if there are no checkpoints
+<li> Every byte of the log has an LSN (log sequence number), its
+position in the log as a whole.  LSNs only grow: truncating the log
+drops its head but does not change the LSNs of the records that are
+left.
+
+<li> The first long integer of the file is the LSN of the last written
+checkpoint, or -1 if there are no checkpoints.  The second is the LSN
+of the first byte after this header, so that the record at LSN lsn
+starts at file offset lsn - (second long) + 16.
 
 <li> All additional data in the log consists of log records.  Log
 records are variable length.
@@ -52,48 +68,197 @@ records are variable length.
 <li> Each log record begins with an integer type and a long integer
 transaction id.
 
-<li> Each log record ends with a long integer file offset representing
-the position in the log file where the record began.
+<li> Each log record ends with a long integer, the LSN where the
+record began.
+
+<li> There are six record types: ABORT, COMMIT, UPDATE, BEGIN,
+CHECKPOINT and CLR
+
+<li> ABORT, COMMIT, and BEGIN records contain no additional data.  An
+ABORT record is written once the rollback of the transaction is done.
+
+<li>UPDATE RECORDS consist of the LSN of the previous record of the
+transaction, then the id of a page and the ranges of bytes the update
+changed in it, with their contents before and after the update.  See
+{@link PageDelta} for the format and LogFile.print() for an example.
+The previous record of the first update of a transaction is its BEGIN
+record; an update logged for a transaction that did not begin, or that
+already committed, has -1 there and is never undone.
+
+<li> CLR (compensation log record) records are written as updates are
+undone, by a rollback or by recovery.  They consist of the LSN of the
+previous record of the transaction, the LSN of the next record of the
+transaction to undo (the previous record of the update undone), and the
+delta that undoes the update.  CLRs are redone but never undone, so
+undoing a transaction again after a crash picks up where it stopped.
+
+<li> CHECKPOINT records consist of the LSN recovery reads the log from,
+the active transactions at the time the checkpoint was taken, and the
+dirty page table.  The format of the record is the LSN, an integer
+count of the number of transactions, a long integer transaction id and
+the long integer LSNs of the first and last records of each active
+transaction, then an integer count of the number of dirty pages and the
+id of each page followed by the long integer LSN of the first record
+that updated it since it was last written.
 
-<li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
-CHECKPOINT
+</ul>
 
-<li> ABORT, COMMIT, and BEGIN records contain no additional data
+<p> <u> Recovery: </u>
+<p>
 
-<li>UPDATE RECORDS consist of two entries, a before image and an
-after image.  These images are serialized Page objects, and can be
-accessed with the LogFile.readPageData() and LogFile.writePageData()
-methods.  See LogFile.print() for an example.
+Recovery follows ARIES.  Analysis reads the log from the last
+checkpoint to its end, rebuilding the table of active transactions and
+the table of dirty pages as they were at the crash; redo then applies
+the updates and CLRs again in log order from the oldest LSN of a dirty
+page, to pages that may not hold them, on a pool of threads that each
+redo their own pages (see {@link ParallelRedo} and
+{@link #REDO_THREADS_PROPERTY}); undo rolls back the transactions
+that did not finish, following the records of each back to its BEGIN
+record and writing CLRs, as a rollback does.  Checkpoints are fuzzy:
+they write the two tables to the log without writing any page, so they
+only hold up updates while the tables are copied.  The log recovery
+reads is thus bounded by the interval between checkpoints, see
+{@link #CHECKPOINT_INTERVAL_PROPERTY}, and by how long pages stay dirty.
+
+<p> <u> Log buffer: </u>
+<p>
 
-<li> CHECKPOINT records consist of active transactions at the time
-the checkpoint was taken and their first log record on disk.  The format
-of the record is an integer count of the number of transactions, as well
-as a long integer transaction id and a long integer first record offset
-for each active transaction.
+Records are appended to a {@link LogBuffer} in memory, which is written
+to the file when it fills up, when the log is read, and when it is
+forced.  {@link #flushToLsn} makes the log durable up to a given LSN.
+Every page whose update is logged is stamped with the LSN of the end of
+its record ({@link Page#getLsn}), and the BufferPool flushes the log up
+to that LSN before it writes the page, rather than forcing the whole
+log.  See {@link #BUFFER_SIZE_PROPERTY}.
 
-</ul>
+<p> <u> Group commit: </u>
+<p>
+
+A commit record is appended like any other, but the committing thread
+then leaves the log alone and waits until a {@link LogFlusher} has
+forced the log past the end of its record. The flusher forces the log
+once for all the commit records appended by then, so concurrent
+transactions share an fsync. See {@link #GROUP_COMMIT_WINDOW_PROPERTY}.
 */
 public class LogFile {
 
+    /**
+     * Name of the system property that sets how long, in microseconds, the
+     * flusher waits for more commits once a transaction asks for its commit
+     * record to be forced. 0, the default, forces at once; commits that
+     * arrive during a force still wait for the next one together.
+     */
+    public static final String GROUP_COMMIT_WINDOW_PROPERTY = "simpledb.storage.LogFile.groupCommitMicros";
+
+    /** Name of the system property that sets the size of the log buffer, in bytes. */
+    public static final String BUFFER_SIZE_PROPERTY = "simpledb.storage.LogFile.bufferSize";
+
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+
+    /** The smallest log buffer, which holds an update record of a 64 KB page */
+    private static final int MIN_BUFFER_SIZE = 1 << 18;
+
+    /**
+     * Name of the system property that sets how many bytes of log a
+     * committing transaction lets through before it takes a checkpoint.
+     * 0 leaves checkpoints to {@link #logCheckpoint}.
+     */
+    public static final String CHECKPOINT_INTERVAL_PROPERTY = "simpledb.storage.LogFile.checkpointBytes";
+
+    public static final long DEFAULT_CHECKPOINT_INTERVAL = 16L << 20;
+
+    /**
+     * Name of the system property that sets the number of threads redo
+     * applies the log with, by default the number of processors.
+     */
+    public static final String REDO_THREADS_PROPERTY = "simpledb.storage.LogFile.redoThreads";
+
+    /** The most pages recovery keeps in memory before it writes some back */
+    private static final int RECOVERY_PAGES = 8192;
+
+    /** The size of the buffer recovery reads the log through */
+    private static final int SCAN_BUFFER_SIZE = 1 << 16;
+
     final File logFile;
     private RandomAccessFile raf;
-    Boolean recoveryUndecided; // no call to recover() and no append to log
+    volatile boolean recoveryUndecided; // no call to recover() and no append to log
 
     static final int ABORT_RECORD = 1;
     static final int COMMIT_RECORD = 2;
     static final int UPDATE_RECORD = 3;
     static final int BEGIN_RECORD = 4;
     static final int CHECKPOINT_RECORD = 5;
+    static final int CLR_RECORD = 6;
     static final long NO_CHECKPOINT_ID = -1;
+    static final long NO_PREV_LSN = -1;
 
     final static int INT_SIZE = 4;
     final static int LONG_SIZE = 8;
+    final static int HEADER_SIZE = 2 * LONG_SIZE;
+
+    long base = 0; // LSN of the first byte after the file header; protected by this
+    private final LogBuffer buffer;
+    private final AtomicInteger totalRecords = new AtomicInteger(); // for PatchTest
+
+    // the transaction table: the first and last records of each active
+    // transaction, which its next record points back to
+    final Map<Long,Long> tidToFirstLogRecord = new ConcurrentHashMap<>();
+    private final Map<Long,Long> tidToLastLogRecord = new ConcurrentHashMap<>();
+
+    // the dirty page table: for each page whose logged updates may not be
+    // in its file, the LSN of the first of them (its recLSN)
+    private final Map<PageId,Long> dirtyPages = new ConcurrentHashMap<>();
+
+    // the end of each COMMIT record appended before the locks of its
+    // transaction were released, which logCommit waits for
+    private final Map<Long,Long> commitLsns = new ConcurrentHashMap<>();
+
+    private final long checkpointInterval;
+    private final int redoThreads;
+    private volatile long lastCheckpoint = 0; // LSN of the last checkpoint record, or of the start of the log
+    private final AtomicBoolean checkpointing = new AtomicBoolean();
+
+    // the data last logged for each page an active transaction logged,
+    // which the next UPDATE record of the page is relative to
+    private final Map<Long,Map<PageId,byte[]>> loggedData = new ConcurrentHashMap<>();
+
+    private final ThreadLocal<Record> records = ThreadLocal.withInitial(Record::new);
+
+    // group commit state, protected by flushLock. Lock order: this, then flushLock
+    private final Object flushLock = new Object();
+    private final long groupCommitWindow;
+    private LogFlusher flusher;
+    private long requestedLsn = 0; // the end of the last commit record waited for
+    private volatile long durableLsn = 0; // the log is durable up to here
+    private IOException flushError;
+    private long flushFailures = 0;
+    private long commits = 0;
+    private long groupForces = 0;
+    private long forces = 0;
+
+    /**
+     * A log record being serialized, by the thread appending it. Its last
+     * 8 bytes, the LSN of the record, are filled in once it is reserved.
+     */
+    static class Record extends ByteArrayOutputStream {
+        final DataOutputStream out = new DataOutputStream(this);
+        long lsn;
+
+        Record() {
+            super(256);
+        }
 
-    long currentOffset = -1;//protected by this
-//    int pageSize;
-    int totalRecords = 0; // for PatchTest //protected by this
+        byte[] array() {
+            return buf;
+        }
 
-    final Map<Long,Long> tidToFirstLogRecord = new HashMap<>();
+        void setLong(int at, long v) {
+            for (int i = 7; i >= 0; i--) {
+                buf[at + i] = (byte) v;
+                v >>>= 8;
+            }
+        }
+    }
 
     /** Constructor.
         Initialize and back the log file with the specified file.
@@ -110,6 +275,11 @@ public class LogFile {
     	this.logFile = f;
         raf = new RandomAccessFile(f, "rw");
         recoveryUndecided = true;
+        groupCommitWindow = Long.getLong(GROUP_COMMIT_WINDOW_PROPERTY, 0);
+        buffer = new LogBuffer(Math.max(MIN_BUFFER_SIZE, Integer.getInteger(BUFFER_SIZE_PROPERTY, DEFAULT_BUFFER_SIZE)), 0);
+        checkpointInterval = Long.getLong(CHECKPOINT_INTERVAL_PROPERTY, DEFAULT_CHECKPOINT_INTERVAL);
+        redoThreads = Math.max(1, Integer.getInteger(REDO_THREADS_PROPERTY,
+                Runtime.getRuntime().availableProcessors()));
 
         // install shutdown hook to force cleanup on close
         // Runtime.getRuntime().addShutdownHook(new Thread() {
@@ -126,21 +296,77 @@ public class LogFile {
     // DB wants to do recovery, we're sure now -- it didn't. So truncate
     // the log.
     void preAppend() throws IOException {
-        totalRecords++;
         if(recoveryUndecided){
-            recoveryUndecided = false;
-            raf.seek(0);
-            raf.setLength(0);
-            raf.writeLong(NO_CHECKPOINT_ID);
-            raf.seek(raf.length());
-            currentOffset = raf.getFilePointer();
+            synchronized (this) {
+                if (recoveryUndecided) {
+                    raf.seek(0);
+                    raf.setLength(0);
+                    base = buffer.getReserved();
+                    raf.writeLong(NO_CHECKPOINT_ID);
+                    raf.writeLong(base);
+                    lastCheckpoint = base;
+                    recoveryUndecided = false;
+                }
+            }
         }
     }
 
-    public synchronized int getTotalRecords() {
-        return totalRecords;
+    /** @return the offset in the file of the given LSN; the caller holds the monitor */
+    private long offsetOf(long lsn) {
+        return lsn - base + HEADER_SIZE;
+    }
+
+    public int getTotalRecords() {
+        return totalRecords.get();
+    }
+
+    /** @return the LSN of the end of the last record appended */
+    public long getCurrentLsn() {
+        return buffer.getPublished();
+    }
+
+    /** @return the LSN up to which the log is durable */
+    public long getDurableLsn() {
+        return durableLsn;
     }
-    
+
+    /**
+     * Start serializing a record of the calling thread.
+     */
+    private Record startRecord(int type, long tid) throws IOException {
+        preAppend();
+        Record r = records.get();
+        r.reset();
+        r.out.writeInt(type);
+        r.out.writeLong(tid);
+        return r;
+    }
+
+    /**
+     * Append a serialized record to the log buffer, filling in its LSN.
+     *
+     * @return the LSN of the end of the record
+     */
+    private long append(Record r) throws IOException {
+        r.out.writeLong(0);
+        int len = r.size();
+        long lsn = buffer.reserve(len, this);
+        r.setLong(len - LONG_SIZE, lsn);
+        buffer.copy(lsn, r.array(), len);
+        buffer.publish(lsn, len);
+        r.lsn = lsn;
+        totalRecords.incrementAndGet();
+        return lsn + len;
+    }
+
+    /**
+     * Write the records published in the log buffer to the file, without
+     * forcing it.
+     */
+    synchronized void writeOut() throws IOException {
+        buffer.writeOut(raf.getChannel(), offsetOf(buffer.getWritten()));
+    }
+
     /** Write an abort record to the log for the specified tid, force
         the log to disk, and perform a rollback
         @param tid The aborting transaction.
@@ -162,132 +388,256 @@ public class LogFile {
                 // System.out.printf("tid: %d\n", tid.getId());
                 rollback(tid);
 
-                raf.writeInt(ABORT_RECORD);
-                raf.writeLong(tid.getId());
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
-                force();
-                tidToFirstLogRecord.remove(tid.getId());
+                flushToLsn(append(startRecord(ABORT_RECORD, tid.getId())));
+                forget(tid.getId());
             }
         }
     }
 
     /** Write a commit record to disk for the specified tid,
-        and force the log to disk.
+        and wait until the log is durable up to the end of it.
+        The log is forced by the {@link LogFlusher}, once for all the
+        transactions committing at the same time.  If the buffer pool
+        already appended the record ({@link #appendCommit}), this only
+        waits for it.
 
         @param tid The committing transaction.
     */
-    public synchronized void logCommit(TransactionId tid) throws IOException {
-        preAppend();
-        Debug.log("COMMIT " + tid.getId());
-        //should we verify that this is a live transaction?
-
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-        force();
-        tidToFirstLogRecord.remove(tid.getId());
+    public void logCommit(TransactionId tid) throws IOException {
+        Long end = commitLsns.remove(tid.getId());
+        if (end == null) {
+            end = appendCommitRecord(tid.getId());
+        }
+        awaitDurable(end);
+        checkpointIfDue();
     }
 
-    /** Write an UPDATE record to disk for the specified tid and page
-        (with provided         before and after images.)
-        @param tid The transaction performing the write
-        @param before The before image of the page
-        @param after The after image of the page
+    /**
+     * Append the COMMIT record of a transaction that began, without
+     * waiting for it to be durable. The buffer pool calls this once the
+     * updates of the transaction are logged and before it releases its
+     * locks, so that no other transaction updates a page after it unless
+     * it committed in the log: recovery undoes every transaction that has
+     * no COMMIT record. {@link #logCommit} then waits for the record.
+     *
+     * @param tid The committing transaction.
+     */
+    public void appendCommit(TransactionId tid) throws IOException {
+        if (tidToFirstLogRecord.containsKey(tid.getId())) {
+            commitLsns.put(tid.getId(), appendCommitRecord(tid.getId()));
+        }
+    }
 
-        @see Page#getBeforeImage
-    */
-    public synchronized void logWrite(TransactionId tid, Page before,
-                                       Page after)
-        throws IOException  {
-        Debug.log("WRITE, offset = " + raf.getFilePointer());
-        preAppend();
-        /* update record conists of
+    /** @return the LSN of the end of the COMMIT record */
+    private long appendCommitRecord(long tid) throws IOException {
+        Debug.log("COMMIT " + tid);
+        // under the pool monitor, so that a checkpoint sees the transaction
+        // either active or committed before it started
+        synchronized (Database.getBufferPool()) {
+            long end = append(startRecord(COMMIT_RECORD, tid));
+            forget(tid);
+            return end;
+        }
+    }
 
-           record type
-           transaction id
-           before page data (see writePageData)
-           after page data
-           start offset
-        */	
-        raf.writeInt(UPDATE_RECORD);
-        raf.writeLong(tid.getId());
+    /** Drop a transaction that finished from the transaction table. */
+    private void forget(long tid) {
+        tidToFirstLogRecord.remove(tid);
+        tidToLastLogRecord.remove(tid);
+        loggedData.remove(tid);
+    }
 
-        writePageData(raf,before);
-        writePageData(raf,after);
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
+    /**
+     * Wait until the log is durable up to the given LSN, starting the
+     * flusher if need be.
+     */
+    private void awaitDurable(long end) throws IOException {
+        synchronized (flushLock) {
+            commits++;
+            if (durableLsn >= end) {
+                return;
+            }
+            if (flusher == null) {
+                flusher = new LogFlusher(this, groupCommitWindow);
+                flusher.start();
+            }
+            if (end > requestedLsn) {
+                requestedLsn = end;
+                flushLock.notifyAll();
+            }
+            long failures = flushFailures;
+            while (durableLsn < end) {
+                if (flushFailures != failures) {
+                    throw new IOException("could not force the log", flushError);
+                }
+                try {
+                    flushLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("interrupted waiting for the log to be forced");
+                }
+            }
+        }
+    }
 
-        Debug.log("WRITE OFFSET = " + currentOffset);
+    /**
+     * Wait until a transaction waits for the log to be forced.
+     *
+     * @return false if the flusher was stopped and no transaction waits
+     */
+    boolean awaitFlushRequest(LogFlusher f) throws InterruptedException {
+        synchronized (flushLock) {
+            while (requestedLsn <= durableLsn) {
+                if (f.isStopped()) {
+                    return false;
+                }
+                flushLock.wait();
+            }
+            return true;
+        }
     }
 
-    void writePageData(RandomAccessFile raf, Page p) throws IOException{
-        PageId pid = p.getId();
-        int[] pageInfo = pid.serialize();
+    /** Force the log for the transactions waiting on it. */
+    void groupForce() throws IOException {
+        long lsn;
+        synchronized (flushLock) {
+            lsn = requestedLsn;
+        }
+        // and whatever else was appended in the meantime
+        if (forceTo(Math.max(lsn, buffer.getPublished()))) {
+            synchronized (flushLock) {
+                groupForces++;
+            }
+        }
+    }
 
-        //page data is:
-        // page class name
-        // id class name
-        // id class bytes
-        // id class data
-        // page class bytes
-        // page class data
+    /** Wake up the transactions waiting for a force that failed. */
+    void groupForceFailed(IOException e) {
+        synchronized (flushLock) {
+            flushError = e;
+            flushFailures++;
+            flushLock.notifyAll();
+        }
+    }
 
-        String pageClassName = p.getClass().getName();
-        String idClassName = pid.getClass().getName();
+    /** Record that the log is durable up to lsn; the caller holds flushLock. */
+    private void markDurable(long lsn) {
+        if (lsn > durableLsn) {
+            durableLsn = lsn;
+            flushLock.notifyAll();
+        }
+    }
 
-        raf.writeUTF(pageClassName);
-        raf.writeUTF(idClassName);
+    /** Wake up the flusher, e.g. to let it see that it was stopped. */
+    void wakeFlusher() {
+        synchronized (flushLock) {
+            flushLock.notifyAll();
+        }
+    }
 
-        raf.writeInt(pageInfo.length);
-        for (int j : pageInfo) {
-            raf.writeInt(j);
+    /**
+     * Stop the flusher thread, once it has forced the commit records
+     * waiting for it. It is started again by the next commit.
+     */
+    public void stopFlusher() {
+        LogFlusher f;
+        synchronized (flushLock) {
+            f = flusher;
+            flusher = null;
+        }
+        if (f != null) {
+            f.shutdown();
         }
-        byte[] pageData = p.getPageData();
-        raf.writeInt(pageData.length);
-        raf.write(pageData);
-        //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
     }
 
-    Page readPageData(RandomAccessFile raf) throws IOException {
-        PageId pid;
-        Page newPage = null;
+    /** @return the number of commit records written */
+    public long getCommitCount() {
+        synchronized (flushLock) {
+            return commits;
+        }
+    }
 
-        String pageClassName = raf.readUTF();
-        String idClassName = raf.readUTF();
+    /** @return the number of times the flusher forced the log for commits */
+    public long getGroupForceCount() {
+        synchronized (flushLock) {
+            return groupForces;
+        }
+    }
 
-        try {
-            Class<?> idClass = Class.forName(idClassName);
-            Class<?> pageClass = Class.forName(pageClassName);
-
-            Constructor<?>[] idConsts = idClass.getDeclaredConstructors();
-            int numIdArgs = raf.readInt();
-            Object[] idArgs = new Object[numIdArgs];
-            for (int i = 0; i<numIdArgs;i++) {
-                idArgs[i] = raf.readInt();
-            }
-            pid = (PageId)idConsts[0].newInstance(idArgs);
+    /** @return the number of times the log was forced, for commits or otherwise */
+    public long getForceCount() {
+        synchronized (flushLock) {
+            return forces;
+        }
+    }
 
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
-            int pageSize = raf.readInt();
+    /** @return the average number of commits made durable by a force of the flusher */
+    public double getCommitsPerGroupForce() {
+        synchronized (flushLock) {
+            return groupForces == 0 ? 0 : (double) commits / groupForces;
+        }
+    }
 
-            byte[] pageData = new byte[pageSize];
-            raf.read(pageData); //read before image
+    /** Write an UPDATE record to disk for the specified tid and page
+        (with provided         before and after images.)  Only the bytes
+        that changed are logged, with their old and new contents: the
+        difference between the after image and the data this transaction
+        last logged for the page, or the before image if it did not log
+        the page yet.  The after image is stamped with the LSN of the end
+        of the record, up to which the log must be durable before the
+        page is written.
+        @param tid The transaction performing the write
+        @param before The before image of the page
+        @param after The after image of the page
+        @return the LSN of the end of the record, or the LSN of the after
+        image if nothing changed and no record was written
 
-            Object[] pageArgs = new Object[2];
-            pageArgs[0] = pid;
-            pageArgs[1] = pageData;
+        @see Page#getBeforeImage
+    */
+    public long logWrite(TransactionId tid, Page before,
+                                       Page after)
+        throws IOException  {
+        /* update record conists of
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+           record type
+           transaction id
+           LSN of the previous record of the transaction
+           page id and changed bytes (see PageDelta)
+           start LSN
+        */
+        Long prev = tidToLastLogRecord.get(tid.getId());
+        Map<PageId,byte[]> logged = null;
+        byte[] old = null;
+        if (prev != null) {
+            logged = loggedData.computeIfAbsent(tid.getId(), k -> new ConcurrentHashMap<>());
+            old = logged.get(after.getId());
+        }
+        if (old == null) {
+            old = before.getPageData();
+        }
+        byte[] data = after.getPageData();
 
-            //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
-        } catch (ClassNotFoundException | InvocationTargetException | IllegalAccessException | InstantiationException e){
-            e.printStackTrace();
-            throw new IOException();
+        Record r = startRecord(UPDATE_RECORD, tid.getId());
+        r.out.writeLong(prev == null ? NO_PREV_LSN : prev);
+        if (!PageDelta.write(r.out, after, old, data)) {
+            return after.getLsn();
+        }
+        long end = append(r);
+        after.setLsn(end);
+        // the callers hold the pool monitor, which orders this against checkpoints
+        dirtyPages.putIfAbsent(after.getId(), r.lsn);
+        if (logged != null) {
+            tidToLastLogRecord.put(tid.getId(), r.lsn);
+            logged.put(after.getId(), data);
         }
-        return newPage;
 
+        Debug.log("WRITE LSN = " + r.lsn);
+        return end;
+    }
+
+    /** @return the current data of a page on disk, for recovery */
+    private byte[] readPageData(PageDelta delta) {
+        return Database.getCatalog().getDatabaseFile(delta.pid.getTableId()).readPage(delta.pid).getPageData();
     }
 
     /** Write a BEGIN record for the specified transaction
@@ -301,150 +651,199 @@ public class LogFile {
             System.err.print("logXactionBegin: already began this tid\n");
             throw new IOException("double logXactionBegin()");
         }
-        preAppend();
-        raf.writeInt(BEGIN_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        tidToFirstLogRecord.put(tid.getId(), currentOffset);
-        currentOffset = raf.getFilePointer();
+        // under the monitor, so that a checkpoint sees the transaction
+        // either begun or not begun at all
+        Record r = startRecord(BEGIN_RECORD, tid.getId());
+        append(r);
+        tidToFirstLogRecord.put(tid.getId(), r.lsn);
+        tidToLastLogRecord.put(tid.getId(), r.lsn);
+
+        Debug.log("BEGIN LSN = " + r.lsn);
+    }
 
-        Debug.log("BEGIN OFFSET = " + currentOffset);
+    /**
+     * Note that a page was written to its file with all its logged
+     * updates, which recovery then need not redo. The buffer pool calls
+     * this under its monitor, as it writes pages back.
+     */
+    public void pageWritten(PageId pid) {
+        dirtyPages.remove(pid);
     }
 
-    /** Checkpoint the log and write a checkpoint record. */
+    /** Checkpoint the log and write a checkpoint record, then truncate
+        the log before the oldest record recovery would need. */
     public void logCheckpoint() throws IOException {
+        checkpoint();
+        logTruncate();
+        // print();
+    }
+
+    /**
+     * Take a checkpoint if the log grew by the checkpoint interval since
+     * the last one and no other thread is taking one.
+     */
+    private void checkpointIfDue() throws IOException {
+        if (checkpointInterval > 0 && buffer.getPublished() - lastCheckpoint >= checkpointInterval
+                && checkpointing.compareAndSet(false, true)) {
+            try {
+                checkpoint();
+            } finally {
+                checkpointing.set(false);
+            }
+        }
+    }
+
+    /**
+     * Write a fuzzy checkpoint: the transaction table and the dirty page
+     * table, with the LSN the log was at when they were copied, from which
+     * recovery reads the log to bring them up to date. No page is written.
+     * <p>
+     * The tables are copied under the pool monitor and the monitor of the
+     * log, which every append that changes them holds (updates and commits
+     * the former, begins and aborts the latter), so the copy reflects every
+     * record below that LSN and none above it.
+     */
+    private void checkpoint() throws IOException {
+        long end;
+        Record r;
         //make sure we have buffer pool lock before proceeding
         synchronized (Database.getBufferPool()) {
             synchronized (this) {
-                //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
                 preAppend();
-                long startCpOffset, endCpOffset;
-                Set<Long> keys = tidToFirstLogRecord.keySet();
-                Iterator<Long> els = keys.iterator();
-                force();
-                Database.getBufferPool().flushAllPages();
-                startCpOffset = raf.getFilePointer();
-                raf.writeInt(CHECKPOINT_RECORD);
-                raf.writeLong(-1); //no tid , but leave space for convenience
+                r = startRecord(CHECKPOINT_RECORD, -1); //no tid , but leave space for convenience
+                r.out.writeLong(buffer.getReserved());
 
                 //write list of outstanding transactions
-                raf.writeInt(keys.size());
-                while (els.hasNext()) {
-                    Long key = els.next();
-                    Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
-                    raf.writeLong(key);
-                    //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
-                    raf.writeLong(tidToFirstLogRecord.get(key));
+                r.out.writeInt(tidToFirstLogRecord.size());
+                for (Map.Entry<Long,Long> e : tidToFirstLogRecord.entrySet()) {
+                    Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + e.getKey());
+                    r.out.writeLong(e.getKey());
+                    r.out.writeLong(e.getValue());
+                    r.out.writeLong(tidToLastLogRecord.get(e.getKey()));
+                }
+                r.out.writeInt(dirtyPages.size());
+                for (Map.Entry<PageId,Long> e : dirtyPages.entrySet()) {
+                    PageDelta.writePageId(r.out, e.getKey());
+                    r.out.writeLong(e.getValue());
                 }
- 
-                //once the CP is written, make sure the CP location at the
-                // beginning of the log file is updated
-                endCpOffset = raf.getFilePointer();
+                end = append(r);
+            }
+        }
+        flushToLsn(end);
+
+        //once the CP is durable, make sure the CP location at the
+        // beginning of the log file is updated
+        synchronized (this) {
+            if (r.lsn >= lastCheckpoint) {
                 raf.seek(0);
-                raf.writeLong(startCpOffset);
-                raf.seek(endCpOffset);
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
-                //Debug.log("CP OFFSET = " + currentOffset);
+                raf.writeLong(r.lsn);
+                lastCheckpoint = r.lsn;
             }
         }
-        logTruncate();
-        // print();
+        //Debug.log("CP LSN = " + r.lsn);
+    }
+
+    /**
+     * Read the body of a checkpoint record.
+     *
+     * @param in the log, at the body of the record
+     * @param first if not null, filled with the first record of each active transaction
+     * @param last if not null, filled with the last record of each active transaction
+     * @param pages if not null, filled with the dirty page table
+     * @return the LSN recovery reads the log from
+     */
+    private static long readCheckpoint(DataInput in, Map<Long,Long> first, Map<Long,Long> last,
+            Map<PageId,Long> pages) throws IOException {
+        long start = in.readLong();
+        for (int n = in.readInt(); n > 0; n--) {
+            long tid = in.readLong();
+            long firstLsn = in.readLong();
+            long lastLsn = in.readLong();
+            if (first != null) {
+                first.put(tid, firstLsn);
+                last.put(tid, lastLsn);
+            }
+        }
+        for (int n = in.readInt(); n > 0; n--) {
+            PageId pid = PageDelta.readPageId(in);
+            long recLsn = in.readLong();
+            if (pages != null) {
+                pages.put(pid, recLsn);
+            }
+        }
+        return start;
     }
 
     /** Truncate any unneeded portion of the log to reduce its space
-        consumption */
+        consumption.  Records keep their LSNs, so the part of the log
+        that is kept is copied to the new file as it is. */
     public synchronized void logTruncate() throws IOException {
         preAppend();
+        writeOut();
         raf.seek(0);
-        long cpLoc = raf.readLong();
+        long cpLsn = raf.readLong();
 
-        long minLogRecord = cpLoc;
-
-        if (cpLoc != -1L) {
-            raf.seek(cpLoc);
-            int cpType = raf.readInt();
-            @SuppressWarnings("unused")
-            long cpTid = raf.readLong();
+        if (cpLsn == NO_CHECKPOINT_ID) {
+            return;
+        }
 
-            if (cpType != CHECKPOINT_RECORD) {
-                throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
-            }
+        raf.seek(offsetOf(cpLsn));
+        int cpType = raf.readInt();
+        @SuppressWarnings("unused")
+        long cpTid = raf.readLong();
 
-            int numOutstanding = raf.readInt();
+        if (cpType != CHECKPOINT_RECORD) {
+            throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
+        }
 
-            for (int i = 0; i < numOutstanding; i++) {
-                @SuppressWarnings("unused")
-                long tid = raf.readLong();
-                long firstLogRecord = raf.readLong();
-                if (firstLogRecord < minLogRecord) {
-                    minLogRecord = firstLogRecord;
-                }
-            }
+        // recovery needs the log from where the checkpoint was taken, from
+        // the first record of each active transaction, and from the first
+        // record of each dirty page that may not be in its file
+        Map<Long,Long> first = new HashMap<>();
+        Map<PageId,Long> pages = new HashMap<>();
+        long minLsn = readCheckpoint(raf, first, new HashMap<>(), pages);
+        for (long lsn : first.values()) {
+            minLsn = Math.min(minLsn, lsn);
+        }
+        for (long lsn : pages.values()) {
+            minLsn = Math.min(minLsn, lsn);
+        }
+        if (minLsn <= base) {
+            return;
         }
 
-        // we can truncate everything before minLogRecord
+        // we can truncate everything before minLsn
+        long written = buffer.getWritten();
         File newFile = new File("logtmp" + System.currentTimeMillis());
         RandomAccessFile logNew = new RandomAccessFile(newFile, "rw");
         logNew.seek(0);
-        logNew.writeLong((cpLoc - minLogRecord) + LONG_SIZE);
-
-        raf.seek(minLogRecord);
-
-        //have to rewrite log records since offsets are different after truncation
-        while (true) {
-            try {
-                int type = raf.readInt();
-                long record_tid = raf.readLong();
-                long newStart = logNew.getFilePointer();
-
-                Debug.log("NEW START = " + newStart);
-
-                logNew.writeInt(type);
-                logNew.writeLong(record_tid);
-
-                switch (type) {
-                case UPDATE_RECORD:
-                    Page before = readPageData(raf);
-                    Page after = readPageData(raf);
-
-                    writePageData(logNew, before);
-                    writePageData(logNew, after);
-                    break;
-                case CHECKPOINT_RECORD:
-                    int numXactions = raf.readInt();
-                    logNew.writeInt(numXactions);
-                    while (numXactions-- > 0) {
-                        long xid = raf.readLong();
-                        long xoffset = raf.readLong();
-                        logNew.writeLong(xid);
-                        logNew.writeLong((xoffset - minLogRecord) + LONG_SIZE);
-                    }
-                    break;
-                case BEGIN_RECORD:
-                    tidToFirstLogRecord.put(record_tid,newStart);
-                    break;
-                }
-
-                //all xactions finish with a pointer
-                logNew.writeLong(newStart);
-                raf.readLong();
-
-            } catch (EOFException e) {
-                break;
-            }
+        logNew.writeLong(cpLsn);
+        logNew.writeLong(minLsn);
+
+        FileChannel from = raf.getChannel();
+        FileChannel to = logNew.getChannel();
+        long pos = offsetOf(minLsn);
+        long end = offsetOf(written);
+        while (pos < end) {
+            pos += from.transferTo(pos, end - pos, to);
         }
 
-        Debug.log("TRUNCATING LOG;  WAS " + raf.length() + " BYTES ; NEW START : " + minLogRecord + " NEW LENGTH: " + (raf.length() - minLogRecord));
+        Debug.log("TRUNCATING LOG;  WAS " + raf.length() + " BYTES ; NEW START : " + minLsn + " NEW LENGTH: " + logNew.length());
 
+        // what survives truncation is durable in the new file
+        to.force(true);
+        logNew.close();
         raf.close();
         logFile.delete();
         newFile.renameTo(logFile);
         raf = new RandomAccessFile(logFile, "rw");
-        raf.seek(raf.length());
         newFile.delete();
 
-        currentOffset = raf.getFilePointer();
+        base = minLsn;
+        synchronized (flushLock) {
+            forces++;
+            markDurable(written);
+        }
     }
 
     /** Rollback the specified transaction, setting the state of any
@@ -452,6 +851,12 @@ public class LogFile {
         transaction semantics, this should not be called on
         transactions that have already committed (though this may not
         be enforced by this method.)
+        <p>
+        The records of the transaction are undone from the last one back,
+        following the LSN of the previous record each holds, on the pages
+        as they are on disk, which brings back the bytes it changed
+        whether or not its last updates were written.  A CLR is logged
+        for each update undone.
 
         @param tid The transaction to rollback
     */
@@ -460,54 +865,133 @@ public class LogFile {
         synchronized (Database.getBufferPool()) {
             synchronized(this) {
                 preAppend();
-                if (!tidToFirstLogRecord.containsKey(tid.getId())) {
+                Long last = tidToLastLogRecord.get(tid.getId());
+                if (last == null) {
                 	throw new NoSuchElementException("This Transaction doesn't exit");
                 }
-                // Long currentPoinerPos = raf.getFilePointer();
-                Long transBeginOffset = tidToFirstLogRecord.get(tid.getId());
-                raf.seek(transBeginOffset);
-                // System.out.printf("The transaction%d begins in %d\n", tid.getId(), transBeginOffset);
-                Set<PageId> firstAppearPage = new HashSet<PageId>();
-                while(true) {
-                	try {
-                		int cpType = raf.readInt();
-                        long cpTid = raf.readLong();
-                    	if (cpType == UPDATE_RECORD) {
-                    		Page beforePage = readPageData(raf);
-                    		Page afterPage = readPageData(raf);
-                    		if (!firstAppearPage.contains(beforePage.getId()) && tid.getId() == cpTid) {
-                    			firstAppearPage.add(beforePage.getId());
-                    			// ѻҳдҳݣעҪʱͷŸҳϵ
-                        		Database.getBufferPool().unsafeReleasePage(tid, beforePage.getId());
-                        		Database.getBufferPool().discardPage(beforePage.getId());
-                        		Database.getCatalog().getDatabaseFile(beforePage.getId().getTableId()).writePage(beforePage);
-                    		}
-                    	} 
-                    	else if (cpType == CHECKPOINT_RECORD) {
-                    		int numTransactions = raf.readInt();
-                    		while (numTransactions-- > 0) {
-                                raf.readLong();
-                                raf.readLong();
-                            }
-                    	}
-                    	long cpOffset = raf.readLong();
-                	} catch (EOFException e) {
-						break;
-					}
+                // the records of the transaction were published by this thread
+                writeOut();
+                WorkingPages pages = new WorkingPages(Integer.MAX_VALUE);
+                undo(Collections.singletonMap(tid.getId(), last), pages);
+                // 把缓存的页丢弃并写入旧页数据，注意要及时释放该页上的锁
+                pages.writeAll();
+                for (PageId pid : pages.ids()) {
+                	Database.getBufferPool().unsafeReleasePage(tid, pid);
+                }
+            }
+        }
+    }
+
+    /**
+     * Undo transactions back to their BEGIN records, the last record of
+     * all first, logging a CLR for each update undone. A CLR met on the
+     * way, logged by a rollback the crash cut short, sends the undo on to
+     * the record before the update it undid.
+     *
+     * @param last the LSN of the last record of each transaction
+     * @param pages the pages to undo the updates on
+     */
+    private void undo(Map<Long,Long> last, WorkingPages pages) throws IOException {
+        TreeMap<Long,Long> next = new TreeMap<>(); // LSN to undo next, to its transaction
+        for (Map.Entry<Long,Long> e : last.entrySet()) {
+            next.put(e.getValue(), e.getKey());
+        }
+        while (!next.isEmpty()) {
+            Map.Entry<Long,Long> e = next.pollLastEntry();
+            long lsn = e.getKey();
+            long tid = e.getValue();
+            raf.seek(offsetOf(lsn));
+            int type = raf.readInt();
+            raf.readLong();
+            long prev;
+            if (type == UPDATE_RECORD) {
+                prev = raf.readLong();
+                PageDelta update = PageDelta.read(raf);
+                update.undo(pages.get(update));
+
+                Record r = startRecord(CLR_RECORD, tid);
+                r.out.writeLong(tidToLastLogRecord.get(tid));
+                r.out.writeLong(prev);
+                update.writeUndo(r.out);
+                append(r);
+                tidToLastLogRecord.put(tid, r.lsn);
+            } else if (type == CLR_RECORD) {
+                raf.readLong();
+                prev = raf.readLong();
+            } else if (type == BEGIN_RECORD) {
+                continue;
+            } else {
+                throw new IOException("record " + lsn + " of transaction " + tid + " has type " + type);
+            }
+            next.put(prev, tid);
+        }
+    }
+
+    /**
+     * The data of the pages a rollback or recovery works on, read from
+     * disk as they are first needed. They are written back at the end, or
+     * least recently used first while there are more than a given number.
+     * The log is forced before they are written, for the CLRs.
+     */
+    private class WorkingPages {
+        private final LinkedHashMap<PageId,byte[]> data = new LinkedHashMap<>(16, 0.75f, true);
+        private final Map<PageId,PageDelta> deltas = new HashMap<>(); // for the class of each page
+        private final Set<PageId> written = new HashSet<>();
+        private final int max;
+
+        WorkingPages(int max) {
+            this.max = max;
+        }
+
+        /** @return the data of the page of a delta */
+        byte[] get(PageDelta delta) throws IOException {
+            byte[] page = data.get(delta.pid);
+            if (page == null) {
+                if (data.size() == max) {
+                    force();
+                    write(data.keySet().iterator().next());
                 }
-                // raf.seek(currentPoinerPos);
+                page = Database.getCatalog().getDatabaseFile(delta.pid.getTableId()).readPage(delta.pid).getPageData();
+                data.put(delta.pid, page);
+                deltas.putIfAbsent(delta.pid, delta);
+            }
+            return page;
+        }
+
+        private void write(PageId pid) throws IOException {
+            Database.getBufferPool().discardPage(pid);
+            Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(deltas.get(pid).newPage(data.remove(pid)));
+            dirtyPages.remove(pid);
+            written.add(pid);
+        }
+
+        void writeAll() throws IOException {
+            force();
+            for (PageId pid : new ArrayList<>(data.keySet())) {
+                write(pid);
             }
         }
+
+        /** @return the ids of the pages written */
+        Set<PageId> ids() {
+            return written;
+        }
     }
 
     /** Shutdown the logging system, writing out whatever state
         is necessary so that start up can happen quickly (without
         extensive recovery.)
     */
-    public synchronized void shutdown() {
+    public void shutdown() {
         try {
+            // with no dirty pages, recovery has nothing to redo
+            Database.getBufferPool().flushAllPages();
             logCheckpoint();  //simple way to shutdown is to write a checkpoint record
-            raf.close();
+            // not under the monitor of the log, which the flusher may need to finish
+            stopFlusher();
+            synchronized (this) {
+                raf.close();
+            }
         } catch (IOException e) {
             System.out.println("ERROR SHUTTING DOWN -- IGNORING.");
             e.printStackTrace();
@@ -517,138 +1001,315 @@ public class LogFile {
     /** Recover the database system by ensuring that the updates of
         committed transactions are installed and that the
         updates of uncommitted transactions are not installed.
+        <p>
+        Analysis reads the log from the last checkpoint, redo applies the
+        updates and CLRs from the oldest LSN of a dirty page on, and undo
+        rolls back the transactions that did not finish, see the class
+        comment.  Redoing and undoing only set the bytes a record changed,
+        so the outcome is the same whichever versions of the pages reached
+        the disk, whether the buffer pool ran NO STEAL / FORCE or STEAL /
+        NO FORCE.  Recovery ends with a checkpoint.
+        <p>
+        A record torn by the crash at the end of the log is cut off, and
+        new records are appended after the last complete one.
     */
     public void recover() throws IOException {
         synchronized (Database.getBufferPool()) {
             synchronized (this) {
-            	// print();
                 recoveryUndecided = false;
-                Set<PageId> beforePageIds = new HashSet<PageId>();
-                Map<Long, ArrayList<Page>> transBeforeImages = new HashMap<Long, ArrayList<Page>>();
-                Map<Long, ArrayList<Page>> transAfterImages = new HashMap<Long, ArrayList<Page>>();
-                Set<Long> redoTransactions = new HashSet<Long>();
-                Set<Long> undoTransactions = new HashSet<Long>();
+
+                if (raf.length() < HEADER_SIZE) {
+                    raf.setLength(0);
+                    raf.writeLong(NO_CHECKPOINT_ID);
+                    raf.writeLong(0);
+                }
                 raf.seek(0);
-                // checkpointƫ TODOҪseekλ
-                Long checkpointOffset = raf.readLong();
-                while(true) {
-                	try {
-                		int cpType = raf.readInt();
-                        long cpTid = raf.readLong();
-                        if (cpType == BEGIN_RECORD || cpType == ABORT_RECORD) {
-                        	undoTransactions.add(cpTid);
-                        }
-                        else if (cpType == COMMIT_RECORD) {
-                        	undoTransactions.remove(cpTid);
-                        	redoTransactions.add(cpTid);
-                        }
-                        else if (cpType == UPDATE_RECORD) {
-                        	Page beforePage = readPageData(raf);
-                    		Page afterPage = readPageData(raf);
-                    		if (!transBeforeImages.containsKey(cpTid)) {
-                    			transBeforeImages.put(cpTid, new ArrayList<Page>());
-                    		}
-                    		if (!beforePageIds.contains(beforePage.getId())) {
-                    			transBeforeImages.get(cpTid).add(beforePage);
-                    			beforePageIds.add(beforePage.getId());
-                    		}
-                    		if (!transAfterImages.containsKey(cpTid)) {
-                    			transAfterImages.put(cpTid, new ArrayList<Page>());
-                    		}
-                    		transAfterImages.get(cpTid).add(afterPage);
-                        }
-                        else if (cpType == CHECKPOINT_RECORD) {
-                        	int numTransactions = raf.readInt();
-                    		while (numTransactions-- > 0) {
-                                raf.readLong();
-                                raf.readLong();
-                            }
-                        }
-                        long cpOffset = raf.readLong();
-                 		
-                	} catch (EOFException e) {
-						break;
-					}
+                long cpLsn = raf.readLong();
+                base = raf.readLong();
+                tidToFirstLogRecord.clear();
+                tidToLastLogRecord.clear();
+                dirtyPages.clear();
+                loggedData.clear();
+                commitLsns.clear();
+
+                long end = analyze(cpLsn);
+                // a torn record at the end of the log is dropped
+                raf.setLength(offsetOf(end));
+                buffer.reset(end);
+                synchronized (flushLock) {
+                    markDurable(end);
                 }
-                // recovery ݿ׶,ʱûκҳ
-                // undopagebefore-image,redopageafter-image
-                for (Long tid1: undoTransactions) {
-                	for (Page page: transBeforeImages.getOrDefault(tid1, new ArrayList<Page>())) {
-                		Database.getCatalog().getDatabaseFile(page.getId().getTableId()).writePage(page);
-                	}
+                lastCheckpoint = cpLsn == NO_CHECKPOINT_ID ? base : cpLsn;
+
+                redo(end);
+                WorkingPages pages = new WorkingPages(RECOVERY_PAGES);
+                undo(new HashMap<>(tidToLastLogRecord), pages);
+                for (long tid : new ArrayList<>(tidToLastLogRecord.keySet())) {
+                    append(startRecord(ABORT_RECORD, tid));
+                    forget(tid);
                 }
-                
-                for (Long tid2: redoTransactions) {
-                	for (Page page: transAfterImages.getOrDefault(tid2, new ArrayList<Page>())) {
-                		Database.getCatalog().getDatabaseFile(page.getId().getTableId()).writePage(page);
-                	}
+                pages.writeAll();
+                dirtyPages.clear();
+            }
+            logCheckpoint();
+        }
+    }
+
+    /**
+     * Analysis: read the log from the last checkpoint to its end, bringing
+     * the transaction table and the dirty page table up to date.
+     *
+     * @param cpLsn the LSN of the last checkpoint record, or NO_CHECKPOINT_ID
+     * @return the LSN of the end of the last complete record
+     */
+    private long analyze(long cpLsn) throws IOException {
+        long lastGood = base;
+        if (cpLsn != NO_CHECKPOINT_ID) {
+            raf.seek(offsetOf(cpLsn));
+            if (raf.readInt() != CHECKPOINT_RECORD) {
+                throw new IOException("Checkpoint pointer does not point to checkpoint record");
+            }
+            raf.readLong();
+            lastGood = readCheckpoint(raf, tidToFirstLogRecord, tidToLastLogRecord, dirtyPages);
+        }
+        Scan in = new Scan(lastGood);
+        while (true) {
+            try {
+                long lsn = in.lsn();
+                int type = in.readInt();
+                long tid = in.readLong();
+                long prev = NO_PREV_LSN;
+                PageId pid = null;
+                if (type == UPDATE_RECORD || type == CLR_RECORD) {
+                    prev = in.readLong();
+                    if (type == CLR_RECORD) {
+                        in.readLong();
+                    }
+                    pid = PageDelta.readId(in);
+                } else if (type == CHECKPOINT_RECORD) {
+                    readCheckpoint(in, null, null, null);
+                } else if (type < ABORT_RECORD || type > CLR_RECORD) {
+                    break;
+                }
+                if (in.readLong() != lsn) {
+                    break;
+                }
+                lastGood = in.lsn();
+
+                if (type == BEGIN_RECORD) {
+                    tidToFirstLogRecord.put(tid, lsn);
+                    tidToLastLogRecord.put(tid, lsn);
+                } else if (type == COMMIT_RECORD || type == ABORT_RECORD) {
+                    tidToFirstLogRecord.remove(tid);
+                    tidToLastLogRecord.remove(tid);
+                } else if (pid != null) {
+                    dirtyPages.putIfAbsent(pid, lsn);
+                    if (prev != NO_PREV_LSN) {
+                        tidToFirstLogRecord.putIfAbsent(tid, prev);
+                        tidToLastLogRecord.put(tid, lsn);
+                    }
+                }
+            } catch (EOFException e) {
+                break;
+            }
+        }
+        return lastGood;
+    }
+
+    /**
+     * Redo: apply the updates and CLRs in log order, from the oldest LSN
+     * of a dirty page on, to the pages whose LSN they are not below. The
+     * log is read on this thread and the updates are applied and the pages
+     * written back by a {@link ParallelRedo}.
+     *
+     * @param end the LSN of the end of the log
+     */
+    private void redo(long end) throws IOException {
+        if (dirtyPages.isEmpty()) {
+            return;
+        }
+        ParallelRedo workers = new ParallelRedo(redoThreads, RECOVERY_PAGES);
+        try {
+            Scan in = new Scan(Collections.min(dirtyPages.values()));
+            while (in.lsn() < end) {
+                long lsn = in.lsn();
+                int type = in.readInt();
+                in.readLong();
+                if (type == UPDATE_RECORD || type == CLR_RECORD) {
+                    in.readLong();
+                    if (type == CLR_RECORD) {
+                        in.readLong();
+                    }
+                    PageDelta update = PageDelta.read(in);
+                    Long recLsn = dirtyPages.get(update.pid);
+                    if (recLsn != null && lsn >= recLsn) {
+                        workers.add(update);
+                    }
+                } else if (type == CHECKPOINT_RECORD) {
+                    readCheckpoint(in, null, null, null);
                 }
+                in.readLong();
             }
-         }
+        } catch (IOException | RuntimeException e) {
+            workers.abort();
+            throw e;
+        }
+        int written = workers.finish();
+        Debug.log("REDO WROTE " + written + " PAGES");
+    }
+
+    /**
+     * A read of the log file from a given LSN on, through a buffer, that
+     * knows the LSN it is at. The caller holds the monitor of the log.
+     */
+    private class Scan extends DataInputStream {
+
+        Scan(long lsn) {
+            super(new ScanStream(raf.getChannel(), offsetOf(lsn), lsn));
+        }
+
+        /** @return the LSN of the next byte */
+        long lsn() {
+            return ((ScanStream) in).lsn;
+        }
+    }
+
+    /**
+     * Reads a file channel from an offset on through a buffer, with
+     * positional reads, keeping count of the LSN it is at. Unlike a
+     * BufferedInputStream it does not lock for every byte, which the
+     * integers of the records are read a byte at a time as.
+     */
+    private static class ScanStream extends InputStream {
+        private final FileChannel channel;
+        private final ByteBuffer buf = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+        private long offset; // of the end of the buffer
+        long lsn;
+
+        ScanStream(FileChannel channel, long offset, long lsn) {
+            this.channel = channel;
+            this.offset = offset;
+            this.lsn = lsn;
+            buf.limit(0);
+        }
+
+        /** @return false at the end of the file */
+        private boolean fill() throws IOException {
+            if (buf.hasRemaining()) {
+                return true;
+            }
+            buf.clear();
+            int n = channel.read(buf, offset);
+            buf.flip();
+            if (n <= 0) {
+                return false;
+            }
+            offset += n;
+            return true;
+        }
+
+        public int read() throws IOException {
+            if (!fill()) {
+                return -1;
+            }
+            lsn++;
+            return buf.get() & 0xff;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int n = Math.min(len, buf.remaining());
+            buf.get(b, off, n);
+            lsn += n;
+            return n;
+        }
+
+        public long skip(long n) throws IOException {
+            if (n <= 0 || !fill()) {
+                return 0;
+            }
+            int skipped = (int) Math.min(n, buf.remaining());
+            buf.position(buf.position() + skipped);
+            lsn += skipped;
+            return skipped;
+        }
     }
 
     /** Print out a human readable represenation of the log */
-    public void print() throws IOException {
+    public synchronized void print() throws IOException {
+        writeOut();
         long curOffset = raf.getFilePointer();
 
         raf.seek(0);
 
-        System.out.println("0: checkpoint record at offset " + raf.readLong());
+        System.out.println("0: checkpoint record at LSN " + raf.readLong());
+        System.out.println(LONG_SIZE + ": first record at LSN " + raf.readLong());
 
         while (true) {
             try {
                 int cpType = raf.readInt();
                 long cpTid = raf.readLong();
 
-                System.out.println((raf.getFilePointer() - (INT_SIZE + LONG_SIZE)) + ": RECORD TYPE " + cpType);
-                System.out.println((raf.getFilePointer() - LONG_SIZE) + ": TID " + cpTid);
+                System.out.println(lsnOf(raf.getFilePointer() - (INT_SIZE + LONG_SIZE)) + ": RECORD TYPE " + cpType);
+                System.out.println(lsnOf(raf.getFilePointer() - LONG_SIZE) + ": TID " + cpTid);
 
                 switch (cpType) {
                 case BEGIN_RECORD:
                     System.out.println(" (BEGIN)");
-                    System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+                    System.out.println(lsnOf(raf.getFilePointer()) + ": RECORD START LSN: " + raf.readLong());
                     break;
                 case ABORT_RECORD:
                     System.out.println(" (ABORT)");
-                    System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+                    System.out.println(lsnOf(raf.getFilePointer()) + ": RECORD START LSN: " + raf.readLong());
                     break;
                 case COMMIT_RECORD:
                     System.out.println(" (COMMIT)");
-                    System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+                    System.out.println(lsnOf(raf.getFilePointer()) + ": RECORD START LSN: " + raf.readLong());
                     break;
 
                 case CHECKPOINT_RECORD:
                     System.out.println(" (CHECKPOINT)");
+                    System.out.println(lsnOf(raf.getFilePointer()) + ": RECOVERY START LSN: " + raf.readLong());
                     int numTransactions = raf.readInt();
-                    System.out.println((raf.getFilePointer() - INT_SIZE) + ": NUMBER OF OUTSTANDING RECORDS: " + numTransactions);
+                    System.out.println(lsnOf(raf.getFilePointer() - INT_SIZE) + ": NUMBER OF OUTSTANDING RECORDS: " + numTransactions);
 
                     while (numTransactions-- > 0) {
                         long tid = raf.readLong();
                         long firstRecord = raf.readLong();
-                        System.out.println((raf.getFilePointer() - (LONG_SIZE + LONG_SIZE)) + ": TID: " + tid);
-                        System.out.println((raf.getFilePointer() - LONG_SIZE) + ": FIRST LOG RECORD: " + firstRecord);
+                        long lastRecord = raf.readLong();
+                        System.out.println(lsnOf(raf.getFilePointer() - 3 * LONG_SIZE) + ": TID: " + tid);
+                        System.out.println(lsnOf(raf.getFilePointer() - 2 * LONG_SIZE) + ": FIRST LOG RECORD: " + firstRecord);
+                        System.out.println(lsnOf(raf.getFilePointer() - LONG_SIZE) + ": LAST LOG RECORD: " + lastRecord);
+                    }
+                    int numPages = raf.readInt();
+                    System.out.println(lsnOf(raf.getFilePointer() - INT_SIZE) + ": NUMBER OF DIRTY PAGES: " + numPages);
+                    while (numPages-- > 0) {
+                        long start = lsnOf(raf.getFilePointer());
+                        PageId pid = PageDelta.readPageId(raf);
+                        System.out.println(start + ": PAGE " + pid + " FIRST DIRTIED BY: " + raf.readLong());
                     }
-                    System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+                    System.out.println(lsnOf(raf.getFilePointer()) + ": RECORD START LSN: " + raf.readLong());
 
                     break;
                 case UPDATE_RECORD:
-                    System.out.println(" (UPDATE)");
-
-                    long start = raf.getFilePointer();
-                    Page before = readPageData(raf);
-
-                    long middle = raf.getFilePointer();
-                    Page after = readPageData(raf);
+                case CLR_RECORD:
+                    System.out.println(cpType == UPDATE_RECORD ? " (UPDATE)" : " (CLR)");
+                    System.out.println(lsnOf(raf.getFilePointer()) + ": PREVIOUS RECORD: " + raf.readLong());
+                    if (cpType == CLR_RECORD) {
+                        System.out.println(lsnOf(raf.getFilePointer()) + ": UNDO NEXT: " + raf.readLong());
+                    }
 
-                    System.out.println(start + ": before image table id " + before.getId().getTableId());
-                    System.out.println((start + INT_SIZE) + ": before image page number " + before.getId().getPageNumber());
-                    System.out.println((start + INT_SIZE) + " TO " + (middle - INT_SIZE) + ": page data");
+                    long start = lsnOf(raf.getFilePointer());
+                    PageDelta update = PageDelta.read(raf);
 
-                    System.out.println(middle + ": after image table id " + after.getId().getTableId());
-                    System.out.println((middle + INT_SIZE) + ": after image page number " + after.getId().getPageNumber());
-                    System.out.println((middle + INT_SIZE) + " TO " + (raf.getFilePointer()) + ": page data");
+                    System.out.println(start + " TO " + lsnOf(raf.getFilePointer()) + ": " + update);
 
-                    System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+                    System.out.println(lsnOf(raf.getFilePointer()) + ": RECORD START LSN: " + raf.readLong());
 
                     break;
                 }
@@ -663,8 +1324,58 @@ public class LogFile {
         raf.seek(curOffset);
     }
 
-    public synchronized void force() throws IOException {
-        raf.getChannel().force(true);
+    /** @return the LSN at the given offset of the file; the caller holds the monitor */
+    private long lsnOf(long offset) {
+        return offset - HEADER_SIZE + base;
+    }
+
+    /** Force everything appended to the log so far to disk. */
+    public void force() throws IOException {
+        forceTo(buffer.getReserved());
+    }
+
+    /**
+     * Make the log durable up to the given LSN, e.g. the LSN of a page
+     * ({@link Page#getLsn}) that is about to be written. Returns at once if
+     * it already is, without taking the monitor of the log.
+     */
+    public void flushToLsn(long lsn) throws IOException {
+        forceTo(lsn);
+    }
+
+    /**
+     * Write the log buffer out up to at least lsn and force the file.
+     *
+     * @return false if the log was already durable, or forced by a truncation
+     */
+    private boolean forceTo(long lsn) throws IOException {
+        if (lsn <= durableLsn) {
+            return false;
+        }
+        long end;
+        FileChannel channel;
+        synchronized (this) {
+            lsn = Math.min(lsn, buffer.getReserved());
+            buffer.awaitPublished(lsn);
+            writeOut();
+            end = buffer.getWritten();
+            channel = raf.getChannel();
+        }
+        if (end <= durableLsn) {
+            return false;
+        }
+        try {
+            // outside the monitor, so that appends can go on
+            channel.force(true);
+        } catch (ClosedChannelException e) {
+            // logTruncate() forced the log and replaced the file meanwhile
+            return false;
+        }
+        synchronized (flushLock) {
+            forces++;
+            markDurable(end);
+        }
+        return true;
     }
 
 }
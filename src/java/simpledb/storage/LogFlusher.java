@@ -0,0 +1,77 @@
+package simpledb.storage;
+
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * LogFlusher is the background thread that makes commit records durable
+ * for a {@link LogFile}, a group of commits at a time.
+ * <p>
+ * A committing transaction appends its commit record and then waits until
+ * the log is durable up to the end of that record. The flusher wakes up
+ * when the first such transaction starts to wait, optionally sleeps for the
+ * batching window so that more commits can join, and then forces the log
+ * once for every commit record appended so far. Transactions that commit
+ * while a force is in progress join the next one, so under load there is
+ * one fsync per group of commits rather than one per commit, even with no
+ * window at all.
+ *
+ * @see LogFile#GROUP_COMMIT_WINDOW_PROPERTY
+ */
+class LogFlusher extends Thread {
+
+    private final LogFile log;
+    private final long windowNanos;
+    private volatile boolean stopped;
+
+    /**
+     * @param log the log to force
+     * @param windowMicros how long to wait for more commits before forcing
+     */
+    LogFlusher(LogFile log, long windowMicros) {
+        super("LogFlusher");
+        if (windowMicros < 0) {
+            throw new IllegalArgumentException("the batching window cannot be negative");
+        }
+        this.log = log;
+        this.windowNanos = windowMicros * 1000;
+        setDaemon(true);
+    }
+
+    public void run() {
+        while (true) {
+            try {
+                if (!log.awaitFlushRequest(this)) {
+                    return;
+                }
+                if (windowNanos > 0 && !stopped) {
+                    LockSupport.parkNanos(windowNanos);
+                }
+                log.groupForce();
+            } catch (IOException e) {
+                log.groupForceFailed(e);
+            } catch (InterruptedException e) {
+                // only stopped by shutdown()
+            }
+        }
+    }
+
+    boolean isStopped() {
+        return stopped;
+    }
+
+    /**
+     * Stop the flusher once it has forced the commits waiting for it, and
+     * wait for it to finish.
+     */
+    void shutdown() {
+        stopped = true;
+        // not interrupt(), which would close the channel of a force in progress
+        log.wakeFlusher();
+        try {
+            join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
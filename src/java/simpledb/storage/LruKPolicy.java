@@ -0,0 +1,88 @@
+package simpledb.storage;
+
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/**
+ * LRU-K replacement (O'Neil, O'Neil and Weikum).
+ * <p>
+ * For every frame the policy remembers the logical times of the last K
+ * references to the page it holds and evicts the page whose K-th most
+ * recent reference lies furthest in the past. Pages referenced fewer than
+ * K times have an infinite backward K-distance and go first, oldest last
+ * reference first, so a page touched once by a sequential scan cannot
+ * displace a page that is used over and over again.
+ */
+public class LruKPolicy implements ReplacementPolicy {
+
+    public static final int DEFAULT_K = 2;
+
+    private final int k;
+    private final boolean[] resident;
+    /** k reference times per frame, most recent first */
+    private final long[] history;
+    private long clock;
+
+    /**
+     * @param numFrames the number of frames of the BufferPool
+     * @param k the number of references remembered per page, at least 1
+     */
+    public LruKPolicy(int numFrames, int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be at least 1");
+        }
+        this.k = k;
+        this.resident = new boolean[numFrames];
+        this.history = new long[numFrames * k];
+        this.clock = 0;
+    }
+
+    public synchronized void recordAdmit(int frame, PageId pid) {
+        // history slots hold 0 until the page has been referenced k times
+        resident[frame] = true;
+        Arrays.fill(history, frame * k, frame * k + k, 0L);
+        reference(frame);
+    }
+
+    public synchronized void recordAccess(int frame) {
+        if (resident[frame]) {
+            reference(frame);
+        }
+    }
+
+    public synchronized void recordEvict(int frame) {
+        resident[frame] = false;
+    }
+
+    public synchronized void recordDiscard(int frame) {
+        resident[frame] = false;
+    }
+
+    public synchronized int chooseVictim(IntPredicate evictable) {
+        int victim = -1;
+        long victimKth = Long.MAX_VALUE;
+        long victimLast = Long.MAX_VALUE;
+        for (int frame = 0; frame < resident.length; frame++) {
+            if (!resident[frame]) {
+                continue;
+            }
+            long kth = history[frame * k + k - 1];
+            long last = history[frame * k];
+            if (kth > victimKth || (kth == victimKth && last >= victimLast)) {
+                continue;
+            }
+            if (evictable.test(frame)) {
+                victim = frame;
+                victimKth = kth;
+                victimLast = last;
+            }
+        }
+        return victim;
+    }
+
+    private void reference(int frame) {
+        int base = frame * k;
+        System.arraycopy(history, base, history, base + 1, k - 1);
+        history[base] = ++clock;
+    }
+}
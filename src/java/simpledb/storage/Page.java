@@ -9,8 +9,9 @@ import simpledb.transaction.TransactionId;
  * Pages may be "dirty", indicating that they have been modified since they
  * were last written out to disk.
  *
- * For recovery purposes, pages MUST have a single constructor of the form:
+ * For recovery purposes, pages MUST have a constructor of the form:
  *     Page(PageId id, byte[] data)
+ * and no other constructor with two such parameters.
  */
 public interface Page {
 
@@ -58,4 +59,17 @@ public interface Page {
      * copy current content to the before image.
      */
     void setBeforeImage();
+
+    /**
+     * @return the LSN of the end of the last log record of an update of
+     *         this page, up to which the log must be durable before the page
+     *         is written; 0 if there is none
+     * @see LogFile#flushToLsn
+     */
+    long getLsn();
+
+    /**
+     * Record that the update of this page logged last ends at the given LSN.
+     */
+    void setLsn(long lsn);
 }
@@ -0,0 +1,200 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/**
+ * Records a CRC32C of each page of a {@link DbFile} as it is written, so
+ * that a page damaged on disk, or torn by a crash in the middle of its
+ * write, is reported when it is read instead of being decoded into
+ * garbage tuples.
+ * <p>
+ * The checksums live in a small file next to the data file, 8 bytes per
+ * page at the offset of the page number: the checksum of the last image
+ * written, then that of the one before. The entry of a page is saved
+ * before the page itself is overwritten, so that after a crash between
+ * the two writes the page on disk still matches the previous checksum; a
+ * page that matches neither was torn or damaged. Appended pages are
+ * recorded after they are written, so a crash in between only leaves
+ * them unrecorded. Pages without an entry, such as those of a file
+ * written before checksums were turned on, are not verified; an
+ * all-zero entry also reads as no entry, which leaves the odd page whose
+ * checksum is 0 unverified.
+ * <p>
+ * Keeping the checksums out of the pages leaves the page layouts, and the
+ * number of tuples a page holds, as they are. Checksums are kept for
+ * the files opened while the system property {@link #ENABLED_PROPERTY} is
+ * true.
+ */
+public class PageChecksums {
+
+    /** Name of the system property that turns page checksums on. */
+    public static final String ENABLED_PROPERTY = "simpledb.storage.PageChecksums.enabled";
+
+    /** Suffix of the file next to a data file that holds its checksums. */
+    public static final String SUFFIX = ".crc";
+
+    private static final int ENTRY_SIZE = 8;
+
+    /** What a page read from disk is found to be. */
+    public enum Status {
+        /** it matches its checksum */
+        VALID,
+        /** it has no checksum */
+        UNRECORDED,
+        /** it matches neither its checksum nor the previous one */
+        CORRUPT
+    }
+
+    private final File dataFile;
+    private final DbFileChannel channel;
+    /**
+     * current, previous: the checksums of each of the first numPages pages,
+     * null until loaded
+     */
+    private int[] current;
+    private int[] previous;
+    private int numPages;
+
+    /**
+     * @param dataFile the data file whose pages are checked; the checksums
+     *        are kept next to it, in a file created on first save
+     */
+    public PageChecksums(File dataFile) {
+        this.dataFile = dataFile;
+        this.channel = new DbFileChannel(new File(dataFile.getPath() + SUFFIX));
+    }
+
+    /**
+     * @return checksums for a data file if {@link #ENABLED_PROPERTY} is
+     *         set, otherwise null
+     */
+    public static PageChecksums forFile(File dataFile) {
+        return Boolean.getBoolean(ENABLED_PROPERTY) ? new PageChecksums(dataFile) : null;
+    }
+
+    /**
+     * Delete the checksums kept for a data file, before the file is written
+     * anew, so that its new pages are not checked against those of the old.
+     */
+    public static void delete(File dataFile) {
+        new File(dataFile.getPath() + SUFFIX).delete();
+    }
+
+    /** @return the CRC32C of the bytes between the position and the limit of a buffer */
+    public static int checksum(ByteBuffer page) {
+        CRC32C crc = new CRC32C();
+        crc.update(page.duplicate());
+        return (int) crc.getValue();
+    }
+
+    /** @return the CRC32C of length bytes of an array from the specified offset */
+    public static int checksum(byte[] page, int offset, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(page, offset, length);
+        return (int) crc.getValue();
+    }
+
+    private void load() throws IOException {
+        if (current != null) {
+            return;
+        }
+        numPages = channel.exists() ? (int) (channel.size() / ENTRY_SIZE) : 0;
+        byte[] bytes = new byte[numPages * ENTRY_SIZE];
+        channel.read(bytes, 0);
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        current = new int[Math.max(16, numPages)];
+        previous = new int[current.length];
+        for (int i = 0; i < numPages; i++) {
+            current[i] = buf.getInt();
+            previous[i] = buf.getInt();
+        }
+    }
+
+    /**
+     * Record the checksum of a page that is about to be written, or that
+     * was just appended.
+     */
+    public void record(int pageNo, byte[] page, int offset, int length) throws IOException {
+        int crc = checksum(page, offset, length);
+        synchronized (this) {
+            load();
+            if (pageNo >= numPages) {
+                if (pageNo >= current.length) {
+                    int size = Math.max(pageNo + 1, current.length * 2);
+                    current = Arrays.copyOf(current, size);
+                    previous = Arrays.copyOf(previous, size);
+                }
+                numPages = pageNo + 1;
+            } else if (current[pageNo] == crc) {
+                return;
+            }
+            byte[] entry = new byte[ENTRY_SIZE];
+            ByteBuffer.wrap(entry).putInt(crc).putInt(current[pageNo]);
+            channel.write(entry, (long) pageNo * ENTRY_SIZE);
+            previous[pageNo] = current[pageNo];
+            current[pageNo] = crc;
+        }
+    }
+
+    /**
+     * @return whether a page read from disk, between the position and the
+     *         limit of a buffer, matches its checksum
+     */
+    public Status check(int pageNo, ByteBuffer page) throws IOException {
+        int crc = checksum(page);
+        synchronized (this) {
+            load();
+            if (pageNo >= numPages || (current[pageNo] == 0 && previous[pageNo] == 0)) {
+                return Status.UNRECORDED;
+            }
+            return crc == current[pageNo] || crc == previous[pageNo] ? Status.VALID : Status.CORRUPT;
+        }
+    }
+
+    /**
+     * Check a page read from disk.
+     *
+     * @throws IOException if the page does not match its checksum
+     */
+    public void verify(int pageNo, ByteBuffer page) throws IOException {
+        if (check(pageNo, page) == Status.CORRUPT) {
+            throw new IOException("checksum mismatch on page " + pageNo + " of " + dataFile);
+        }
+    }
+
+    /**
+     * Close the file of the checksums. It is opened again if they are used
+     * later.
+     */
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /** The pages of a file found in each {@link Status} by a full check. */
+    public static class Report {
+        public int valid;
+        public int unrecorded;
+        public final List<Integer> corrupt = new ArrayList<>();
+
+        /** Count a page found in the specified state. */
+        public void add(int pageNo, Status status) {
+            switch (status) {
+            case VALID: valid++; break;
+            case UNRECORDED: unrecorded++; break;
+            default: corrupt.add(pageNo);
+            }
+        }
+
+        public String toString() {
+            return String.format("%d pages: %d valid, %d unrecorded, %d corrupt%s",
+                    valid + unrecorded + corrupt.size(), valid, unrecorded, corrupt.size(),
+                    corrupt.isEmpty() ? "" : " " + corrupt);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package simpledb.storage;
+
+import java.io.IOException;
+
+/**
+ * PageCleaner is a background thread that writes dirty pages of a STEAL /
+ * NO FORCE {@link BufferPool} back to disk ahead of need.
+ * <p>
+ * Every round the cleaner checks what fraction of the frames hold clean
+ * pages, and if it is below the target it writes dirty pages that no
+ * transaction holds a lock on, sorted by file and page number so that the
+ * writes of a round are close to sequential. A getPage miss then nearly
+ * always finds a clean page to evict and does not have to write one back
+ * itself. Writes are limited to a number of pages per second so that the
+ * cleaner does not crowd out foreground I/O.
+ * <p>
+ * Under NO STEAL / FORCE every dirty page is locked by the transaction that
+ * dirtied it, so the BufferPool only runs a cleaner in STEAL / NO FORCE
+ * mode.
+ *
+ * @see BufferPool#PAGE_CLEANER_PROPERTY
+ */
+public class PageCleaner extends Thread {
+
+    /** Name of the system property that sets the target fraction of clean frames. */
+    public static final String TARGET_CLEAN_PROPERTY = "simpledb.storage.PageCleaner.targetClean";
+    /** Name of the system property that sets the maximum pages written per second. */
+    public static final String PAGES_PER_SECOND_PROPERTY = "simpledb.storage.PageCleaner.pagesPerSecond";
+
+    public static final double DEFAULT_TARGET_CLEAN = 0.25;
+    public static final int DEFAULT_PAGES_PER_SECOND = 2000;
+
+    /** Time between two rounds */
+    private static final long ROUND_MILLIS = 50;
+
+    private final BufferPool pool;
+    private final double targetClean;
+    private final int pagesPerSecond;
+    private volatile boolean stopped;
+
+    private volatile long rounds;
+    private volatile long pagesWritten;
+
+    /**
+     * @param pool the pool to clean
+     * @param targetClean the fraction of frames to keep clean, between 0 and 1
+     * @param pagesPerSecond the maximum number of pages to write per second
+     */
+    public PageCleaner(BufferPool pool, double targetClean, int pagesPerSecond) {
+        super("PageCleaner");
+        if (targetClean < 0 || targetClean > 1) {
+            throw new IllegalArgumentException("target fraction of clean frames must be between 0 and 1");
+        }
+        if (pagesPerSecond < 1) {
+            throw new IllegalArgumentException("the cleaner must be allowed to write at least one page per second");
+        }
+        this.pool = pool;
+        this.targetClean = targetClean;
+        this.pagesPerSecond = pagesPerSecond;
+        setDaemon(true);
+    }
+
+    /**
+     * Create a cleaner configured by the {@link #TARGET_CLEAN_PROPERTY} and
+     * {@link #PAGES_PER_SECOND_PROPERTY} system properties.
+     */
+    public static PageCleaner createDefault(BufferPool pool) {
+        double targetClean = DEFAULT_TARGET_CLEAN;
+        String target = System.getProperty(TARGET_CLEAN_PROPERTY);
+        if (target != null) {
+            targetClean = Double.parseDouble(target);
+        }
+        return new PageCleaner(pool, targetClean,
+                Integer.getInteger(PAGES_PER_SECOND_PROPERTY, DEFAULT_PAGES_PER_SECOND));
+    }
+
+    public void run() {
+        // pages the cleaner may still write; refilled every round and capped
+        // at one second worth of writes
+        double credit = 0;
+        while (!stopped) {
+            credit = Math.min(credit + pagesPerSecond * ROUND_MILLIS / 1000.0, pagesPerSecond);
+            if (credit >= 1) {
+                try {
+                    int written = pool.cleanPages(targetClean, (int) credit);
+                    credit -= written;
+                    pagesWritten += written;
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            rounds++;
+            try {
+                Thread.sleep(ROUND_MILLIS);
+            } catch (InterruptedException e) {
+                // woken up by shutdown()
+            }
+        }
+    }
+
+    /** Stop the cleaner and wait for the round in progress to finish. */
+    public void shutdown() {
+        stopped = true;
+        interrupt();
+        try {
+            join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public double getTargetClean() {
+        return targetClean;
+    }
+
+    public int getPagesPerSecond() {
+        return pagesPerSecond;
+    }
+
+    /** @return the number of rounds the cleaner has run */
+    public long getRounds() {
+        return rounds;
+    }
+
+    /** @return the number of pages the cleaner has written back */
+    public long getPagesWritten() {
+        return pagesWritten;
+    }
+}
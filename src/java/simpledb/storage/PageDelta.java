@@ -0,0 +1,257 @@
+package simpledb.storage;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * PageDelta is the body of an UPDATE record of a {@link LogFile}: the id of
+ * a page and the ranges of bytes an update changed in it, each with its old
+ * and new contents. Inserting a tuple into a heap page, for instance, logs
+ * the bytes of its slot and the header byte that marks the slot used, with
+ * the page id and the offset of the slot.
+ * <p>
+ * The ranges are set to their new contents to redo the update and to their
+ * old contents to undo it. Either way the result does not depend on what the
+ * page held before, so a delta can be applied again, and applying the deltas
+ * of a page in log order (or undoing them in reverse) yields the same page
+ * whichever version of it was on disk to start with.
+ */
+class PageDelta {
+
+    /** The bytes in front of every range: its offset and length */
+    private static final int RANGE_HEADER = 2 * LogFile.INT_SIZE;
+
+    /** The constructor of each class of page id, which recovery reads many of */
+    private static final Map<String, Constructor<?>> ID_CONSTRUCTORS = new ConcurrentHashMap<>();
+
+    final String pageClassName;
+    final PageId pid;
+    private final int[] offsets;
+    private final byte[][] before;
+    private final byte[][] after;
+
+    private PageDelta(String pageClassName, PageId pid, int[] offsets, byte[][] before, byte[][] after) {
+        this.pageClassName = pageClassName;
+        this.pid = pid;
+        this.offsets = offsets;
+        this.before = before;
+        this.after = after;
+    }
+
+    /**
+     * Write the delta that turns one version of a page into another.
+     * Ranges only a few bytes apart are written as one, which takes less
+     * room than two.
+     *
+     * @param out where to write the delta
+     * @param page the page, for its id and class
+     * @param old the data of the page before the update
+     * @param cur the data of the page after the update
+     * @return false, having written nothing, if the data did not change
+     */
+    static boolean write(DataOutput out, Page page, byte[] old, byte[] cur) throws IOException {
+        if (old.length != cur.length) {
+            throw new IOException("page " + page.getId() + " changed size from " + old.length + " to " + cur.length);
+        }
+        // start and end of each range
+        int[] ranges = new int[16];
+        int n = 0;
+        int start = Arrays.mismatch(old, cur);
+        while (start >= 0) {
+            int end = start + 1;
+            int next = -1;
+            while (end < cur.length) {
+                int same = Arrays.mismatch(old, end, cur.length, cur, end, cur.length);
+                if (same < 0) {
+                    break;
+                }
+                if (2 * same > RANGE_HEADER) {
+                    next = end + same;
+                    break;
+                }
+                end += same + 1;
+            }
+            if (n == ranges.length) {
+                ranges = Arrays.copyOf(ranges, 2 * n);
+            }
+            ranges[n++] = start;
+            ranges[n++] = end;
+            start = next;
+        }
+        if (n == 0) {
+            return false;
+        }
+
+        writeId(out, page);
+        out.writeInt(n / 2);
+        for (int i = 0; i < n; i += 2) {
+            int len = ranges[i + 1] - ranges[i];
+            out.writeInt(ranges[i]);
+            out.writeInt(len);
+            out.write(old, ranges[i], len);
+            out.write(cur, ranges[i], len);
+        }
+        return true;
+    }
+
+    private static void writeId(DataOutput out, Page page) throws IOException {
+        out.writeUTF(page.getClass().getName());
+        writePageId(out, page.getId());
+    }
+
+    /** Write a page id, as the delta of the page does. */
+    static void writePageId(DataOutput out, PageId pid) throws IOException {
+        int[] pageInfo = pid.serialize();
+        out.writeUTF(pid.getClass().getName());
+        out.writeInt(pageInfo.length);
+        for (int j : pageInfo) {
+            out.writeInt(j);
+        }
+    }
+
+    /** Read a page id written by {@link #writePageId}. */
+    static PageId readPageId(DataInput in) throws IOException {
+        String idClassName = in.readUTF();
+        try {
+            Constructor<?> idConst = ID_CONSTRUCTORS.get(idClassName);
+            if (idConst == null) {
+                idConst = Class.forName(idClassName).getDeclaredConstructors()[0];
+                ID_CONSTRUCTORS.put(idClassName, idConst);
+            }
+            int numIdArgs = in.readInt();
+            Object[] idArgs = new Object[numIdArgs];
+            for (int i = 0; i < numIdArgs; i++) {
+                idArgs[i] = in.readInt();
+            }
+            return (PageId) idConst.newInstance(idArgs);
+        } catch (ClassNotFoundException | InvocationTargetException | IllegalAccessException | InstantiationException e) {
+            throw new IOException("cannot read a " + idClassName, e);
+        }
+    }
+
+    /** Skip over a page id written by {@link #writePageId}. */
+    static void skipPageId(DataInput in) throws IOException {
+        in.readUTF();
+        skipFully(in, in.readInt() * LogFile.INT_SIZE);
+    }
+
+    /**
+     * Write the delta that undoes this one: the same ranges, with the old
+     * and new contents swapped. Redoing it undoes this delta, which is
+     * what a compensation record of the log holds.
+     */
+    void writeUndo(DataOutput out) throws IOException {
+        out.writeUTF(pageClassName);
+        writePageId(out, pid);
+        out.writeInt(offsets.length);
+        for (int i = 0; i < offsets.length; i++) {
+            out.writeInt(offsets[i]);
+            out.writeInt(after[i].length);
+            out.write(after[i]);
+            out.write(before[i]);
+        }
+    }
+
+    /** Read a delta written by {@link #write}. */
+    static PageDelta read(DataInput in) throws IOException {
+        String pageClassName = in.readUTF();
+        PageId pid = readPageId(in);
+
+        int n = in.readInt();
+        int[] offsets = new int[n];
+        byte[][] before = new byte[n][];
+        byte[][] after = new byte[n][];
+        for (int i = 0; i < n; i++) {
+            offsets[i] = in.readInt();
+            int len = in.readInt();
+            before[i] = new byte[len];
+            in.readFully(before[i]);
+            after[i] = new byte[len];
+            in.readFully(after[i]);
+        }
+        return new PageDelta(pageClassName, pid, offsets, before, after);
+    }
+
+    /** Skip over a delta written by {@link #write}. */
+    static void skip(DataInput in) throws IOException {
+        in.readUTF();
+        skipPageId(in);
+        skipRanges(in);
+    }
+
+    /** Read the id of the page of a delta written by {@link #write}, skipping the rest. */
+    static PageId readId(DataInput in) throws IOException {
+        in.readUTF();
+        PageId pid = readPageId(in);
+        skipRanges(in);
+        return pid;
+    }
+
+    private static void skipRanges(DataInput in) throws IOException {
+        for (int n = in.readInt(); n > 0; n--) {
+            in.readInt();
+            skipFully(in, 2 * in.readInt());
+        }
+    }
+
+    private static void skipFully(DataInput in, int len) throws IOException {
+        if (in.skipBytes(len) < len) {
+            throw new EOFException();
+        }
+    }
+
+    /** Set the changed ranges of the data of the page to their new contents. */
+    void redo(byte[] data) {
+        apply(data, after);
+    }
+
+    /** Set the changed ranges of the data of the page back to their old contents. */
+    void undo(byte[] data) {
+        apply(data, before);
+    }
+
+    private void apply(byte[] data, byte[][] contents) {
+        for (int i = 0; i < offsets.length; i++) {
+            System.arraycopy(contents[i], 0, data, offsets[i], contents[i].length);
+        }
+    }
+
+    /** @return the number of bytes the update changed, counting merged gaps */
+    int changedBytes() {
+        int len = 0;
+        for (byte[] b : after) {
+            len += b.length;
+        }
+        return len;
+    }
+
+    /**
+     * @return a page of the class of the logged one, holding the given data
+     * @see Page
+     */
+    Page newPage(byte[] data) throws IOException {
+        try {
+            for (Constructor<?> c : Class.forName(pageClassName).getDeclaredConstructors()) {
+                Class<?>[] params = c.getParameterTypes();
+                if (params.length == 2 && PageId.class.isAssignableFrom(params[0])
+                        && params[1] == byte[].class) {
+                    return (Page) c.newInstance(pid, data);
+                }
+            }
+        } catch (ClassNotFoundException | InvocationTargetException | IllegalAccessException | InstantiationException e) {
+            throw new IOException("cannot make a " + pageClassName + " of page " + pid, e);
+        }
+        throw new IOException(pageClassName + " has no (PageId, byte[]) constructor");
+    }
+
+    public String toString() {
+        return pageClassName + " " + pid + ": " + offsets.length + " ranges, " + changedBytes() + " bytes";
+    }
+}
@@ -32,5 +32,14 @@ public interface PageId {
     boolean equals(Object o);
 
     int getPageNumber();
+
+    /**
+     * @return the kind of page this id refers to, for files that keep pages
+     *   of several kinds under the same page numbers, or 0. Together with
+     *   the table id and the page number it identifies a page exactly.
+     */
+    default int getPageCategory() {
+        return 0;
+    }
 }
 
@@ -0,0 +1,161 @@
+package simpledb.storage;
+
+import java.util.Arrays;
+
+/**
+ * PageTable maps the pages resident in the BufferPool to the frames that
+ * hold them.
+ * <p>
+ * A page is identified exactly by its (table id, page number, page
+ * category) triple, see {@link PageId#getPageCategory()}. The table is an
+ * open addressing hash table with linear probing over parallel primitive
+ * arrays, so lookups neither box keys nor allocate, and two pages whose
+ * PageId hash codes collide can never alias each other's frame. Deletion
+ * shifts the following entries of a probe run back, so no tombstones are
+ * needed and the table never has to be rebuilt.
+ * <p>
+ * The table is not thread safe; the BufferPool serializes access to it.
+ */
+public class PageTable {
+
+    private static final int EMPTY = -1;
+
+    private final int mask;
+    private final int[] tableIds;
+    private final int[] pageNos;
+    private final int[] categs;
+    private final int[] frames;
+    private int size;
+
+    /**
+     * @param maxEntries the maximum number of pages that will be resident at
+     *                   the same time, i.e. the number of frames
+     */
+    public PageTable(int maxEntries) {
+        // keep the load factor at or below one half
+        int capacity = Integer.highestOneBit(Math.max(maxEntries, 1) * 2 - 1) << 1;
+        mask = capacity - 1;
+        tableIds = new int[capacity];
+        pageNos = new int[capacity];
+        categs = new int[capacity];
+        frames = new int[capacity];
+        Arrays.fill(frames, EMPTY);
+        size = 0;
+    }
+
+    /** @return the number of pages in the table */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the frame holding the specified page, or -1 if it is not resident
+     */
+    public int get(PageId pid) {
+        int slot = find(pid.getTableId(), pid.getPageNumber(), pid.getPageCategory());
+        return slot == EMPTY ? EMPTY : frames[slot];
+    }
+
+    /**
+     * Record that the specified page is held in the given frame, replacing
+     * any previous mapping for the page.
+     *
+     * @throws IllegalStateException if the table already holds as many pages
+     *                               as it was sized for
+     */
+    public void put(PageId pid, int frame) {
+        int tableId = pid.getTableId();
+        int pageNo = pid.getPageNumber();
+        int categ = pid.getPageCategory();
+        int slot = hash(tableId, pageNo, categ) & mask;
+        while (frames[slot] != EMPTY) {
+            if (tableIds[slot] == tableId && pageNos[slot] == pageNo && categs[slot] == categ) {
+                frames[slot] = frame;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (size > mask / 2) {
+            throw new IllegalStateException("page table is full");
+        }
+        tableIds[slot] = tableId;
+        pageNos[slot] = pageNo;
+        categs[slot] = categ;
+        frames[slot] = frame;
+        size++;
+    }
+
+    /**
+     * Remove the mapping for the specified page.
+     *
+     * @return the frame that held the page, or -1 if it was not resident
+     */
+    public int remove(PageId pid) {
+        int slot = find(pid.getTableId(), pid.getPageNumber(), pid.getPageCategory());
+        if (slot == EMPTY) {
+            return EMPTY;
+        }
+        int frame = frames[slot];
+        frames[slot] = EMPTY;
+        size--;
+
+        // move back any entry of the probe run that would no longer be
+        // reachable from its home slot
+        int hole = slot;
+        int next = (slot + 1) & mask;
+        while (frames[next] != EMPTY) {
+            int home = hash(tableIds[next], pageNos[next], categs[next]) & mask;
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                tableIds[hole] = tableIds[next];
+                pageNos[hole] = pageNos[next];
+                categs[hole] = categs[next];
+                frames[hole] = frames[next];
+                frames[next] = EMPTY;
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        return frame;
+    }
+
+    private int find(int tableId, int pageNo, int categ) {
+        int slot = hash(tableId, pageNo, categ) & mask;
+        while (frames[slot] != EMPTY) {
+            if (tableIds[slot] == tableId && pageNos[slot] == pageNo && categs[slot] == categ) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return EMPTY;
+    }
+
+    /**
+     * @return the hash of the page identity the table uses. The low bits pick
+     *         the home slot; the high bits pick a stripe, see {@link #stripe}.
+     */
+    static int hash(PageId pid) {
+        return hash(pid.getTableId(), pid.getPageNumber(), pid.getPageCategory());
+    }
+
+    /**
+     * @return the stripe of the page among numStripes, from the high bits of
+     *         its hash. The BufferPool picks the shard of a page and the
+     *         LockManager the latch of its lock this way, so that a page
+     *         table hashing on the low bits still gets a spread of pages.
+     */
+    public static int stripe(PageId pid, int numStripes) {
+        return (hash(pid) >>> 16) % numStripes;
+    }
+
+    private static int hash(int tableId, int pageNo, int categ) {
+        int h = tableId * 0x9E3779B9 + pageNo;
+        h = h * 0x85EBCA6B + categ;
+        // murmur3 finalizer, spreads sequential page numbers across the table
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
@@ -0,0 +1,187 @@
+package simpledb.storage;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import simpledb.common.Database;
+
+/**
+ * ParallelRedo applies the updates recovery redoes on a pool of worker
+ * threads, while the recovering thread reads the log.
+ * <p>
+ * Pages are partitioned among the workers by id: every update of a page
+ * goes to the one worker that owns it, in the order it was handed in, which
+ * is log order, so the updates of a page are applied in LSN order while
+ * different pages are redone in parallel. Updates are handed to a worker
+ * in batches, through a bounded queue, so the reader stays only a little
+ * ahead of the workers.
+ * <p>
+ * Each worker reads its pages from disk as it first needs them, and writes
+ * them back in a batch, sorted by file and page number, when it holds its
+ * share of the pages recovery may keep in memory, and once the log is read.
+ */
+class ParallelRedo {
+
+    /** Updates handed to a worker at a time */
+    private static final int BATCH_SIZE = 256;
+
+    /** Batches waiting for a worker */
+    private static final int QUEUE_BATCHES = 4;
+
+    /** Marks the end of the updates for a worker */
+    private static final List<PageDelta> END = Collections.emptyList();
+
+    private static final Comparator<PageId> PAGE_ORDER = Comparator.comparingInt(PageId::getTableId)
+            .thenComparingInt(PageId::getPageNumber);
+
+    private final ExecutorService pool;
+    private final List<BlockingQueue<List<PageDelta>>> queues = new ArrayList<>();
+    private final List<List<PageDelta>> batches = new ArrayList<>();
+    private final List<Future<Integer>> workers = new ArrayList<>();
+
+    /**
+     * Start the workers.
+     *
+     * @param threads the number of workers
+     * @param maxPages the most pages the workers hold in memory, together
+     */
+    ParallelRedo(int threads, int maxPages) {
+        pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "ParallelRedo");
+            t.setDaemon(true);
+            return t;
+        });
+        int pagesPerWorker = Math.max(1, maxPages / threads);
+        for (int i = 0; i < threads; i++) {
+            BlockingQueue<List<PageDelta>> queue = new ArrayBlockingQueue<>(QUEUE_BATCHES);
+            queues.add(queue);
+            batches.add(new ArrayList<>(BATCH_SIZE));
+            workers.add(pool.submit(() -> redo(queue, pagesPerWorker)));
+        }
+    }
+
+    /** Redo an update, after the updates handed in before it. */
+    void add(PageDelta update) throws IOException {
+        int worker = Math.floorMod(update.pid.hashCode(), queues.size());
+        List<PageDelta> batch = batches.get(worker);
+        batch.add(update);
+        if (batch.size() == BATCH_SIZE) {
+            put(worker, batch);
+            batches.set(worker, new ArrayList<>(BATCH_SIZE));
+        }
+    }
+
+    private void put(int worker, List<PageDelta> batch) throws IOException {
+        try {
+            queues.get(worker).put(batch);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while redoing the log");
+        }
+    }
+
+    /**
+     * Wait for the workers to redo the updates handed in and to write back
+     * their pages, then stop them.
+     *
+     * @return the number of pages written
+     */
+    int finish() throws IOException {
+        try {
+            for (int i = 0; i < queues.size(); i++) {
+                if (!batches.get(i).isEmpty()) {
+                    put(i, batches.get(i));
+                }
+                put(i, END);
+            }
+            int written = 0;
+            for (Future<Integer> worker : workers) {
+                written += worker.get();
+            }
+            return written;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while redoing the log");
+        } catch (ExecutionException e) {
+            throw new IOException("could not redo the log", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /** Stop the workers, e.g. after the log could not be read. */
+    void abort() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * The loop of a worker. After a failure it goes on taking batches, so
+     * that the reader does not wait for it, and reports it at the end.
+     *
+     * @return the number of pages written
+     */
+    private int redo(BlockingQueue<List<PageDelta>> queue, int maxPages) throws Exception {
+        Map<PageId, byte[]> pages = new HashMap<>();
+        Map<PageId, PageDelta> deltas = new HashMap<>(); // for the class of each page
+        Exception failure = null;
+        int written = 0;
+        while (true) {
+            List<PageDelta> batch = queue.take();
+            if (batch == END) {
+                break;
+            }
+            if (failure != null) {
+                continue;
+            }
+            try {
+                for (PageDelta update : batch) {
+                    byte[] data = pages.get(update.pid);
+                    if (data == null) {
+                        if (pages.size() == maxPages) {
+                            written += write(pages, deltas);
+                        }
+                        data = Database.getCatalog().getDatabaseFile(update.pid.getTableId())
+                                .readPage(update.pid).getPageData();
+                        pages.put(update.pid, data);
+                        deltas.putIfAbsent(update.pid, update);
+                    }
+                    update.redo(data);
+                }
+            } catch (IOException | RuntimeException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return written + write(pages, deltas);
+    }
+
+    /**
+     * Write back the pages of a worker, in file and page number order.
+     *
+     * @return the number of pages written
+     */
+    private static int write(Map<PageId, byte[]> pages, Map<PageId, PageDelta> deltas) throws IOException {
+        List<PageId> ids = new ArrayList<>(pages.keySet());
+        ids.sort(PAGE_ORDER);
+        for (PageId pid : ids) {
+            Database.getBufferPool().discardPage(pid);
+            Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(deltas.remove(pid).newPage(pages.get(pid)));
+        }
+        pages.clear();
+        return ids.size();
+    }
+}
@@ -0,0 +1,108 @@
+package simpledb.storage;
+
+import simpledb.common.Catalog;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A heap page that stores its tuples column by column (PAX, Partition
+ * Attributes Across), for tables whose scans read a few columns of many.
+ * <p>
+ * The page has the same slots and the same header bitmap as a
+ * {@link HeapPage}, but after the header each field has a minipage of its
+ * own, holding the values of that field for every slot in slot order:
+ * <pre>
+ *   header | field 0 of slots 0..n-1 | field 1 of slots 0..n-1 | ...
+ * </pre>
+ * The value of a field of a slot is thus at
+ * <code>header + numSlots * (offset of the field in a tuple) + slot * (size of the field)</code>.
+ * A page holds as many tuples as a HeapPage of the same table.
+ * <p>
+ * Tuples read from the page are views that decode a field only when it is
+ * asked for, as those of a HeapPage do, so an operator such as a Filter or a
+ * Project on top of a SeqScan only touches the minipages of the columns it
+ * uses, each of which is contiguous on the page.
+ *
+ * @see HeapFile.Format#PAX
+ */
+public class PaxHeapPage extends HeapPage {
+
+    /** Offset in the page data of the minipage of each field. */
+    private final int[] columns;
+
+    /**
+     * Create a PaxHeapPage from a set of bytes of data read from disk.
+     *
+     * @see HeapPage#HeapPage(HeapPageId, byte[])
+     * @see Catalog#getTupleDesc
+     */
+    public PaxHeapPage(HeapPageId id, byte[] data) throws IOException {
+        super(id, data);
+        this.columns = columnOffsets(tupleDesc, header.length, numSlots);
+    }
+
+    /**
+     * Create a PaxHeapPage from the bytes between the position and the
+     * limit of a buffer, which are copied.
+     *
+     * @see HeapPage#HeapPage(HeapPageId, ByteBuffer)
+     */
+    public PaxHeapPage(HeapPageId id, ByteBuffer data) throws IOException {
+        super(id, data);
+        this.columns = columnOffsets(tupleDesc, header.length, numSlots);
+    }
+
+    private static int[] columnOffsets(TupleDesc td, int headerSize, int numSlots) {
+        int[] columns = new int[td.numFields()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = headerSize + numSlots * td.getFieldOffset(i);
+        }
+        return columns;
+    }
+
+    @Override
+    HeapPage pageOf(byte[] pageData) throws IOException {
+        return new PaxHeapPage(pageId, pageData);
+    }
+
+    @Override
+    int fieldOffset(int slotId, int field) {
+        return columns[field] + slotId * tupleDesc.getFieldType(field).getLen();
+    }
+
+    /**
+     * Write the slots of the page after its header, one minipage at a time.
+     */
+    @Override
+    void writeTuples(ByteBuffer buf) {
+        for (int i = 0; i < tupleDesc.numFields(); i++) {
+            writeFields(buf, i, i);
+        }
+    }
+
+    /**
+     * Rewrite a page of the fixed-slot format in the PAX format, keeping
+     * every tuple in its slot.
+     *
+     * @param rows the data of a {@link HeapPage}
+     * @param td the TupleDesc of the table
+     * @return the data of a PaxHeapPage of the same size
+     */
+    public static byte[] fromRows(byte[] rows, TupleDesc td) {
+        int tupleSize = td.getSize();
+        int numSlots = rows.length * 8 / (tupleSize * 8 + 1);
+        int headerSize = (numSlots + 7) / 8;
+        int[] columns = columnOffsets(td, headerSize, numSlots);
+        byte[] pax = new byte[rows.length];
+        System.arraycopy(rows, 0, pax, 0, headerSize);
+        for (int f = 0; f < columns.length; f++) {
+            int len = td.getFieldType(f).getLen();
+            int from = headerSize + td.getFieldOffset(f);
+            for (int slot = 0; slot < numSlots; slot++) {
+                System.arraycopy(rows, from + slot * tupleSize, pax, columns[f] + slot * len, len);
+            }
+        }
+        return pax;
+    }
+}
@@ -0,0 +1,87 @@
+package simpledb.storage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+/**
+ * Detects a sequential run of page reads by one scan and asks for the pages
+ * ahead of it to be read in the background.
+ * <p>
+ * Once two consecutive pages have been read, the next window pages are
+ * requested; from then on another window is requested whenever the scan
+ * gets within half a window of the end of what was already requested, so
+ * that the reads stay ahead of the scan. A jump to a non-adjacent page ends
+ * the run. A window of 0 disables read-ahead.
+ */
+public class ReadAhead {
+
+    /** Number of consecutive pages after which a scan counts as sequential. */
+    public static final int SEQUENTIAL_RUN = 2;
+
+    private final int window;
+    private final IntFunction<PageId> pageId;
+    private final Consumer<List<PageId>> prefetch;
+
+    /**
+     * lastPage: the page the scan read last, -1 before the first one
+     * runLength: number of consecutive pages read up to lastPage
+     * requestedUpTo: first page after those already requested
+     */
+    private int lastPage = -1;
+    private int runLength = 0;
+    private int requestedUpTo = 0;
+
+    /**
+     * @param window the number of pages to request at once, 0 to disable
+     * @param pageId maps a page number of the scanned file to its PageId
+     * @param prefetch issues the read of a run of consecutive pages
+     */
+    public ReadAhead(int window, IntFunction<PageId> pageId, Consumer<List<PageId>> prefetch) {
+        if (window < 0) {
+            throw new IllegalArgumentException("the read-ahead window cannot be negative");
+        }
+        this.window = window;
+        this.pageId = pageId;
+        this.prefetch = prefetch;
+    }
+
+    /**
+     * Record that the scan is about to read the specified page.
+     *
+     * @param pageNumber the page the scan reads
+     * @param numPages the number of pages of the file
+     */
+    public void access(int pageNumber, int numPages) {
+        if (window == 0) {
+            return;
+        }
+        if (pageNumber == lastPage + 1 && lastPage >= 0) {
+            runLength++;
+        } else {
+            runLength = 1;
+            requestedUpTo = pageNumber + 1;
+        }
+        lastPage = pageNumber;
+        if (runLength < SEQUENTIAL_RUN || requestedUpTo - pageNumber > window / 2) {
+            return;
+        }
+        int first = Math.max(requestedUpTo, pageNumber + 1);
+        int end = Math.min(pageNumber + 1 + window, numPages);
+        if (first >= end) {
+            return;
+        }
+        List<PageId> pids = new ArrayList<PageId>(end - first);
+        for (int i = first; i < end; i++) {
+            pids.add(pageId.apply(i));
+        }
+        requestedUpTo = end;
+        prefetch.accept(pids);
+    }
+
+    /** @return the number of pages requested at once */
+    public int getWindow() {
+        return window;
+    }
+}
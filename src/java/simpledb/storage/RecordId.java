@@ -50,7 +50,7 @@ public class RecordId implements Serializable {
      */
     @Override
     public boolean equals(Object obj) {
-    	// TODO: ǷhashCodeж
+    	// TODO: 是否可以用hashCode来进行判断
         if (!(obj instanceof RecordId)) {
         	return false;
         }
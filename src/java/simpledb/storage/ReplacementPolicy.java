@@ -0,0 +1,96 @@
+package simpledb.storage;
+
+import java.util.function.IntPredicate;
+
+/**
+ * ReplacementPolicy decides which resident page the BufferPool should give
+ * up when it needs room for a new one.
+ * <p>
+ * The BufferPool reports every reference it serves (admissions on a miss,
+ * accesses on a hit) and every page that leaves the pool, and the policy
+ * keeps whatever reference history it needs to rank pages. Pages are
+ * identified by the index of the BufferPool frame that holds them, so
+ * policies can keep their state in arrays indexed by frame and a hit costs
+ * no allocation. The policy never removes pages on its own: it only
+ * nominates a victim, and the BufferPool reports back once the victim has
+ * actually been evicted.
+ * <p>
+ * The policy used by a BufferPool can be chosen with the system property
+ * <code>simpledb.storage.ReplacementPolicy</code>, e.g.
+ * <code>-Dsimpledb.storage.ReplacementPolicy=2q</code>.
+ *
+ * @see BufferPool
+ */
+public interface ReplacementPolicy {
+
+    /** Name of the system property that selects the default policy. */
+    String POLICY_PROPERTY = "simpledb.storage.ReplacementPolicy";
+
+    /** Policy used when the system property is not set. */
+    String DEFAULT_POLICY = "clock";
+
+    /**
+     * Called when a page is read into a frame (a miss).
+     * @param frame the frame now holding the page
+     * @param pid the id of the newly resident page
+     */
+    void recordAdmit(int frame, PageId pid);
+
+    /**
+     * Called when a resident page is requested again (a hit).
+     * @param frame the frame holding the referenced page
+     */
+    void recordAccess(int frame);
+
+    /**
+     * Called after the BufferPool evicted a page this policy nominated.
+     * @param frame the frame that held the evicted page
+     */
+    void recordEvict(int frame);
+
+    /**
+     * Called when a page leaves the pool for any reason other than eviction,
+     * e.g. a rolled back page or a B+ tree page that is being reused.
+     * @param frame the frame that held the discarded page
+     */
+    void recordDiscard(int frame);
+
+    /**
+     * Nominate a resident page to evict.
+     *
+     * @param evictable tells whether the BufferPool is allowed to evict the
+     *                  page held in a given frame (e.g. it is not dirty)
+     * @return the frame of the page to evict, or -1 if no resident page is
+     *         evictable
+     */
+    int chooseVictim(IntPredicate evictable);
+
+    /**
+     * Create a policy by name.
+     *
+     * @param name one of "clock", "lruk" or "2q" (case insensitive)
+     * @param numFrames the number of frames of the BufferPool the policy serves
+     * @throws IllegalArgumentException if the name is unknown
+     */
+    static ReplacementPolicy create(String name, int numFrames) {
+        switch (name.trim().toLowerCase()) {
+            case "clock":
+                return new ClockPolicy(numFrames);
+            case "lruk":
+            case "lru-k":
+                return new LruKPolicy(numFrames, LruKPolicy.DEFAULT_K);
+            case "2q":
+                return new TwoQueuePolicy(numFrames);
+            default:
+                throw new IllegalArgumentException("Unknown replacement policy " + name);
+        }
+    }
+
+    /**
+     * Create the policy selected by the {@link #POLICY_PROPERTY} system
+     * property, or a {@link #DEFAULT_POLICY} policy if it is not set.
+     */
+    static ReplacementPolicy createDefault(int numFrames) {
+        return create(System.getProperty(POLICY_PROPERTY, DEFAULT_POLICY), numFrames);
+    }
+}
@@ -0,0 +1,472 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.transaction.TransactionId;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A page of a HeapFile in the slotted format. The slotted format stores each
+ * tuple as a variable-length record, so that a short string takes the room
+ * it needs instead of {@link Type#STRING_LEN} bytes.
+ * <p>
+ * The page starts with a header of two unsigned shorts: the number of
+ * entries in the slot directory, and the size of the record area. The slot
+ * directory follows with one entry of two unsigned shorts per slot: the
+ * offset and the length of its record, with an offset of 0 for an empty
+ * slot. Records fill the page from its end towards the directory. A record
+ * is its fields in order, an int as four bytes and a string as an unsigned
+ * short length followed by its bytes. An all-zero page is an empty page.
+ * <p>
+ * A tuple keeps its slot for as long as it is on the page, so deleting a
+ * record leaves a hole in the record area. When an insert does not find
+ * enough room between the directory and the records, the page is
+ * compacted: the records are moved to the end of the page, closing the
+ * holes, and their slots are updated.
+ * <p>
+ * The page is updated in place. The array it was read from is also its
+ * before-image, and is only copied when the page first changes after it
+ * was read or committed.
+ *
+ * @see HeapFile.Format#SLOTTED
+ */
+public class SlottedHeapPage implements HeapFilePage {
+
+    /** Size of the page header: slot count and record area size. */
+    static final int HEADER_SIZE = 4;
+    /** Size of a slot directory entry: record offset and length. */
+    static final int SLOT_SIZE = 4;
+    /** Largest page the two-byte offsets can address. */
+    public static final int MAX_PAGE_SIZE = 1 << 16;
+
+    final HeapPageId pageId;
+    final TupleDesc tupleDesc;
+    final int pageSize;
+
+    /**
+     * data: the page, updated in place
+     * shared: data is also the before-image, and is copied before it changes
+     * numSlots: number of entries in the slot directory
+     * recordBytes: size of the record area at the end of the page
+     * liveBytes: size of the records in use; the rest of the record area is holes
+     */
+    private byte[] data;
+    private boolean shared;
+    private int numSlots;
+    private int recordBytes;
+    private int liveBytes;
+
+    private byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    private TransactionId dirtyTid;
+    private boolean isDirty;
+    private volatile long lsn;
+
+    /**
+     * Create a SlottedHeapPage from the bytes of a page read from disk. The
+     * page keeps the array, which must not be changed afterwards, as its
+     * before-image.
+     *
+     * @see HeapPage#HeapPage(HeapPageId, byte[])
+     */
+    public SlottedHeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, Database.getCatalog().getTupleDesc(id.getTableId()), data);
+    }
+
+    /**
+     * Create a SlottedHeapPage from a copy of the bytes between the position
+     * and the limit of a buffer, such as a slice of a memory-mapped file.
+     */
+    public SlottedHeapPage(HeapPageId id, ByteBuffer data) throws IOException {
+        this(id, copy(data));
+    }
+
+    /**
+     * Create a SlottedHeapPage of a table that is not in the catalog, such
+     * as one {@link HeapFileEncoder} is writing.
+     */
+    SlottedHeapPage(HeapPageId id, TupleDesc td, byte[] data) throws IOException {
+        this.pageId = id;
+        this.tupleDesc = td;
+        this.pageSize = data.length;
+        if (pageSize > MAX_PAGE_SIZE) {
+            throw new IOException("page " + id + " is larger than " + MAX_PAGE_SIZE + " bytes");
+        }
+        if (pageSize < HEADER_SIZE) {
+            throw new EOFException("page " + id + " is too short");
+        }
+        this.data = data;
+        this.shared = true;
+        this.oldData = data;
+
+        numSlots = getUnsignedShort(data, 0);
+        recordBytes = getUnsignedShort(data, 2);
+        if (directoryEnd() > recordStart()) {
+            throw new IOException("page " + id + " is corrupt");
+        }
+        for (int slot = 0; slot < numSlots; slot++) {
+            int offset = slotOffset(slot);
+            int length = slotLength(slot);
+            if (offset != 0 && (offset < recordStart() || offset + length > pageSize)) {
+                throw new IOException("page " + id + " is corrupt at slot " + slot);
+            }
+            liveBytes += length;
+        }
+    }
+
+    private static byte[] copy(ByteBuffer data) {
+        byte[] bytes = new byte[data.remaining()];
+        data.duplicate().get(bytes);
+        return bytes;
+    }
+
+    /**
+     * @return the room for records and slot entries on an empty page of the
+     *         specified size
+     */
+    public static int getCapacity(int pageSize) {
+        return pageSize - HEADER_SIZE;
+    }
+
+    /**
+     * @return the size of the record of a tuple, not counting its slot entry
+     */
+    public static int recordSize(Tuple t) {
+        TupleDesc td = t.getTupleDesc();
+        int size = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                size += 4;
+            } else {
+                size += 2 + Math.min(((StringField) t.getField(i)).getValue().length(), Type.STRING_LEN);
+            }
+        }
+        return size;
+    }
+
+    private int recordStart() {
+        return pageSize - recordBytes;
+    }
+
+    private int directoryEnd() {
+        return HEADER_SIZE + numSlots * SLOT_SIZE;
+    }
+
+    private int slotOffset(int slot) {
+        return getUnsignedShort(data, HEADER_SIZE + slot * SLOT_SIZE);
+    }
+
+    private int slotLength(int slot) {
+        return getUnsignedShort(data, HEADER_SIZE + slot * SLOT_SIZE + 2);
+    }
+
+    private void setSlot(int slot, int offset, int length) {
+        putUnsignedShort(data, HEADER_SIZE + slot * SLOT_SIZE, offset);
+        putUnsignedShort(data, HEADER_SIZE + slot * SLOT_SIZE + 2, length);
+    }
+
+    private void writeHeader() {
+        putUnsignedShort(data, 0, numSlots);
+        putUnsignedShort(data, 2, recordBytes);
+    }
+
+    /** Copy the data before changing it, if it is also the before-image. */
+    private void beforeChange() {
+        if (shared) {
+            data = data.clone();
+            shared = false;
+        }
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pageId;
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int slot) {
+        return slot >= 0 && slot < numSlots && slotOffset(slot) != 0;
+    }
+
+    /**
+     * @return the bytes left for records and slot entries, counting the
+     *         holes left by deleted records
+     */
+    public int getFreeSpace() {
+        return pageSize - directoryEnd() - liveBytes;
+    }
+
+    private int findEmptySlot() {
+        for (int slot = 0; slot < numSlots; slot++) {
+            if (slotOffset(slot) == 0) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    public boolean hasRoomFor(Tuple t) {
+        int needed = recordSize(t) + (findEmptySlot() < 0 ? SLOT_SIZE : 0);
+        return needed <= getFreeSpace();
+    }
+
+    public int getFreeSpaceCategory() {
+        return FreeSpaceMap.category(getFreeSpace(), getCapacity(pageSize));
+    }
+
+    /**
+     * Adds the specified tuple to the page in the first empty slot, or in a
+     * new one, compacting the page first if its free space is split by holes.
+     *
+     * @throws DbException if the tuple does not fit on the page or its
+     *         TupleDesc does not match
+     */
+    public void insertTuple(Tuple tup) throws DbException {
+        if (!tup.getTupleDesc().equals(tupleDesc)) {
+            throw new DbException("tuple " + tup + " does not match the TupleDesc of page " + pageId);
+        }
+        int size = recordSize(tup);
+        int slot = findEmptySlot();
+        int needed = size + (slot < 0 ? SLOT_SIZE : 0);
+        if (needed > getFreeSpace()) {
+            throw new DbException("page " + pageId + " has no room for tuple " + tup);
+        }
+        beforeChange();
+        if (recordStart() - directoryEnd() < needed) {
+            compact();
+        }
+        if (slot < 0) {
+            slot = numSlots++;
+        }
+        recordBytes += size;
+        int offset = recordStart();
+        writeRecord(tup, data, offset);
+        setSlot(slot, offset, size);
+        liveBytes += size;
+        writeHeader();
+        tup.setRecordId(new RecordId(pageId, slot));
+    }
+
+    /**
+     * Delete the specified tuple from the page. Its record becomes a hole,
+     * unless it was next to the free space; empty slots at the end of the
+     * directory are dropped.
+     *
+     * @throws DbException if this tuple is not on this page, or its slot is
+     *         already empty.
+     */
+    public void deleteTuple(Tuple tup) throws DbException {
+        RecordId rid = tup.getRecordId();
+        if (rid == null || !rid.getPageId().equals(pageId)) {
+            throw new DbException("tuple " + tup + " is not on page " + pageId);
+        }
+        int slot = rid.getTupleNumber();
+        if (!isSlotUsed(slot)) {
+            throw new DbException("slot " + slot + " of page " + pageId + " is already empty");
+        }
+        beforeChange();
+        int offset = slotOffset(slot);
+        int length = slotLength(slot);
+        setSlot(slot, 0, 0);
+        Arrays.fill(data, offset, offset + length, (byte) 0);
+        liveBytes -= length;
+        if (offset == recordStart()) {
+            recordBytes -= length;
+        }
+        while (numSlots > 0 && slotOffset(numSlots - 1) == 0) {
+            numSlots--;
+        }
+        writeHeader();
+    }
+
+    /**
+     * Move the records to the end of the page, in the order they are in,
+     * so that the holes between them join the free space.
+     */
+    private void compact() {
+        // sort the used slots by the offset of their record
+        long[] records = new long[numSlots];
+        int count = 0;
+        for (int slot = 0; slot < numSlots; slot++) {
+            int offset = slotOffset(slot);
+            if (offset != 0) {
+                records[count++] = ((long) offset << 16) | slot;
+            }
+        }
+        Arrays.sort(records, 0, count);
+
+        // records only move towards the end, so starting with the last one
+        // never overwrites one that has not moved yet
+        int end = pageSize;
+        for (int i = count - 1; i >= 0; i--) {
+            int slot = (int) (records[i] & 0xffff);
+            int offset = (int) (records[i] >>> 16);
+            int length = slotLength(slot);
+            end -= length;
+            if (end != offset) {
+                System.arraycopy(data, offset, data, end, length);
+                setSlot(slot, end, length);
+            }
+        }
+        recordBytes = pageSize - end;
+        Arrays.fill(data, directoryEnd(), end, (byte) 0);
+        writeHeader();
+    }
+
+    private static void writeRecord(Tuple t, byte[] dst, int pos) {
+        TupleDesc td = t.getTupleDesc();
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                putInt(dst, pos, ((IntField) t.getField(i)).getValue());
+                pos += 4;
+            } else {
+                String s = ((StringField) t.getField(i)).getValue();
+                int length = Math.min(s.length(), Type.STRING_LEN);
+                putUnsignedShort(dst, pos, length);
+                // like StringField.serialize, keep the low byte of each char
+                for (int j = 0; j < length; j++) {
+                    dst[pos + 2 + j] = (byte) s.charAt(j);
+                }
+                pos += 2 + length;
+            }
+        }
+    }
+
+    private Tuple readRecord(int slot) {
+        Tuple t = new Tuple(tupleDesc);
+        int pos = slotOffset(slot);
+        for (int i = 0; i < tupleDesc.numFields(); i++) {
+            if (tupleDesc.getFieldType(i) == Type.INT_TYPE) {
+                t.setField(i, new IntField(getInt(data, pos)));
+                pos += 4;
+            } else {
+                int length = getUnsignedShort(data, pos);
+                t.setField(i, new StringField(new String(data, pos + 2, length), Type.STRING_LEN));
+                pos += 2 + length;
+            }
+        }
+        t.setRecordId(new RecordId(pageId, slot));
+        return t;
+    }
+
+    /**
+     * @return an iterator over the tuples in the slots that were used when
+     *         it was created and still are, decoding each record when it
+     *         gets to it (calling remove on this iterator throws an
+     *         UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        final boolean[] used = new boolean[numSlots];
+        for (int slot = 0; slot < numSlots; slot++) {
+            used[slot] = slotOffset(slot) != 0;
+        }
+        return new Iterator<Tuple>() {
+            private int next = advance(0);
+
+            private int advance(int from) {
+                for (int slot = from; slot < used.length; slot++) {
+                    if (used[slot] && isSlotUsed(slot)) {
+                        return slot;
+                    }
+                }
+                return used.length;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next < used.length;
+            }
+
+            @Override
+            public Tuple next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Tuple t = readRecord(next);
+                next = advance(next + 1);
+                return t;
+            }
+        };
+    }
+
+    public byte[] getPageData() {
+        return data.clone();
+    }
+
+    public void writePageData(ByteBuffer buf) {
+        buf.put(data);
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public SlottedHeapPage getBeforeImage() {
+        byte[] oldDataRef;
+        synchronized (oldDataLock) {
+            oldDataRef = oldData;
+        }
+        try {
+            return new SlottedHeapPage(pageId, tupleDesc, oldDataRef);
+        } catch (IOException e) {
+            // we parsed it OK before
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * The page data becomes the before-image without a copy; the page
+     * copies it when it next changes.
+     */
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = data;
+        }
+        shared = true;
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirtyTid = tid;
+        this.isDirty = dirty;
+    }
+
+    public TransactionId isDirty() {
+        return isDirty ? dirtyTid : null;
+    }
+
+    public long getLsn() {
+        return lsn;
+    }
+
+    public void setLsn(long lsn) {
+        this.lsn = lsn;
+    }
+
+    private static int getUnsignedShort(byte[] b, int pos) {
+        return ((b[pos] & 0xff) << 8) | (b[pos + 1] & 0xff);
+    }
+
+    private static void putUnsignedShort(byte[] b, int pos, int value) {
+        b[pos] = (byte) (value >>> 8);
+        b[pos + 1] = (byte) value;
+    }
+
+    private static int getInt(byte[] b, int pos) {
+        return (getUnsignedShort(b, pos) << 16) | getUnsignedShort(b, pos + 2);
+    }
+
+    private static void putInt(byte[] b, int pos, int value) {
+        putUnsignedShort(b, pos, value >>> 16);
+        putUnsignedShort(b, pos + 2, value);
+    }
+}
@@ -4,6 +4,7 @@ import simpledb.common.Type;
 import simpledb.execution.Predicate;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Instance of Field that stores a single String of a fixed length.
@@ -69,6 +70,18 @@ public class StringField implements Field {
 			dos.write((byte) 0);
 	}
 
+	public void serialize(ByteBuffer buf) {
+		int length = Math.min(value.length(), maxSize);
+		buf.putInt(length);
+		// like DataOutputStream.writeBytes, keep the low byte of each char
+		for (int i = 0; i < length; i++) {
+			buf.put((byte) value.charAt(i));
+		}
+		for (int i = length; i < maxSize; i++) {
+			buf.put((byte) 0);
+		}
+	}
+
 	/**
 	 * Compare the specified field to the value of this Field. Return semantics
 	 * are as specified by Field.compare
@@ -1,9 +1,13 @@
 package simpledb.storage;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.text.ParseException;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 
 import org.w3c.dom.html.HTMLFieldSetElement;
 
@@ -27,18 +31,50 @@ public class Tuple implements Serializable {
      */
     
     /**
-     * tupleDesc: е
-     * fields: еľֵֶ
+     * tupleDesc: 该行的属性描述
+     * fields: 该行的具体值字段
      */
     private TupleDesc tupleDesc;
     private final Field[] fields;
     private RecordId recordId;
+
+    /**
+     * source: for a tuple read from a page, the page its fields are decoded
+     *         from when they are first asked for; null once every field has
+     *         been decoded, or for a tuple built field by field
+     * slot: the slot of the tuple in source
+     */
+    private transient HeapPage source;
+    private transient int slot;
     
     public Tuple(TupleDesc td) {
     	tupleDesc = td;
         fields = new Field[td.numFields()];
     }
 
+    /**
+     * Create a tuple that is a view of a serialized tuple in a page. Its
+     * fields are only decoded when they are first asked for, so a scan that
+     * looks at one column, or a filter that rejects the tuple, does not pay
+     * for building the others. The page says where each field is, see
+     * {@link HeapPage#fieldOffset}.
+     *
+     * @param td
+     *            the schema of this tuple
+     * @param source
+     *            the page holding the tuple
+     * @param slot
+     *            the slot of the tuple in the page
+     * @param rid
+     *            the location of the tuple on disk
+     */
+    Tuple(TupleDesc td, HeapPage source, int slot, RecordId rid) {
+        this(td);
+        this.source = source;
+        this.slot = slot;
+        this.recordId = rid;
+    }
+
     /**
      * @return The TupleDesc representing the schema of this tuple.
      */
@@ -83,7 +119,29 @@ public class Tuple implements Serializable {
      *            field index to return. Must be a valid index.
      */
     public Field getField(int i) {
-        return fields[i];
+        Field f = fields[i];
+        if (f == null && source != null) {
+            try {
+                f = source.tupleDesc.getFieldType(i).parse(source.view, source.fieldOffset(slot, i));
+            } catch (ParseException e) {
+                throw new NoSuchElementException("parsing error!");
+            }
+            fields[i] = f;
+        }
+        return f;
+    }
+
+    /**
+     * Decode every field not decoded yet, and let go of the page data.
+     */
+    private void materialize() {
+        if (source == null) {
+            return;
+        }
+        for (int i = 0; i < fields.length; i++) {
+            getField(i);
+        }
+        source = null;
     }
 
     /**
@@ -97,7 +155,7 @@ public class Tuple implements Serializable {
     public String toString() {
         String tupleString = "";
     	for (int tdIndex = 0; tdIndex < tupleDesc.numFields(); tdIndex ++) {
-        	tupleString += fields[tdIndex].toString();
+        	tupleString += getField(tdIndex).toString();
         	if (tdIndex != tupleDesc.numFields() - 1) {
         		tupleString += "\t";
         	}
@@ -111,6 +169,7 @@ public class Tuple implements Serializable {
      * */
     public Iterator<Field> fields()
     {
+        materialize();
         return (Iterator<Field>)List.of(fields).iterator();
     }
 
@@ -119,6 +178,12 @@ public class Tuple implements Serializable {
      * */
     public void resetTupleDesc(TupleDesc td)
     {
+        // fields not decoded yet are still decoded by the TupleDesc of the page
         tupleDesc = td;
     }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        materialize();
+        out.defaultWriteObject();
+    }
 }
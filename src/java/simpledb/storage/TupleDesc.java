@@ -38,18 +38,23 @@ public class TupleDesc implements Serializable {
     }
     
     /**
-     * ֶͶ: (type, name)
-     * ֶͶ((type1, name1), (type2, name2), ....)
+     * 字段类型对象: (type, name)
+     * 定义字段类型对象数组((type1, name1), (type2, name2), ....)
      */
     private TDItem[] tdItems;
 
+    /**
+     * offsets: byte offset of each field in a serialized tuple, computed on first use
+     */
+    private transient int[] offsets;
+
     /**
      * @return
      *        An iterator which iterates over all the field TDItems
      *        that are included in this TupleDesc
      * */
 	public Iterator<TDItem> iterator() {
-        // tdItemsĵ
+        // 返回tdItems数组的迭代器
         return (Iterator<TDItem>)List.of(tdItems).iterator();
     }
 
@@ -67,7 +72,7 @@ public class TupleDesc implements Serializable {
      *            be null.
      */
     public TupleDesc(Type[] typeAr, String[] fieldAr) {
-        // ֶͶ
+        // 创建字段类型对象数组
     	tdItems = new TDItem[typeAr.length];
     	for (int tdIndex = 0; tdIndex < typeAr.length; tdIndex ++) {
     		tdItems[tdIndex] = new TDItem(typeAr[tdIndex], fieldAr[tdIndex]);
@@ -83,7 +88,7 @@ public class TupleDesc implements Serializable {
      *            TupleDesc. It must contain at least one entry.
      */
     public TupleDesc(Type[] typeAr) {
-    	// ֶͶ飨ֶΣ""棩
+    	// 创建字段类型对象数组（匿名字段，名字用""代替）
     	tdItems = new TDItem[typeAr.length];
     	for (int tdIndex = 0; tdIndex < typeAr.length; tdIndex ++) {
     		tdItems[tdIndex] = new TDItem(typeAr[tdIndex], "");
@@ -159,7 +164,7 @@ public class TupleDesc implements Serializable {
      *         Note that tuples from a given TupleDesc are of a fixed size.
      */
     public int getSize() {
-        // ֶͶܴС
+        // 返回字段类型对象数组的总大小
         int tdItemsSize = 0;
         for (TDItem tdItem: tdItems) {
         	tdItemsSize += tdItem.fieldType.getLen();
@@ -167,6 +172,24 @@ public class TupleDesc implements Serializable {
         return tdItemsSize;
     }
 
+    /**
+     * @return the offset (in bytes) of the ith field from the start of a
+     *         serialized tuple of this TupleDesc
+     * @param i
+     *            index of the field. It must be a valid index.
+     */
+    public int getFieldOffset(int i) {
+        int[] fieldOffsets = offsets;
+        if (fieldOffsets == null) {
+            fieldOffsets = new int[tdItems.length];
+            for (int tdIndex = 1; tdIndex < tdItems.length; tdIndex ++) {
+                fieldOffsets[tdIndex] = fieldOffsets[tdIndex - 1] + tdItems[tdIndex - 1].fieldType.getLen();
+            }
+            offsets = fieldOffsets;
+        }
+        return fieldOffsets[i];
+    }
+
     /**
      * Merge two TupleDescs into one, with td1.numFields + td2.numFields fields,
      * with the first td1.numFields coming from td1 and the remaining from td2.
@@ -178,7 +201,7 @@ public class TupleDesc implements Serializable {
      * @return the new TupleDesc
      */
     public static TupleDesc merge(TupleDesc td1, TupleDesc td2) {
-        // ϲΪһֶͶ
+        // 合并两个数组对象组为一个字段类型对象数组
     	int tdLength = td1.numFields() + td2.numFields();
     	int td1Length = td1.numFields();
     	TDItem[] newTDItems = new TDItem[tdLength];
@@ -0,0 +1,151 @@
+package simpledb.storage;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.function.IntPredicate;
+
+/**
+ * 2Q replacement (Johnson and Shasha), a scan resistant policy.
+ * <p>
+ * Newly read pages enter a small FIFO queue (A1in). A page is promoted to
+ * the main LRU queue (Am) only if it is requested again after it has been
+ * evicted from A1in, which the policy detects with a bounded ghost queue of
+ * recently evicted page ids (A1out). A large sequential scan therefore only
+ * cycles through A1in and leaves the hot pages in Am, such as B+ tree
+ * internal pages or small dimension tables, resident.
+ * <p>
+ * A1in and Am are doubly linked lists threaded through arrays indexed by
+ * frame, so hits do not allocate; only the ghost queue, which is touched
+ * on misses and evictions, holds PageId objects.
+ */
+public class TwoQueuePolicy implements ReplacementPolicy {
+
+    /** Share of the pool reserved for pages seen only once. */
+    private static final double IN_RATIO = 0.25;
+    /** Size of the ghost queue, relative to the pool size. */
+    private static final double OUT_RATIO = 0.5;
+
+    private static final byte NONE = 0;
+    private static final byte A1IN = 1;
+    private static final byte AM = 2;
+
+    private final int maxIn;
+    private final int maxOut;
+    private final PageId[] pageOf;
+    private final byte[] queueOf;
+    private final int[] prev;
+    private final int[] next;
+    /** head (oldest) and tail (newest) frame of A1in and Am, indexed by queue */
+    private final int[] head = new int[3];
+    private final int[] tail = new int[3];
+    private final int[] length = new int[3];
+    private final LinkedHashSet<PageId> a1out;
+
+    /**
+     * @param numFrames the number of frames of the BufferPool
+     */
+    public TwoQueuePolicy(int numFrames) {
+        this.maxIn = Math.max(1, (int) (numFrames * IN_RATIO));
+        this.maxOut = Math.max(1, (int) (numFrames * OUT_RATIO));
+        this.pageOf = new PageId[numFrames];
+        this.queueOf = new byte[numFrames];
+        this.prev = new int[numFrames];
+        this.next = new int[numFrames];
+        Arrays.fill(head, -1);
+        Arrays.fill(tail, -1);
+        this.a1out = new LinkedHashSet<PageId>();
+    }
+
+    public synchronized void recordAdmit(int frame, PageId pid) {
+        unlink(frame);
+        pageOf[frame] = pid;
+        // re-referenced soon after it left A1in: it is hot
+        append(a1out.remove(pid) ? AM : A1IN, frame);
+    }
+
+    public synchronized void recordAccess(int frame) {
+        // hits in A1in are deliberately ignored: they are usually correlated
+        // references from the same scan
+        if (queueOf[frame] == AM) {
+            unlink(frame);
+            append(AM, frame);
+        }
+    }
+
+    public synchronized void recordEvict(int frame) {
+        if (queueOf[frame] == A1IN) {
+            a1out.add(pageOf[frame]);
+            if (a1out.size() > maxOut) {
+                Iterator<PageId> oldest = a1out.iterator();
+                oldest.next();
+                oldest.remove();
+            }
+        }
+        unlink(frame);
+        pageOf[frame] = null;
+    }
+
+    public synchronized void recordDiscard(int frame) {
+        if (pageOf[frame] != null) {
+            a1out.remove(pageOf[frame]);
+        }
+        unlink(frame);
+        pageOf[frame] = null;
+    }
+
+    public synchronized int chooseVictim(IntPredicate evictable) {
+        int victim = -1;
+        if (length[A1IN] > maxIn || length[AM] == 0) {
+            victim = firstEvictable(A1IN, evictable);
+        }
+        if (victim == -1) {
+            victim = firstEvictable(AM, evictable);
+        }
+        if (victim == -1) {
+            victim = firstEvictable(A1IN, evictable);
+        }
+        return victim;
+    }
+
+    private int firstEvictable(byte queue, IntPredicate evictable) {
+        for (int frame = head[queue]; frame != -1; frame = next[frame]) {
+            if (evictable.test(frame)) {
+                return frame;
+            }
+        }
+        return -1;
+    }
+
+    private void append(byte queue, int frame) {
+        queueOf[frame] = queue;
+        prev[frame] = tail[queue];
+        next[frame] = -1;
+        if (tail[queue] == -1) {
+            head[queue] = frame;
+        } else {
+            next[tail[queue]] = frame;
+        }
+        tail[queue] = frame;
+        length[queue]++;
+    }
+
+    private void unlink(int frame) {
+        byte queue = queueOf[frame];
+        if (queue == NONE) {
+            return;
+        }
+        if (prev[frame] == -1) {
+            head[queue] = next[frame];
+        } else {
+            next[prev[frame]] = next[frame];
+        }
+        if (next[frame] == -1) {
+            tail[queue] = prev[frame];
+        } else {
+            prev[next[frame]] = prev[frame];
+        }
+        queueOf[frame] = NONE;
+        length[queue]--;
+    }
+}
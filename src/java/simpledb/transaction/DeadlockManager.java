@@ -56,13 +56,13 @@ public class DeadlockManager {
 					break;
 				} 
 				else if (trans.perm.equals(Permissions.READ_WRITE) && !trans.perm.equals(transIn.perm)) {
-					// ɾtrans_wait
+					// 删除这个trans_wait
 					toDeleteTransactionWait = transIn;
 					break;
 				}
 			}
 		}
-		// TODO ֱɾЩ
+		// TODO 不能直接删除，有些问题
 //		if (toDeleteTransactionWait != null) {
 //			lockWaitListMap.get(rwLock).remove(toDeleteTransactionWait);
 //			transactionWaitList.remove(toDeleteTransactionWait);
@@ -82,7 +82,7 @@ public class DeadlockManager {
 		}
 	}
 	
-	public void releaseTransLock(TransactionId tId, RWLock rwLock) {
+	public synchronized void releaseTransLock(TransactionId tId, RWLock rwLock) {
 		for (TransactionWait trans: transactionWaitList) {
 			if (trans.tId.equals(tId) && trans.rwLock.equals(rwLock)) {
 				lockWaitListMap.get(rwLock).remove(trans);
@@ -92,10 +92,10 @@ public class DeadlockManager {
 	}
 	
 	public boolean isWaitGraphCycle() {
-		// ʼͼݽṹ
+		// 初始化图数据结构
 		ConcurrentHashMap<TransactionId, Integer> transInDegreeMap = new ConcurrentHashMap<TransactionId, Integer>();
 		ConcurrentHashMap<TransactionId, CopyOnWriteArrayList<TransactionId>> waitGraph = new ConcurrentHashMap<TransactionId, CopyOnWriteArrayList<TransactionId>>();
-		// ʼѭȴͼ
+		// 初始化循环等待图
 		for (TransactionWait trans: transactionWaitList) {
 			transInDegreeMap.put(trans.tId, 0);
 		}
@@ -117,7 +117,7 @@ public class DeadlockManager {
 				}
 			}
 		}
-		// жǷл
+		// 利用拓扑排序判断是否有环
 		Queue<TransactionId> queue = new LinkedList<TransactionId>();
 		for (TransactionId tId: transInDegreeMap.keySet()) {
 			int inDegree = transInDegreeMap.get(tId);
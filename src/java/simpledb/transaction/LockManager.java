@@ -13,35 +13,44 @@ import org.hamcrest.core.IsInstanceOf;
 import simpledb.common.Database;
 import simpledb.common.Permissions;
 import simpledb.storage.PageId;
+import simpledb.storage.PageTable;
 
 public class LockManager {
 	
 	/**
-	 * LOCK: ȫڱ֤ȡ/ͷŶдһ
-	 * tIdToLocksMap tе
-	 * pageToLockMap ÿpageӦ(ÿpageԼһ޶)
-	 * tIdWatiToGetWriteLockȴд񼯺
-	 * 	 ݽṹΪ˱֤ǰwaitдܼʱãȡ
-	 *   ٸ: ǻȡ˳
+	 * latches: 按PageId分段的锁，每段保证其页面上获取/释放读写锁操作的一致性；
+	 *   分段与BufferPool的分片用同一个哈希，不同段上的页面加锁/解锁互不阻塞
+	 * tIdToLocksMap： 事务t锁持有的锁集合
+	 * pageToLockMap： 每个page对应的锁(每个page都是有自己独一无二的锁)
+	 * tIdWatiToGetWriteLock：等待写锁的事务集合
+	 * 	 这个数据结构是为了保证前面事务wait的写锁能及时获得，用于阻塞后面事务获取读锁，否则会出现脏读的情况
+	 *   举个例子: 下面是获取锁的顺序：
 	 *   r1 r2 w1 w2 r3 w3
-	 *   r1 r2öû⣬1ȡww1ʱûгʱr1ͷŵw1
-	 *   ȻԻȡw2ʱֳᷢ2عr2ͷŵͬʱѵȴдw1
-	 *   һĵطɲɵr3õ˶ôw2
-	 *   ȻԻȡw3ʱܻȡɹģΪr1ͷˣr2عˣr3Դʱڶ
-	 *   ȡԺ3ид룬ʱpageѾΪҳ3Ժw1
-	 *   ˣr1õw3ǰݣʳ
-	 *   :
-	 *   һtȡwˣȡ/дֱw/ع
-	 * deadlockManager
+	 *   首先r1 r2获得读锁没问题，事务1获取w锁即w1时没有出现死锁情况，这时候会进行锁升级将r1释放掉，w1阻塞，
+	 *   然后尝试获取w2时会发现出现了死锁情况，事务2回滚导致r2被释放掉同时唤醒等待的写锁w1。
+	 *   下面有一个究极扯淡的地方就是如果好巧不巧的是正好r3得到了读锁，那么w2继续阻塞
+	 *   然后尝试获取w3，这个时候是能获取成功的，因为r1被释放了，r2回滚了，r3进行了锁升级，所以此时不存在读锁。
+	 *   获取以后事务3进行各种写入，此时的page已经成为了脏页，事务3结束以后唤醒了w1，
+	 *   问题来了，r1获得的数据是w3更新前的数据，故出现了脏读的情况。
+	 *   解决方案:
+	 *   如果一个事务t获取w锁阻塞了，则阻塞后面所有事务获取读/写锁，直到该事务获得了w锁并事务结束/回滚
+	 * deadlockManager：死锁管理器，等待图由它自己的锁保护，加锁顺序为先分段锁再死锁管理器
 	 */
-	public static final Object LOCK = new Object();
+	private final Object[] latches;
 	public ConcurrentHashMap<TransactionId, CopyOnWriteArraySet<RWLock>> tIdToLocksMap;
 	public ConcurrentHashMap<PageId, RWLock> pageToLockMap;
 	public ConcurrentHashMap<PageId, Permissions> pageToPermMap;
 	public ConcurrentHashMap<PageId, CopyOnWriteArraySet<TransactionId>> tIdWatiToGetPageWriteLockMap;
 	public DeadlockManager deadlockManager;
 	
-	public LockManager() {
+	/**
+	 * @param numStripes the number of latches the lock table is split into
+	 */
+	public LockManager(int numStripes) {
+		latches = new Object[Math.max(1, numStripes)];
+		for (int i = 0; i < latches.length; i++) {
+			latches[i] = new Object();
+		}
 		tIdToLocksMap = new ConcurrentHashMap<TransactionId, CopyOnWriteArraySet<RWLock>>();
 		pageToLockMap = new ConcurrentHashMap<PageId, RWLock>();
 		pageToPermMap = new ConcurrentHashMap<PageId, Permissions>();
@@ -49,22 +58,27 @@ public class LockManager {
 		tIdWatiToGetPageWriteLockMap = new ConcurrentHashMap<PageId, CopyOnWriteArraySet<TransactionId>>();
 	}
 	
+	/**
+	 * @return the latch guarding the lock of the specified page; waiting for
+	 *         the lock of a page waits on its latch
+	 */
+	public Object latch(PageId pageId) {
+		if (latches.length == 1) {
+			return latches[0];
+		}
+		return latches[PageTable.stripe(pageId, latches.length)];
+	}
+	
 	public void lock(TransactionId tId, PageId pageId, Permissions perm) throws TransactionAbortedException {
-		synchronized (LockManager.LOCK) {
+		synchronized (latch(pageId)) {
 			// String lockType = perm.equals(Permissions.READ_ONLY) ? "read_only" : "read_write";
 			// System.out.printf("I am Thread%s, I am trying to get %s\n", Thread.currentThread().getName(), lockType);
 			
-			// ҳδʼһҳ
-			if (!pageToLockMap.containsKey(pageId)) {
-				RWLock rwLock = new RWLock();
-				pageToLockMap.put(pageId, rwLock);
-			}
-			// δϣʼһ
-			if (!tIdToLocksMap.containsKey(tId)) {
-				CopyOnWriteArraySet<RWLock> lockSet = new CopyOnWriteArraySet<RWLock>();
-	    		tIdToLocksMap.put(tId, lockSet);
-	    	}
-			// Ƿ
+			// 如果该页面未曾加锁，则初始化一个页级锁
+			pageToLockMap.computeIfAbsent(pageId, p -> new RWLock());
+			// 如果该事务未曾持有锁集合，则初始化一个锁集合；同一事务可能同时在其他分段上加锁
+			tIdToLocksMap.computeIfAbsent(tId, t -> new CopyOnWriteArraySet<RWLock>());
+			// 检测是否有死锁存在
 			deadlockManager.deadlockDetected(tId, pageToLockMap.get(pageId), perm);
 			// System.out.printf("I am %s, There is no deadlock\n", Thread.currentThread().getName());
 			try {
@@ -76,7 +90,7 @@ public class LockManager {
 	}
 	
 	public void unlock(TransactionId tId, PageId pId) {
-		synchronized (LockManager.LOCK) {
+		synchronized (latch(pId)) {
 			if (!pageToLockMap.containsKey(pId)) {
 	        	return;
 	        } 
@@ -86,14 +100,14 @@ public class LockManager {
 	        }
 			if (pageToPermMap.get(pId).equals(Permissions.READ_ONLY)) {
 				//System.out.printf("\nI am Thread%s, read lock:%d write lock:%d\n", Thread.currentThread().getName(), rwLock.getReadLockNum(), rwLock.getWriteLockNum());
-				rwLock.readUnlock(this);
+				rwLock.readUnlock(this, pId);
 				if (rwLock.getReadLockNum() == 0 && pageToPermMap.get(pId).equals(Permissions.READ_ONLY)) {
 					pageToPermMap.remove(pId);
 				}
 				//System.out.printf("I am Thread%s, read lock:%d write lock:%d\n", Thread.currentThread().getName(), rwLock.getReadLockNum(), rwLock.getWriteLockNum());
 	    	} else {
 	    		//System.out.printf("\nI am Thread%s, read lock:%d write lock:%d\n", Thread.currentThread().getName(), rwLock.getReadLockNum(), rwLock.getWriteLockNum());
-	    		rwLock.writeUnlock(this);
+	    		rwLock.writeUnlock(this, pId);
 	    		if (rwLock.getWriteLockNum() == 0 && pageToPermMap.get(pId).equals(Permissions.READ_WRITE)) {
 					pageToPermMap.remove(pId);
 				}
@@ -17,11 +17,11 @@ public class RWLock {
     
     public void lock(LockManager lockManager, TransactionId tId, PageId pId, Permissions perm) 
     		throws InterruptedException, TransactionAbortedException {
-    	// ǰжд
+    	// 如果当前有读锁且想获得写锁，则进行锁升级
     	if (isLockUpgrade(lockManager, tId, pId, perm)) {
     		lockUpgrade(lockManager, tId, pId, perm);
     	}
-    	// ظͬһ/ͼ
+    	// 如果重复获得同一个锁/低级锁，则跳过
     	else if (isLockReapet(lockManager, tId, pId, perm)) {
     		return;
     	}
@@ -62,7 +62,7 @@ public class RWLock {
     
     public void writeLock(LockManager lockManager, TransactionId tId, PageId pId, Permissions perm) 
     		throws InterruptedException, TransactionAbortedException {
-    	synchronized (LockManager.LOCK) {
+    	synchronized (lockManager.latch(pId)) {
     		if (lockManager.tIdWatiToGetPageWriteLockMap.get(pId) == null) {
 				lockManager.tIdWatiToGetPageWriteLockMap.put(pId, new CopyOnWriteArraySet<TransactionId>());
 			}
@@ -70,12 +70,12 @@ public class RWLock {
     				|| lockManager.tIdWatiToGetPageWriteLockMap.get(pId).size() > 1
     				|| (lockManager.tIdWatiToGetPageWriteLockMap.get(pId).size() == 1 
     					&& !lockManager.tIdWatiToGetPageWriteLockMap.get(pId).contains(tId))) {
-    			// TODO lockManager.tIdWatiToGetWriteLock.size() > 1 ɷҪ
-    			// Ϊ߼ֻȻȡٻȡд
+    			// TODO lockManager.tIdWatiToGetWriteLock.size() > 1 这个条件可否不要？
+    			// 因为逻辑上只能先获取读锁再获取写锁
     			if (lockManager.tIdWatiToGetPageWriteLockMap.get(pId).size() == 0) {
     				lockManager.tIdWatiToGetPageWriteLockMap.get(pId).add(tId);
     			}  
-    			LockManager.LOCK.wait();
+    			lockManager.latch(pId).wait();
         	}
     		if (lockManager.tIdWatiToGetPageWriteLockMap.get(pId).contains(tId)) {
     			lockManager.tIdWatiToGetPageWriteLockMap.get(pId).remove(tId);
@@ -89,12 +89,12 @@ public class RWLock {
     
     public void readLock(LockManager lockManager, TransactionId tId, PageId pId, Permissions perm) 
     		throws InterruptedException, TransactionAbortedException {
-    	synchronized (LockManager.LOCK) {
+    	synchronized (lockManager.latch(pId)) {
     		if (lockManager.tIdWatiToGetPageWriteLockMap.get(pId) == null) {
 				lockManager.tIdWatiToGetPageWriteLockMap.put(pId, new CopyOnWriteArraySet<TransactionId>());
 			}
     		while (writeLockCount != 0 || lockManager.tIdWatiToGetPageWriteLockMap.get(pId).size() != 0) {
-    			LockManager.LOCK.wait();
+    			lockManager.latch(pId).wait();
         	}
         	readLockCount += 1;
         	lockManager.tIdToLocksMap.get(tId).add(lockManager.pageToLockMap.get(pId));
@@ -103,23 +103,23 @@ public class RWLock {
 		}
     }
     
-    public void readUnlock(LockManager lockManager) {
-    	synchronized (LockManager.LOCK) {
+    public void readUnlock(LockManager lockManager, PageId pId) {
+    	synchronized (lockManager.latch(pId)) {
     		if (readLockCount > 0) {
         		readLockCount -= 1;
         	}
     		// System.out.printf("I am %s, release read lock, read lock:%d write lock:%d\n", Thread.currentThread().getName(), readLockCount, writeLockCount);
-    		LockManager.LOCK.notifyAll();
+    		lockManager.latch(pId).notifyAll();
 		}
     }
     
-    public void writeUnlock(LockManager lockManager) {
-    	synchronized (LockManager.LOCK) {
+    public void writeUnlock(LockManager lockManager, PageId pId) {
+    	synchronized (lockManager.latch(pId)) {
     		if (writeLockCount > 0) {
         		writeLockCount -= 1;
         	}
     		// System.out.printf("I am %s, release write lock, read lock:%d write lock:%d\n", Thread.currentThread().getName(), readLockCount, writeLockCount);
-    		LockManager.LOCK.notifyAll();
+    		lockManager.latch(pId).notifyAll();
 		}
     }
     
@@ -133,13 +133,13 @@ public class RWLock {
     
     public void lockUpgrade(LockManager lockManager, TransactionId tId, PageId pId, Permissions perm) 
     		throws InterruptedException, TransactionAbortedException {
-    	//  ͷŶ, дҸҳĶд
-    	readUnlock(lockManager);
+    	// 锁升级 释放读锁, 获得写锁并且更新页的读写类型
+    	readUnlock(lockManager, pId);
     	writeLock(lockManager, tId, pId, perm);
     }
     
     public void lockDemotion() {
-		//  some code goes here
+		// 锁降级 some code goes here
 	}
     
     public boolean equals(Object obj) {
@@ -0,0 +1,179 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.index.BTreeChecker;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BTreeBatchInsertTest extends SimpleDbTestBase {
+
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() {
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static BTreeFile emptyBTreeFile() throws Exception {
+        File f = File.createTempFile("batch", ".dat");
+        f.deleteOnExit();
+        f.delete();
+        BTreeFile bf = new BTreeFile(f, 0, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(bf, SystemTestUtil.getUUID());
+        return bf;
+    }
+
+    /**
+     * Insert the keys in batches of the given size, one transaction per batch;
+     * batches of one go through insertTuple.
+     */
+    private static void insertBatches(BTreeFile bf, List<Integer> keys, int batchSize) throws Exception {
+        if (batchSize == 1) {
+            for (int key : keys) {
+                TransactionId insert = new TransactionId();
+                Database.getBufferPool().insertTuple(insert, bf.getId(), BTreeUtility.getBTreeTuple(key, 2));
+                Database.getBufferPool().transactionComplete(insert);
+            }
+            return;
+        }
+        for (int i = 0; i < keys.size(); i += batchSize) {
+            List<Tuple> batch = new ArrayList<>();
+            for (int key : keys.subList(i, Math.min(keys.size(), i + batchSize))) {
+                batch.add(BTreeUtility.getBTreeTuple(key, 2));
+            }
+            TransactionId insert = new TransactionId();
+            Database.getBufferPool().insertTuples(insert, bf.getId(), batch);
+            Database.getBufferPool().transactionComplete(insert);
+        }
+    }
+
+    /**
+     * Check that the tree is well formed and holds exactly the given keys, in
+     * a transaction of its own.
+     */
+    private static void checkContents(BTreeFile bf, List<Integer> keys) throws Exception {
+        TransactionId tid = new TransactionId();
+        BTreeChecker.checkRep(bf, tid, new HashMap<>(), false);
+        List<Integer> expected = new ArrayList<>(keys);
+        Collections.sort(expected);
+        List<Integer> scanned = new ArrayList<>();
+        DbFileIterator it = bf.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            scanned.add(((IntField) it.next().getField(0)).getValue());
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(expected, scanned);
+    }
+
+    /**
+     * Ascending keys split the right edge of the tree so that the pages left
+     * behind are nearly full.
+     */
+    @Test public void ascending() throws Exception {
+        List<Integer> keys = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            keys.add(i);
+        }
+        BTreeFile batched = emptyBTreeFile();
+        insertBatches(batched, keys, 400);
+        checkContents(batched, keys);
+
+        BTreeFile single = emptyBTreeFile();
+        insertBatches(single, keys, 1);
+        checkContents(single, keys);
+
+        int leaves = (keys.size() + BTreeUtility.getNumTuplesPerPage(2) - 1) / BTreeUtility.getNumTuplesPerPage(2);
+        assertTrue(batched.numPages() < leaves * 1.2 + 2);
+        assertTrue(batched.numPages() < single.numPages() * 0.7);
+    }
+
+    /**
+     * Batches of random keys, with duplicates, into a tree that already holds
+     * tuples; the batch is inserted in key order whatever order it comes in.
+     */
+    @Test public void random() throws Exception {
+        Random rand = new Random(19);
+        List<Integer> keys = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            keys.add(rand.nextInt(2000));
+        }
+        BTreeFile bf = emptyBTreeFile();
+        insertBatches(bf, keys.subList(0, 2000), 1);
+        insertBatches(bf, keys.subList(2000, keys.size()), 100);
+        checkContents(bf, keys);
+
+        List<Integer> more = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            more.add(rand.nextInt(4000));
+        }
+        more.sort(Comparator.reverseOrder());
+        insertBatches(bf, more, 300);
+        keys.addAll(more);
+        checkContents(bf, keys);
+    }
+
+    /**
+     * Keys that fall between the two halves of a leaf split by the batch go
+     * where a search for them leads.
+     */
+    @Test public void betweenSplitHalves() throws Exception {
+        List<Integer> keys = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            keys.add(4 * i);
+        }
+        BTreeFile bf = emptyBTreeFile();
+        insertBatches(bf, keys, 1);
+        List<Integer> more = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            more.add(4 * i + 1 + i % 3);
+        }
+        insertBatches(bf, more, 500);
+        keys.addAll(more);
+        checkContents(bf, keys);
+    }
+
+    /**
+     * An empty batch dirties nothing.
+     */
+    @Test public void emptyBatch() throws Exception {
+        BTreeFile bf = emptyBTreeFile();
+        assertTrue(bf.insertTuples(tid, new ArrayList<>()).isEmpty());
+        insertBatches(bf, Collections.singletonList(7), 2);
+        checkContents(bf, Collections.singletonList(7));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BTreeBatchInsertTest.class);
+    }
+}
@@ -0,0 +1,157 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.index.BTreeBuilder;
+import simpledb.index.BTreeChecker;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BTreeBuilderTest extends SimpleDbTestBase {
+
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test: runs small enough that
+     * the larger trees are sorted through temporary files.
+     */
+    @Before public void setUp() {
+        System.setProperty(BTreeBuilder.RUN_SIZE_PROPERTY, "16384");
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+        System.clearProperty(BTreeBuilder.RUN_SIZE_PROPERTY);
+    }
+
+    private static BTreeFile emptyBTreeFile(TupleDesc td, int keyField) throws Exception {
+        File f = File.createTempFile("built", ".dat");
+        f.deleteOnExit();
+        f.delete();
+        BTreeFile bf = new BTreeFile(f, keyField, td);
+        Database.getCatalog().addTable(bf, SystemTestUtil.getUUID());
+        return bf;
+    }
+
+    private static List<List<Integer>> scan(DbFileIterator it) throws Exception {
+        List<List<Integer>> list = new ArrayList<>();
+        it.open();
+        while (it.hasNext()) {
+            list.add(SystemTestUtil.tupleToList(it.next()));
+        }
+        it.close();
+        return list;
+    }
+
+    /**
+     * Build a B+ tree on a heap file of random tuples, and check that it
+     * is well formed and holds the tuples of the heap file in key order.
+     */
+    private BTreeFile build(int rows, double fillFactor) throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, rows, rows / 4 + 1, null, tuples);
+        BTreeFile bf = emptyBTreeFile(Utility.getTupleDesc(2), 0);
+        assertEquals(rows, new BTreeBuilder(bf, fillFactor).build(tid, hf));
+
+        BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+        tuples.sort(Comparator.comparing(t -> t.get(0)));
+        List<List<Integer>> scanned = scan(bf.iterator(tid));
+        assertEquals(rows, scanned.size());
+        for (int i = 0; i < rows; i++) {
+            assertEquals(tuples.get(i).get(0), scanned.get(i).get(0));
+        }
+        return bf;
+    }
+
+    /**
+     * Trees of a single leaf, of two leaves and of several levels.
+     */
+    @Test public void sizes() throws Exception {
+        int leaf = BTreeUtility.getNumTuplesPerPage(2);
+        for (int rows : new int[] { 0, 1, leaf, leaf + 1, 2 * leaf + 3, 20000 }) {
+            build(rows, 1);
+        }
+    }
+
+    /**
+     * A lower fill factor leaves room on the pages, and the tree takes
+     * inserts afterwards.
+     */
+    @Test public void fillFactor() throws Exception {
+        int rows = 20000;
+        BTreeFile full = build(rows, 1);
+        BTreeFile sparse = build(rows, 0.6);
+        int leaves = (rows + BTreeUtility.getNumTuplesPerPage(2) - 1) / BTreeUtility.getNumTuplesPerPage(2);
+        assertEquals(leaves + 1, full.numPages());
+        assertTrue(sparse.numPages() > full.numPages() * 1.5);
+
+        Database.getBufferPool().transactionComplete(tid);
+        for (int i = 0; i < 2000; i++) {
+            TransactionId insert = new TransactionId();
+            Database.getBufferPool().insertTuple(insert, sparse.getId(), BTreeUtility.getBTreeTuple(i * 7, 2));
+            Database.getBufferPool().transactionComplete(insert);
+        }
+        tid = new TransactionId();
+        BTreeChecker.checkRep(sparse, tid, new HashMap<>(), true);
+        IndexPredicate ipred = new IndexPredicate(Op.EQUALS, new IntField(7 * 300));
+        assertFalse(scan(sparse.indexIterator(tid, ipred)).isEmpty());
+        assertEquals(rows + 2000, scan(sparse.iterator(tid)).size());
+    }
+
+    /**
+     * Tuples keyed on a string come out in the order of the string field.
+     */
+    @Test public void stringKey() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        BTreeFile bf = emptyBTreeFile(td, 1);
+        BTreeBuilder builder = new BTreeBuilder(bf);
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            String key = "k" + (i * 7919 % 500) + (i % 3 == 0 ? "" : "x");
+            keys.add(key);
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(i));
+            t.setField(1, new StringField(key, Type.STRING_LEN));
+            builder.add(t);
+        }
+        assertEquals(500, builder.finish());
+        BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+
+        keys.sort(null);
+        DbFileIterator it = bf.iterator(tid);
+        it.open();
+        for (String key : keys) {
+            assertEquals(key, ((StringField) it.next().getField(1)).getValue());
+        }
+        assertFalse(it.hasNext());
+        it.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BTreeBuilderTest.class);
+    }
+}
@@ -0,0 +1,243 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.index.*;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BTreeStringKeyTest extends SimpleDbTestBase {
+
+    private static final TupleDesc TD = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+
+    @After public void tearDown() {
+        BufferPool.resetPageSize();
+        Database.reset();
+    }
+
+    private static BTreeFile emptyBTreeFile() throws Exception {
+        File f = File.createTempFile("strings", ".dat");
+        f.deleteOnExit();
+        f.delete();
+        BTreeFile bf = new BTreeFile(f, 1, TD);
+        Database.getCatalog().addTable(bf, SystemTestUtil.getUUID());
+        return bf;
+    }
+
+    private static Tuple tuple(int i, String key) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField(key, Type.STRING_LEN));
+        return t;
+    }
+
+    private static void insert(BTreeFile bf, List<String> keys) throws Exception {
+        for (int i = 0; i < keys.size(); i++) {
+            TransactionId tid = new TransactionId();
+            Database.getBufferPool().insertTuple(tid, bf.getId(), tuple(i, keys.get(i)));
+            Database.getBufferPool().transactionComplete(tid);
+        }
+    }
+
+    /**
+     * Check that the tree is well formed and holds exactly the given keys, in
+     * a transaction of its own.
+     */
+    private static void checkContents(BTreeFile bf, List<String> keys, boolean checkOccupancy) throws Exception {
+        TransactionId tid = new TransactionId();
+        BTreeChecker.checkRep(bf, tid, new HashMap<>(), checkOccupancy);
+        List<String> expected = new ArrayList<>(keys);
+        Collections.sort(expected);
+        List<String> scanned = new ArrayList<>();
+        DbFileIterator it = bf.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            scanned.add(((StringField) it.next().getField(1)).getValue());
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(expected, scanned);
+    }
+
+    private static BTreeInternalPage root(BTreeFile bf, TransactionId tid) throws Exception {
+        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(tid,
+                BTreeRootPtrPage.getId(bf.getId()), Permissions.READ_ONLY);
+        return (BTreeInternalPage) Database.getBufferPool().getPage(tid, rootPtr.getRootId(), Permissions.READ_ONLY);
+    }
+
+    /**
+     * Keys of different lengths are written at their own length and read back
+     * in order, and a page takes entries until their bytes fill it.
+     */
+    @Test public void pageFormat() throws Exception {
+        BTreeFile bf = emptyBTreeFile();
+        BTreePageId pid = new BTreePageId(bf.getId(), 1, BTreePageId.INTERNAL);
+        BTreeInternalPage page = new BTreeInternalPage(pid, BTreeInternalPage.createEmptyPageData(), 1);
+        assertEquals(0, page.getNumEntries());
+        int maxEntries = BTreeInternalPage.getMaxEntries(Type.STRING_TYPE, BufferPool.getPageSize());
+        assertEquals(maxEntries, page.getNumEmptySlots());
+
+        List<String> keys = new ArrayList<>();
+        int child = 2;
+        while (page.getNumEmptySlots() > 0) {
+            String key = String.format("%03d", keys.size()) + "x".repeat(keys.size() % 20);
+            keys.add(key);
+            page.insertEntry(new BTreeEntry(new StringField(key, Type.STRING_LEN),
+                    new BTreePageId(bf.getId(), child - 1, BTreePageId.LEAF),
+                    new BTreePageId(bf.getId(), child, BTreePageId.LEAF)));
+            child++;
+        }
+        // far more keys than fit at the full length of the type
+        assertTrue(keys.size() > 5 * maxEntries);
+        assertTrue(page.hasKeyRoom());
+
+        BTreeInternalPage read = new BTreeInternalPage(pid, page.getPageData(), 1);
+        assertEquals(keys.size(), read.getNumEntries());
+        assertEquals(page.getEntryBytes(), read.getEntryBytes());
+        Iterator<BTreeEntry> it = read.iterator();
+        for (int i = 0; i < keys.size(); i++) {
+            BTreeEntry e = it.next();
+            assertEquals(keys.get(i), ((StringField) e.getKey()).getValue());
+            assertEquals(i + 1, e.getLeftChild().getPageNumber());
+            assertEquals(i + 2, e.getRightChild().getPageNumber());
+        }
+        assertFalse(it.hasNext());
+        assertArrayEquals(page.getPageData(), read.getPageData());
+    }
+
+    /**
+     * Deleting entries leaves empty slots between the used ones, and the
+     * reverse iterator returns the same entries as the forward one.
+     */
+    @Test public void reverseIteratorAcrossGaps() throws Exception {
+        BTreeFile bf = emptyBTreeFile();
+        BTreePageId pid = new BTreePageId(bf.getId(), 1, BTreePageId.INTERNAL);
+        BTreeInternalPage page = new BTreeInternalPage(pid, BTreeInternalPage.createEmptyPageData(), 1);
+        for (int i = 0; i < 20; i++) {
+            page.insertEntry(new BTreeEntry(new StringField(String.format("%02d", i), Type.STRING_LEN),
+                    new BTreePageId(bf.getId(), i + 1, BTreePageId.LEAF),
+                    new BTreePageId(bf.getId(), i + 2, BTreePageId.LEAF)));
+        }
+        List<BTreeEntry> entries = new ArrayList<>();
+        page.iterator().forEachRemaining(entries::add);
+        for (int i : new int[] { 17, 9, 8, 3 }) {
+            page.deleteKeyAndLeftChild(entries.get(i));
+        }
+        page.deleteKeyAndRightChild(entries.get(12));
+
+        List<String> forward = new ArrayList<>();
+        page.iterator().forEachRemaining(e -> forward.add(e.getKey() + " " + e.getLeftChild().getPageNumber()
+                + " " + e.getRightChild().getPageNumber()));
+        List<String> reverse = new ArrayList<>();
+        page.reverseIterator().forEachRemaining(e -> reverse.add(e.getKey() + " " + e.getLeftChild().getPageNumber()
+                + " " + e.getRightChild().getPageNumber()));
+        assertEquals(15, forward.size());
+        Collections.reverse(reverse);
+        assertEquals(forward, reverse);
+    }
+
+    /**
+     * The keys copied up from the leaves are the shortest prefixes that tell
+     * the leaves apart, so that the root of a tree with more leaves than an
+     * internal page holds full keys for points straight at the leaves.
+     */
+    @Test public void separators() throws Exception {
+        // splitting a root of this many children dirties them all
+        Database.resetBufferPool(1000);
+        BTreeFile bf = emptyBTreeFile();
+        Random rand = new Random(20);
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 4000; i++) {
+            StringBuilder key = new StringBuilder("customer/");
+            for (int j = 0; j < 40; j++) {
+                key.append((char) ('a' + rand.nextInt(26)));
+            }
+            keys.add(key.toString());
+        }
+        insert(bf, keys);
+        checkContents(bf, keys, true);
+
+        TransactionId tid = new TransactionId();
+        assertEquals(2, bf.getDepth(tid));
+        BTreeInternalPage root = root(bf, tid);
+        assertTrue(root.getNumEntries() + 1 > BTreeInternalPage.getMaxEntries(Type.STRING_TYPE, BufferPool.getPageSize()) + 1);
+        Iterator<BTreeEntry> it = root.iterator();
+        while (it.hasNext()) {
+            String key = ((StringField) it.next().getKey()).getValue();
+            assertTrue(key, key.startsWith("customer/") && key.length() < 20);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        String key = keys.get(1234);
+        DbFileIterator found = bf.indexIterator(tid, new IndexPredicate(Op.EQUALS, new StringField(key, Type.STRING_LEN)));
+        found.open();
+        assertTrue(found.hasNext());
+        assertEquals(key, ((StringField) found.next().getField(1)).getValue());
+        found.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Keys of very different lengths on small pages, so that the internal
+     * pages split, merge and pass keys of different lengths through their
+     * parents as tuples are deleted.
+     */
+    @Test public void insertsAndDeletes() throws Exception {
+        BufferPool.setPageSize(1024);
+        Database.reset();
+        Database.resetBufferPool(500);
+        BTreeFile bf = emptyBTreeFile();
+        Random rand = new Random(21);
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 4000; i++) {
+            keys.add(String.format("%0" + (4 + rand.nextInt(60)) + "d", rand.nextInt(100000)));
+        }
+        insert(bf, keys);
+        checkContents(bf, keys, true);
+        TransactionId tid = new TransactionId();
+        assertTrue(bf.getDepth(tid) >= 3);
+        Database.getBufferPool().transactionComplete(tid);
+
+        Collections.shuffle(keys, rand);
+        List<String> remaining = new ArrayList<>(keys);
+        for (int i = 0; i < 3600; i++) {
+            String key = remaining.remove(remaining.size() - 1);
+            tid = new TransactionId();
+            DbFileIterator it = bf.indexIterator(tid, new IndexPredicate(Op.EQUALS, new StringField(key, Type.STRING_LEN)));
+            it.open();
+            Database.getBufferPool().deleteTuple(tid, it.next());
+            it.close();
+            Database.getBufferPool().transactionComplete(tid);
+            if (i % 900 == 899) {
+                checkContents(bf, remaining, true);
+            }
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BTreeStringKeyTest.class);
+    }
+}
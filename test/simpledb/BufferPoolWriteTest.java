@@ -1,8 +1,6 @@
 package simpledb;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
@@ -42,11 +40,8 @@ public class BufferPoolWriteTest extends TestUtil.CreateHeapFile {
     		List<Page> dirtypages = new ArrayList<>();
     		for(int i = 0; i < duplicates; i++) {
     			// create a blank page
-    			BufferedOutputStream bw = new BufferedOutputStream(new FileOutputStream(super.getFile(), true));
-                byte[] emptyData = HeapPage.createEmptyPageData();
-                bw.write(emptyData);
-                bw.close();
-    			HeapPage p = new HeapPage(new HeapPageId(super.getId(), super.numPages() - 1),
+    			int pageNumber = super.appendEmptyPage();
+    			HeapPage p = new HeapPage(new HeapPageId(super.getId(), pageNumber),
     					HeapPage.createEmptyPageData());
     	        p.insertTuple(t);
     			dirtypages.add(p);
@@ -140,6 +135,43 @@ public class BufferPoolWriteTest extends TestUtil.CreateHeapFile {
     	assertEquals(10, count);
     }
 
+    /**
+     * Unit test for BufferPool.transactionComplete(): the locks of the
+     * transaction are released even on pages evicted since they were locked.
+     */
+    @Test public void releaseLocksOfEvictedPages() throws Exception {
+    	HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504*3, null, null);
+    	BufferPool bp = Database.resetBufferPool(2);
+    	for (int i = 0; i < 3; i++) {
+    		bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+    	}
+    	assertEquals(1, bp.getEvictionCount());
+
+    	bp.transactionComplete(tid);
+    	for (int i = 0; i < 3; i++) {
+    		assertFalse(bp.holdsLock(tid, new HeapPageId(hf.getId(), i)));
+    	}
+    }
+
+    /**
+     * Unit test for BufferPool.transactionComplete(): committing writes back
+     * every page insertTuple dirtied, whether or not the transaction locked it.
+     */
+    @Test public void commitFlushesDirtiedPages() throws Exception {
+    	HeapFileDuplicates hfd = new HeapFileDuplicates(empty.getFile(), empty.getTupleDesc(), 3);
+    	Database.getCatalog().addTable(hfd, SystemTestUtil.getUUID());
+    	Database.getBufferPool().insertTuple(tid, hfd.getId(), Utility.getHeapTuple(1, 2));
+    	Database.getBufferPool().transactionComplete(tid);
+
+    	TransactionId tid2 = new TransactionId();
+    	for (int i = hfd.numPages() - 3; i < hfd.numPages(); i++) {
+    		Page p = Database.getBufferPool().getPage(tid2, new HeapPageId(hfd.getId(), i), Permissions.READ_ONLY);
+    		assertNull(p.isDirty());
+    		assertEquals(503, ((HeapPage) hfd.readPage(p.getId())).getNumEmptySlots());
+    	}
+    	Database.getBufferPool().transactionComplete(tid2);
+    }
+
     /**
      * JUnit suite target
      */
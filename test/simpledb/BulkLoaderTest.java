@@ -0,0 +1,167 @@
+package simpledb;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.index.BTreeFile;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BulkLoaderTest extends SimpleDbTestBase {
+
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE });
+
+    private File in;
+    private File out;
+
+    /**
+     * Set up initial resources for each unit test: chunks of a few lines,
+     * parsed by several threads.
+     */
+    @Before public void setUp() throws Exception {
+        System.setProperty(BulkLoader.CHUNK_SIZE_PROPERTY, "100");
+        System.setProperty(BulkLoader.THREADS_PROPERTY, "3");
+        in = File.createTempFile("load", ".txt");
+        in.deleteOnExit();
+        out = File.createTempFile("load", ".dat");
+        out.deleteOnExit();
+    }
+
+    @After public void tearDown() {
+        System.clearProperty(BulkLoader.CHUNK_SIZE_PROPERTY);
+        System.clearProperty(BulkLoader.THREADS_PROPERTY);
+    }
+
+    private static Tuple tuple(int id, String code, int amount) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(id));
+        t.setField(1, new StringField(code, Type.STRING_LEN));
+        t.setField(2, new IntField(amount));
+        return t;
+    }
+
+    private static List<Tuple> scan(DbFile f) throws Exception {
+        List<Tuple> list = new ArrayList<>();
+        DbFileIterator it = f.iterator(new TransactionId());
+        it.open();
+        while (it.hasNext()) {
+            list.add(it.next());
+        }
+        it.close();
+        return list;
+    }
+
+    private static void assertSameTuples(List<Tuple> expected, List<Tuple> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            for (int f = 0; f < TD.numFields(); f++) {
+                assertEquals(expected.get(i).getField(f), actual.get(i).getField(f));
+            }
+        }
+    }
+
+    /**
+     * The tuples of the input are loaded in input order onto full pages,
+     * across chunk boundaries; malformed and empty lines are skipped.
+     */
+    @Test public void load() throws Exception {
+        List<Tuple> expected = new ArrayList<>();
+        String longCode = "x".repeat(Type.STRING_LEN + 10);
+        try (FileWriter w = new FileWriter(in)) {
+            for (int i = 0; i < 1000; i++) {
+                if (i == 10) {
+                    w.write("\n");
+                    w.write("12,bad,twelve\n");
+                    w.write("13\n");
+                }
+                String code = i == 20 ? longCode : "c" + i;
+                w.write(" " + i + " ,\t" + code + ", " + (-7 * i) + (i % 3 == 0 ? "\r\n" : "\n"));
+                expected.add(tuple(i, code.substring(0, Math.min(code.length(), Type.STRING_LEN)), -7 * i));
+            }
+            // the last line needs no newline
+            w.write("1000,last,0");
+            expected.add(tuple(1000, "last", 0));
+        }
+
+        BulkLoader.Result result = new BulkLoader(TD, ',').load(in, out);
+        assertEquals(1001, result.rows);
+        assertEquals(2, result.badLines);
+
+        HeapFile hf = new HeapFile(out, TD);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        assertEquals(result.pages, hf.numPages());
+        for (int i = 0; i < hf.numPages() - 1; i++) {
+            HeapPage page = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), i));
+            assertEquals(0, page.getNumEmptySlots());
+        }
+        assertSameTuples(expected, scan(hf));
+    }
+
+    /**
+     * An empty input makes a file of one empty page.
+     */
+    @Test public void emptyInput() throws Exception {
+        BulkLoader.Result result = new BulkLoader(TD, ',').load(in, out);
+        assertEquals(0, result.rows);
+        assertEquals(1, result.pages);
+        assertEquals(BufferPool.getPageSize(), out.length());
+    }
+
+    /**
+     * Loading with an index also builds a B+ tree holding the same tuples,
+     * in key order.
+     */
+    @Test public void index() throws Exception {
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            ids.add(i % 1000);
+        }
+        Collections.shuffle(ids, new Random(7));
+        List<Tuple> expected = new ArrayList<>();
+        try (FileWriter w = new FileWriter(in)) {
+            for (int id : ids) {
+                w.write(id + ",c" + id + "," + (2 * id) + "\n");
+                expected.add(tuple(id, "c" + id, 2 * id));
+            }
+        }
+
+        File bFile = File.createTempFile("load", ".idx");
+        bFile.deleteOnExit();
+        bFile.delete();
+        BTreeFile bf = new BTreeFile(bFile, 0, TD);
+        Database.getCatalog().addTable(bf, SystemTestUtil.getUUID());
+        HeapFile hf = new HeapFile(out, TD);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+
+        BulkLoader.Result result = new BulkLoader(TD, ',').load(in, out, bf);
+        assertEquals(ids.size(), result.rows);
+        assertSameTuples(expected, scan(hf));
+
+        expected.sort((a, b) -> Integer.compare(((IntField) a.getField(0)).getValue(),
+                ((IntField) b.getField(0)).getValue()));
+        assertSameTuples(expected, scan(bf));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BulkLoaderTest.class);
+    }
+}
@@ -2,10 +2,15 @@ package simpledb;
 
 import static org.junit.Assert.assertEquals;
 
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.util.NoSuchElementException;
 import java.util.Random;
 
 import org.junit.Assert;
+import org.junit.Assume;
 import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Before;
@@ -15,6 +20,8 @@ import simpledb.TestUtil.SkeletonFile;
 import simpledb.common.Database;
 import simpledb.common.Utility;
 import simpledb.storage.DbFile;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
 import simpledb.storage.TupleDesc;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
@@ -97,6 +104,74 @@ public class CatalogTest extends SimpleDbTestBase {
     	assertEquals(f, Database.getCatalog().getDatabaseFile(id2));
     }
 
+    /**
+     * @return the number of descriptors this process holds open on a file,
+     *         or on the files kept next to it
+     */
+    private static int openDescriptors(File f) throws Exception {
+        int count = 0;
+        for (File fd : new File("/proc/self/fd").listFiles()) {
+            try {
+                if (Files.readSymbolicLink(fd.toPath()).toString().startsWith(f.getAbsolutePath())) {
+                    count++;
+                }
+            } catch (IOException e) {
+                // closed while listing
+            }
+        }
+        return count;
+    }
+
+    /**
+     * The file of a table that is replaced, or dropped by clear(), is closed.
+     */
+    @Test public void closesFiles() throws Exception {
+        Assume.assumeTrue(new File("/proc/self/fd").isDirectory());
+        File f = File.createTempFile("catalog", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + HeapFile.FREE_SPACE_MAP_SUFFIX).deleteOnExit();
+
+        HeapFile hf = Utility.createEmptyHeapFile(f.getPath(), 2);
+        hf.readPage(new HeapPageId(hf.getId(), 0));
+        Assert.assertTrue(openDescriptors(f) > 0);
+        HeapFile replacement = Utility.openHeapFile(2, f);
+        assertEquals(0, openDescriptors(f));
+
+        replacement.readPage(new HeapPageId(hf.getId(), 0));
+        Assert.assertTrue(openDescriptors(f) > 0);
+        Database.getCatalog().clear();
+        assertEquals(0, openDescriptors(f));
+    }
+
+    /**
+     * Unit test for Catalog.loadSchema() with table formats
+     */
+    @Test public void loadSchemaFormat() throws Exception {
+        File dir = Files.createTempDirectory("catalog").toFile();
+        dir.deleteOnExit();
+        File schema = new File(dir, "catalog.txt");
+        schema.deleteOnExit();
+        try (FileWriter w = new FileWriter(schema)) {
+            w.write("plain (id int pk, name string)\n");
+            w.write("codes (id int, code string) slotted\n");
+            w.write("facts (id int, amount int) PAX\n");
+            w.write("archive (id int, amount int) pax compressed\n");
+        }
+        Database.getCatalog().loadSchema(schema.getPath());
+
+        HeapFile plain = (HeapFile) Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId("plain"));
+        HeapFile codes = (HeapFile) Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId("codes"));
+        assertEquals(HeapFile.Format.FIXED, plain.getFormat());
+        assertEquals(HeapFile.Format.SLOTTED, codes.getFormat());
+        HeapFile facts = (HeapFile) Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId("facts"));
+        assertEquals(HeapFile.Format.PAX, facts.getFormat());
+        Assert.assertFalse(facts.isCompressed());
+        HeapFile archive = (HeapFile) Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId("archive"));
+        assertEquals(HeapFile.Format.PAX, archive.getFormat());
+        Assert.assertTrue(archive.isCompressed());
+        assertEquals("code", codes.getTupleDesc().getFieldName(1));
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,205 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class CompressedPageStoreTest extends SimpleDbTestBase {
+
+    private File file;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void createFile() throws IOException {
+        file = File.createTempFile("compressed", ".dat");
+        file.deleteOnExit();
+        new File(file.getPath() + CompressedPageStore.TABLE_SUFFIX).deleteOnExit();
+        new File(file.getPath() + HeapFile.FREE_SPACE_MAP_SUFFIX).deleteOnExit();
+    }
+
+    @After public void tearDown() {
+        Database.reset();
+    }
+
+    private static byte[] page(int seed, int distinct) {
+        Random rng = new Random(seed);
+        byte[] page = new byte[BufferPool.getPageSize()];
+        for (int i = 0; i < page.length; i++) {
+            page[i] = (byte) rng.nextInt(distinct);
+        }
+        return page;
+    }
+
+    /**
+     * Pages read back as written, whether they compress or not, and
+     * whether they grew out of their extent or not, also after the store
+     * is opened again.
+     */
+    @Test public void readWrite() throws Exception {
+        CompressedPageStore store = new CompressedPageStore(file);
+        assertEquals(0, store.numPages());
+        byte[][] pages = { page(0, 2), page(1, 256), new byte[BufferPool.getPageSize()] };
+        for (byte[] p : pages) {
+            store.append(p, true);
+        }
+        // the incompressible page is stored as it is
+        assertTrue(file.length() < 2 * BufferPool.getPageSize() + 256);
+
+        // a page that compresses worse moves to a new extent, a page that
+        // compresses better stays in its own
+        long size = file.length();
+        pages[0] = page(2, 16);
+        store.write(0, pages[0], true);
+        assertTrue(file.length() > size);
+        size = file.length();
+        pages[0] = page(3, 2);
+        store.write(0, pages[0], true);
+        assertEquals(size, file.length());
+        // and a page stored as it is reads the same
+        pages[2] = page(4, 2);
+        store.write(2, pages[2], false);
+
+        for (CompressedPageStore s : new CompressedPageStore[] { store, new CompressedPageStore(file) }) {
+            assertEquals(pages.length, s.numPages());
+            for (int i = 0; i < pages.length; i++) {
+                byte[] read = new byte[BufferPool.getPageSize()];
+                s.read(i, read);
+                assertArrayEquals(pages[i], read);
+            }
+            s.close();
+        }
+
+        CompressedPageStore.Stats stats = store.getStats(BufferPool.getPageSize());
+        assertEquals(3, stats.numPages);
+        assertEquals(6, stats.pagesWritten);
+        assertEquals(3, stats.pagesRead);
+    }
+
+    /**
+     * Writing past the end adds pages never written, which read as zeroes;
+     * reading past the end fails.
+     */
+    @Test public void writePastEnd() throws Exception {
+        CompressedPageStore store = new CompressedPageStore(file);
+        byte[] p = page(0, 4);
+        store.write(3, p, true);
+        assertEquals(4, store.numPages());
+        byte[] read = page(1, 256);
+        store.read(1, read);
+        assertArrayEquals(new byte[read.length], read);
+        store.read(3, read);
+        assertArrayEquals(p, read);
+        try {
+            store.read(4, read);
+            fail("expected EOFException");
+        } catch (java.io.EOFException e) {
+            // explicitly ignored
+        }
+        store.close();
+    }
+
+    /**
+     * A damaged page is reported rather than returned.
+     */
+    @Test public void corruptPage() throws Exception {
+        CompressedPageStore store = new CompressedPageStore(file);
+        store.append(page(0, 2), true);
+        store.close();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(10);
+            raf.write(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+        }
+        try {
+            new CompressedPageStore(file).read(0, new byte[BufferPool.getPageSize()]);
+            fail("expected IOException");
+        } catch (IOException e) {
+            // explicitly ignored
+        }
+    }
+
+    /**
+     * A compressed heap file takes far less room than the plain one, and
+     * can be scanned and updated through the BufferPool.
+     */
+    @Test public void heapFile() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        File plain = SystemTestUtil.createRandomHeapFileUnopened(2, 5000, 100, null, tuples);
+        HeapFileEncoder.compress(plain, file, BufferPool.getPageSize());
+        HeapFile hf = new HeapFile(file, Utility.getTupleDesc(2), HeapFile.Format.FIXED, false, true);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        assertTrue(hf.isCompressed());
+        assertEquals(plain.length() / BufferPool.getPageSize(), hf.numPages());
+        assertTrue(hf.getCompressionStats().compressionRatio() > 2);
+
+        SystemTestUtil.matchTuples(hf, tuples);
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { -1, -2 }));
+        Database.getBufferPool().transactionComplete(tid);
+        tuples.add(Arrays.asList(-1, -2));
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(hf, tuples);
+        assertTrue(hf.getCompressionStats().pagesWritten > 0);
+    }
+
+    /**
+     * A compressed B+ tree grows through inserts, and only its leaves are
+     * compressed.
+     */
+    @Test public void bTreeFile() throws Exception {
+        file.delete();
+        BTreeFile bf = new BTreeFile(file, 0, Utility.getTupleDesc(2), true);
+        Database.getCatalog().addTable(bf, SystemTestUtil.getUUID());
+        TransactionId tid = new TransactionId();
+        int rows = 4 * BTreeUtility.getNumTuplesPerPage(2);
+        for (int i = 0; i < rows; i++) {
+            Database.getBufferPool().insertTuple(tid, bf.getId(), BTreeUtility.getBTreeTuple(new int[] { i % 500, 7 }));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        tid = new TransactionId();
+        DbFileIterator it = bf.indexIterator(tid, new IndexPredicate(Op.EQUALS, new IntField(42)));
+        it.open();
+        int found = 0;
+        while (it.hasNext()) {
+            assertEquals(new IntField(42), it.next().getField(0));
+            found++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals((rows - 42 + 499) / 500, found);
+        assertTrue(bf.numPages() > 4);
+        assertTrue(bf.getCompressionStats().compressionRatio() > 1.5);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompressedPageStoreTest.class);
+    }
+}
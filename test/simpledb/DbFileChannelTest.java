@@ -0,0 +1,147 @@
+package simpledb;
+
+import java.io.EOFException;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import simpledb.storage.DbFileChannel;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class DbFileChannelTest extends SimpleDbTestBase {
+
+    private static File tempFile() throws Exception {
+        File f = File.createTempFile("channel", ".dat");
+        f.deleteOnExit();
+        return f;
+    }
+
+    private static byte[] filled(int length, int value) {
+        byte[] data = new byte[length];
+        Arrays.fill(data, (byte) value);
+        return data;
+    }
+
+    /**
+     * Unit test for DbFileChannel positional reads, writes and appends.
+     */
+    @Test public void readWriteAppend() throws Exception {
+        File f = tempFile();
+        DbFileChannel channel = new DbFileChannel(f);
+        assertEquals(0, channel.size());
+
+        assertEquals(0, channel.append(filled(16, 1)));
+        assertEquals(16, channel.append(filled(16, 2)));
+        channel.write(filled(8, 3), 4);
+        assertEquals(32, channel.size());
+        assertEquals(32, f.length());
+
+        byte[] data = new byte[16];
+        channel.read(data, 0);
+        byte[] expected = filled(16, 1);
+        Arrays.fill(expected, 4, 12, (byte) 3);
+        assertArrayEquals(expected, data);
+
+        // writing past the end extends the file
+        channel.write(filled(16, 4), 48);
+        assertEquals(64, channel.size());
+        channel.close();
+    }
+
+    /**
+     * A read past the end of the file fails instead of returning a short page.
+     */
+    @Test(expected = EOFException.class) public void readPastEnd() throws Exception {
+        DbFileChannel channel = new DbFileChannel(tempFile());
+        channel.append(filled(16, 1));
+        channel.read(new byte[16], 8);
+    }
+
+    /**
+     * The channel reopens itself after being closed, and the size of an
+     * existing file is picked up when it is first opened.
+     */
+    @Test public void reopens() throws Exception {
+        File f = tempFile();
+        DbFileChannel channel = new DbFileChannel(f);
+        channel.append(filled(16, 1));
+        channel.close();
+
+        byte[] data = new byte[16];
+        channel.read(data, 0);
+        assertArrayEquals(filled(16, 1), data);
+        assertEquals(16, new DbFileChannel(f).size());
+    }
+
+    /**
+     * Checking whether the file exists does not create it; writing does.
+     */
+    @Test public void existsDoesNotCreate() throws Exception {
+        File f = tempFile();
+        f.delete();
+        DbFileChannel channel = new DbFileChannel(f);
+        assertFalse(channel.exists());
+        assertFalse(f.exists());
+
+        channel.write(filled(16, 1), 0);
+        assertTrue(channel.exists());
+        channel.close();
+        assertTrue(new DbFileChannel(f).exists());
+    }
+
+    /**
+     * An interrupted thread still completes its I/O and keeps its interrupt.
+     */
+    @Test public void survivesInterrupt() throws Exception {
+        DbFileChannel channel = new DbFileChannel(tempFile());
+        channel.append(filled(16, 1));
+
+        Thread.currentThread().interrupt();
+        try {
+            channel.write(filled(16, 2), 0);
+            assertTrue(Thread.currentThread().isInterrupted());
+        } finally {
+            Thread.interrupted();
+        }
+        byte[] data = new byte[16];
+        channel.read(data, 0);
+        assertArrayEquals(filled(16, 2), data);
+    }
+
+    /**
+     * Mapped views show the file, including later writes; pages appended
+     * after the file was mapped are left to positional reads.
+     */
+    @Test public void mapped() throws Exception {
+        DbFileChannel channel = new DbFileChannel(tempFile());
+        channel.append(filled(16, 1));
+        channel.append(filled(16, 2));
+
+        ByteBuffer view = channel.mapped(16, 16);
+        byte[] data = new byte[16];
+        view.get(data);
+        assertArrayEquals(filled(16, 2), data);
+        assertTrue(view.isReadOnly());
+
+        channel.write(filled(16, 3), 16);
+        channel.mapped(16, 16).get(data);
+        assertArrayEquals(filled(16, 3), data);
+
+        channel.append(filled(16, 4));
+        assertNull(channel.mapped(32, 16));
+        channel.read(data, 32);
+        assertArrayEquals(filled(16, 4), data);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(DbFileChannelTest.class);
+    }
+}
@@ -0,0 +1,121 @@
+package simpledb;
+
+import java.io.File;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class FreeSpaceMapTest extends SimpleDbTestBase {
+
+    private static File tempFile() throws Exception {
+        File f = File.createTempFile("fsm", HeapFile.FREE_SPACE_MAP_SUFFIX);
+        f.deleteOnExit();
+        return f;
+    }
+
+    /**
+     * Only a page without any room is full.
+     */
+    @Test public void category() {
+        assertEquals(FreeSpaceMap.FULL, FreeSpaceMap.category(0, 504));
+        assertEquals(1, FreeSpaceMap.category(1, 504));
+        assertEquals(FreeSpaceMap.MAX_CATEGORY, FreeSpaceMap.category(504, 504));
+    }
+
+    /**
+     * findPage skips full pages and comes back to pages that get room.
+     */
+    @Test public void findPage() throws Exception {
+        FreeSpaceMap fsm = new FreeSpaceMap(tempFile());
+        assertEquals(-1, fsm.findPage(1, 0));
+        fsm.grow(4);
+        assertEquals(0, fsm.findPage(1, 0));
+
+        for (int i = 0; i < 3; i++) {
+            fsm.update(i, FreeSpaceMap.FULL);
+        }
+        assertEquals(3, fsm.findPage(1, 0));
+        fsm.update(3, 10);
+        assertEquals(-1, fsm.findPage(11, 0));
+        assertEquals(-1, fsm.findPage(1, 4));
+
+        fsm.update(1, 1);
+        assertEquals(1, fsm.findPage(1, 0));
+        assertEquals(3, fsm.findPage(1, 2));
+
+        // pages the map did not cover are taken to be empty
+        fsm.grow(6);
+        assertEquals(FreeSpaceMap.MAX_CATEGORY, fsm.getCategory(5));
+        assertEquals(-1, fsm.getCategory(6));
+    }
+
+    /**
+     * Saved categories survive reopening the map; unsaved ones, and pages
+     * beyond the saved map, read as empty.
+     */
+    @Test public void saveAndLoad() throws Exception {
+        File f = tempFile();
+        FreeSpaceMap fsm = new FreeSpaceMap(f);
+        fsm.grow(8);
+        fsm.save(1, FreeSpaceMap.FULL);
+        fsm.save(3, 7);
+        fsm.update(4, FreeSpaceMap.FULL);
+
+        FreeSpaceMap reopened = new FreeSpaceMap(f);
+        reopened.grow(10);
+        assertEquals(FreeSpaceMap.MAX_CATEGORY, reopened.getCategory(0));
+        assertEquals(FreeSpaceMap.FULL, reopened.getCategory(1));
+        assertEquals(7, reopened.getCategory(3));
+        assertEquals(FreeSpaceMap.MAX_CATEGORY, reopened.getCategory(4));
+        assertEquals(FreeSpaceMap.MAX_CATEGORY, reopened.getCategory(9));
+    }
+
+    /**
+     * An insert goes to a page a delete made room on, without fetching the
+     * full pages before it.
+     */
+    @Test public void insertUsesFreedSlot() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 4, null, null);
+        TransactionId tid = new TransactionId();
+        BufferPool bp = Database.getBufferPool();
+
+        // fill the table: the map learns that all four pages are full
+        bp.insertTuple(tid, hf.getId(), Utility.getHeapTuple(1, 2));
+        assertEquals(5, hf.numPages());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(FreeSpaceMap.FULL, hf.getFreeSpaceMap().getCategory(i));
+        }
+
+        // free a slot on page 2
+        HeapPage page = (HeapPage) bp.getPage(tid, new HeapPageId(hf.getId(), 2), Permissions.READ_WRITE);
+        Tuple victim = page.iterator().next();
+        bp.deleteTuple(tid, victim);
+        bp.transactionComplete(tid);
+
+        tid = new TransactionId();
+        bp.resetStats();
+        Tuple t = Utility.getHeapTuple(7, 2);
+        bp.insertTuple(tid, hf.getId(), t);
+        assertEquals(2, t.getRecordId().getPageId().getPageNumber());
+        // a read and then a write lock on page 2, and nothing else
+        assertEquals(2, bp.getHitCount() + bp.getMissCount());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FreeSpaceMapTest.class);
+    }
+}
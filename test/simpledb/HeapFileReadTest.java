@@ -81,6 +81,30 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         assertFalse(page.isSlotUsed(20));
     }
 
+    /**
+     * Unit test for HeapFile.readPage() on a memory-mapped HeapFile, which
+     * reads the same pages as the positional path, including pages appended
+     * after the file was mapped.
+     */
+    @Test
+    public void readPageMapped() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile file = SystemTestUtil.createRandomHeapFile(2, 504 * 3, null, tuples);
+        HeapFile mapped = new HeapFile(file.getFile(), td, true);
+        Database.getCatalog().addTable(mapped, SystemTestUtil.getUUID());
+        assertTrue(mapped.isMemoryMapped());
+
+        for (int i = 0; i < 3; i++) {
+            HeapPageId pid = new HeapPageId(mapped.getId(), i);
+            assertArrayEquals(file.readPage(pid).getPageData(), mapped.readPage(pid).getPageData());
+        }
+        SystemTestUtil.matchTuples(mapped, tuples);
+
+        int pageNumber = mapped.appendEmptyPage();
+        HeapPage page = (HeapPage) mapped.readPage(new HeapPageId(mapped.getId(), pageNumber));
+        assertEquals(504, page.getNumEmptySlots());
+    }
+
     @Test
     public void testIteratorBasic() throws Exception {
         HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null,
@@ -2,6 +2,7 @@ package simpledb;
 
 import simpledb.TestUtil.SkeletonFile;
 import simpledb.common.Database;
+import simpledb.common.Type;
 import simpledb.common.Utility;
 import simpledb.storage.*;
 import simpledb.systemtest.SimpleDbTestBase;
@@ -13,6 +14,7 @@ import java.util.*;
 
 import org.junit.Before;
 import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
@@ -123,6 +125,47 @@ public class HeapPageReadTest extends SimpleDbTestBase {
             assertFalse(page.isSlotUsed(i));
     }
 
+    /**
+     * Tuples read with the page keep their location, and writing an
+     * unchanged page gives back the bytes it was read from.
+     */
+    @Test public void unchangedPageData() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        Iterator<Tuple> it = page.iterator();
+        for (int slot = 0; it.hasNext(); slot++) {
+            assertEquals(new RecordId(pid, slot), it.next().getRecordId());
+        }
+        assertArrayEquals(EXAMPLE_DATA, page.getPageData());
+    }
+
+    /**
+     * Fields of every type are decoded from the page data when asked for.
+     */
+    @Test public void decodeFields() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE });
+        HeapPageId stringPid = new HeapPageId(-2, 0);
+        Database.getCatalog().addTable(new SkeletonFile(-2, td), SystemTestUtil.getUUID());
+
+        HeapPage page = new HeapPage(stringPid, HeapPage.createEmptyPageData());
+        for (int i = 0; i < 3; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(i));
+            t.setField(1, new StringField("row" + i, Type.STRING_LEN));
+            t.setField(2, new IntField(-i));
+            page.insertTuple(t);
+        }
+
+        page = new HeapPage(stringPid, page.getPageData());
+        Iterator<Tuple> it = page.iterator();
+        for (int i = 0; i < 3; i++) {
+            Tuple t = it.next();
+            assertEquals(new IntField(-i), t.getField(2));
+            assertEquals(new StringField("row" + i, Type.STRING_LEN), t.getField(1));
+            assertEquals(i + "\trow" + i + "\t" + (-i), t.toString());
+        }
+        assertFalse(it.hasNext());
+    }
+
     /**
      * JUnit suite target
      */
@@ -14,6 +14,7 @@ import simpledb.common.DbException;
 import simpledb.common.Utility;
 import simpledb.storage.HeapPage;
 import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
 import simpledb.storage.Tuple;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
@@ -131,6 +132,46 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * The page data of a changed page holds the tuples left on the page and
+     * those inserted, while its before-image keeps the page as it was read
+     * until setBeforeImage is called.
+     */
+    @Test public void pageDataAfterChanges() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        Iterator<Tuple> it = page.iterator();
+        it.next();
+        page.deleteTuple(it.next());
+        page.insertTuple(Utility.getHeapTuple(-7, 2));
+        page.insertTuple(Utility.getHeapTuple(-8, 2));
+
+        HeapPage reread = new HeapPage(pid, page.getPageData());
+        assertArrayEquals(page.getPageData(), reread.getPageData());
+        assertEquals(page.getNumEmptySlots(), reread.getNumEmptySlots());
+        it = reread.iterator();
+        int[] expected = { exampleValue(0), -7, exampleValue(2), exampleValue(3) };
+        for (int value : expected) {
+            assertEquals(new IntField(value), it.next().getField(0));
+        }
+        assertEquals(new IntField(-8), lastTuple(reread).getField(1));
+
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, page.getBeforeImage().getPageData());
+        page.setBeforeImage();
+        assertArrayEquals(page.getPageData(), page.getBeforeImage().getPageData());
+    }
+
+    private static int exampleValue(int row) {
+        return HeapPageReadTest.EXAMPLE_VALUES[row][0];
+    }
+
+    private static Tuple lastTuple(HeapPage page) {
+        Tuple last = null;
+        for (Iterator<Tuple> it = page.iterator(); it.hasNext(); ) {
+            last = it.next();
+        }
+        return last;
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,185 @@
+package simpledb;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PageChecksumsTest extends SimpleDbTestBase {
+
+    private File file;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void enable() throws Exception {
+        System.setProperty(PageChecksums.ENABLED_PROPERTY, "true");
+        file = File.createTempFile("checked", ".dat");
+        file.deleteOnExit();
+        new File(file.getPath() + PageChecksums.SUFFIX).deleteOnExit();
+        new File(file.getPath() + HeapFile.FREE_SPACE_MAP_SUFFIX).deleteOnExit();
+    }
+
+    @After public void disable() {
+        System.clearProperty(PageChecksums.ENABLED_PROPERTY);
+        Database.reset();
+    }
+
+    private static void damage(File f, long position) throws Exception {
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            raf.seek(position);
+            int b = raf.read();
+            raf.seek(position);
+            raf.write(b ^ 0x10);
+        }
+    }
+
+    /**
+     * A page matches the checksum of the image last recorded for it, or of
+     * the one before, which is what is on disk after a crash between
+     * saving the checksum and writing the page.
+     */
+    @Test public void recordAndCheck() throws Exception {
+        PageChecksums checksums = new PageChecksums(file);
+        byte[] page = new byte[BufferPool.getPageSize()];
+        assertEquals(PageChecksums.Status.UNRECORDED, checksums.check(0, ByteBuffer.wrap(page)));
+
+        Arrays.fill(page, (byte) 1);
+        checksums.record(1, page, 0, page.length);
+        byte[] before = page.clone();
+        page[7] = 2;
+        checksums.record(1, page, 0, page.length);
+
+        for (PageChecksums c : new PageChecksums[] { checksums, new PageChecksums(file) }) {
+            assertEquals(PageChecksums.Status.UNRECORDED, c.check(0, ByteBuffer.wrap(page)));
+            assertEquals(PageChecksums.Status.VALID, c.check(1, ByteBuffer.wrap(page)));
+            assertEquals(PageChecksums.Status.VALID, c.check(1, ByteBuffer.wrap(before)));
+            byte[] torn = page.clone();
+            torn[100] = 3;
+            assertEquals(PageChecksums.Status.CORRUPT, c.check(1, ByteBuffer.wrap(torn)));
+        }
+    }
+
+    /**
+     * A heap page damaged on disk is refused by readPage and reported by
+     * verifyChecksums; the other pages read as before.
+     */
+    @Test public void heapFile() throws Exception {
+        File plain = SystemTestUtil.createRandomHeapFileUnopened(2, 2000, 1000, null, null);
+        Files.copy(plain.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        HeapFile hf = new HeapFile(file, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        // pages written before checksums were turned on are not verified
+        PageChecksums.Report report = hf.verifyChecksums();
+        assertEquals(hf.numPages(), report.unrecorded);
+
+        for (int i = 0; i < hf.numPages(); i++) {
+            hf.writePage(hf.readPage(new HeapPageId(hf.getId(), i)));
+        }
+        int appended = hf.appendEmptyPage();
+        report = hf.verifyChecksums();
+        assertEquals(hf.numPages(), report.valid);
+
+        damage(file, BufferPool.getPageSize() + 100);
+        try {
+            hf.readPage(new HeapPageId(hf.getId(), 1));
+            fail("expected a checksum mismatch");
+        } catch (IllegalArgumentException e) {
+            // explicitly ignored
+        }
+        hf.readPage(new HeapPageId(hf.getId(), 0));
+        hf.readPage(new HeapPageId(hf.getId(), appended));
+        assertEquals(Collections.singletonList(1), hf.verifyChecksums().corrupt);
+    }
+
+    /**
+     * The pages of a B+ tree, root pointer page included, are checksummed
+     * as they are written.
+     */
+    @Test public void bTreeFile() throws Exception {
+        file.delete();
+        BTreeFile bf = new BTreeFile(file, 0, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(bf, SystemTestUtil.getUUID());
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 2 * BTreeUtility.getNumTuplesPerPage(2); i++) {
+            Database.getBufferPool().insertTuple(tid, bf.getId(), BTreeUtility.getBTreeTuple(i, 2));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        PageChecksums.Report report = bf.verifyChecksums();
+        assertEquals(bf.numPages() + 1, report.valid);
+        assertTrue(report.corrupt.isEmpty());
+
+        // the root pointer page comes first in the file
+        damage(file, 2);
+        assertEquals(Collections.singletonList(0), bf.verifyChecksums().corrupt);
+    }
+
+    /**
+     * Converting to the path of an existing heap file drops the checksums
+     * and free-space map of the old file, so the new one reads back.
+     */
+    @Test public void convertOverExistingFile() throws Exception {
+        HeapFileEncoder.convert(tuples(2000, 0), file, BufferPool.getPageSize(), 2);
+        HeapFile hf = Utility.openHeapFile(2, file);
+        for (int i = 0; i < hf.numPages(); i++) {
+            hf.writePage(hf.readPage(new HeapPageId(hf.getId(), i)));
+        }
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(-1, 2));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(hf.numPages(), hf.verifyChecksums().valid);
+        assertTrue(new File(file.getPath() + HeapFile.FREE_SPACE_MAP_SUFFIX).exists());
+
+        Database.reset();
+        HeapFileEncoder.convert(tuples(5000, 1), file, BufferPool.getPageSize(), 2);
+        assertFalse(new File(file.getPath() + PageChecksums.SUFFIX).exists());
+        assertFalse(new File(file.getPath() + HeapFile.FREE_SPACE_MAP_SUFFIX).exists());
+        hf = Utility.openHeapFile(2, file);
+        DbFileIterator it = hf.iterator(new TransactionId());
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            assertEquals(1, ((IntField) it.next().getField(1)).getValue());
+            count++;
+        }
+        it.close();
+        assertEquals(5000, count);
+    }
+
+    private static List<List<Integer>> tuples(int count, int value) {
+        List<List<Integer>> tuples = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            tuples.add(Arrays.asList(i, value));
+        }
+        return tuples;
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageChecksumsTest.class);
+    }
+}
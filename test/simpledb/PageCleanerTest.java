@@ -0,0 +1,146 @@
+package simpledb;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.Transaction;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PageCleanerTest extends SimpleDbTestBase {
+
+    private HeapFile hf;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        System.setProperty(BufferPool.STEAL_NO_FORCE_PROPERTY, "true");
+        super.setUp();
+        bp = Database.resetBufferPool(20);
+        File file = File.createTempFile("cleaner", ".dat");
+        file.deleteOnExit();
+        new File(file.getPath() + HeapFile.FREE_SPACE_MAP_SUFFIX).deleteOnExit();
+        hf = Utility.createEmptyHeapFile(file.getAbsolutePath(), 2);
+    }
+
+    @After public void tearDown() {
+        bp.stopPageCleaner();
+        System.clearProperty(BufferPool.STEAL_NO_FORCE_PROPERTY);
+    }
+
+    private Transaction insertPages(int pages) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        for (int i = 0; i < 504 * pages; i++) {
+            bp.insertTuple(t.getId(), hf.getId(), Utility.getHeapTuple(i, 2));
+        }
+        return t;
+    }
+
+    private void waitForRounds(PageCleaner cleaner, int rounds) throws InterruptedException {
+        long target = cleaner.getRounds() + rounds;
+        for (int i = 0; i < 200 && cleaner.getRounds() < target; i++) {
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * The cleaner writes back committed pages until the target is met.
+     */
+    @Test public void cleansCommittedPages() throws Exception {
+        insertPages(10).commit();
+        assertEquals(10, bp.getDirtyPageCount());
+
+        PageCleaner cleaner = new PageCleaner(bp, 1.0, 10000);
+        bp.startPageCleaner(cleaner);
+        waitForRounds(cleaner, 3);
+
+        assertEquals(0, bp.getDirtyPageCount());
+        assertEquals(10, cleaner.getPagesWritten());
+        for (int i = 0; i < 10; i++) {
+            HeapPage onDisk = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), i));
+            assertEquals(0, onDisk.getNumEmptySlots());
+        }
+    }
+
+    /**
+     * Pages locked by a running transaction are left alone.
+     */
+    @Test public void skipsLockedPages() throws Exception {
+        Transaction t = insertPages(4);
+        PageCleaner cleaner = new PageCleaner(bp, 1.0, 10000);
+        bp.startPageCleaner(cleaner);
+        waitForRounds(cleaner, 3);
+
+        assertEquals(0, cleaner.getPagesWritten());
+        assertEquals(4, bp.getDirtyPageCount());
+        t.commit();
+    }
+
+    /**
+     * The cleaner stops once the target fraction of clean frames is reached.
+     */
+    @Test public void stopsAtTarget() throws Exception {
+        insertPages(10).commit();
+        PageCleaner cleaner = new PageCleaner(bp, 0.75, 10000);
+        bp.startPageCleaner(cleaner);
+        waitForRounds(cleaner, 3);
+
+        // 20 frames, at most a quarter of them dirty
+        assertEquals(5, bp.getDirtyPageCount());
+        assertEquals(5, cleaner.getPagesWritten());
+    }
+
+    /**
+     * Pages committed but not yet waited for by logCommit have their records
+     * only in the log buffer; the cleaner forces the log past them before it
+     * writes the pages.
+     */
+    @Test public void forcesLogBeforeWriting() throws Exception {
+        Transaction t = insertPages(4);
+        // what Transaction.commit does before it waits for the commit record
+        bp.transactionComplete(t.getId(), true);
+        LogFile log = Database.getLogFile();
+        assertTrue(log.getDurableLsn() < log.getCurrentLsn());
+
+        PageCleaner cleaner = new PageCleaner(bp, 1.0, 10000);
+        bp.startPageCleaner(cleaner);
+        waitForRounds(cleaner, 1);
+        bp.stopPageCleaner();
+        assertEquals(4, cleaner.getPagesWritten());
+
+        Transaction reader = new Transaction();
+        reader.start();
+        for (int i = 0; i < 4; i++) {
+            Page page = bp.getPage(reader.getId(), new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+            assertNull(page.isDirty());
+            assertTrue(page.getLsn() > 0);
+            assertTrue(page.getLsn() <= log.getDurableLsn());
+        }
+        reader.commit();
+    }
+
+    /**
+     * A NO STEAL pool cannot be cleaned in the background.
+     */
+    @Test(expected = IllegalStateException.class) public void noSteal() throws Exception {
+        System.clearProperty(BufferPool.STEAL_NO_FORCE_PROPERTY);
+        BufferPool noSteal = Database.resetBufferPool(20);
+        noSteal.startPageCleaner(new PageCleaner(noSteal, 0.5, 100));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageCleanerTest.class);
+    }
+}
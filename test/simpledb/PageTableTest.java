@@ -0,0 +1,87 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.index.BTreePageId;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.PageTable;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import static org.junit.Assert.*;
+
+public class PageTableTest extends SimpleDbTestBase {
+
+    /**
+     * Unit test for PageTable.put() and PageTable.get()
+     */
+    @Test public void putGet() {
+        PageTable table = new PageTable(4);
+        table.put(new HeapPageId(1, 0), 2);
+        table.put(new HeapPageId(1, 1), 3);
+        assertEquals(2, table.size());
+        assertEquals(2, table.get(new HeapPageId(1, 0)));
+        assertEquals(3, table.get(new HeapPageId(1, 1)));
+        assertEquals(-1, table.get(new HeapPageId(2, 0)));
+
+        // a second put replaces the mapping
+        table.put(new HeapPageId(1, 0), 0);
+        assertEquals(2, table.size());
+        assertEquals(0, table.get(new HeapPageId(1, 0)));
+    }
+
+    /**
+     * Pages are keyed by table, page number and category, not by hashCode.
+     */
+    @Test public void exactIdentity() {
+        PageTable table = new PageTable(4);
+        HeapPageId heap = new HeapPageId(1, 1);
+        BTreePageId leaf = new BTreePageId(1, 1, BTreePageId.LEAF);
+        BTreePageId internal = new BTreePageId(1, 1, BTreePageId.INTERNAL);
+        table.put(heap, 0);
+        table.put(leaf, 1);
+        table.put(internal, 2);
+        assertEquals(0, table.get(heap));
+        assertEquals(1, table.get(leaf));
+        assertEquals(2, table.get(internal));
+        assertEquals(-1, table.get(new BTreePageId(1, 1, BTreePageId.HEADER)));
+    }
+
+    /**
+     * Removing entries keeps every other entry reachable.
+     */
+    @Test public void removeKeepsProbeRuns() {
+        int n = 500;
+        PageTable table = new PageTable(n);
+        for (int i = 0; i < n; i++) {
+            table.put(new HeapPageId(i % 7, i), i);
+        }
+        for (int i = 0; i < n; i += 3) {
+            assertEquals(i, table.remove(new HeapPageId(i % 7, i)));
+        }
+        assertEquals(-1, table.remove(new HeapPageId(0, 0)));
+        for (int i = 0; i < n; i++) {
+            int expected = i % 3 == 0 ? -1 : i;
+            assertEquals(expected, table.get(new HeapPageId(i % 7, i)));
+        }
+        assertEquals(n - (n + 2) / 3, table.size());
+    }
+
+    /**
+     * The table refuses more entries than it was sized for.
+     */
+    @Test(expected = IllegalStateException.class) public void full() {
+        PageTable table = new PageTable(2);
+        for (int i = 0; i < 10; i++) {
+            table.put(new HeapPageId(1, i), i);
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageTableTest.class);
+    }
+}
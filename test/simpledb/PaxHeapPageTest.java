@@ -0,0 +1,206 @@
+package simpledb;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PaxHeapPageTest extends SimpleDbTestBase {
+
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE });
+
+    private HeapPageId pid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void addTable() {
+        this.pid = new HeapPageId(-4, 0);
+        Database.getCatalog().addTable(new SkeletonFile(-4, TD), SystemTestUtil.getUUID());
+    }
+
+    private static Tuple tuple(int id, String code, int amount) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(id));
+        t.setField(1, new StringField(code, Type.STRING_LEN));
+        t.setField(2, new IntField(amount));
+        return t;
+    }
+
+    private static List<Tuple> tuples(HeapFilePage page) {
+        List<Tuple> list = new ArrayList<>();
+        for (Iterator<Tuple> it = page.iterator(); it.hasNext(); ) {
+            list.add(it.next());
+        }
+        return list;
+    }
+
+    private static List<Tuple> scan(HeapFile hf, TransactionId tid) throws Exception {
+        List<Tuple> list = new ArrayList<>();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            list.add(it.next());
+        }
+        it.close();
+        return list;
+    }
+
+    private static void assertTuple(int id, String code, int amount, Tuple t) {
+        assertEquals(new IntField(id), t.getField(0));
+        assertEquals(new StringField(code, Type.STRING_LEN), t.getField(1));
+        assertEquals(new IntField(amount), t.getField(2));
+    }
+
+    /**
+     * A page converted from the fixed-slot format holds the same tuples in
+     * the same slots, with the values of each field next to each other.
+     */
+    @Test public void fromRows() throws Exception {
+        HeapPage rows = new HeapPage(pid, HeapPage.createEmptyPageData());
+        int n = rows.getNumEmptySlots();
+        for (int i = 0; i < n; i++) {
+            rows.insertTuple(tuple(i, "c" + i, 10 * i));
+        }
+        // leave every other slot empty
+        for (Tuple t : tuples(rows)) {
+            if (t.getRecordId().getTupleNumber() % 2 == 1) {
+                rows.deleteTuple(t);
+            }
+        }
+        byte[] data = PaxHeapPage.fromRows(rows.getPageData(), TD);
+        PaxHeapPage pax = new PaxHeapPage(pid, data);
+        assertEquals(rows.getNumEmptySlots(), pax.getNumEmptySlots());
+
+        List<Tuple> read = tuples(pax);
+        assertEquals((n + 1) / 2, read.size());
+        for (Tuple t : read) {
+            int slot = t.getRecordId().getTupleNumber();
+            assertTuple(slot, "c" + slot, 10 * slot, t);
+        }
+
+        // the amounts are a run of ints after the ids and the codes
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        int header = (n + 7) / 8;
+        int amounts = header + n * (Type.INT_TYPE.getLen() + Type.STRING_TYPE.getLen());
+        for (int slot = 0; slot < n; slot += 2) {
+            assertEquals(slot, buf.getInt(header + 4 * slot));
+            assertEquals(10 * slot, buf.getInt(amounts + 4 * slot));
+        }
+    }
+
+    /**
+     * Inserts and deletes are written back column by column, as the same
+     * changes on a fixed-slot page converted afterwards.
+     */
+    @Test public void insertAndDelete() throws Exception {
+        HeapPage rows = new HeapPage(pid, HeapPage.createEmptyPageData());
+        int n = rows.getNumEmptySlots();
+        for (int i = 0; i < n / 2; i++) {
+            rows.insertTuple(tuple(i, "c" + i, -i));
+        }
+        PaxHeapPage pax = new PaxHeapPage(pid, PaxHeapPage.fromRows(rows.getPageData(), TD));
+        rows = new HeapPage(pid, rows.getPageData());
+
+        for (HeapPage page : new HeapPage[] { rows, pax }) {
+            List<Tuple> read = tuples(page);
+            for (int i = 0; i < read.size(); i += 3) {
+                page.deleteTuple(read.get(i));
+            }
+            for (int i = 0; page.getNumEmptySlots() > 0; i++) {
+                page.insertTuple(tuple(1000 + i, "new" + i, i));
+            }
+        }
+        assertArrayEquals(PaxHeapPage.fromRows(rows.getPageData(), TD), pax.getPageData());
+
+        PaxHeapPage reread = new PaxHeapPage(pid, pax.getPageData());
+        List<Tuple> expected = tuples(rows);
+        List<Tuple> actual = tuples(reread);
+        assertEquals(n, actual.size());
+        for (int i = 0; i < n; i++) {
+            assertEquals(expected.get(i).toString(), actual.get(i).toString());
+        }
+    }
+
+    /**
+     * The before-image of a PAX page is a PAX page.
+     */
+    @Test public void beforeImage() throws Exception {
+        PaxHeapPage page = new PaxHeapPage(pid, HeapPage.createEmptyPageData());
+        page.insertTuple(tuple(1, "one", 1));
+        page.setBeforeImage();
+        byte[] committed = page.getPageData();
+
+        page.insertTuple(tuple(2, "two", 2));
+        HeapPage before = page.getBeforeImage();
+        assertTrue(before instanceof PaxHeapPage);
+        assertArrayEquals(committed, before.getPageData());
+        assertEquals(1, tuples(before).size());
+        assertTuple(1, "one", 1, tuples(before).get(0));
+    }
+
+    /**
+     * A PAX table written by HeapFileEncoder can be read and updated
+     * through the BufferPool.
+     */
+    @Test public void heapFile() throws Exception {
+        File text = File.createTempFile("facts", ".txt");
+        text.deleteOnExit();
+        int rows = 2000;
+        try (FileWriter w = new FileWriter(text)) {
+            for (int i = 0; i < rows; i++) {
+                w.write(i + ",code" + i + "," + (i % 7) + "\n");
+            }
+        }
+        File data = File.createTempFile("facts", ".dat");
+        data.deleteOnExit();
+        new File(data.getPath() + HeapFile.FREE_SPACE_MAP_SUFFIX).deleteOnExit();
+        HeapFileEncoder.convert(text, data, BufferPool.getPageSize(), 3,
+                new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE }, ',', HeapFile.Format.PAX);
+
+        HeapFile hf = new HeapFile(data, TD, HeapFile.Format.PAX);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+
+        TransactionId tid = new TransactionId();
+        BufferPool bp = Database.getBufferPool();
+        List<Tuple> scanned = scan(hf, tid);
+        assertEquals(rows, scanned.size());
+        for (int i = 0; i < rows; i++) {
+            assertTuple(i, "code" + i, i % 7, scanned.get(i));
+        }
+
+        bp.deleteTuple(tid, scanned.get(0));
+        bp.insertTuple(tid, hf.getId(), tuple(-1, "new", -1));
+        bp.transactionComplete(tid);
+
+        tid = new TransactionId();
+        scanned = scan(hf, tid);
+        assertEquals(rows, scanned.size());
+        assertTuple(-1, "new", -1, scanned.get(0));
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PaxHeapPageTest.class);
+    }
+}
@@ -0,0 +1,109 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ReadAheadTest extends SimpleDbTestBase {
+
+    private static List<PageId> pages(int tableId, int first, int end) {
+        List<PageId> pids = new ArrayList<PageId>();
+        for (int i = first; i < end; i++) {
+            pids.add(new HeapPageId(tableId, i));
+        }
+        return pids;
+    }
+
+    /**
+     * Unit test for ReadAhead: requests start once the scan is sequential,
+     * stay ahead of it and stop at the end of the file.
+     */
+    @Test public void requestsWindows() {
+        List<List<PageId>> requests = new ArrayList<List<PageId>>();
+        ReadAhead readAhead = new ReadAhead(8, pgNo -> new HeapPageId(1, pgNo), requests::add);
+
+        readAhead.access(0, 20);
+        assertTrue(requests.isEmpty());
+        readAhead.access(1, 20);
+        assertEquals(List.of(pages(1, 2, 10)), requests);
+
+        // no new request until the scan is within half a window of page 10
+        for (int i = 2; i < 6; i++) {
+            readAhead.access(i, 20);
+        }
+        assertEquals(1, requests.size());
+        readAhead.access(6, 20);
+        assertEquals(pages(1, 10, 15), requests.get(1));
+
+        // a jump ends the run
+        readAhead.access(17, 20);
+        assertEquals(2, requests.size());
+        readAhead.access(18, 20);
+        assertEquals(pages(1, 19, 20), requests.get(2));
+        readAhead.access(19, 20);
+        assertEquals(3, requests.size());
+    }
+
+    /**
+     * A window of 0 never requests anything.
+     */
+    @Test public void disabled() {
+        List<List<PageId>> requests = new ArrayList<List<PageId>>();
+        ReadAhead readAhead = new ReadAhead(0, pgNo -> new HeapPageId(1, pgNo), requests::add);
+        for (int i = 0; i < 10; i++) {
+            readAhead.access(i, 10);
+        }
+        assertTrue(requests.isEmpty());
+    }
+
+    /**
+     * Pages read ahead are served from the pool without a miss.
+     */
+    @Test public void prefetchedPagesHit() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 8, null, null);
+        BufferPool bp = Database.resetBufferPool(32);
+        bp.prefetch(pages(hf.getId(), 0, 8));
+        long deadline = System.currentTimeMillis() + 10000;
+        while (bp.getPrefetchCount() < 8 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(8, bp.getPrefetchCount());
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 8; i++) {
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        }
+        assertEquals(8, bp.getHitCount());
+        assertEquals(0, bp.getMissCount());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * A scan with read-ahead returns every tuple exactly once, even when the
+     * file is much larger than the pool.
+     */
+    @Test public void scanLargerThanPool() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<List<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 40, null, tuples);
+        Database.resetBufferPool(16);
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReadAheadTest.class);
+    }
+}
@@ -0,0 +1,133 @@
+package simpledb;
+
+import java.util.function.IntPredicate;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ReplacementPolicyTest extends SimpleDbTestBase {
+
+    private static final IntPredicate ANY = frame -> true;
+
+    private static PageId page(int pgNo) {
+        return new HeapPageId(1, pgNo);
+    }
+
+    /**
+     * Unit test for ClockPolicy: a referenced page gets a second chance.
+     */
+    @Test public void clockSecondChance() {
+        ReplacementPolicy policy = new ClockPolicy(4);
+        for (int i = 0; i < 4; i++) {
+            policy.recordAdmit(i, page(i));
+        }
+        policy.recordAccess(0);
+        assertEquals(1, policy.chooseVictim(ANY));
+        policy.recordEvict(1);
+
+        // the freed frame is reused by the next admission
+        policy.recordAdmit(1, page(4));
+        assertEquals(2, policy.chooseVictim(ANY));
+    }
+
+    /**
+     * Unit test for LruKPolicy: pages referenced fewer than K times go first.
+     */
+    @Test public void lruKPrefersSingleReferences() {
+        ReplacementPolicy policy = new LruKPolicy(4, 2);
+        policy.recordAdmit(0, page(0));
+        policy.recordAccess(0);
+        for (int i = 1; i < 4; i++) {
+            policy.recordAdmit(i, page(i));
+        }
+        assertEquals(1, policy.chooseVictim(ANY));
+        policy.recordEvict(1);
+        assertEquals(2, policy.chooseVictim(ANY));
+        policy.recordEvict(2);
+        assertEquals(3, policy.chooseVictim(ANY));
+        policy.recordEvict(3);
+        assertEquals(0, policy.chooseVictim(ANY));
+    }
+
+    /**
+     * Unit test for TwoQueuePolicy: a long scan does not push out a hot page.
+     */
+    @Test public void twoQueueScanResistance() {
+        ReplacementPolicy policy = new TwoQueuePolicy(4);
+
+        // page 0 is read, evicted and read again: it is promoted to Am
+        policy.recordAdmit(0, page(0));
+        policy.recordEvict(0);
+        policy.recordAdmit(0, page(0));
+
+        // scan pages 1..99 through the three remaining frames
+        int free = 3;
+        for (int i = 1; i < 100; i++) {
+            int frame;
+            if (free > 0) {
+                frame = free--;
+            } else {
+                frame = policy.chooseVictim(ANY);
+                assertNotEquals(0, frame);
+                policy.recordEvict(frame);
+            }
+            policy.recordAdmit(frame, page(i));
+        }
+    }
+
+    /**
+     * All policies must skip pages the buffer pool cannot evict.
+     */
+    @Test public void victimMustBeEvictable() {
+        for (String name : new String[] { "clock", "lruk", "2q" }) {
+            ReplacementPolicy policy = ReplacementPolicy.create(name, 4);
+            for (int i = 0; i < 4; i++) {
+                policy.recordAdmit(i, page(i));
+            }
+            assertEquals(name, 3, policy.chooseVictim(frame -> frame == 3));
+            assertEquals(name, -1, policy.chooseVictim(frame -> false));
+
+            policy.recordDiscard(3);
+            assertEquals(name, -1, policy.chooseVictim(frame -> frame == 3));
+        }
+    }
+
+    /**
+     * Unit test for the BufferPool hit, miss and eviction counters.
+     */
+    @Test public void bufferPoolStats() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 3, null, null);
+        BufferPool bp = Database.resetBufferPool(2);
+        TransactionId tid = new TransactionId();
+
+        bp.getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY);
+        bp.getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY);
+        bp.getPage(tid, new HeapPageId(hf.getId(), 1), Permissions.READ_ONLY);
+        bp.getPage(tid, new HeapPageId(hf.getId(), 2), Permissions.READ_ONLY);
+
+        assertEquals(1, bp.getHitCount());
+        assertEquals(3, bp.getMissCount());
+        assertEquals(1, bp.getEvictionCount());
+        assertEquals(0.25, bp.getHitRate(), 1e-9);
+
+        bp.resetStats();
+        assertEquals(0, bp.getMissCount());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
@@ -0,0 +1,132 @@
+package simpledb;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.LockManager;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ShardedBufferPoolTest extends SimpleDbTestBase {
+
+    private static final int PAGES = 12;
+
+    private HeapFile hf;
+    private BufferPool bp;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hf = SystemTestUtil.createRandomHeapFile(2, 504 * PAGES, null, null);
+        bp = new BufferPool(2 * PAGES, 4);
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() {
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Every page is cached once, in whichever shard it hashes to.
+     */
+    @Test public void getPage() throws Exception {
+        assertEquals(4, bp.getNumShards());
+        Page[] pages = new Page[PAGES];
+        for (int i = 0; i < PAGES; i++) {
+            pages[i] = bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        }
+        for (int i = 0; i < PAGES; i++) {
+            assertSame(pages[i], bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY));
+        }
+        assertEquals(PAGES, bp.getHitCount());
+        assertEquals(PAGES, bp.getMissCount());
+        assertEquals(0, bp.getEvictionCount());
+    }
+
+    /**
+     * flushAllPages writes back the dirty pages of all shards.
+     */
+    @Test public void flushAllPages() throws Exception {
+        Page[] pages = new Page[PAGES];
+        for (int i = 0; i < PAGES; i++) {
+            pages[i] = bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_WRITE);
+            pages[i].markDirty(true, tid);
+        }
+        bp.flushAllPages();
+        for (Page page : pages) {
+            assertNull(page.isDirty());
+        }
+    }
+
+    /**
+     * The shards share the frames of the pool: under NO STEAL, pages may be
+     * dirtied until the whole pool is dirty, whichever shards they hash to,
+     * and the last clean frame takes every page read after them.
+     */
+    @Test public void dirtyPagesFillPool() throws Exception {
+        int dirty = PAGES / 2 - 1;
+        bp = new BufferPool(dirty + 1, 4);
+        for (int i = 0; i < dirty; i++) {
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_WRITE).markDirty(true, tid);
+        }
+        for (int round = 0; round < 2; round++) {
+            for (int i = dirty; i < PAGES; i++) {
+                bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+            }
+        }
+        assertEquals(2 * (PAGES - dirty) - 1, bp.getEvictionCount());
+        bp.getPage(tid, new HeapPageId(hf.getId(), dirty), Permissions.READ_WRITE).markDirty(true, tid);
+        try {
+            bp.getPage(tid, new HeapPageId(hf.getId(), PAGES - 1), Permissions.READ_ONLY);
+            fail("a pool full of dirty pages should not take another page");
+        } catch (DbException e) {
+            // expected
+        }
+    }
+
+    /**
+     * The lock table is striped like the shards: locking a page only takes
+     * the latch of its own stripe.
+     */
+    @Test public void lockStripes() throws Exception {
+        LockManager lockManager = bp.getLockManager();
+        HeapPageId held = new HeapPageId(hf.getId(), 0);
+        HeapPageId other = null;
+        for (int i = 1; other == null && i < PAGES; i++) {
+            HeapPageId pid = new HeapPageId(hf.getId(), i);
+            if (lockManager.latch(pid) != lockManager.latch(held)) {
+                other = pid;
+            }
+        }
+        assertNotNull(other);
+        HeapPageId pid = other;
+        Thread locker = new Thread(() -> {
+            try {
+                bp.getPage(tid, pid, Permissions.READ_WRITE);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        synchronized (lockManager.latch(held)) {
+            locker.start();
+            locker.join(10000);
+            assertFalse(locker.isAlive());
+        }
+        assertTrue(bp.holdsLock(tid, pid));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ShardedBufferPoolTest.class);
+    }
+}
@@ -0,0 +1,215 @@
+package simpledb;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class SlottedHeapPageTest extends SimpleDbTestBase {
+
+    private static final TupleDesc TD = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+
+    private HeapPageId pid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void addTable() {
+        this.pid = new HeapPageId(-3, 0);
+        Database.getCatalog().addTable(new SkeletonFile(-3, TD), SystemTestUtil.getUUID());
+    }
+
+    private static Tuple tuple(int id, String code) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(id));
+        t.setField(1, new StringField(code, Type.STRING_LEN));
+        return t;
+    }
+
+    private static List<Tuple> tuples(HeapFilePage page) {
+        List<Tuple> list = new ArrayList<>();
+        for (Iterator<Tuple> it = page.iterator(); it.hasNext(); ) {
+            list.add(it.next());
+        }
+        return list;
+    }
+
+    private static List<Tuple> scan(HeapFile hf, TransactionId tid) throws Exception {
+        List<Tuple> list = new ArrayList<>();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            list.add(it.next());
+        }
+        it.close();
+        return list;
+    }
+
+    private static void assertTuple(int id, String code, Tuple t) {
+        assertEquals(new IntField(id), t.getField(0));
+        assertEquals(new StringField(code, Type.STRING_LEN), t.getField(1));
+    }
+
+    /**
+     * An all-zero page is empty, and short records take far less room than
+     * fixed-size slots.
+     */
+    @Test public void insertUntilFull() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        assertTrue(tuples(page).isEmpty());
+        assertEquals(SlottedHeapPage.getCapacity(BufferPool.getPageSize()), page.getFreeSpace());
+        assertEquals(FreeSpaceMap.MAX_CATEGORY, page.getFreeSpaceCategory());
+
+        int n = 0;
+        while (page.hasRoomFor(tuple(n, "c" + n))) {
+            Tuple t = tuple(n, "c" + n);
+            page.insertTuple(t);
+            assertEquals(new RecordId(pid, n), t.getRecordId());
+            n++;
+        }
+        int fixedSlots = BufferPool.getPageSize() * 8 / (TD.getSize() * 8 + 1);
+        assertTrue(n > 5 * fixedSlots);
+        try {
+            page.insertTuple(tuple(n, "c" + n));
+            fail("page should be full; expected DbException");
+        } catch (DbException e) {
+            // explicitly ignored
+        }
+
+        SlottedHeapPage reread = new SlottedHeapPage(pid, page.getPageData());
+        List<Tuple> read = tuples(reread);
+        assertEquals(n, read.size());
+        for (int i = 0; i < n; i++) {
+            assertTuple(i, "c" + i, read.get(i));
+            assertEquals(new RecordId(pid, i), read.get(i).getRecordId());
+        }
+    }
+
+    /**
+     * Deleted records leave holes that a later insert gets back by
+     * compacting the page, without moving any tuple to another slot.
+     */
+    @Test public void deleteAndCompact() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        List<Tuple> inserted = new ArrayList<>();
+        for (int i = 0; page.hasRoomFor(tuple(i, "abcdefghij")); i++) {
+            Tuple t = tuple(i, "abcdefghij");
+            page.insertTuple(t);
+            inserted.add(t);
+        }
+        // free every other record: the free space is now in holes
+        for (int i = 0; i < inserted.size(); i += 2) {
+            page.deleteTuple(inserted.get(i));
+        }
+        String big = "x".repeat(Type.STRING_LEN);
+        Tuple t = tuple(-1, big);
+        assertTrue(page.hasRoomFor(t));
+        page.insertTuple(t);
+        assertEquals(new RecordId(pid, 0), t.getRecordId());
+
+        SlottedHeapPage reread = new SlottedHeapPage(pid, page.getPageData());
+        for (Tuple read : tuples(reread)) {
+            int slot = read.getRecordId().getTupleNumber();
+            if (slot == 0) {
+                assertTuple(-1, big, read);
+            } else {
+                assertEquals(1, slot % 2);
+                assertTuple(slot, "abcdefghij", read);
+            }
+        }
+        assertEquals(page.getFreeSpace(), reread.getFreeSpace());
+
+        try {
+            page.deleteTuple(inserted.get(2));
+            fail("slot should be empty; expected DbException");
+        } catch (DbException e) {
+            // explicitly ignored
+        }
+    }
+
+    /**
+     * The before-image keeps the page as it was read until setBeforeImage.
+     */
+    @Test public void beforeImage() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        page.insertTuple(tuple(1, "one"));
+        page.setBeforeImage();
+        byte[] committed = page.getPageData();
+
+        page.insertTuple(tuple(2, "two"));
+        assertArrayEquals(committed, page.getBeforeImage().getPageData());
+        assertEquals(2, tuples(page).size());
+        page.setBeforeImage();
+        assertArrayEquals(page.getPageData(), page.getBeforeImage().getPageData());
+    }
+
+    /**
+     * A slotted table written by HeapFileEncoder can be read and updated
+     * through the BufferPool.
+     */
+    @Test public void heapFile() throws Exception {
+        File text = File.createTempFile("codes", ".txt");
+        text.deleteOnExit();
+        int rows = 2000;
+        try (FileWriter w = new FileWriter(text)) {
+            for (int i = 0; i < rows; i++) {
+                w.write(i + ",code" + i + "\n");
+            }
+        }
+        File data = File.createTempFile("codes", ".dat");
+        data.deleteOnExit();
+        new File(data.getPath() + HeapFile.FREE_SPACE_MAP_SUFFIX).deleteOnExit();
+        HeapFileEncoder.convert(text, data, BufferPool.getPageSize(), 2,
+                new Type[] { Type.INT_TYPE, Type.STRING_TYPE }, ',', HeapFile.Format.SLOTTED);
+
+        HeapFile hf = new HeapFile(data, TD, HeapFile.Format.SLOTTED);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        int fixedSlots = BufferPool.getPageSize() * 8 / (TD.getSize() * 8 + 1);
+        assertTrue(hf.numPages() * 5 < rows / fixedSlots);
+
+        TransactionId tid = new TransactionId();
+        BufferPool bp = Database.getBufferPool();
+        List<Tuple> scanned = scan(hf, tid);
+        assertEquals(rows, scanned.size());
+        for (int i = 0; i < rows; i++) {
+            assertTuple(i, "code" + i, scanned.get(i));
+        }
+
+        // a delete makes room for a longer record on the same page
+        Tuple victim = scanned.get(rows / 2);
+        bp.deleteTuple(tid, victim);
+        Tuple longer = tuple(-1, "code" + (rows / 2) + "x");
+        bp.insertTuple(tid, hf.getId(), longer);
+        assertEquals(victim.getRecordId().getPageId(), longer.getRecordId().getPageId());
+        bp.transactionComplete(tid);
+
+        tid = new TransactionId();
+        scanned = scan(hf, tid);
+        assertEquals(rows, scanned.size());
+        assertTrue(scanned.stream().anyMatch(t -> t.getField(0).equals(new IntField(-1))));
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedHeapPageTest.class);
+    }
+}
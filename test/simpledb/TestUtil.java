@@ -378,6 +378,7 @@ public class TestUtil {
                 throw new RuntimeException(e);
             }
             emptyFile.deleteOnExit();
+            new File(emptyFile.getPath() + HeapFile.FREE_SPACE_MAP_SUFFIX).deleteOnExit();
         }
 
         protected void setUp() throws Exception {
@@ -0,0 +1,102 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Compares inserting tuples into an empty B+ tree one at a time with
+ * {@link simpledb.storage.BufferPool#insertTuple} and a batch at a time with
+ * {@link simpledb.storage.BufferPool#insertTuples}, one transaction per
+ * batch either way, for ascending and for random keys. Reports tuples per
+ * second and the size of the tree.
+ * <p>
+ * Usage: <code>ant runbench -Dbench=BTreeBatchInsertBenchmark [-Dargs="rows batch"]</code>
+ */
+public class BTreeBatchInsertBenchmark {
+
+    private static final int BUFFER_POOL_PAGES = 1000;
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int batch = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        Database.resetBufferPool(BUFFER_POOL_PAGES);
+
+        List<Tuple> ascending = new ArrayList<>();
+        List<Tuple> random = new ArrayList<>();
+        Random rand = new Random(42);
+        for (int i = 0; i < rows; i++) {
+            ascending.add(BTreeUtility.getBTreeTuple(i, 2));
+            random.add(BTreeUtility.getBTreeTuple(rand.nextInt(Integer.MAX_VALUE), 2));
+        }
+
+        System.out.printf("%d rows, %d per transaction%n", rows, batch);
+        System.out.printf("%10s %12s %14s %8s%n", "keys", "method", "rows/s", "pages");
+        for (int round = 0; round < 2; round++) {
+            // the first round warms up the JIT
+            for (boolean batched : new boolean[] { false, true }) {
+                run(round, "ascending", ascending, batch, batched);
+                run(round, "random", random, batch, batched);
+            }
+        }
+    }
+
+    private static void run(int round, String keys, List<Tuple> tuples, int batch, boolean batched)
+            throws Exception {
+        BTreeFile bf = emptyBTreeFile();
+        long start = System.nanoTime();
+        for (int i = 0; i < tuples.size(); i += batch) {
+            List<Tuple> part = tuples.subList(i, Math.min(tuples.size(), i + batch));
+            TransactionId tid = new TransactionId();
+            if (batched) {
+                Database.getBufferPool().insertTuples(tid, bf.getId(), copy(part));
+            } else {
+                for (Tuple t : part) {
+                    Database.getBufferPool().insertTuple(tid, bf.getId(), copy(t));
+                }
+            }
+            Database.getBufferPool().transactionComplete(tid);
+        }
+        Database.getBufferPool().flushAllPages();
+        if (round == 1) {
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%10s %12s %14.0f %8d%n", keys, batched ? "insertTuples" : "insertTuple",
+                    tuples.size() / seconds, bf.numPages());
+        }
+    }
+
+    /** a fresh tuple, since inserting a tuple sets its record id */
+    private static Tuple copy(Tuple t) {
+        Tuple c = new Tuple(t.getTupleDesc());
+        for (int i = 0; i < t.getTupleDesc().numFields(); i++) {
+            c.setField(i, t.getField(i));
+        }
+        return c;
+    }
+
+    private static List<Tuple> copy(List<Tuple> tuples) {
+        List<Tuple> c = new ArrayList<>(tuples.size());
+        for (Tuple t : tuples) {
+            c.add(copy(t));
+        }
+        return c;
+    }
+
+    private static BTreeFile emptyBTreeFile() throws Exception {
+        File f = File.createTempFile("batch", ".dat");
+        f.deleteOnExit();
+        f.delete();
+        BTreeFile bf = new BTreeFile(f, 0, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(bf, SystemTestUtil.getUUID());
+        return bf;
+    }
+}
@@ -0,0 +1,83 @@
+package simpledb.benchmark;
+
+import java.io.File;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.index.BTreeBuilder;
+import simpledb.index.BTreeFile;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Compares two ways of building a B+ tree on an existing heap file of
+ * random tuples: inserting the tuples one at a time through the
+ * BufferPool, committing every hundred inserts, and building the tree bottom
+ * up with a {@link BTreeBuilder}, for a few fill factors. Reports tuples
+ * per second and the size of the tree.
+ * <p>
+ * Usage: <code>ant runbench -Dbench=BTreeBuildBenchmark [-Dargs="rows"]</code>
+ */
+public class BTreeBuildBenchmark {
+
+    /** inserts per transaction, few enough for the pages they dirty to fit in the BufferPool */
+    private static final int BATCH = 100;
+
+    private static final int BUFFER_POOL_PAGES = 1000;
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        Database.resetBufferPool(BUFFER_POOL_PAGES);
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, rows, Integer.MAX_VALUE, null, null);
+
+        System.out.printf("%d rows%n", rows);
+        System.out.printf("%16s %14s %8s%n", "method", "rows/s", "pages");
+        for (int round = 0; round < 2; round++) {
+            // the first round warms up the JIT and the page cache
+            BTreeFile bf = emptyBTreeFile();
+            long start = System.nanoTime();
+            DbFileIterator it = hf.iterator(new TransactionId());
+            it.open();
+            int n = 0;
+            TransactionId tid = new TransactionId();
+            while (it.hasNext()) {
+                Database.getBufferPool().insertTuple(tid, bf.getId(), it.next());
+                if (++n % BATCH == 0) {
+                    Database.getBufferPool().transactionComplete(tid);
+                    tid = new TransactionId();
+                }
+            }
+            it.close();
+            Database.getBufferPool().transactionComplete(tid);
+            Database.getBufferPool().flushAllPages();
+            report(round, "insertTuple", rows, start, bf);
+
+            for (double fillFactor : new double[] { 1, 0.9, 0.7 }) {
+                bf = emptyBTreeFile();
+                start = System.nanoTime();
+                tid = new TransactionId();
+                new BTreeBuilder(bf, fillFactor).build(tid, hf);
+                Database.getBufferPool().transactionComplete(tid);
+                report(round, "builder " + fillFactor, rows, start, bf);
+            }
+        }
+    }
+
+    private static BTreeFile emptyBTreeFile() throws Exception {
+        File f = File.createTempFile("built", ".dat");
+        f.deleteOnExit();
+        f.delete();
+        BTreeFile bf = new BTreeFile(f, 0, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(bf, SystemTestUtil.getUUID());
+        return bf;
+    }
+
+    private static void report(int round, String method, int rows, long start, BTreeFile bf) {
+        if (round == 1) {
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%16s %14.0f %8d%n", method, rows / seconds, bf.numPages());
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.index.*;
+import simpledb.storage.*;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Builds a B+ tree on string keys that share a long prefix, as URLs or path
+ * names do, once by inserting the tuples in batches and once bottom up with
+ * a {@link BTreeBuilder}, and looks up random keys in each. Reports the
+ * depth of the tree, the number of internal pages and their average fan-out
+ * next to the fan-out of a page of keys stored at the full length of the
+ * type, and lookups per second with the pages each lookup reads.
+ * <p>
+ * Usage: <code>ant runbench -Dbench=BTreeStringKeyBenchmark [-Dargs="rows lookups"]</code>
+ */
+public class BTreeStringKeyBenchmark {
+
+    private static final int BUFFER_POOL_PAGES = 1000;
+
+    /** tuples inserted per transaction */
+    private static final int BATCH = 500;
+
+    private static final TupleDesc TD = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+        int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+        Database.resetBufferPool(BUFFER_POOL_PAGES);
+
+        Random rand = new Random(42);
+        List<String> keys = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            StringBuilder key = new StringBuilder("https://www.example.com/customers/");
+            for (int j = 0; j < 24; j++) {
+                key.append((char) ('a' + rand.nextInt(26)));
+            }
+            keys.add(key.toString());
+        }
+
+        List<Tuple> tuples = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            Tuple t = new Tuple(TD);
+            t.setField(0, new IntField(i));
+            t.setField(1, new StringField(keys.get(i), Type.STRING_LEN));
+            tuples.add(t);
+        }
+
+        // inserted in random order, the leaves split and copy up short separators
+        BTreeFile inserted = emptyBTreeFile();
+        long start = System.nanoTime();
+        for (int i = 0; i < rows; i += BATCH) {
+            TransactionId tid = new TransactionId();
+            Database.getBufferPool().insertTuples(tid, inserted.getId(), copy(tuples.subList(i, Math.min(rows, i + BATCH))));
+            Database.getBufferPool().transactionComplete(tid);
+        }
+        Database.getBufferPool().flushAllPages();
+        report("insertTuples", inserted, start, keys, lookups, rand);
+
+        // built bottom up, the internal pages are laid out for keys of full length
+        BTreeFile built = emptyBTreeFile();
+        start = System.nanoTime();
+        BTreeBuilder builder = new BTreeBuilder(built);
+        for (Tuple t : tuples) {
+            builder.add(copy(t));
+        }
+        builder.finish();
+        report("BTreeBuilder", built, start, keys, lookups, rand);
+    }
+
+    private static void report(String method, BTreeFile bf, long start, List<String> keys, int lookups, Random rand)
+            throws Exception {
+        double buildSeconds = (System.nanoTime() - start) / 1e9;
+        TransactionId tid = new TransactionId();
+        int internalPages = 0;
+        long children = 0;
+        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(tid,
+                BTreeRootPtrPage.getId(bf.getId()), Permissions.READ_ONLY);
+        Deque<BTreePageId> pending = new ArrayDeque<>();
+        pending.add(rootPtr.getRootId());
+        while (!pending.isEmpty()) {
+            BTreePageId pid = pending.remove();
+            if (pid.pgcateg() != BTreePageId.INTERNAL) {
+                continue;
+            }
+            BTreeInternalPage page = (BTreeInternalPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+            internalPages++;
+            Iterator<BTreeEntry> it = page.iterator();
+            BTreeEntry e = it.next();
+            pending.add(e.getLeftChild());
+            pending.add(e.getRightChild());
+            children += 2;
+            while (it.hasNext()) {
+                pending.add(it.next().getRightChild());
+                children++;
+            }
+        }
+        int depth = bf.getDepth(tid);
+        Database.getBufferPool().transactionComplete(tid);
+
+        System.out.printf("%s: %d rows in %.2f s, %d pages%n", method, keys.size(), buildSeconds, bf.numPages());
+        System.out.printf("  depth %d, %d internal pages, average fan-out %.1f (full-length keys: %d)%n",
+                depth, internalPages, (double) children / internalPages,
+                BTreeInternalPage.getMaxEntries(Type.STRING_TYPE, BufferPool.getPageSize()) + 1);
+
+        for (int round = 0; round < 2; round++) {
+            // the first round warms up the JIT and the BufferPool
+            long pages = Database.getBufferPool().getHitCount() + Database.getBufferPool().getMissCount();
+            start = System.nanoTime();
+            tid = new TransactionId();
+            for (int i = 0; i < lookups; i++) {
+                String key = keys.get(rand.nextInt(keys.size()));
+                DbFileIterator it = bf.indexIterator(tid,
+                        new IndexPredicate(Op.EQUALS, new StringField(key, Type.STRING_LEN)));
+                it.open();
+                if (!it.hasNext()) {
+                    throw new IllegalStateException("key not found: " + key);
+                }
+                it.next();
+                it.close();
+            }
+            Database.getBufferPool().transactionComplete(tid);
+            if (round == 1) {
+                double seconds = (System.nanoTime() - start) / 1e9;
+                pages = Database.getBufferPool().getHitCount() + Database.getBufferPool().getMissCount() - pages;
+                System.out.printf("  %.0f lookups/s, %.2f pages per lookup%n", lookups / seconds,
+                        (double) pages / lookups);
+            }
+        }
+    }
+
+    /** a fresh tuple, since inserting a tuple sets its record id */
+    private static Tuple copy(Tuple t) {
+        Tuple c = new Tuple(t.getTupleDesc());
+        for (int i = 0; i < t.getTupleDesc().numFields(); i++) {
+            c.setField(i, t.getField(i));
+        }
+        return c;
+    }
+
+    private static List<Tuple> copy(List<Tuple> tuples) {
+        List<Tuple> c = new ArrayList<>(tuples.size());
+        for (Tuple t : tuples) {
+            c.add(copy(t));
+        }
+        return c;
+    }
+
+    private static BTreeFile emptyBTreeFile() throws Exception {
+        File f = File.createTempFile("strings", ".dat");
+        f.deleteOnExit();
+        f.delete();
+        BTreeFile bf = new BTreeFile(f, 1, TD);
+        Database.getCatalog().addTable(bf, SystemTestUtil.getUUID());
+        return bf;
+    }
+}
@@ -0,0 +1,95 @@
+package simpledb.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Measures getPage throughput of the BufferPool as the number of threads
+ * grows, for an unsharded and a sharded pool.
+ * <p>
+ * Every thread runs short read-only transactions that each fetch a few
+ * random pages of a table that fits in the pool, so after warm-up every
+ * request is a hit and the benchmark measures the cost of latching and
+ * locking rather than I/O.
+ * <p>
+ * Usage: <code>ant runbench -Dbench=BufferPoolBenchmark
+ * [-Dargs="pages maxThreads shards seconds"]</code>
+ */
+public class BufferPoolBenchmark {
+
+    private static final int PAGES_PER_TRANSACTION = 8;
+
+    public static void main(String[] args) throws Exception {
+        int cores = Runtime.getRuntime().availableProcessors();
+        int numPages = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Math.min(cores, 32);
+        int numShards = args.length > 2 ? Integer.parseInt(args[2]) : cores;
+        int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 2;
+
+        HeapFile file = SystemTestUtil.createRandomHeapFile(2, 504 * numPages, null, null);
+
+        System.out.printf("%d pages, %d cores%n", numPages, cores);
+        System.out.printf("%8s %8s %16s%n", "shards", "threads", "getPage/s");
+        for (int shards : new int[] { 1, numShards }) {
+            System.setProperty(BufferPool.SHARDS_PROPERTY, Integer.toString(shards));
+            for (int threads = 1; threads <= maxThreads; threads *= 2) {
+                BufferPool pool = Database.resetBufferPool(numPages);
+                run(pool, file, 1, seconds / 2.0); // warm-up, reads the table in
+                double rate = run(pool, file, threads, seconds);
+                System.out.printf("%8d %8d %16.0f%n", pool.getNumShards(), threads, rate);
+            }
+        }
+        System.clearProperty(BufferPool.SHARDS_PROPERTY);
+    }
+
+    /** @return getPage calls per second over all threads */
+    private static double run(BufferPool pool, HeapFile file, int threads, double seconds)
+            throws InterruptedException {
+        AtomicBoolean stop = new AtomicBoolean(false);
+        LongAdder calls = new LongAdder();
+        List<Thread> workers = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            long seed = t;
+            Thread worker = new Thread(() -> {
+                Random random = new Random(seed);
+                int numPages = file.numPages();
+                try {
+                    while (!stop.get()) {
+                        TransactionId tid = new TransactionId();
+                        for (int i = 0; i < PAGES_PER_TRANSACTION; i++) {
+                            HeapPageId pid = new HeapPageId(file.getId(), random.nextInt(numPages));
+                            pool.getPage(tid, pid, Permissions.READ_ONLY);
+                        }
+                        pool.transactionComplete(tid);
+                        calls.add(PAGES_PER_TRANSACTION);
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            workers.add(worker);
+        }
+
+        long start = System.nanoTime();
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        Thread.sleep((long) (seconds * 1000));
+        stop.set(true);
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return calls.sum() / ((System.nanoTime() - start) / 1e9);
+    }
+}
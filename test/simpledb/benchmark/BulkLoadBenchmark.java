@@ -0,0 +1,71 @@
+package simpledb.benchmark;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.Random;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.index.BTreeFile;
+import simpledb.storage.BulkLoader;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Reports how many rows per second a {@link BulkLoader} loads from a text
+ * file of random rows, with one worker thread and with one per processor,
+ * with and without building a B+ tree on the first column in the same
+ * pass.
+ * <p>
+ * The rows have four int columns and a string column. The input and output
+ * files are small enough to stay in the operating system's page cache, so
+ * the benchmark measures parsing and page assembly rather than the disk.
+ * <p>
+ * Usage: <code>ant runbench -Dbench=BulkLoadBenchmark [-Dargs="rows"]</code>
+ */
+public class BulkLoadBenchmark {
+
+    private static final TupleDesc TD = new TupleDesc(new Type[] {
+            Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE, Type.STRING_TYPE });
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+
+        File in = File.createTempFile("bulkload", ".txt");
+        in.deleteOnExit();
+        Random random = new Random(42);
+        try (BufferedWriter w = new BufferedWriter(new FileWriter(in), 1 << 16)) {
+            for (int i = 0; i < rows; i++) {
+                w.write(random.nextInt() + "," + random.nextInt(1000) + "," + i + ","
+                        + random.nextInt(1 << 20) + ",name" + random.nextInt(100000) + "\n");
+            }
+        }
+        File out = File.createTempFile("bulkload", ".dat");
+        out.deleteOnExit();
+        File index = File.createTempFile("bulkload", ".idx");
+        index.deleteOnExit();
+
+        int processors = Runtime.getRuntime().availableProcessors();
+        System.out.printf("%d rows, %d MB of text%n", rows, in.length() >> 20);
+        System.out.printf("%8s %8s %14s%n", "threads", "index", "rows/s");
+        for (int round = 0; round < 2; round++) {
+            // the first round warms up the JIT and the page cache
+            for (int threads : new int[] { 1, processors }) {
+                System.setProperty(BulkLoader.THREADS_PROPERTY, String.valueOf(threads));
+                for (boolean indexed : new boolean[] { false, true }) {
+                    BTreeFile bf = null;
+                    if (indexed) {
+                        index.delete();
+                        bf = new BTreeFile(index, 0, TD);
+                        Database.getCatalog().addTable(bf, SystemTestUtil.getUUID());
+                    }
+                    BulkLoader.Result result = new BulkLoader(TD, ',').load(in, out, bf);
+                    if (round == 1) {
+                        System.out.printf("%8d %8s %14.0f%n", threads, indexed, result.rowsPerSecond());
+                    }
+                }
+            }
+        }
+    }
+}
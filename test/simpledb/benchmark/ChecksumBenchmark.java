@@ -0,0 +1,97 @@
+package simpledb.benchmark;
+
+import java.io.File;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.PageChecksums;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures what verifying page checksums adds to the read path of
+ * HeapFile: readPage throughput with and without {@link PageChecksums},
+ * for positional and memory-mapped reads, and the cost of the CRC32C of a
+ * page on its own.
+ * <p>
+ * Pages are read in file order with readPage, bypassing the BufferPool.
+ * The file is small enough to stay in the operating system's page cache,
+ * so the benchmark measures CPU cost rather than the disk.
+ * <p>
+ * Usage: <code>ant runbench -Dbench=ChecksumBenchmark
+ * [-Dargs="pages seconds"]</code>
+ */
+public class ChecksumBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int numPages = args.length > 0 ? Integer.parseInt(args[0]) : 4096;
+        double seconds = args.length > 1 ? Double.parseDouble(args[1]) : 2;
+
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 504 * numPages, 1 << 16, null, null);
+        new File(f.getPath() + PageChecksums.SUFFIX).deleteOnExit();
+        HeapFile plain = new HeapFile(f, Utility.getTupleDesc(2), false);
+        HeapFile plainMapped = new HeapFile(f, Utility.getTupleDesc(2), true);
+        System.setProperty(PageChecksums.ENABLED_PROPERTY, "true");
+        HeapFile checked = new HeapFile(f, Utility.getTupleDesc(2), false);
+        HeapFile checkedMapped = new HeapFile(f, Utility.getTupleDesc(2), true);
+        System.clearProperty(PageChecksums.ENABLED_PROPERTY);
+        // all open the same file, so they share a table id
+        Database.getCatalog().addTable(plain, SystemTestUtil.getUUID());
+        // record the checksums
+        for (int i = 0; i < numPages; i++) {
+            checked.writePage(plain.readPage(new HeapPageId(plain.getId(), i)));
+        }
+
+        System.out.printf("%d pages%n", numPages);
+        System.out.printf("%12s %16s %16s%n", "path", "plain pages/s", "checked pages/s");
+        double crc = 0;
+        for (int round = 0; round < 2; round++) {
+            // the first round warms up the JIT and the page cache
+            double positional = run(plain, seconds);
+            double positionalChecked = run(checked, seconds);
+            double mapped = run(plainMapped, seconds);
+            double mappedChecked = run(checkedMapped, seconds);
+            crc = crc(seconds);
+            if (round == 1) {
+                System.out.printf("%12s %16.0f %16.0f%n", "positional", positional, positionalChecked);
+                System.out.printf("%12s %16.0f %16.0f%n", "mapped", mapped, mappedChecked);
+            }
+        }
+        System.out.printf("CRC32C of a %d-byte page: %.0f ns%n", BufferPool.getPageSize(), crc);
+    }
+
+    /** @return readPage calls per second */
+    private static double run(HeapFile file, double seconds) {
+        int numPages = file.numPages();
+        long reads = 0;
+        long start = System.nanoTime();
+        long end = start + (long) (seconds * 1e9);
+        while (System.nanoTime() < end) {
+            for (int i = 0; i < numPages; i++) {
+                file.readPage(new HeapPageId(file.getId(), i));
+            }
+            reads += numPages;
+        }
+        return reads / ((System.nanoTime() - start) / 1e9);
+    }
+
+    /** @return nanoseconds per checksum of a page */
+    private static double crc(double seconds) {
+        byte[] page = new byte[BufferPool.getPageSize()];
+        long n = 0;
+        int sink = 0;
+        long start = System.nanoTime();
+        long end = start + (long) (seconds * 1e9);
+        while (System.nanoTime() < end) {
+            for (int i = 0; i < 1000; i++) {
+                page[0] = (byte) i;
+                sink += PageChecksums.checksum(page, 0, page.length);
+            }
+            n += 1000;
+        }
+        double ns = (System.nanoTime() - start) / (double) n;
+        return sink == 42 ? ns + 1e-9 : ns;
+    }
+}
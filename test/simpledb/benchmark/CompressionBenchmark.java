@@ -0,0 +1,102 @@
+package simpledb.benchmark;
+
+import java.io.File;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.CompressedPageStore;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Page;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Reports, for a few tables, how much room their pages take compressed
+ * (see {@link CompressedPageStore}) and how fast the compressed and the
+ * plain file read and write pages.
+ * <p>
+ * The tables have the same number of int columns but values drawn from
+ * ranges of different sizes, from a low-cardinality column that
+ * compresses well to random ints that hardly compress. Pages are read with
+ * readPage and written with writePage, bypassing the BufferPool; the files
+ * are small enough to stay in the operating system's page cache, so the
+ * benchmark measures the CPU cost of compression rather than disk I/O.
+ * <p>
+ * Usage: <code>ant runbench -Dbench=CompressionBenchmark
+ * [-Dargs="pages seconds"]</code>
+ */
+public class CompressionBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int numPages = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+        double seconds = args.length > 1 ? Double.parseDouble(args[1]) : 2;
+        int columns = 4;
+        int slots = BufferPool.getPageSize() * 8 / (Utility.getTupleDesc(columns).getSize() * 8 + 1);
+
+        System.out.printf("%d pages of %d int columns%n", numPages, columns);
+        System.out.printf("%10s %8s %14s %14s %14s %14s%n", "max value", "ratio",
+                "plain read/s", "comp read/s", "plain write/s", "comp write/s");
+        for (int maxValue : new int[] { 16, 1 << 10, 1 << 20, Integer.MAX_VALUE }) {
+            File plainFile = SystemTestUtil.createRandomHeapFileUnopened(columns, slots * numPages,
+                    maxValue, null, null);
+            File compressedFile = File.createTempFile("compressed", ".dat");
+            compressedFile.deleteOnExit();
+            new File(compressedFile.getPath() + CompressedPageStore.TABLE_SUFFIX).deleteOnExit();
+            HeapFileEncoder.compress(plainFile, compressedFile, BufferPool.getPageSize());
+
+            HeapFile plain = new HeapFile(plainFile, Utility.getTupleDesc(columns));
+            HeapFile compressed = new HeapFile(compressedFile, Utility.getTupleDesc(columns),
+                    HeapFile.Format.FIXED, false, true);
+            Database.getCatalog().addTable(plain, SystemTestUtil.getUUID());
+            Database.getCatalog().addTable(compressed, SystemTestUtil.getUUID());
+
+            double[] rates = new double[4];
+            for (int round = 0; round < 2; round++) {
+                // the first round warms up the JIT and the page cache
+                rates[0] = read(plain, seconds);
+                rates[1] = read(compressed, seconds);
+                rates[2] = write(plain, seconds);
+                rates[3] = write(compressed, seconds);
+            }
+            CompressedPageStore.Stats stats = compressed.getCompressionStats();
+            System.out.printf("%10d %8.2f %14.0f %14.0f %14.0f %14.0f%n", maxValue,
+                    (double) plainFile.length() / stats.storedBytes, rates[0], rates[1], rates[2], rates[3]);
+        }
+    }
+
+    /** @return readPage calls per second, in file order */
+    private static double read(HeapFile file, double seconds) {
+        int numPages = file.numPages();
+        long reads = 0;
+        long start = System.nanoTime();
+        long end = start + (long) (seconds * 1e9);
+        while (System.nanoTime() < end) {
+            for (int i = 0; i < numPages; i++) {
+                file.readPage(new HeapPageId(file.getId(), i));
+            }
+            reads += numPages;
+        }
+        return reads / ((System.nanoTime() - start) / 1e9);
+    }
+
+    /** @return writePage calls per second, in file order, of pages read once */
+    private static double write(HeapFile file, double seconds) throws Exception {
+        int numPages = file.numPages();
+        Page[] pages = new Page[numPages];
+        for (int i = 0; i < numPages; i++) {
+            pages[i] = file.readPage(new HeapPageId(file.getId(), i));
+        }
+        long writes = 0;
+        long start = System.nanoTime();
+        long end = start + (long) (seconds * 1e9);
+        while (System.nanoTime() < end) {
+            for (Page page : pages) {
+                file.writePage(page);
+            }
+            writes += numPages;
+        }
+        return writes / ((System.nanoTime() - start) / 1e9);
+    }
+}
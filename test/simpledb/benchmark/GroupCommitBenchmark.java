@@ -0,0 +1,95 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.LogFile;
+import simpledb.transaction.Transaction;
+
+/**
+ * Measures commits per second when many threads each run short
+ * transactions, a tuple inserted into a table of their own, against a STEAL
+ * / NO FORCE buffer pool, so that a commit only waits for its log record.
+ * Reports, for several numbers of threads and group commit windows, the
+ * commits per second and the commits made durable by each force of the log.
+ * <p>
+ * Usage: <code>ant runbench -Dbench=GroupCommitBenchmark [-Dargs="seconds maxThreads"]</code>
+ */
+public class GroupCommitBenchmark {
+
+    private static final int BUFFER_POOL_PAGES = 1000;
+
+    /** group commit windows, in microseconds */
+    private static final int[] WINDOWS = { 0, 200, 1000 };
+
+    public static void main(String[] args) throws Exception {
+        double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 2;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        System.setProperty(BufferPool.STEAL_NO_FORCE_PROPERTY, "true");
+
+        // warm up the JIT
+        run(4, seconds, false);
+        System.out.printf("%8s %10s %14s %18s%n", "threads", "window", "commits/s", "commits/fsync");
+        for (int threads = 1; threads <= maxThreads; threads *= 4) {
+            for (int window : WINDOWS) {
+                System.setProperty(LogFile.GROUP_COMMIT_WINDOW_PROPERTY, Integer.toString(window));
+                run(threads, seconds, true);
+            }
+        }
+        System.clearProperty(LogFile.GROUP_COMMIT_WINDOW_PROPERTY);
+        System.clearProperty(BufferPool.STEAL_NO_FORCE_PROPERTY);
+    }
+
+    private static void run(int threads, double seconds, boolean report) throws Exception {
+        // a new log, reading the window from the system property
+        Database.reset();
+        Database.resetBufferPool(BUFFER_POOL_PAGES);
+        HeapFile[] files = new HeapFile[threads];
+        for (int i = 0; i < threads; i++) {
+            File f = File.createTempFile("group", ".dat");
+            f.deleteOnExit();
+            new File(f.getPath() + HeapFile.FREE_SPACE_MAP_SUFFIX).deleteOnExit();
+            files[i] = Utility.createEmptyHeapFile(f.getAbsolutePath(), 2);
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        long end = System.nanoTime() + (long) (seconds * 1e9);
+        List<Future<Long>> done = new ArrayList<>();
+        long start = System.nanoTime();
+        for (HeapFile hf : files) {
+            done.add(pool.submit(() -> {
+                long commits = 0;
+                while (System.nanoTime() < end) {
+                    Transaction t = new Transaction();
+                    t.start();
+                    Database.getBufferPool().insertTuple(t.getId(), hf.getId(), Utility.getHeapTuple((int) commits, 2));
+                    t.commit();
+                    commits++;
+                }
+                return commits;
+            }));
+        }
+        long commits = 0;
+        for (Future<Long> f : done) {
+            commits += f.get();
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        pool.shutdown();
+
+        if (!report) {
+            return;
+        }
+        LogFile log = Database.getLogFile();
+        System.out.printf("%8d %8dus %14.0f %18.1f%n", threads,
+                Long.getLong(LogFile.GROUP_COMMIT_WINDOW_PROPERTY, 0), commits / elapsed,
+                log.getCommitsPerGroupForce());
+    }
+}
@@ -0,0 +1,68 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.util.Random;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Compares the read paths of HeapFile: positional reads into an array
+ * against pages decoded straight from a memory mapping of the file.
+ * <p>
+ * Pages are read with readPage, bypassing the BufferPool, once in file
+ * order (a full scan) and once in random order (point lookups). The file
+ * is small enough to stay in the operating system's page cache, so the
+ * benchmark measures the cost of getting a page from the kernel into a
+ * HeapPage rather than the disk.
+ * <p>
+ * Usage: <code>ant runbench -Dbench=HeapFileBenchmark
+ * [-Dargs="pages seconds"]</code>
+ */
+public class HeapFileBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int numPages = args.length > 0 ? Integer.parseInt(args[0]) : 4096;
+        double seconds = args.length > 1 ? Double.parseDouble(args[1]) : 2;
+
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 504 * numPages, 1 << 16, null, null);
+        HeapFile positional = new HeapFile(f, Utility.getTupleDesc(2), false);
+        HeapFile mapped = new HeapFile(f, Utility.getTupleDesc(2), true);
+        // both open the same file, so they share a table id
+        Database.getCatalog().addTable(positional, SystemTestUtil.getUUID());
+
+        System.out.printf("%d pages%n", numPages);
+        System.out.printf("%12s %16s %16s%n", "path", "scan pages/s", "lookup pages/s");
+        for (int round = 0; round < 2; round++) {
+            // the first round warms up the JIT and the page cache
+            for (HeapFile file : new HeapFile[] { positional, mapped }) {
+                double scan = run(file, false, seconds);
+                double lookup = run(file, true, seconds);
+                if (round == 1) {
+                    System.out.printf("%12s %16.0f %16.0f%n",
+                            file.isMemoryMapped() ? "mapped" : "positional", scan, lookup);
+                }
+            }
+        }
+    }
+
+    /** @return readPage calls per second */
+    private static double run(HeapFile file, boolean random, double seconds) {
+        Random rng = new Random(0);
+        int numPages = file.numPages();
+        long reads = 0;
+        long start = System.nanoTime();
+        long end = start + (long) (seconds * 1e9);
+        while (System.nanoTime() < end) {
+            for (int i = 0; i < numPages; i++) {
+                int pgNo = random ? rng.nextInt(numPages) : i;
+                file.readPage(new HeapPageId(file.getId(), pgNo));
+            }
+            reads += numPages;
+        }
+        return reads / ((System.nanoTime() - start) / 1e9);
+    }
+}
@@ -0,0 +1,52 @@
+package simpledb.benchmark;
+
+import java.io.File;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Measures the cost of an insert into a heap file as the table grows.
+ * <p>
+ * Tuples are inserted in transactions of a fixed size into an initially
+ * empty table, and the average time per insert is printed for each step of
+ * table growth. With the free-space map an insert goes straight to the last
+ * page, so the cost should stay flat instead of growing with the number of
+ * full pages in front of it.
+ * <p>
+ * Usage: <code>ant runbench -Dbench=InsertBenchmark
+ * [-Dargs="tuples step tuplesPerTransaction"]</code>
+ */
+public class InsertBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int numTuples = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int step = args.length > 1 ? Integer.parseInt(args[1]) : 25000;
+        int perTransaction = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+
+        File f = File.createTempFile("insert", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + HeapFile.FREE_SPACE_MAP_SUFFIX).deleteOnExit();
+        HeapFile file = Utility.openHeapFile(2, f);
+        BufferPool pool = Database.resetBufferPool(BufferPool.DEFAULT_PAGES * 4);
+
+        System.out.printf("%10s %10s %14s%n", "tuples", "pages", "us/insert");
+        int inserted = 0;
+        while (inserted < numTuples) {
+            long start = System.nanoTime();
+            for (int i = 0; i < step; i += perTransaction) {
+                TransactionId tid = new TransactionId();
+                for (int j = 0; j < perTransaction; j++) {
+                    pool.insertTuple(tid, file.getId(), Utility.getHeapTuple(inserted + i + j, 2));
+                }
+                pool.transactionComplete(tid);
+            }
+            inserted += step;
+            double micros = (System.nanoTime() - start) / 1e3 / step;
+            System.out.printf("%10d %10d %14.2f%n", inserted, file.numPages(), micros);
+        }
+    }
+}
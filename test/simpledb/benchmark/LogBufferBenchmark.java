@@ -0,0 +1,90 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LogFile;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Measures how fast threads append update records to the log, each
+ * logging the before and after images of a page of its own, for several
+ * numbers of threads and log buffer sizes. The log is neither forced nor
+ * read, so this is the cost of serializing the records and writing them
+ * through the buffer.
+ * <p>
+ * Usage: <code>ant runbench -Dbench=LogBufferBenchmark [-Dargs="seconds maxThreads"]</code>
+ */
+public class LogBufferBenchmark {
+
+    /** log buffer sizes, in KB */
+    private static final int[] BUFFER_KB = { 256, 1024, 8192 };
+
+    public static void main(String[] args) throws Exception {
+        double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 2;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+
+        File f = File.createTempFile("logbuf", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + HeapFile.FREE_SPACE_MAP_SUFFIX).deleteOnExit();
+
+        // warm up the JIT
+        run(f, 4, seconds, false);
+        System.out.printf("%8s %10s %14s %10s%n", "threads", "buffer", "records/s", "MB/s");
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            for (int kb : BUFFER_KB) {
+                System.setProperty(LogFile.BUFFER_SIZE_PROPERTY, Integer.toString(kb * 1024));
+                run(f, threads, seconds, true);
+            }
+        }
+        System.clearProperty(LogFile.BUFFER_SIZE_PROPERTY);
+    }
+
+    private static void run(File f, int threads, double seconds, boolean report) throws Exception {
+        // a new log, reading the buffer size from the system property
+        Database.reset();
+        HeapFile hf = Utility.createEmptyHeapFile(f.getAbsolutePath(), 2);
+        LogFile log = Database.getLogFile();
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        long end = System.nanoTime() + (long) (seconds * 1e9);
+        List<Future<Long>> done = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int i = 0; i < threads; i++) {
+            HeapPageId pid = new HeapPageId(hf.getId(), i);
+            done.add(pool.submit(() -> {
+                TransactionId tid = new TransactionId();
+                HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+                long records = 0;
+                while (System.nanoTime() < end) {
+                    log.logWrite(tid, page, page);
+                    records++;
+                }
+                return records;
+            }));
+        }
+        long records = 0;
+        for (Future<Long> r : done) {
+            records += r.get();
+        }
+        long bytes = log.getCurrentLsn();
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        pool.shutdown();
+
+        if (!report) {
+            return;
+        }
+        System.out.printf("%8d %8dKB %14.0f %10.1f%n", threads,
+                Integer.getInteger(LogFile.BUFFER_SIZE_PROPERTY) / 1024, records / elapsed,
+                bytes / elapsed / (1 << 20));
+    }
+}
@@ -0,0 +1,103 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.*;
+import simpledb.transaction.Transaction;
+
+/**
+ * Measures how much log an update-heavy workload writes: transactions that
+ * each update a few random tuples of a table, by deleting them and inserting
+ * the new versions, on a heap file and on a B+ tree, with the buffer pool
+ * running NO STEAL / FORCE and STEAL / NO FORCE. Reports the log bytes
+ * written per transaction and per tuple updated, and updates per second.
+ * <p>
+ * Usage: <code>ant runbench -Dbench=LogVolumeBenchmark [-Dargs="rows transactions updatesPerTransaction"]</code>
+ */
+public class LogVolumeBenchmark {
+
+    private static final int BUFFER_POOL_PAGES = 1000;
+
+    /** tuples loaded per transaction */
+    private static final int BATCH = 1000;
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int transactions = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        int updates = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+
+        System.out.printf("%-8s %-10s %14s %14s %12s%n", "file", "mode", "log bytes/xact", "bytes/update", "updates/s");
+        for (boolean steal : new boolean[] { false, true }) {
+            if (steal) {
+                System.setProperty(BufferPool.STEAL_NO_FORCE_PROPERTY, "true");
+            }
+            run(false, steal, rows, transactions, updates);
+            run(true, steal, rows, transactions, updates);
+        }
+        System.clearProperty(BufferPool.STEAL_NO_FORCE_PROPERTY);
+    }
+
+    private static void run(boolean btree, boolean steal, int rows, int transactions, int updates) throws Exception {
+        Database.reset();
+        Database.resetBufferPool(BUFFER_POOL_PAGES);
+        File f = File.createTempFile("logvolume", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + HeapFile.FREE_SPACE_MAP_SUFFIX).deleteOnExit();
+        DbFile file = btree ? BTreeUtility.createEmptyBTreeFile(f.getAbsolutePath(), 2, 0)
+                : Utility.createEmptyHeapFile(f.getAbsolutePath(), 2);
+
+        // tuple i holds key i, which updates keep, and a version
+        List<Tuple> tuples = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i += BATCH) {
+            Transaction t = new Transaction();
+            t.start();
+            for (int j = i; j < Math.min(rows, i + BATCH); j++) {
+                Tuple tup = Utility.getHeapTuple(new int[] { j, 0 });
+                Database.getBufferPool().insertTuple(t.getId(), file.getId(), tup);
+                tuples.add(tup);
+            }
+            t.commit();
+        }
+
+        Random rand = new Random(42);
+        LogFile log = Database.getLogFile();
+        long startLsn = log.getCurrentLsn();
+        long start = System.nanoTime();
+        for (int i = 0; i < transactions; i++) {
+            Transaction t = new Transaction();
+            t.start();
+            for (int j = 0; j < updates; j++) {
+                int key = rand.nextInt(rows);
+                Tuple old = btree ? lookup((BTreeFile) file, t, key) : tuples.get(key);
+                Database.getBufferPool().deleteTuple(t.getId(), old);
+                Tuple tup = Utility.getHeapTuple(new int[] { key, ((IntField) old.getField(1)).getValue() + 1 });
+                Database.getBufferPool().insertTuple(t.getId(), file.getId(), tup);
+                tuples.set(key, tup);
+            }
+            t.commit();
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        long bytes = log.getCurrentLsn() - startLsn;
+
+        System.out.printf("%-8s %-10s %14.0f %14.0f %12.0f%n", btree ? "btree" : "heap",
+                steal ? "no-force" : "force", (double) bytes / transactions,
+                (double) bytes / (transactions * updates), transactions * updates / elapsed);
+    }
+
+    private static Tuple lookup(BTreeFile bf, Transaction t, int key) throws Exception {
+        DbFileIterator it = bf.indexIterator(t.getId(), new IndexPredicate(Op.EQUALS, new IntField(key)));
+        it.open();
+        Tuple tup = it.next();
+        it.close();
+        return tup;
+    }
+}
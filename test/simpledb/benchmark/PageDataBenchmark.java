@@ -0,0 +1,96 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Measures the cost of serializing heap pages on the paths that flush
+ * them: HeapPage.getPageData, setBeforeImage, HeapFile.writePage, and
+ * whole transactions that commit after changing a few pages, which log
+ * and write every page they dirtied.
+ * <p>
+ * For each operation the time and the bytes allocated per call are
+ * printed. Pages are half full, with half of their tuples inserted after
+ * they were read, as on a page a transaction has just changed.
+ * <p>
+ * Usage: <code>ant runbench -Dbench=PageDataBenchmark
+ * [-Dargs="seconds tuplesPerTransaction"]</code>
+ */
+public class PageDataBenchmark {
+
+    private static final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private interface Operation {
+        void run() throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 2;
+        int perTransaction = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        File f = File.createTempFile("pagedata", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + HeapFile.FREE_SPACE_MAP_SUFFIX).deleteOnExit();
+        HeapFile file = Utility.openHeapFile(2, f);
+        int slots = BufferPool.getPageSize() * 8 / (file.getTupleDesc().getSize() * 8 + 1);
+
+        // a page half filled when it was read, then changed
+        HeapPage page = new HeapPage(new HeapPageId(file.getId(), 0), HeapPage.createEmptyPageData());
+        for (int i = 0; i < slots / 4; i++) {
+            page.insertTuple(Utility.getHeapTuple(i, 2));
+        }
+        page = new HeapPage(page.getId(), page.getPageData());
+        for (int i = 0; i < slots / 4; i++) {
+            page.insertTuple(Utility.getHeapTuple(-i, 2));
+        }
+        file.writePage(page);
+        HeapPage changed = page;
+
+        BufferPool pool = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        int[] next = { 0 };
+
+        System.out.printf("%-16s %12s %12s%n", "operation", "ns/op", "bytes/op");
+        for (int round = 0; round < 2; round++) {
+            // the first round warms up the JIT
+            boolean print = round == 1;
+            run("getPageData", seconds, print, changed::getPageData);
+            run("setBeforeImage", seconds, print, changed::setBeforeImage);
+            run("writePage", seconds, print, () -> file.writePage(changed));
+            run("transaction", seconds, print, () -> {
+                TransactionId tid = new TransactionId();
+                for (int i = 0; i < perTransaction; i++) {
+                    pool.insertTuple(tid, file.getId(), Utility.getHeapTuple(next[0]++, 2));
+                }
+                pool.transactionComplete(tid);
+            });
+        }
+    }
+
+    private static void run(String name, double seconds, boolean print, Operation op) throws Exception {
+        long thread = Thread.currentThread().getId();
+        long ops = 0;
+        long allocated = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        long end = start + (long) (seconds * 1e9);
+        while (System.nanoTime() < end) {
+            for (int i = 0; i < 100; i++) {
+                op.run();
+            }
+            ops += 100;
+        }
+        long elapsed = System.nanoTime() - start;
+        allocated = threads.getThreadAllocatedBytes(thread) - allocated;
+        if (print) {
+            System.out.printf("%-16s %12.0f %12d%n", name, (double) elapsed / ops, allocated / ops);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Random;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Measures how long recovery takes to restart from a large log, for
+ * several numbers of redo threads. The log is generated by committed
+ * transactions that each insert and delete tuples on random pages of a
+ * table, none of which is ever written, so that redo reads the whole log
+ * and reads and writes every page. The table and the log are copied after
+ * the "crash" and restored before each restart.
+ * <p>
+ * Usage: <code>ant runbench -Dbench=RecoveryBenchmark [-Dargs="pages transactions updatesPerTransaction maxThreads"]</code>
+ */
+public class RecoveryBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int pages = args.length > 0 ? Integer.parseInt(args[0]) : 16384;
+        int transactions = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+        int updates = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        int maxThreads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+
+        System.setProperty(LogFile.CHECKPOINT_INTERVAL_PROPERTY, "0");
+        File table = File.createTempFile("recovery", ".dat");
+        table.deleteOnExit();
+        new File(table.getPath() + HeapFile.FREE_SPACE_MAP_SUFFIX).deleteOnExit();
+        File log = new File("log");
+        File tableCopy = File.createTempFile("recovery", ".dat.copy");
+        tableCopy.deleteOnExit();
+        File logCopy = File.createTempFile("recovery", ".log.copy");
+        logCopy.deleteOnExit();
+
+        long start = System.nanoTime();
+        long logBytes = generate(table, pages, transactions, updates);
+        System.out.printf("generated %.1f MB of log on %d pages in %.1f s%n", logBytes / 1e6, pages,
+                (System.nanoTime() - start) / 1e9);
+        Database.reset();
+        Files.copy(table.toPath(), tableCopy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        Files.copy(log.toPath(), logCopy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        // warm up the JIT
+        restart(table, tableCopy, log, logCopy, maxThreads);
+        System.out.printf("%8s %10s %10s%n", "threads", "restart s", "log MB/s");
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            double seconds = restart(table, tableCopy, log, logCopy, threads);
+            System.out.printf("%8d %10.2f %10.1f%n", threads, seconds, logBytes / seconds / 1e6);
+        }
+        System.clearProperty(LogFile.REDO_THREADS_PROPERTY);
+        System.clearProperty(LogFile.CHECKPOINT_INTERVAL_PROPERTY);
+    }
+
+    /**
+     * Write the log of the transactions, leaving the table as it was: empty
+     * pages.
+     *
+     * @return the number of bytes of log
+     */
+    private static long generate(File table, int pages, int transactions, int updates) throws Exception {
+        Database.reset();
+        try (RandomAccessFile raf = new RandomAccessFile(table, "rw")) {
+            raf.setLength((long) pages * BufferPool.getPageSize());
+        }
+        HeapFile hf = Utility.openHeapFile(2, table);
+        LogFile log = Database.getLogFile();
+        HeapPage[] cached = new HeapPage[pages];
+        Random rand = new Random(42);
+        for (int i = 0; i < transactions; i++) {
+            TransactionId tid = new TransactionId();
+            log.logXactionBegin(tid);
+            for (int j = 0; j < updates; j++) {
+                int n = rand.nextInt(pages);
+                if (cached[n] == null) {
+                    cached[n] = new HeapPage(new HeapPageId(hf.getId(), n), HeapPage.createEmptyPageData());
+                }
+                HeapPage page = cached[n];
+                Page before = page.getBeforeImage();
+                if (page.getNumEmptySlots() == 0 || page.getNumEmptySlots() < 100 && rand.nextBoolean()) {
+                    page.deleteTuple(page.iterator().next());
+                } else {
+                    page.insertTuple(Utility.getHeapTuple(new int[] { i, j }));
+                }
+                log.logWrite(tid, before, page);
+                page.setBeforeImage();
+            }
+            log.appendCommit(tid);
+        }
+        log.force();
+        return log.getCurrentLsn();
+    }
+
+    /** @return the seconds recovery took, from the table and log as they were at the crash */
+    private static double restart(File table, File tableCopy, File log, File logCopy, int threads) throws Exception {
+        Files.copy(tableCopy.toPath(), table.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        Files.copy(logCopy.toPath(), log.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        System.setProperty(LogFile.REDO_THREADS_PROPERTY, Integer.toString(threads));
+        Database.reset();
+        Utility.openHeapFile(2, table);
+        long start = System.nanoTime();
+        Database.getLogFile().recover();
+        return (System.nanoTime() - start) / 1e9;
+    }
+}
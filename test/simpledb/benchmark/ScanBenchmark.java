@@ -0,0 +1,121 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Project;
+import simpledb.execution.SeqScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.PaxHeapPage;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Compares scans of a wide table stored in the fixed-slot format and in
+ * the PAX format, see {@link PaxHeapPage}.
+ * <p>
+ * Each table is scanned with a SeqScan that sums every field of every
+ * tuple, and with a Project of two of its fields, whose sum is taken. The
+ * BufferPool is large enough to hold both tables, which are scanned once
+ * before timing, so the benchmark measures the cost of getting the fields
+ * out of cached pages rather than reading them.
+ * <p>
+ * Usage: <code>ant runbench -Dbench=ScanBenchmark
+ * [-Dargs="columns pages seconds"]</code>
+ */
+public class ScanBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int columns = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int numPages = args.length > 1 ? Integer.parseInt(args[1]) : 256;
+        double seconds = args.length > 2 ? Double.parseDouble(args[2]) : 2;
+
+        TupleDesc td = Utility.getTupleDesc(columns);
+        int pageSize = BufferPool.getPageSize();
+        int slots = pageSize * 8 / (td.getSize() * 8 + 1);
+        File rows = SystemTestUtil.createRandomHeapFileUnopened(columns, slots * numPages, 1 << 16, null, null);
+        File pax = File.createTempFile("pax", ".dat");
+        pax.deleteOnExit();
+        Files.copy(rows.toPath(), pax.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        try (RandomAccessFile raf = new RandomAccessFile(pax, "rw")) {
+            byte[] page = new byte[pageSize];
+            for (long offset = 0; offset < raf.length(); offset += pageSize) {
+                raf.seek(offset);
+                raf.readFully(page);
+                raf.seek(offset);
+                raf.write(PaxHeapPage.fromRows(page, td));
+            }
+        }
+
+        Database.resetBufferPool(2 * numPages + 16);
+        HeapFile fixed = new HeapFile(rows, td, HeapFile.Format.FIXED);
+        HeapFile paxFile = new HeapFile(pax, td, HeapFile.Format.PAX);
+        Database.getCatalog().addTable(fixed, SystemTestUtil.getUUID());
+        Database.getCatalog().addTable(paxFile, SystemTestUtil.getUUID());
+
+        List<Integer> projected = Arrays.asList(1, columns - 1);
+        Type[] projectedTypes = { Type.INT_TYPE, Type.INT_TYPE };
+
+        System.out.printf("%d columns, %d pages%n", columns, numPages);
+        System.out.printf("%8s %18s %18s%n", "format", "scan rows/s", "project rows/s");
+        long check = 0;
+        for (int round = 0; round < 2; round++) {
+            // the first round warms up the JIT and loads the pages
+            List<long[]> sums = new ArrayList<>();
+            for (HeapFile file : new HeapFile[] { fixed, paxFile }) {
+                long[] sum = new long[1];
+                double scan = run(seconds, sum, tid -> new SeqScan(tid, file.getId()));
+                double project = run(seconds, sum, tid ->
+                        new Project(projected, projectedTypes, new SeqScan(tid, file.getId())));
+                sums.add(sum);
+                if (round == 1) {
+                    System.out.printf("%8s %18.0f %18.0f%n", file.getFormat(), scan, project);
+                }
+            }
+            check += sums.get(0)[0] + sums.get(1)[0];
+        }
+        // keeps the sums alive
+        if (check == 42) {
+            System.out.println();
+        }
+    }
+
+    private interface Plan {
+        OpIterator open(TransactionId tid) throws Exception;
+    }
+
+    /** @return tuples per second read from the plan, summing all their fields */
+    private static double run(double seconds, long[] sum, Plan plan) throws Exception {
+        long tuples = 0;
+        long start = System.nanoTime();
+        long end = start + (long) (seconds * 1e9);
+        while (System.nanoTime() < end) {
+            TransactionId tid = new TransactionId();
+            OpIterator it = plan.open(tid);
+            it.open();
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                for (int i = 0; i < t.getTupleDesc().numFields(); i++) {
+                    sum[0] += ((IntField) t.getField(i)).getValue();
+                }
+                tuples++;
+            }
+            it.close();
+            Database.getBufferPool().transactionComplete(tid);
+        }
+        return tuples / ((System.nanoTime() - start) / 1e9);
+    }
+}
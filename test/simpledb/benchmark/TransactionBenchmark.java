@@ -0,0 +1,68 @@
+package simpledb.benchmark;
+
+import java.util.Random;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Measures the cost of committing and aborting many small transactions
+ * against buffer pools of growing size.
+ * <p>
+ * The whole table is read into the pool first, then every transaction
+ * locks a few random pages and commits or aborts. Nothing is dirtied, so
+ * the numbers show the bookkeeping cost of transactionComplete, which
+ * should not depend on how many pages are resident.
+ * <p>
+ * Usage: <code>ant runbench -Dbench=TransactionBenchmark
+ * [-Dargs="maxPages pagesPerTransaction seconds"]</code>
+ */
+public class TransactionBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int maxPages = args.length > 0 ? Integer.parseInt(args[0]) : 4096;
+        int pagesPerTransaction = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+
+        HeapFile file = SystemTestUtil.createRandomHeapFile(2, 504 * maxPages, null, null);
+
+        System.out.printf("%d pages per transaction%n", pagesPerTransaction);
+        System.out.printf("%10s %16s %16s%n", "resident", "commits/s", "aborts/s");
+        for (int numPages = 64; numPages <= maxPages; numPages *= 4) {
+            BufferPool pool = Database.resetBufferPool(numPages);
+            TransactionId warmUp = new TransactionId();
+            for (int i = 0; i < numPages; i++) {
+                pool.getPage(warmUp, new HeapPageId(file.getId(), i), Permissions.READ_ONLY);
+            }
+            pool.transactionComplete(warmUp);
+
+            double commits = run(pool, file, numPages, pagesPerTransaction, true, seconds);
+            double aborts = run(pool, file, numPages, pagesPerTransaction, false, seconds);
+            System.out.printf("%10d %16.0f %16.0f%n", numPages, commits, aborts);
+        }
+    }
+
+    /** @return transactions completed per second */
+    private static double run(BufferPool pool, HeapFile file, int numPages, int pagesPerTransaction,
+                              boolean commit, double seconds) throws Exception {
+        Random random = new Random(0);
+        long transactions = 0;
+        long start = System.nanoTime();
+        long end = start + (long) (seconds * 1e9);
+        while (System.nanoTime() < end) {
+            TransactionId tid = new TransactionId();
+            for (int i = 0; i < pagesPerTransaction; i++) {
+                HeapPageId pid = new HeapPageId(file.getId(), random.nextInt(numPages));
+                pool.getPage(tid, pid, Permissions.READ_ONLY);
+            }
+            pool.transactionComplete(tid, commit);
+            transactions++;
+        }
+        return transactions / ((System.nanoTime() - start) / 1e9);
+    }
+}
@@ -0,0 +1,187 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.transaction.Transaction;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+/**
+ * Test ARIES recovery: fuzzy checkpoints that write no pages and do not
+ * wait for active transactions, recovery from a checkpoint that leaves
+ * transactions and dirty pages behind, and compensation records.
+ */
+public class AriesRecoveryTest extends SimpleDbTestBase {
+
+    private File file;
+    private HeapFile hf;
+    private File otherFile;
+    private HeapFile other;
+
+    @Before public void setUp() throws Exception {
+        System.setProperty(BufferPool.STEAL_NO_FORCE_PROPERTY, "true");
+        super.setUp();
+        file = File.createTempFile("aries", ".dat");
+        file.deleteOnExit();
+        new File(file.getPath() + HeapFile.FREE_SPACE_MAP_SUFFIX).deleteOnExit();
+        hf = Utility.createEmptyHeapFile(file.getAbsolutePath(), 2);
+        otherFile = File.createTempFile("aries", ".dat");
+        otherFile.deleteOnExit();
+        new File(otherFile.getPath() + HeapFile.FREE_SPACE_MAP_SUFFIX).deleteOnExit();
+        other = Utility.createEmptyHeapFile(otherFile.getAbsolutePath(), 2);
+    }
+
+    @After public void tearDown() {
+        System.clearProperty(BufferPool.STEAL_NO_FORCE_PROPERTY);
+        System.clearProperty(LogFile.CHECKPOINT_INTERVAL_PROPERTY);
+        Database.reset();
+    }
+
+    private void insert(Transaction t, int first, int count) throws Exception {
+        insert(t, hf, first, count);
+    }
+
+    private void insert(Transaction t, HeapFile f, int first, int count) throws Exception {
+        for (int i = first; i < first + count; i++) {
+            Database.getBufferPool().insertTuple(t.getId(), f.getId(), Utility.getHeapTuple(i, 2));
+        }
+    }
+
+    private int count(int min) throws Exception {
+        return count(hf, min);
+    }
+
+    /** @return the number of tuples of the file, checking that they are at least min */
+    private int count(HeapFile f, int min) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        DbFileIterator it = f.iterator(t.getId());
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            assertTrue(((IntField) it.next().getField(0)).getValue() >= min);
+            count++;
+        }
+        it.close();
+        t.commit();
+        return count;
+    }
+
+    // simulate a crash: lose the buffer pool, then run recovery
+    private void crash() throws IOException {
+        Database.reset();
+        hf = Utility.openHeapFile(2, file);
+        other = Utility.openHeapFile(2, otherFile);
+        Database.getLogFile().recover();
+    }
+
+    @Test public void checkpointWritesNoPages() throws Exception {
+        Transaction t1 = new Transaction();
+        t1.start();
+        insert(t1, 100, 10);
+        t1.commit();
+
+        // a transaction holding locks does not hold up the checkpoint
+        Transaction t2 = new Transaction();
+        t2.start();
+        insert(t2, 0, 10);
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        Future<?> checkpoint = pool.submit(() -> {
+            Database.getLogFile().logCheckpoint();
+            return null;
+        });
+        checkpoint.get(10, TimeUnit.SECONDS);
+        pool.shutdown();
+
+        // the committed tuples are only in the log
+        HeapPage onDisk = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 0));
+        assertFalse(onDisk.iterator().hasNext());
+
+        crash();
+        assertEquals(10, count(100));
+    }
+
+    @Test public void loserActiveAtCheckpoint() throws Exception {
+        Transaction t1 = new Transaction();
+        t1.start();
+        insert(t1, other, 0, 10);
+        // written while uncommitted, so recovery has to undo it
+        Database.getBufferPool().flushAllPages();
+        Database.getLogFile().logCheckpoint();
+
+        Transaction t2 = new Transaction();
+        t2.start();
+        insert(t2, 100, 10);
+        t2.commit();
+
+        crash();
+        assertEquals(10, count(100));
+        assertEquals(0, count(other, 0));
+    }
+
+    @Test public void checkpointsWhileCommitting() throws Exception {
+        // a checkpoint at every commit
+        System.setProperty(LogFile.CHECKPOINT_INTERVAL_PROPERTY, "1");
+        Database.reset();
+        hf = Utility.openHeapFile(2, file);
+        other = Utility.openHeapFile(2, otherFile);
+
+        // on a table of its own, so that it holds no lock the others wait for
+        Transaction loser = new Transaction();
+        loser.start();
+        insert(loser, other, 0, 5);
+        for (int i = 0; i < 10; i++) {
+            Transaction t = new Transaction();
+            t.start();
+            insert(t, 100 + 10 * i, 10);
+            t.commit();
+            if (i == 5) {
+                Database.getBufferPool().flushAllPages();
+            }
+        }
+
+        crash();
+        assertEquals(100, count(100));
+        assertEquals(0, count(other, 0));
+    }
+
+    @Test public void abortLogsCompensation() throws Exception {
+        LogFile log = Database.getLogFile();
+        Transaction t = new Transaction();
+        t.start();
+        insert(t, 0, 10);
+        int before = log.getTotalRecords();
+        Database.getBufferPool().flushAllPages();
+        int updates = log.getTotalRecords() - before;
+        assertTrue(updates > 0);
+
+        t.abort();
+        // a CLR for each update, then the ABORT record
+        assertEquals(2 * updates + 1, log.getTotalRecords() - before);
+        assertEquals(0, count(0));
+
+        // the CLRs are redone, and the transaction is not undone again
+        crash();
+        assertEquals(0, count(0));
+        crash();
+        assertEquals(0, count(0));
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(AriesRecoveryTest.class);
+    }
+}
@@ -110,7 +110,7 @@ public class BTreeTest extends SimpleDbTestBase {
 		try {
 			BTreeChecker.checkRep(bf, tId, new HashMap<>(), true);
 		} catch (DbException | IOException | TransactionAbortedException e) {
-			// TODO Զɵ catch 
+			// TODO 自动生成的 catch 块
 			e.printStackTrace();
 		}
 		Database.getBufferPool().transactionComplete(tId);
@@ -0,0 +1,132 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.transaction.Transaction;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+/**
+ * Test group commit: concurrent transactions share forces of the log, and
+ * what they committed survives a crash.
+ */
+public class GroupCommitTest extends SimpleDbTestBase {
+
+    private static final int THREADS = 8;
+    private static final int TRANSACTIONS = 25;
+
+    private final File[] files = new File[THREADS];
+    private final HeapFile[] hfs = new HeapFile[THREADS];
+
+    @Before public void setUp() throws Exception {
+        // commits only write the log, so that the log is all they wait for
+        System.setProperty(BufferPool.STEAL_NO_FORCE_PROPERTY, "true");
+        System.setProperty(LogFile.GROUP_COMMIT_WINDOW_PROPERTY, "2000");
+        super.setUp();
+        for (int i = 0; i < THREADS; i++) {
+            files[i] = File.createTempFile("group", ".dat");
+            files[i].deleteOnExit();
+            new File(files[i].getPath() + HeapFile.FREE_SPACE_MAP_SUFFIX).deleteOnExit();
+            hfs[i] = Utility.createEmptyHeapFile(files[i].getAbsolutePath(), 2);
+        }
+    }
+
+    @After public void tearDown() {
+        System.clearProperty(BufferPool.STEAL_NO_FORCE_PROPERTY);
+        System.clearProperty(LogFile.GROUP_COMMIT_WINDOW_PROPERTY);
+        Database.reset();
+    }
+
+    /** Each thread inserts into a table of its own, a tuple per transaction. */
+    private void commitConcurrently() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        List<Future<?>> done = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            HeapFile hf = hfs[i];
+            done.add(pool.submit(() -> {
+                for (int j = 0; j < TRANSACTIONS; j++) {
+                    Transaction t = new Transaction();
+                    t.start();
+                    Database.getBufferPool().insertTuple(t.getId(), hf.getId(), Utility.getHeapTuple(j, 2));
+                    t.commit();
+                }
+                return null;
+            }));
+        }
+        for (Future<?> f : done) {
+            f.get();
+        }
+        pool.shutdown();
+    }
+
+    private int count(HeapFile hf) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        DbFileIterator it = hf.iterator(t.getId());
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        t.commit();
+        return count;
+    }
+
+    // simulate a crash: lose the buffer pool, then run recovery
+    private void crash() throws IOException {
+        Database.reset();
+        for (int i = 0; i < THREADS; i++) {
+            hfs[i] = Utility.openHeapFile(2, files[i]);
+        }
+        Database.getLogFile().recover();
+    }
+
+    @Test public void commitsShareForces() throws Exception {
+        commitConcurrently();
+        LogFile log = Database.getLogFile();
+        assertEquals(THREADS * TRANSACTIONS, log.getCommitCount());
+        assertTrue(log.getGroupForceCount() > 0);
+        assertTrue(log.getGroupForceCount() < THREADS * TRANSACTIONS / 2);
+        assertTrue(log.getCommitsPerGroupForce() > 2);
+    }
+
+    @Test public void commitsSurviveCrash() throws Exception {
+        commitConcurrently();
+        crash();
+        for (HeapFile hf : hfs) {
+            assertEquals(TRANSACTIONS, count(hf));
+        }
+    }
+
+    @Test public void flusherRestartsAfterStop() throws Exception {
+        commitConcurrently();
+        Database.getLogFile().stopFlusher();
+        Transaction t = new Transaction();
+        t.start();
+        Database.getBufferPool().insertTuple(t.getId(), hfs[0].getId(), Utility.getHeapTuple(-1, 2));
+        t.commit();
+        crash();
+        assertEquals(TRANSACTIONS + 1, count(hfs[0]));
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GroupCommitTest.class);
+    }
+}
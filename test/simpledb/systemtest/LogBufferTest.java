@@ -0,0 +1,209 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.transaction.Transaction;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+/**
+ * Test the log buffer: concurrent appends through a buffer far smaller than
+ * the log, LSNs that survive truncation, and pages written only once the
+ * log is durable up to their LSN.
+ */
+public class LogBufferTest extends SimpleDbTestBase {
+
+    private static final int THREADS = 8;
+    private static final int TRANSACTIONS = 40;
+    private static final int TUPLES = 100;
+
+    /** The smallest log buffer */
+    private static final int MIN_BUFFER_SIZE = 256 * 1024;
+
+    private final File[] files = new File[THREADS];
+    private final HeapFile[] hfs = new HeapFile[THREADS];
+
+    @Before public void setUp() throws Exception {
+        System.setProperty(BufferPool.STEAL_NO_FORCE_PROPERTY, "true");
+        // the smallest buffer, which the update records wrap around many times
+        System.setProperty(LogFile.BUFFER_SIZE_PROPERTY, "0");
+        super.setUp();
+        for (int i = 0; i < THREADS; i++) {
+            files[i] = File.createTempFile("logbuf", ".dat");
+            files[i].deleteOnExit();
+            new File(files[i].getPath() + HeapFile.FREE_SPACE_MAP_SUFFIX).deleteOnExit();
+            hfs[i] = Utility.createEmptyHeapFile(files[i].getAbsolutePath(), 2);
+        }
+    }
+
+    @After public void tearDown() {
+        System.clearProperty(BufferPool.STEAL_NO_FORCE_PROPERTY);
+        System.clearProperty(LogFile.BUFFER_SIZE_PROPERTY);
+        Database.reset();
+    }
+
+    /** Each thread inserts into a table of its own, TUPLES per transaction. */
+    private void commitConcurrently(int first) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        List<Future<?>> done = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            HeapFile hf = hfs[i];
+            done.add(pool.submit(() -> {
+                for (int j = first; j < first + TRANSACTIONS; j++) {
+                    Transaction t = new Transaction();
+                    t.start();
+                    for (int k = 0; k < TUPLES; k++) {
+                        Database.getBufferPool().insertTuple(t.getId(), hf.getId(), Utility.getHeapTuple(j, 2));
+                    }
+                    t.commit();
+                }
+                return null;
+            }));
+        }
+        for (Future<?> f : done) {
+            f.get();
+        }
+        pool.shutdown();
+    }
+
+    private int count(HeapFile hf) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        DbFileIterator it = hf.iterator(t.getId());
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        t.commit();
+        return count;
+    }
+
+    // simulate a crash: lose the buffer pool and the log buffer, then run recovery
+    private void crash() throws IOException {
+        Database.reset();
+        for (int i = 0; i < THREADS; i++) {
+            hfs[i] = Utility.openHeapFile(2, files[i]);
+        }
+        Database.getLogFile().recover();
+    }
+
+    @Test public void concurrentAppendsSurviveCrash() throws Exception {
+        commitConcurrently(0);
+        LogFile log = Database.getLogFile();
+        // the log went round the buffer
+        assertTrue(log.getCurrentLsn() > 2 * MIN_BUFFER_SIZE);
+        assertTrue(log.getDurableLsn() <= log.getCurrentLsn());
+        crash();
+        for (HeapFile hf : hfs) {
+            assertEquals(TRANSACTIONS * TUPLES, count(hf));
+        }
+    }
+
+    @Test public void lsnsSurviveTruncation() throws Exception {
+        commitConcurrently(0);
+        LogFile log = Database.getLogFile();
+        long before = log.getCurrentLsn();
+        log.logCheckpoint();
+        assertTrue(log.getCurrentLsn() > before);
+        assertEquals(log.getCurrentLsn(), log.getDurableLsn());
+
+        commitConcurrently(TRANSACTIONS);
+        assertTrue(log.getCurrentLsn() > before);
+        crash();
+        for (HeapFile hf : hfs) {
+            assertEquals(2 * TRANSACTIONS * TUPLES, count(hf));
+        }
+
+        // the log goes on after the last record recovery found
+        long recovered = Database.getLogFile().getCurrentLsn();
+        assertTrue(recovered > before);
+        Transaction t = new Transaction();
+        t.start();
+        Database.getBufferPool().insertTuple(t.getId(), hfs[0].getId(), Utility.getHeapTuple(-1, 2));
+        t.commit();
+        assertTrue(Database.getLogFile().getCurrentLsn() > recovered);
+        crash();
+        assertEquals(2 * TRANSACTIONS * TUPLES + 1, count(hfs[0]));
+    }
+
+    @Test public void pagesWaitForTheirLsn() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        Database.getBufferPool().insertTuple(t.getId(), hfs[0].getId(), Utility.getHeapTuple(1, 2));
+        t.commit();
+
+        // the commit logged the page, stamping it with the end of its record
+        t = new Transaction();
+        t.start();
+        Page page = Database.getBufferPool().getPage(t.getId(),
+                new HeapPageId(hfs[0].getId(), 0), Permissions.READ_ONLY);
+        t.commit();
+        LogFile log = Database.getLogFile();
+        long lsn = page.getLsn();
+        assertTrue(lsn > 0);
+        assertTrue(lsn <= log.getCurrentLsn());
+        assertTrue(lsn <= log.getDurableLsn());
+
+        Database.getBufferPool().flushAllPages();
+        assertTrue(page.getLsn() <= log.getDurableLsn());
+        assertNull(page.isDirty());
+    }
+
+    @Test public void abortedPageWaitsForItsLsn() throws Exception {
+        HeapPageId pid = new HeapPageId(hfs[0].getId(), 0);
+        HeapPageId other = new HeapPageId(hfs[1].getId(), 0);
+        hfs[1].writePage(new HeapPage(other, HeapPage.createEmptyPageData()));
+        // a single frame, so that reading another page evicts the first
+        BufferPool bp = Database.resetBufferPool(1);
+        LogFile log = Database.getLogFile();
+
+        // committed, but not waited for: its records are only in the log buffer
+        Transaction t1 = new Transaction();
+        t1.start();
+        bp.insertTuple(t1.getId(), hfs[0].getId(), Utility.getHeapTuple(1, 2));
+        Page page = bp.getPage(t1.getId(), pid, Permissions.READ_ONLY);
+        bp.transactionComplete(t1.getId(), true);
+        long lsn = page.getLsn();
+        assertTrue(lsn > log.getDurableLsn());
+
+        // the abort puts back the page as t1 left it, dirty
+        Transaction t2 = new Transaction();
+        t2.start();
+        bp.insertTuple(t2.getId(), hfs[0].getId(), Utility.getHeapTuple(2, 2));
+        bp.transactionComplete(t2.getId(), false);
+        Transaction t3 = new Transaction();
+        t3.start();
+        assertTrue(bp.getPage(t3.getId(), pid, Permissions.READ_ONLY).getLsn() >= lsn);
+        t3.commit();
+
+        Transaction t4 = new Transaction();
+        t4.start();
+        bp.getPage(t4.getId(), other, Permissions.READ_ONLY);
+        t4.commit();
+        assertTrue(((HeapPage) hfs[0].readPage(pid)).iterator().hasNext());
+        assertTrue(lsn <= log.getDurableLsn());
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LogBufferTest.class);
+    }
+}
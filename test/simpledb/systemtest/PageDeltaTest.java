@@ -0,0 +1,146 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.*;
+import simpledb.transaction.Transaction;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+/**
+ * Test UPDATE records that only hold the bytes an update changed: their
+ * size, and rollback and recovery from them, on heap files and B+ trees.
+ */
+public class PageDeltaTest extends SimpleDbTestBase {
+
+    private File heapFile;
+    private File btreeFile;
+    private HeapFile hf;
+    private BTreeFile bf;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        heapFile = File.createTempFile("delta", ".dat");
+        heapFile.deleteOnExit();
+        new File(heapFile.getPath() + HeapFile.FREE_SPACE_MAP_SUFFIX).deleteOnExit();
+        hf = Utility.createEmptyHeapFile(heapFile.getAbsolutePath(), 2);
+        btreeFile = File.createTempFile("delta", ".btree");
+        btreeFile.deleteOnExit();
+        bf = BTreeUtility.createEmptyBTreeFile(btreeFile.getAbsolutePath(), 2, 0);
+    }
+
+    private void insert(Transaction t, DbFile f, int first, int count) throws Exception {
+        for (int i = first; i < first + count; i++) {
+            Database.getBufferPool().insertTuple(t.getId(), f.getId(), Utility.getHeapTuple(i, 2));
+        }
+    }
+
+    /** @return the number of tuples of the file, checking that they are at least min */
+    private int count(DbFile f, int min) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        DbFileIterator it = f.iterator(t.getId());
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            assertTrue(((IntField) it.next().getField(0)).getValue() >= min);
+            count++;
+        }
+        it.close();
+        t.commit();
+        return count;
+    }
+
+    // simulate a crash: lose the buffer pool, then run recovery
+    private void crash() throws IOException {
+        Database.reset();
+        hf = Utility.openHeapFile(2, heapFile);
+        bf = BTreeUtility.openBTreeFile(2, btreeFile, 0);
+        Database.getLogFile().recover();
+    }
+
+    @Test public void insertLogsChangedBytes() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        insert(t, hf, 0, 1);
+        t.commit();
+
+        // a tuple on a page that is not new
+        LogFile log = Database.getLogFile();
+        long start = log.getCurrentLsn();
+        t = new Transaction();
+        t.start();
+        insert(t, hf, 1, 1);
+        t.commit();
+        assertTrue(log.getCurrentLsn() - start < BufferPool.getPageSize() / 16);
+    }
+
+    @Test public void abortThenCommitOnSamePage() throws Exception {
+        Transaction t1 = new Transaction();
+        t1.start();
+        insert(t1, hf, 0, 10);
+        insert(t1, bf, 0, 10);
+        // write the uncommitted pages, so that the rollback has to undo them
+        Database.getBufferPool().flushAllPages();
+        t1.abort();
+        assertEquals(0, count(hf, 0));
+
+        Transaction t2 = new Transaction();
+        t2.start();
+        insert(t2, hf, 100, 10);
+        insert(t2, bf, 100, 10);
+        t2.commit();
+
+        crash();
+        assertEquals(10, count(hf, 100));
+        assertEquals(10, count(bf, 100));
+    }
+
+    @Test public void recoveryCanBeRepeated() throws Exception {
+        Transaction t1 = new Transaction();
+        t1.start();
+        insert(t1, hf, 100, 10);
+        t1.commit();
+
+        Transaction t2 = new Transaction();
+        t2.start();
+        insert(t2, hf, 0, 10);
+        Database.getBufferPool().flushAllPages();
+
+        crash();
+        assertEquals(10, count(hf, 100));
+        crash();
+        assertEquals(10, count(hf, 100));
+    }
+
+    @Test public void btreeSplitsRecover() throws Exception {
+        // enough tuples to split leaves a few times
+        int committed = 3 * BTreeUtility.getNumTuplesPerPage(2) * 2;
+        Transaction t1 = new Transaction();
+        t1.start();
+        insert(t1, bf, 1000, committed);
+        t1.commit();
+
+        Transaction t2 = new Transaction();
+        t2.start();
+        insert(t2, bf, 0, committed / 2);
+        Database.getBufferPool().flushAllPages();
+
+        crash();
+        assertEquals(committed, count(bf, 1000));
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageDeltaTest.class);
+    }
+}
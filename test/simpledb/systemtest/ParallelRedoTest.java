@@ -0,0 +1,129 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.*;
+import simpledb.transaction.Transaction;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+/**
+ * Test redo on several threads: the updates of many pages of several heap
+ * files and a B+ tree, logged but never written, come back whatever the
+ * number of threads.
+ */
+public class ParallelRedoTest extends SimpleDbTestBase {
+
+    private static final int FILES = 6;
+    private static final int TRANSACTIONS = 20;
+    private static final int TUPLES = 200;
+
+    private final File[] files = new File[FILES];
+    private final HeapFile[] hfs = new HeapFile[FILES];
+    private File btreeFile;
+    private BTreeFile bf;
+
+    @Before public void setUp() throws Exception {
+        System.setProperty(BufferPool.STEAL_NO_FORCE_PROPERTY, "true");
+        super.setUp();
+        for (int i = 0; i < FILES; i++) {
+            files[i] = File.createTempFile("redo", ".dat");
+            files[i].deleteOnExit();
+            new File(files[i].getPath() + HeapFile.FREE_SPACE_MAP_SUFFIX).deleteOnExit();
+            hfs[i] = Utility.createEmptyHeapFile(files[i].getAbsolutePath(), 2);
+        }
+        btreeFile = File.createTempFile("redo", ".btree");
+        btreeFile.deleteOnExit();
+        bf = BTreeUtility.createEmptyBTreeFile(btreeFile.getAbsolutePath(), 2, 0);
+    }
+
+    @After public void tearDown() {
+        System.clearProperty(BufferPool.STEAL_NO_FORCE_PROPERTY);
+        System.clearProperty(LogFile.REDO_THREADS_PROPERTY);
+        Database.reset();
+    }
+
+    private void insert(Transaction t, DbFile f, int first, int count) throws Exception {
+        for (int i = first; i < first + count; i++) {
+            Database.getBufferPool().insertTuple(t.getId(), f.getId(), Utility.getHeapTuple(i, 2));
+        }
+    }
+
+    private int count(DbFile f) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        DbFileIterator it = f.iterator(t.getId());
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        t.commit();
+        return count;
+    }
+
+    // simulate a crash: lose the buffer pool, then recover with the given number of threads
+    private void crash(int threads) throws IOException {
+        System.setProperty(LogFile.REDO_THREADS_PROPERTY, Integer.toString(threads));
+        Database.reset();
+        for (int i = 0; i < FILES; i++) {
+            hfs[i] = Utility.openHeapFile(2, files[i]);
+        }
+        bf = BTreeUtility.openBTreeFile(2, btreeFile, 0);
+        Database.getLogFile().recover();
+    }
+
+    private void check(int transactions) throws Exception {
+        for (HeapFile hf : hfs) {
+            assertEquals(transactions * TUPLES, count(hf));
+        }
+        assertEquals(transactions * TUPLES, count(bf));
+    }
+
+    @Test public void redoOnOneThread() throws Exception {
+        redo(1);
+    }
+
+    @Test public void redoOnSeveralThreads() throws Exception {
+        redo(4);
+    }
+
+    private void redo(int threads) throws Exception {
+        for (int i = 0; i < TRANSACTIONS; i++) {
+            Transaction t = new Transaction();
+            t.start();
+            for (HeapFile hf : hfs) {
+                insert(t, hf, i * TUPLES, TUPLES);
+            }
+            insert(t, bf, i * TUPLES, TUPLES);
+            t.commit();
+        }
+        crash(threads);
+        check(TRANSACTIONS);
+
+        // and redo that finds some of the pages already written
+        Transaction t = new Transaction();
+        t.start();
+        insert(t, hfs[1], -TUPLES, TUPLES);
+        t.commit();
+        crash(threads);
+        assertEquals((TRANSACTIONS + 1) * TUPLES, count(hfs[1]));
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ParallelRedoTest.class);
+    }
+}
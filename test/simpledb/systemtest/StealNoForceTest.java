@@ -0,0 +1,129 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.transaction.Transaction;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+/**
+ * Test the STEAL / NO FORCE buffer pool: transactions larger than the pool,
+ * commits that only write the log, and recovery of both.
+ */
+public class StealNoForceTest extends SimpleDbTestBase {
+
+    private static final int POOL_PAGES = 4;
+    private static final int TUPLES = 504 * 3 * POOL_PAGES;
+
+    private File file;
+    private HeapFile hf;
+
+    @Before public void setUp() throws Exception {
+        System.setProperty(BufferPool.STEAL_NO_FORCE_PROPERTY, "true");
+        super.setUp();
+        Database.resetBufferPool(POOL_PAGES);
+        file = File.createTempFile("steal", ".dat");
+        file.deleteOnExit();
+        new File(file.getPath() + HeapFile.FREE_SPACE_MAP_SUFFIX).deleteOnExit();
+        hf = Utility.createEmptyHeapFile(file.getAbsolutePath(), 2);
+    }
+
+    @After public void tearDown() {
+        System.clearProperty(BufferPool.STEAL_NO_FORCE_PROPERTY);
+    }
+
+    private void insert(Transaction t, int first, int count) throws Exception {
+        for (int i = first; i < first + count; i++) {
+            Database.getBufferPool().insertTuple(t.getId(), hf.getId(), Utility.getHeapTuple(i, 2));
+        }
+    }
+
+    private int count() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        DbFileIterator it = hf.iterator(t.getId());
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        t.commit();
+        return count;
+    }
+
+    // simulate a crash: lose the buffer pool, then run recovery
+    private void crash() throws IOException {
+        Database.reset();
+        Database.resetBufferPool(POOL_PAGES);
+        hf = Utility.openHeapFile(2, file);
+        Database.getLogFile().recover();
+    }
+
+    @Test public void updateLargerThanPool() throws Exception {
+        assertTrue(Database.getBufferPool().isStealNoForce());
+        Transaction t = new Transaction();
+        t.start();
+        insert(t, 0, TUPLES);
+        t.commit();
+        assertTrue(Database.getBufferPool().getEvictionCount() > 0);
+        assertEquals(TUPLES, count());
+    }
+
+    @Test public void commitOnlyWritesLog() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        insert(t, 0, 10);
+        t.commit();
+        HeapPage onDisk = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 0));
+        assertEquals(504, onDisk.getNumEmptySlots());
+
+        crash();
+        assertEquals(10, count());
+    }
+
+    @Test public void uncommittedStolenPagesAreUndone() throws Exception {
+        Transaction t1 = new Transaction();
+        t1.start();
+        insert(t1, 0, 10);
+        t1.commit();
+
+        Transaction t2 = new Transaction();
+        t2.start();
+        insert(t2, 10, TUPLES);
+
+        crash();
+        assertEquals(10, count());
+    }
+
+    @Test public void abortRestoresStolenPages() throws Exception {
+        Transaction t1 = new Transaction();
+        t1.start();
+        insert(t1, 0, 10);
+        t1.commit();
+
+        Transaction t2 = new Transaction();
+        t2.start();
+        insert(t2, 10, TUPLES);
+        t2.abort();
+        assertEquals(10, count());
+
+        crash();
+        assertEquals(10, count());
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(StealNoForceTest.class);
+    }
+}